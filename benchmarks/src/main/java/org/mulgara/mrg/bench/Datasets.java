@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.IndexedGraph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PackedGraphImpl;
+import org.mulgara.mrg.PackedIndexedGraph;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.WritableGraph;
+import org.mulgara.mrg.vocab.RDF;
+import org.mulgara.mrg.vocab.uri.XSD;
+
+/**
+ * Builds synthetic datasets and graphs for the benchmarks. Data is generated from a fixed seed,
+ * so every run of a benchmark sees the same triples.
+ * <p>
+ * Each subject has a type, and about 10 properties. Predicates are drawn from a small vocabulary,
+ * and objects are a mix of links to other subjects and plain, typed and language tagged literals.
+ * </p>
+ */
+public class Datasets {
+
+  /** The namespace for generated subjects. */
+  public static final String DATA_NS = "http://example.org/data/";
+
+  /** The namespace for generated predicates and classes. */
+  public static final String SCHEMA_NS = "http://example.org/schema#";
+
+  /** The number of distinct predicates. */
+  public static final int PREDICATES = 20;
+
+  /** The number of distinct classes. */
+  public static final int CLASSES = 8;
+
+  /** The seed for all generated data. */
+  private static final long SEED = 0x4D52474CL;
+
+  /**
+   * Generates a dataset.
+   * @param size The number of triples to generate.
+   * @return A list of distinct triples.
+   */
+  public static List<Triple> generate(int size) {
+    Random rnd = new Random(SEED);
+    int subjects = Math.max(1, size / 10);
+    List<Triple> triples = new ArrayList<Triple>(size);
+    for (int i = 0; i < size; i++) {
+      SubjectNode s = subject(i % subjects);
+      if (i < subjects) {
+        triples.add(new Triple(s, RDF.TYPE, schema("Class" + rnd.nextInt(CLASSES))));
+        continue;
+      }
+      // the predicate varies with i, so every triple is distinct
+      PredicateNode p = predicate((i / subjects) % PREDICATES);
+      ObjectNode o;
+      switch (rnd.nextInt(4)) {
+      case 0:
+        o = subject(rnd.nextInt(subjects));
+        break;
+      case 1:
+        o = new Literal("value " + i);
+        break;
+      case 2:
+        o = new Literal(Integer.toString(rnd.nextInt(1000)), XSD.INT);
+        break;
+      default:
+        o = new Literal("label " + i, "en");
+      }
+      triples.add(new Triple(s, p, o));
+    }
+    return triples;
+  }
+
+  /**
+   * Creates a graph of a named type.
+   * @param type The simple class name of the graph: GraphImpl, IndexedGraph, PackedGraphImpl or PackedIndexedGraph.
+   * @return A new, empty graph.
+   */
+  public static WritableGraph newGraph(String type) {
+    if ("GraphImpl".equals(type)) return new GraphImpl();
+    if ("IndexedGraph".equals(type)) return new IndexedGraph();
+    if ("PackedGraphImpl".equals(type)) return new PackedGraphImpl();
+    if ("PackedIndexedGraph".equals(type)) return new PackedIndexedGraph();
+    throw new IllegalArgumentException("Unknown graph type: " + type);
+  }
+
+  /**
+   * Creates a graph of a named type, holding a dataset.
+   * @param type The simple class name of the graph.
+   * @param triples The data for the graph.
+   * @return A new graph containing all the triples.
+   */
+  public static WritableGraph newGraph(String type, List<Triple> triples) {
+    WritableGraph graph = newGraph(type);
+    for (Triple t: triples) graph.insert(t);
+    return graph;
+  }
+
+  /**
+   * Gets a generated subject.
+   * @param i The number of the subject.
+   * @return The URI for the subject.
+   */
+  public static Uri subject(int i) {
+    return Uri.create(DATA_NS + "s" + i);
+  }
+
+  /**
+   * Gets a generated predicate.
+   * @param i The number of the predicate.
+   * @return The URI for the predicate.
+   */
+  public static Uri predicate(int i) {
+    return schema("p" + i);
+  }
+
+  /**
+   * Gets a URI in the schema namespace.
+   * @param name The local name.
+   * @return The URI.
+   */
+  public static Uri schema(String name) {
+    return Uri.create(SCHEMA_NS + name);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.bench;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.mulgara.util.LexicalDateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for parsing and formatting xsd:dateTime values. Parsing with the Joda ISO parser
+ * is included as a baseline for the cost of building calendar objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DateTimeBenchmark {
+
+  /** The seed for generating timestamps, so runs are repeatable. */
+  private static final long SEED = 0x4D52474CL;
+
+  /** The number of distinct timestamps. */
+  private static final int COUNT = 1024;
+
+  /** Timestamps in their lexical form. */
+  private String[] text;
+
+  /** Parsed timestamps. */
+  private LexicalDateTime[] values;
+
+  /** The Joda parser for the baseline. */
+  private DateTimeFormatter joda;
+
+  /** A buffer to format into. */
+  private final StringBuilder sb = new StringBuilder();
+
+  /** A byte buffer to format into. */
+  private final ByteBuffer bb = ByteBuffer.allocate(64);
+
+  /** The next timestamp to use. */
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() throws ParseException {
+    Random rnd = new Random(SEED);
+    text = new String[COUNT];
+    values = new LexicalDateTime[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      long millis = 1300000000000L + (rnd.nextLong() & 0xFFFFFFFFFL);
+      text[i] = new LexicalDateTime(millis, 0, 0, false, (byte)3, false, true).toString();
+      values[i] = LexicalDateTime.parseDateTime(text[i]);
+    }
+    joda = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+  }
+
+  @Benchmark
+  public LexicalDateTime parse() throws ParseException {
+    return LexicalDateTime.parseDateTime(text[next++ & (COUNT - 1)]);
+  }
+
+  @Benchmark
+  public Object parseJoda() {
+    return joda.parseDateTime(text[next++ & (COUNT - 1)]);
+  }
+
+  @Benchmark
+  public String format() {
+    return values[next++ & (COUNT - 1)].toString();
+  }
+
+  @Benchmark
+  public void formatInto(Blackhole bh) {
+    sb.setLength(0);
+    bh.consume(values[next++ & (COUNT - 1)].appendTo(sb));
+  }
+
+  @Benchmark
+  public void formatBytes(Blackhole bh) {
+    bb.clear();
+    bh.consume(values[next++ & (COUNT - 1)].appendTo(bb));
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.bench;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.WritableGraph;
+import org.mulgara.mrg.vocab.RDF;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for inserting, deleting and matching on each of the map based graphs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+
+  /** The type of graph to test. */
+  @Param({ "GraphImpl", "IndexedGraph", "PackedGraphImpl", "PackedIndexedGraph" })
+  public String graphType;
+
+  /** The number of triples in the graph. */
+  @Param({ "10000", "100000" })
+  public int size;
+
+  /** The generated data. */
+  private List<Triple> triples;
+
+  /** A graph holding the generated data. */
+  private WritableGraph graph;
+
+  /** A triple that is not in the data. */
+  private Triple extra;
+
+  /** The position of the next lookup in the data. */
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    triples = Datasets.generate(size);
+    graph = Datasets.newGraph(graphType, triples);
+    extra = new Triple(Datasets.subject(0), Datasets.predicate(Datasets.PREDICATES - 1), new Literal("extra"));
+  }
+
+  /**
+   * Gets a triple from the data, cycling through all of it.
+   * @return A triple that is in the graph.
+   */
+  private Triple nextTriple() {
+    Triple t = triples.get(next++);
+    if (next == triples.size()) next = 0;
+    return t;
+  }
+
+  /**
+   * Builds a complete graph from the data.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 10)
+  public Graph load() {
+    return Datasets.newGraph(graphType, triples);
+  }
+
+  /**
+   * Builds a complete graph from the data with a single bulk insert.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 10)
+  public Graph bulkLoad() {
+    WritableGraph g = Datasets.newGraph(graphType);
+    g.insertAll(triples.iterator());
+    return g;
+  }
+
+  /**
+   * Inserts a triple, and removes it again so the graph is unchanged.
+   */
+  @Benchmark
+  public boolean insertDelete() {
+    graph.insert(extra);
+    return graph.delete(extra);
+  }
+
+  /**
+   * Tests for a triple that is in the graph.
+   */
+  @Benchmark
+  public boolean contains() {
+    return graph.isAsserted(nextTriple());
+  }
+
+  /**
+   * Finds all the triples for a subject.
+   */
+  @Benchmark
+  public void matchSubject(Blackhole bh) {
+    drain(graph.match(nextTriple().getSubject(), null, null), bh);
+  }
+
+  /**
+   * Finds all the triples for a subject and predicate.
+   */
+  @Benchmark
+  public void matchSubjectPredicate(Blackhole bh) {
+    Triple t = nextTriple();
+    drain(graph.match(t.getSubject(), t.getPredicate(), null), bh);
+  }
+
+  /**
+   * Finds all the triples with a given object.
+   */
+  @Benchmark
+  public void matchObject(Blackhole bh) {
+    drain(graph.match(null, null, nextTriple().getObject()), bh);
+  }
+
+  /**
+   * Finds all the subjects of a type.
+   */
+  @Benchmark
+  public void subjectsOfType(Blackhole bh) {
+    Uri type = Datasets.schema("Class" + (next++ % Datasets.CLASSES));
+    bh.consume(graph.getSubjects(RDF.TYPE, type));
+  }
+
+  /**
+   * Scans every triple in the graph.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void matchAll(Blackhole bh) {
+    drain(graph.match(null, null, null), bh);
+  }
+
+  /**
+   * Consumes every triple from an iterator.
+   * @param i The iterator.
+   * @param bh The sink for the triples.
+   */
+  static void drain(Iterator<Triple> i, Blackhole bh) {
+    while (i.hasNext()) bh.consume(i.next());
+  }
+
+}
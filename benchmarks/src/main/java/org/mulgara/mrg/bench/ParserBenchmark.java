@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.parser.BinaryParser;
+import org.mulgara.mrg.parser.N3GraphParser;
+import org.mulgara.mrg.parser.XMLGraphParser;
+import org.mulgara.mrg.writer.BinaryWriter;
+import org.mulgara.mrg.writer.N3Writer;
+import org.mulgara.mrg.writer.XMLWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for parsing N3, RDF/XML and the binary format. Each benchmark parses a whole document, either
+ * into a graph, or into a sink that only consumes the triples, to separate the parsing cost
+ * from the cost of building the graph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParserBenchmark {
+
+  /** The number of triples in the document. */
+  @Param({ "10000", "100000" })
+  public int size;
+
+  /** The data as N3. */
+  private byte[] n3;
+
+  /** The data as RDF/XML. */
+  private byte[] xml;
+
+  /** The data in the binary format. */
+  private byte[] binary;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Graph graph = new GraphImpl(Datasets.generate(size));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new N3Writer(graph, null).writeTo(out);
+    n3 = out.toByteArray();
+    out = new ByteArrayOutputStream();
+    new XMLWriter(graph, null).writeTo(out);
+    xml = out.toByteArray();
+    out = new ByteArrayOutputStream();
+    new BinaryWriter(graph).writeTo(out);
+    binary = out.toByteArray();
+  }
+
+  @Benchmark
+  public Graph n3ToGraph() throws Exception {
+    return new N3GraphParser(new ByteArrayInputStream(n3)).getGraph();
+  }
+
+  @Benchmark
+  public void n3ToSink(Blackhole bh) throws Exception {
+    new N3GraphParser(new ByteArrayInputStream(n3), new ConsumingSink(bh));
+  }
+
+  @Benchmark
+  public Graph xmlToGraph() throws Exception {
+    return new XMLGraphParser(new ByteArrayInputStream(xml)).getGraph();
+  }
+
+  @Benchmark
+  public void xmlToSink(Blackhole bh) throws Exception {
+    new XMLGraphParser(new ByteArrayInputStream(xml), new ConsumingSink(bh));
+  }
+
+  @Benchmark
+  public Graph binaryToGraph() throws Exception {
+    return new BinaryParser(binary).getGraph();
+  }
+
+  @Benchmark
+  public void binaryToSink(Blackhole bh) throws Exception {
+    new BinaryParser(binary, new ConsumingSink(bh));
+  }
+
+  /**
+   * A sink that passes every triple to a blackhole.
+   */
+  static class ConsumingSink implements TripleSink {
+    private final Blackhole bh;
+    ConsumingSink(Blackhole bh) { this.bh = bh; }
+    public void start() { }
+    public void prefix(String prefix, String namespace) { }
+    public void triple(SubjectNode s, PredicateNode p, ObjectNode o) { bh.consume(new Triple(s, p, o)); }
+    public void end() { }
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.bench;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.writer.BinaryWriter;
+import org.mulgara.mrg.writer.N3Writer;
+import org.mulgara.mrg.writer.XMLWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for writing a graph as N3, RDF/XML and the binary format. Output goes to a stream that discards
+ * the data, so only the cost of serialization is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WriterBenchmark {
+
+  /** The type of graph to write from. */
+  @Param({ "GraphImpl", "IndexedGraph" })
+  public String graphType;
+
+  /** The number of triples in the graph. */
+  @Param({ "10000", "100000" })
+  public int size;
+
+  /** The graph to write. */
+  private Graph graph;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    graph = Datasets.newGraph(graphType, Datasets.generate(size));
+  }
+
+  @Benchmark
+  public void n3(Blackhole bh) {
+    new N3Writer(graph, null).writeTo(new NullOutputStream(bh));
+  }
+
+  @Benchmark
+  public void xml(Blackhole bh) {
+    new XMLWriter(graph, null).writeTo(new NullOutputStream(bh));
+  }
+
+  @Benchmark
+  public void binary(Blackhole bh) throws Exception {
+    new BinaryWriter(graph).writeTo(new NullOutputStream(bh));
+  }
+
+  @Benchmark
+  public void binaryDeflated(Blackhole bh) throws Exception {
+    new BinaryWriter(graph, true).writeTo(new NullOutputStream(bh));
+  }
+
+  /**
+   * A stream that passes all data to a blackhole.
+   */
+  static class NullOutputStream extends OutputStream {
+    private final Blackhole bh;
+    NullOutputStream(Blackhole bh) { this.bh = bh; }
+    public void write(int b) { bh.consume(b); }
+    public void write(byte[] b, int off, int len) { bh.consume(b); }
+  }
+
+}
@@ -20,14 +20,17 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.mulgara.mrg.writer.GraphWriter;
@@ -47,7 +50,7 @@ import static org.mulgara.mrg.vocab.RDF.*;
  * to be more efficiently implemented. An example of this is shown in {@link IndexedGraph}.
  * TODO: test objects on insertion to avoid storing duplicate nodes
  */
-public abstract class AbstractGraph extends AbstractGraphExt implements Graph, WritableGraph {
+public abstract class AbstractGraph extends AbstractGraphExt implements Graph, WritableGraph, GraphStatistics {
 
   /** The spo index */
   ThreeTierIndex<SubjectNode,PredicateNode,ObjectNode> spo = new ThreeTierIndex<SubjectNode,PredicateNode,ObjectNode>();
@@ -55,6 +58,16 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
   /** A functional closure that constructs PropertyValues */
   private static final PropValFactory propValFactory = new PropValFactory();
 
+  /** The cache used to share nodes between triples. <code>null</code> if nodes are stored as they are given. */
+  private NodeCache nodeCache = null;
+
+  /** The ordering of triples for the spo index. */
+  static final Permutation<SubjectNode,PredicateNode,ObjectNode> SPO = new Permutation<SubjectNode,PredicateNode,ObjectNode>() {
+    SubjectNode first(Triple t) { return t.getSubject(); }
+    PredicateNode second(Triple t) { return t.getPredicate(); }
+    ObjectNode third(Triple t) { return t.getObject(); }
+  };
+
   /**
    * Default constructor for an empty graph.
    */
@@ -65,7 +78,24 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    * @param triples The initial triples for the graph.
    */
   public AbstractGraph(Collection<Triple> triples) {
-    for (Triple t: triples) insert(t);
+    insertAll(triples.iterator());
+  }
+
+  /**
+   * Sets a cache for sharing nodes between inserted triples. Equal nodes from different
+   * triples are then stored as a single object. This is off by default.
+   * @param nodeCache The cache to use, or <code>null</code> to store nodes as they are given.
+   */
+  public void setNodeCache(NodeCache nodeCache) {
+    this.nodeCache = nodeCache;
+  }
+
+  /**
+   * Gets the cache used for sharing nodes between inserted triples.
+   * @return The node cache, or <code>null</code> if there is none.
+   */
+  public NodeCache getNodeCache() {
+    return nodeCache;
   }
 
   /**
@@ -76,6 +106,23 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    * @return <code>true</code> if the triple was not already in the graph.
    */
   public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    if (nodeCache != null) {
+      s = nodeCache.intern(s);
+      p = nodeCache.intern(p);
+      o = nodeCache.intern(o);
+    }
+    return insertNodes(s, p, o);
+  }
+
+  /**
+   * Adds a new triple to each index, after the nodes have been shared through the node cache.
+   * Subclasses with extra indexes extend this.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  protected boolean insertNodes(SubjectNode s, PredicateNode p, ObjectNode o) {
     return spo.put(s, p, o);
   }
 
@@ -88,6 +135,35 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     return insert(triple.getSubject(), triple.getPredicate(), triple.getObject());
   }
 
+  /**
+   * Adds a set of triples to the graph. The triples are sorted for each index, so each
+   * index is built in a single pass, with one lookup for every run of shared keys.
+   * @param triples The triples to add.
+   * @return The number of triples that were not already in the graph.
+   */
+  public long insertAll(Iterator<Triple> triples) {
+    List<Triple> batch = new ArrayList<Triple>();
+    while (triples.hasNext()) {
+      Triple t = triples.next();
+      if (nodeCache != null) {
+        t = new Triple(nodeCache.intern(t.getSubject()), nodeCache.intern(t.getPredicate()), nodeCache.intern(t.getObject()));
+      }
+      batch.add(t);
+    }
+    if (batch.isEmpty()) return 0L;
+    return bulkInsert(batch.toArray(new Triple[batch.size()]));
+  }
+
+  /**
+   * Adds an array of triples to each index. Subclasses with extra indexes extend this.
+   * @param triples The triples to add. This array is reordered.
+   * @return The number of triples that were not already in the graph.
+   */
+  protected long bulkInsert(Triple[] triples) {
+    Arrays.sort(triples, SPO);
+    return spo.putAll(triples, SPO);
+  }
+
   /**
    * Adds the contents of another graph to this one, creating new blank nodes as required
    * (not re-using the blank nodes from the original graph).
@@ -128,7 +204,7 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    * @return The current graph, after modification.
    */
   public Graph unionInto(Graph g) {
-    for (Triple t: g.getTriples()) insert(t);
+    insertAll(g.getTriples().iterator());
     return this;
   }
 
@@ -149,7 +225,7 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    * @return <code>true</code> if the triple was already in the graph.
    */
   public boolean delete(Triple triple) {
-    return spo.remove(triple.getSubject(), triple.getPredicate(), triple.getObject());
+    return delete(triple.getSubject(), triple.getPredicate(), triple.getObject());
   }
 
   /**
@@ -382,13 +458,15 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    * Find all triples that match a given pattern. The resulting iterator is live, and can
    * lead to a {@link java.util.ConcurrentModificationException} if the graph is modified.
    * If this is a possibility, then use {@link #matchSubgraph(SubjectNode, PredicateNode, ObjectNode)} instead.
-   * @param s The subject of the triples to match. If <code>null</code> that all subjects match.
-   * @param p The predicate of the triple to add. If <code>null</code> that all predicates match.
-   * @param o The object of the triple to add. If <code>null</code> that all objects match.
+   * The spo index is walked lazily, going directly to a bound subject or predicate, so only
+   * the matching triples are ever created.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
    * @return An Iterator on the matching triples.
    */
   public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
-    return new FilteredIterator(s, p, o, getTriples());
+    return new SpoIterator(s == Graph.X ? null : s, p == Graph.X ? null : p, o == Graph.X ? null : o);
   }
 
   /**
@@ -423,6 +501,65 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     return spo.isEmpty();
   }
 
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long getTripleCount() {
+    return size();
+  }
+
+  /**
+   * Gets the number of distinct subjects, from the spo index.
+   * @return The number of subjects.
+   */
+  public long getSubjectCount() {
+    return spo.getKeyCount();
+  }
+
+  /**
+   * Predicates are not counted without a pos index.
+   * @return {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getPredicateCount() {
+    return UNKNOWN;
+  }
+
+  /**
+   * Objects are not counted without an osp index.
+   * @return {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getObjectCount() {
+    return UNKNOWN;
+  }
+
+  /**
+   * Gets the number of triples with a given subject, from the spo index.
+   * @param s The subject to count.
+   * @return The number of triples.
+   */
+  public long getSubjectFanOut(SubjectNode s) {
+    return spo.get(s).size();
+  }
+
+  /**
+   * Predicates are not counted without a pos index.
+   * @param p The predicate to count.
+   * @return {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getPredicateFanOut(PredicateNode p) {
+    return UNKNOWN;
+  }
+
+  /**
+   * Objects are not counted without an osp index.
+   * @param o The object to count.
+   * @return {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getObjectFanOut(ObjectNode o) {
+    return UNKNOWN;
+  }
+
   /**
    * Defines the map type to use in this implementation.
    * @return an instance of a Map.
@@ -435,6 +572,36 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    */
   protected abstract <X> Collection<X> createCollection();
 
+  /**
+   * Defines the map type to use in this implementation, for an expected number of entries.
+   * By default the size is ignored.
+   * @param size The number of entries the map is expected to hold.
+   * @return an instance of a Map.
+   */
+  protected <X,Y> Map<X,Y> createMap(int size) {
+    return createMap();
+  }
+
+  /**
+   * Defines the collection type to use in this implementation, for an expected number of entries.
+   * By default the size is ignored.
+   * @param size The number of entries the collection is expected to hold.
+   * @return an instance of a Collection.
+   */
+  protected <X> Collection<X> createCollection(int size) {
+    return createCollection();
+  }
+
+  /**
+   * Calculates the initial capacity of a hashed collection, so that an expected number of entries
+   * will fit without rehashing at the default load factor.
+   * @param size The number of entries expected.
+   * @return The capacity to create the collection with.
+   */
+  static int capacity(int size) {
+    return size < 3 ? size + 1 : (int)Math.min((long)size * 4 / 3 + 1, Integer.MAX_VALUE);
+  }
+
   /**
    * An abstraction of the structure of mapping a value to a map of values to a collection.
    * Set to package scope.
@@ -443,6 +610,9 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     /** The map that serves as the index. */
     private Map<A,TwoTierIndex<B,C>> index = createMap();
 
+    /** The number of triples in the index. Maintained on every put and remove. */
+    private long count = 0L;
+
     /** An empty index used when no data is available. */
     private final TwoTierIndex<B,C> EMPTY = new EmptyTwoTier<B,C>();
 
@@ -469,7 +639,40 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
         i = new TwoTierIndex<B,C>();
         index.put(a, i);
       }
-      return i.put(b, c);
+      boolean result = i.put(b, c);
+      if (result) count++;
+      return result;
+    }
+
+    /**
+     * Puts an array of triples into the index. An empty index is first resized to fit the keys.
+     * @param triples The triples to add, sorted by the order of this index.
+     * @param order The order of this index.
+     * @return The number of triples that were not already in the index.
+     */
+    public long putAll(Triple[] triples, Permutation<A,B,C> order) {
+      if (index.isEmpty()) {
+        int keys = 0;
+        for (int i = 0; i < triples.length; i = order.endOfFirst(triples, i)) keys++;
+        index = createMap(keys);
+      }
+      long added = 0L;
+      int i = 0;
+      while (i < triples.length) {
+        int end = order.endOfFirst(triples, i);
+        A a = order.first(triples[i]);
+        TwoTierIndex<B,C> ti = index.get(a);
+        if (ti == null) {
+          int keys = 0;
+          for (int j = i; j < end; j = order.endOfSecond(triples, j, end)) keys++;
+          ti = new TwoTierIndex<B,C>(keys);
+          index.put(a, ti);
+        }
+        added += ti.putAll(triples, i, end, order);
+        i = end;
+      }
+      count += added;
+      return added;
     }
 
     /**
@@ -483,6 +686,7 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
       TwoTierIndex<B,C> i = index.get(a);
       if (i == null) return false;
       boolean result = i.remove(b, c);
+      if (result) count--;
       if (i.isEmpty()) index.remove(a);
       return result;
     }
@@ -503,7 +707,7 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
      */
     public List<Trio<A,B,C>> getEntries() {
       if (index.isEmpty()) return Collections.emptyList();
-      List<Trio<A,B,C>> result = new ArrayList<Trio<A,B,C>>();
+      List<Trio<A,B,C>> result = new ArrayList<Trio<A,B,C>>((int)Math.min(count, Integer.MAX_VALUE));
       for (Map.Entry<A,TwoTierIndex<B,C>> entry: index.entrySet()) {
         A key = entry.getKey();
         for (Pair<B,C> pair: entry.getValue().getEntries()) {
@@ -514,13 +718,11 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     }
 
     /**
-     * Returns the number of virtual triples in this index.
+     * Returns the number of virtual triples in this index. This is counted as triples are added and removed.
      * @return the number of triples to be returned from getEntries().size()
      */
     public long size() {
-      long accumulator = 0L;
-      for (TwoTierIndex<B,C> value: index.values()) accumulator += value.size();
-      return accumulator;
+      return count;
     }
 
     /**
@@ -531,6 +733,14 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
       return index.isEmpty();
     }
 
+    /**
+     * Returns the number of distinct keys in the first level of this index.
+     * @return the number of keys.
+     */
+    public long getKeyCount() {
+      return index.size();
+    }
+
     /**
      * Returns the internal entries from this index, in their raw form. For internal use within the outer class.
      * @return a List of Trio objects containing the first, second and third level of the index.
@@ -558,6 +768,9 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     /** The map that serves as the index. */
     private final Map<A,Collection<B>> index;
 
+    /** The number of pairs in the index. Maintained on every put and remove. */
+    private int count = 0;
+
     private final PairFactory<A,B> pairFactory = new PairFactory<A,B>() {
       public Pair<A,B> call(A a, B b) { return new Pair<A,B>(a, b); }
     };
@@ -569,6 +782,14 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
       index = init();
     }
 
+    /**
+     * Create a new index, sized for an expected number of keys.
+     * @param size The number of keys the index is expected to hold.
+     */
+    public TwoTierIndex(int size) {
+      index = createMap(size);
+    }
+
     /**
      * Creates the index object.
      * @return A new Map object.
@@ -637,10 +858,40 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
       } else {
         result = !s.contains(value);
       }
-      if (result) s.add(value);
+      if (result) {
+        s.add(value);
+        count++;
+      }
       return result;
     }
 
+    /**
+     * Adds the second and third elements from a range of triples to the index.
+     * @param triples The triples to add from, sorted by the order of the outer index.
+     * @param from The first triple to add.
+     * @param to The end of the range to add. This triple is not included.
+     * @param order The order of the outer index.
+     * @return The number of pairs that were not already in the index.
+     */
+    public int putAll(Triple[] triples, int from, int to, Permutation<?,A,B> order) {
+      int added = 0;
+      int i = from;
+      while (i < to) {
+        int end = order.endOfSecond(triples, i, to);
+        A key = order.second(triples[i]);
+        Collection<B> s = index.get(key);
+        if (s == null) {
+          s = createCollection(end - i);
+          index.put(key, s);
+        }
+        for (; i < end; i++) {
+          if (s.add(order.third(triples[i]))) added++;
+        }
+      }
+      count += added;
+      return added;
+    }
+
     /**
      * Removes a key/value from the index.
      * @param key The key of the tuple.
@@ -651,6 +902,7 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
       Collection<B> s = index.get(key);
       if (s == null) return false;
       boolean result = s.remove(value);
+      if (result) count--;
       if (s.isEmpty()) index.remove(key);
       return result;
     }
@@ -664,13 +916,11 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     }
 
     /**
-     * Returns the size of the virtual pairs in the index.
+     * Returns the size of the virtual pairs in the index. This is counted as pairs are added and removed.
      * @return the size of the pairs in this index.
      */
     public long size() {
-      long accumulator = 0L;
-      for (Collection<B> value: index.values()) accumulator += value.size();
-      return accumulator;
+      return count;
     }
 
     /**
@@ -688,6 +938,72 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     protected Map<A,Collection<B>> init() { return Collections.emptyMap(); }
   }
 
+  /**
+   * An ordering of the elements of triples, for sorting triples into the order of an index.
+   * Nodes are ordered by hash code first, as this only needs to bring equal nodes together.
+   */
+  static abstract class Permutation<A extends Node, B extends Node, C extends Node> implements Comparator<Triple> {
+    /** Gets the first level element of a triple. */
+    abstract A first(Triple t);
+
+    /** Gets the second level element of a triple. */
+    abstract B second(Triple t);
+
+    /** Gets the third level element of a triple. */
+    abstract C third(Triple t);
+
+    /**
+     * Compares triples on their first and second elements.
+     * @param x The first triple to compare.
+     * @param y The second triple to compare.
+     * @return a negative number, zero or a positive number when x is before, equal to, or after y.
+     */
+    public int compare(Triple x, Triple y) {
+      int c = compareNodes(first(x), first(y));
+      return c != 0 ? c : compareNodes(second(x), second(y));
+    }
+
+    /**
+     * Finds the end of a run of triples that share a first element.
+     * @param triples The sorted triples.
+     * @param start The start of the run.
+     * @return The position after the last triple in the run.
+     */
+    int endOfFirst(Triple[] triples, int start) {
+      A a = first(triples[start]);
+      int end = start + 1;
+      while (end < triples.length && a.equals(first(triples[end]))) end++;
+      return end;
+    }
+
+    /**
+     * Finds the end of a run of triples that share a second element, inside a run of the first element.
+     * @param triples The sorted triples.
+     * @param start The start of the run.
+     * @param limit The end of the run of the first element.
+     * @return The position after the last triple in the run.
+     */
+    int endOfSecond(Triple[] triples, int start, int limit) {
+      B b = second(triples[start]);
+      int end = start + 1;
+      while (end < limit && b.equals(second(triples[end]))) end++;
+      return end;
+    }
+
+    /**
+     * Compares nodes by hash code, and then by their natural order.
+     * @param x The first node to compare.
+     * @param y The second node to compare.
+     * @return a negative number, zero or a positive number when x is before, equal to, or after y.
+     */
+    private static int compareNodes(Node x, Node y) {
+      int hx = x.hashCode();
+      int hy = y.hashCode();
+      if (hx != hy) return hx < hy ? -1 : 1;
+      return x.equals(y) ? 0 : x.compareTo(y);
+    }
+  }
+
   /** Signature of a functional closure for constructing Pairs. */
   private interface PairFactory<A,B> extends Fn2<A,B,Pair<A,B>> { }
 
@@ -698,6 +1014,148 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
     }
   }
 
+  /**
+   * Iterates lazily over the triples in the spo index that match a pattern.
+   * A bound subject or predicate is looked up directly, rather than scanned for,
+   * and a bound object is tested for in each collection of objects.
+   */
+  private class SpoIterator implements Iterator<Triple> {
+
+    /** The subject of the pattern, or <code>null</code> if unbound. */
+    private final SubjectNode s;
+
+    /** The predicate of the pattern, or <code>null</code> if unbound. */
+    private final PredicateNode p;
+
+    /** The object of the pattern, or <code>null</code> if unbound. */
+    private final ObjectNode o;
+
+    /** The iterator over the subjects of the index. <code>null</code> if the subject is bound. */
+    private final Iterator<Map.Entry<SubjectNode,TwoTierIndex<PredicateNode,ObjectNode>>> subjects;
+
+    /** Indicates that the bound subject has been visited. */
+    private boolean subjectDone = false;
+
+    /** The current subject. */
+    private SubjectNode currentS;
+
+    /** The predicate/object index for the current subject. */
+    private TwoTierIndex<PredicateNode,ObjectNode> currentPo;
+
+    /** The iterator over the predicates of the current subject. Not used if the predicate is bound. */
+    private Iterator<Map.Entry<PredicateNode,Collection<ObjectNode>>> predicates = Collections.<Map.Entry<PredicateNode,Collection<ObjectNode>>>emptyList().iterator();
+
+    /** Indicates that the bound predicate has been visited for the current subject. */
+    private boolean predicateDone = true;
+
+    /** The current predicate. */
+    private PredicateNode currentP;
+
+    /** The iterator over the objects for the current subject and predicate. */
+    private Iterator<ObjectNode> objects = Collections.<ObjectNode>emptySet().iterator();
+
+    /** The next triple to return. */
+    private Triple nextTriple;
+
+    /**
+     * Creates an iterator for a pattern.
+     * @param s The subject of the pattern, or <code>null</code>.
+     * @param p The predicate of the pattern, or <code>null</code>.
+     * @param o The object of the pattern, or <code>null</code>.
+     */
+    SpoIterator(SubjectNode s, PredicateNode p, ObjectNode o) {
+      this.s = s;
+      this.p = p;
+      this.o = o;
+      subjects = (s == null) ? spo.getRawEntries().iterator() : null;
+      nextTriple = findNext();
+    }
+
+    /**
+     * Returns <code>true</code> if the iterator has more elements.
+     * @return <code>true</code> if the iterator has more elements.
+     */
+    public boolean hasNext() {
+      return nextTriple != null;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public Triple next() {
+      if (nextTriple == null) throw new NoSuchElementException();
+      Triple result = nextTriple;
+      nextTriple = findNext();
+      return result;
+    }
+
+    /**
+     * Since the iterator reads ahead, and removing a value can have ripple effects
+     * on the higher levels of the index, this operation is not being supported.
+     * @throws UnsupportedOperationException Due to complexity in handling.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the next matching triple.
+     * @return The next triple, or <code>null</code> if nothing is left.
+     */
+    private Triple findNext() {
+      while (true) {
+        if (objects.hasNext()) return new Triple(currentS, currentP, objects.next());
+        if (!nextPredicate() && !nextSubject()) return null;
+      }
+    }
+
+    /**
+     * Moves to the next subject, and resets the predicates to iterate over.
+     * @return <code>true</code> if there was another subject.
+     */
+    private boolean nextSubject() {
+      if (s != null) {
+        if (subjectDone) return false;
+        subjectDone = true;
+        currentS = s;
+        currentPo = spo.get(s);
+      } else {
+        if (!subjects.hasNext()) return false;
+        Map.Entry<SubjectNode,TwoTierIndex<PredicateNode,ObjectNode>> entry = subjects.next();
+        currentS = entry.getKey();
+        currentPo = entry.getValue();
+      }
+      if (p == null) predicates = currentPo.entryIterator();
+      else predicateDone = false;
+      return true;
+    }
+
+    /**
+     * Moves to the next predicate of the current subject, and resets the objects to iterate over.
+     * @return <code>true</code> if there was another predicate.
+     */
+    private boolean nextPredicate() {
+      Collection<ObjectNode> os;
+      if (p != null) {
+        if (predicateDone) return false;
+        predicateDone = true;
+        currentP = p;
+        os = currentPo.get(p);
+      } else {
+        if (!predicates.hasNext()) return false;
+        Map.Entry<PredicateNode,Collection<ObjectNode>> entry = predicates.next();
+        currentP = entry.getKey();
+        os = entry.getValue();
+      }
+      if (o == null) objects = os.iterator();
+      else if (os.contains(o)) objects = Collections.singleton(o).iterator();
+      else objects = Collections.<ObjectNode>emptySet().iterator();
+      return true;
+    }
+  }
+
   /**
    * Creates a new instance of the current Graph type.
    * On error, will just return a simple GraphImpl.
@@ -705,8 +1163,10 @@ public abstract class AbstractGraph extends AbstractGraphExt implements Graph, W
    */
   private AppendableGraph createSelf() {
     try {
-      return getClass().newInstance();
-    } catch (Exception e) {
+      return getClass().getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      return new GraphImpl();
+    } catch (SecurityException e) {
       return new GraphImpl();
     }
   }
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.mulgara.mrg.writer.GraphWriter;
+import org.mulgara.mrg.writer.N3Writer;
+import org.mulgara.mrg.writer.XMLWriter;
+
+import static org.mulgara.mrg.vocab.RDF.*;
+
+/**
+ * A graph where every read operation is defined in terms of {@link #match(SubjectNode, PredicateNode, ObjectNode)}.
+ * This is used by graphs that do not store their data in {@link AbstractGraph.ThreeTierIndex} structures.
+ * Implementations only need to provide <code>match</code> and <code>size</code>, though any method may be
+ * overridden where the underlying storage can do better.
+ */
+public abstract class AbstractMatchGraph extends AbstractGraphExt implements Graph {
+
+  /**
+   * Find all triples that match a given pattern.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public abstract Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o);
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public abstract long size();
+
+  /**
+   * Tests if the graph has any entries.
+   * @return <code>true</code> if there are no entries.
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Tests if a triple has been asserted. Be careful of blank nodes, as
+   * they will only match if they are exactly alike.
+   * @param t The triple to test for.
+   * @return <code>true</code> only if the triple exists in the graph.
+   */
+  public boolean isAsserted(Triple t) {
+    return isAsserted(t.getSubject(), t.getPredicate(), t.getObject());
+  }
+
+  /**
+   * Tests if a triple has been asserted. Be careful of blank nodes, as
+   * they will only match if they are exactly alike.
+   * @param s The subject of the triple to search for.
+   * @param p The predicate of the triple to search for.
+   * @param o The object of the triple to search for.
+   * @return <code>true</code> only if the triple exists in the graph.
+   */
+  public boolean isAsserted(SubjectNode s, PredicateNode p, ObjectNode o) {
+    return match(s, p, o).hasNext();
+  }
+
+  /**
+   * Tests if a resource exists anywhere in the graph.
+   * @param r The resource to test.
+   * @return <code>true</code> only if the resource is used somewhere in the graph.
+   */
+  public boolean doesResourceExist(Node r) {
+    if (r instanceof SubjectNode && match((SubjectNode)r, null, null).hasNext()) return true;
+    if (r instanceof PredicateNode && match(null, (PredicateNode)r, null).hasNext()) return true;
+    return r instanceof ObjectNode && match(null, null, (ObjectNode)r).hasNext();
+  }
+
+  /**
+   * Gets all the properties for a given subject.
+   * @param s The subject.
+   * @return A list of property/value pairs.
+   */
+  public List<PropertyValue> getProperties(SubjectNode s) {
+    Iterator<Triple> i = match(s, null, null);
+    if (!i.hasNext()) return Collections.emptyList();
+    List<PropertyValue> result = new ArrayList<PropertyValue>();
+    while (i.hasNext()) {
+      Triple t = i.next();
+      result.add(new PropertyValue(t.getPredicate(), t.getObject()));
+    }
+    return result;
+  }
+
+  /**
+   * Gets all the values for a given property on a subject.
+   * @param s The subject to get the properties for.
+   * @param p The property of interest.
+   * @return The list of values for the property on that subject.
+   */
+  public List<ObjectNode> getValues(SubjectNode s, PredicateNode p) {
+    Iterator<Triple> i = match(s, p, null);
+    if (!i.hasNext()) return Collections.emptyList();
+    List<ObjectNode> result = new ArrayList<ObjectNode>();
+    while (i.hasNext()) result.add(i.next().getObject());
+    return result;
+  }
+
+  /**
+   * Gets a single value for a given property on a subject.
+   * @param s The subject to get the properties for.
+   * @param p The property of interest.
+   * @return The first values for the property on that subject.
+   */
+  public ObjectNode getValue(SubjectNode s, PredicateNode p) {
+    Iterator<Triple> i = match(s, p, null);
+    return i.hasNext() ? i.next().getObject() : null;
+  }
+
+  /**
+   * Gets an rdf:List property from an object. If more than one
+   * value exists for this property, then returns the first and assumes it's a list.
+   * @param s The subject to get the property for.
+   * @param p The property of interest.
+   * @return The list associates with the property on that subject.
+   */
+  public List<ObjectNode> getRdfList(SubjectNode s, PredicateNode p) {
+    return getList(getValue(s, p));
+  }
+
+  /**
+   * Get an RDF list from an object node that is refered to as being of type rdf:List
+   * @param head The head of the list. This came from the object of a statement.
+   *             If invalid as a list, then an empty list is returned.
+   * @return The contents of the RDF list.
+   */
+  private List<ObjectNode> getList(ObjectNode head) {
+    List<ObjectNode> result;
+    if (head instanceof SubjectNode) {
+      SubjectNode h = (SubjectNode)head;
+      ObjectNode headData = getValue(h, FIRST);
+      if (headData == null) {
+        result = new LinkedList<ObjectNode>();
+      } else {
+        result = getList(getValue(h, REST));
+        ((LinkedList<ObjectNode>)result).addFirst(headData);
+      }
+    } else {
+      result = Collections.emptyList();
+    }
+    return result;
+  }
+
+  /**
+   * Gets all the subjects that share a given property/value.
+   * @param property The property being looked for.
+   * @param value The value being looked for.
+   * @return The subjects that have the value for the property.
+   */
+  public List<SubjectNode> getSubjects(PredicateNode property, ObjectNode value) {
+    List<SubjectNode> results = new LinkedList<SubjectNode>();
+    Iterator<Triple> i = match(null, property, value);
+    while (i.hasNext()) results.add(i.next().getSubject());
+    return results;
+  }
+
+  /**
+   * Gets all the subjects in the graph.
+   * @return All the subjects in the graph.
+   */
+  public Collection<SubjectNode> getSubjects() {
+    Set<SubjectNode> subjects = new LinkedHashSet<SubjectNode>();
+    Iterator<Triple> i = match(null, null, null);
+    while (i.hasNext()) subjects.add(i.next().getSubject());
+    return subjects;
+  }
+
+  /**
+   * Gets all the predicates in the graph.
+   * @return All the predicatess in the graph.
+   */
+  public Collection<PredicateNode> getPredicates() {
+    Set<PredicateNode> predicates = new LinkedHashSet<PredicateNode>();
+    Iterator<Triple> i = match(null, null, null);
+    while (i.hasNext()) predicates.add(i.next().getPredicate());
+    return predicates;
+  }
+
+  /**
+   * Gets all the objects in the graph.
+   * @return All the objects in the graph.
+   */
+  public Collection<ObjectNode> getObjects() {
+    Set<ObjectNode> objects = new LinkedHashSet<ObjectNode>();
+    Iterator<Triple> i = match(null, null, null);
+    while (i.hasNext()) objects.add(i.next().getObject());
+    return objects;
+  }
+
+  /**
+   * Gets the entire graph as a list of triples.
+   * @return All the triples in the graph.
+   */
+  public List<Triple> getTriples() {
+    List<Triple> results = new ArrayList<Triple>();
+    Iterator<Triple> i = match(null, null, null);
+    while (i.hasNext()) results.add(i.next());
+    return results;
+  }
+
+  /**
+   * Writes the contents of the graph to an output stream as N3.
+   * @param out The stream to write to.
+   */
+  public void exportN3(OutputStream out) throws IOException {
+    exportN3(out, null);
+  }
+
+  /**
+   * Writes the contents of the graph to an output stream as N3.
+   * @param out The stream to write to.
+   * @param base The base to write to.
+   */
+  public void exportN3(OutputStream out, URI base) throws IOException {
+    GraphWriter writer = new N3Writer(this, base);
+    writer.scanNamespaces();
+    writer.writeTo(out);
+  }
+
+  /**
+   * Writes the contents of the graph to an output stream as RDF/XML.
+   * @param out The stream to write to.
+   */
+  public void exportXML(OutputStream out) throws IOException {
+    exportXML(out, null);
+  }
+
+  /**
+   * Writes the contents of the graph to an output stream as RDF/XML.
+   * @param out The stream to write to.
+   * @param base The base to write to.
+   */
+  public void exportXML(OutputStream out, URI base) throws IOException {
+    GraphWriter writer = new XMLWriter(this, base);
+    writer.scanNamespaces();
+    writer.writeTo(out);
+  }
+
+  /**
+   * Returns a subgraph of this graph that only contains the triples that match a given pattern.
+   * This method copies all of the required triples. To avoid the overhead of this operation, use
+   * {@link #match(SubjectNode, PredicateNode, ObjectNode)} instead.
+   * @param s The subject of the triples to match. If <code>null</code> that all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> that all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> that all objects match.
+   * @return A Graph containing only the matching triples.
+   */
+  public Graph matchSubgraph(SubjectNode s, PredicateNode p, ObjectNode o) {
+    AppendableGraph g = createSubgraph();
+    Iterator<Triple> data = match(s, p, o);
+    while (data.hasNext()) g.insert(data.next());
+    return g;
+  }
+
+  /**
+   * Creates an empty graph to hold the results of {@link #matchSubgraph(SubjectNode, PredicateNode, ObjectNode)}.
+   * By default this is a new instance of the current Graph type, or a simple GraphImpl if that fails.
+   * @return A empty graph to be populated.
+   */
+  protected AppendableGraph createSubgraph() {
+    try {
+      Object g = getClass().getDeclaredConstructor().newInstance();
+      if (g instanceof AppendableGraph) return (AppendableGraph)g;
+    } catch (ReflectiveOperationException e) {
+      // no accessible default constructor, or it failed. Fall through to the default
+    } catch (SecurityException e) {
+      // fall through to the default
+    }
+    return new GraphImpl();
+  }
+
+  /**
+   * Normalizes a subject pattern element, so that wildcards are always <code>null</code>.
+   * @param s The pattern element.
+   * @return <code>null</code> if s is a wildcard, or s otherwise.
+   */
+  protected static SubjectNode unbind(SubjectNode s) {
+    return s == Graph.X ? null : s;
+  }
+
+  /**
+   * Normalizes a predicate pattern element, so that wildcards are always <code>null</code>.
+   * @param p The pattern element.
+   * @return <code>null</code> if p is a wildcard, or p otherwise.
+   */
+  protected static PredicateNode unbind(PredicateNode p) {
+    return p == Graph.X ? null : p;
+  }
+
+  /**
+   * Normalizes an object pattern element, so that wildcards are always <code>null</code>.
+   * @param o The pattern element.
+   * @return <code>null</code> if o is a wildcard, or o otherwise.
+   */
+  protected static ObjectNode unbind(ObjectNode o) {
+    return o == Graph.X ? null : o;
+  }
+
+}
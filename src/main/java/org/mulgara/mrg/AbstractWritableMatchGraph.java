@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A writable extension to {@link AbstractMatchGraph}. Implementations provide the
+ * single triple forms of insert and delete, and everything else is built on these.
+ */
+public abstract class AbstractWritableMatchGraph extends AbstractMatchGraph implements WritableGraph {
+
+  /**
+   * Add a new triple to the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public abstract boolean insert(SubjectNode s, PredicateNode p, ObjectNode o);
+
+  /**
+   * Remove a triple from the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was already in the graph.
+   */
+  public abstract boolean delete(SubjectNode s, PredicateNode p, ObjectNode o);
+
+  /**
+   * Add a new triple to the graph.
+   * @param triple The complete triple to add.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public boolean insert(Triple triple) {
+    return insert(triple.getSubject(), triple.getPredicate(), triple.getObject());
+  }
+
+  /**
+   * Adds a set of triples to the graph, one at a time.
+   * @param triples The triples to add.
+   * @return The number of triples that were not already in the graph.
+   */
+  public long insertAll(Iterator<Triple> triples) {
+    long added = 0L;
+    while (triples.hasNext()) {
+      if (insert(triples.next())) added++;
+    }
+    return added;
+  }
+
+  /**
+   * Remove a triple from the graph.
+   * @param triple The complete triple to remove.
+   * @return <code>true</code> if the triple was already in the graph.
+   */
+  public boolean delete(Triple triple) {
+    return delete(triple.getSubject(), triple.getPredicate(), triple.getObject());
+  }
+
+  /**
+   * Adds the contents of another graph to this one, creating new blank nodes as required
+   * (not re-using the blank nodes from the original graph).
+   * @param g The graph to merge into this one.
+   * @return The current graph, after modification.
+   */
+  public Graph mergeInto(Graph g) {
+    Map<Node,Bnode> bnodeMap = new HashMap<Node,Bnode>();
+    for (Triple t: g.getTriples()) {
+      SubjectNode s = t.getSubject();
+      ObjectNode o = t.getObject();
+      if (s.getTypeId() == Bnode.TYPE_ID) s = mergeBnode(bnodeMap, s);
+      if (o.getTypeId() == Bnode.TYPE_ID) o = mergeBnode(bnodeMap, o);
+      insert(s, t.getPredicate(), o);
+    }
+    return this;
+  }
+
+  /**
+   * Adds the contents of another graph to this one, re-using all the blank nodes from the new graph.
+   * @param g The graph to merge into this one.
+   * @return The current graph, after modification.
+   */
+  public Graph unionInto(Graph g) {
+    for (Triple t: g.getTriples()) insert(t);
+    return this;
+  }
+
+  /**
+   * Helper function to map bnodes into a new, unique bnode.
+   * @param map A map containing original bnodes mapped to their new equivalent.
+   * @param bn The bnode to look up.
+   * @return A new bnode that is uniquely associated with bn.
+   */
+  private static final Bnode mergeBnode(Map<Node,Bnode> map, Node bn) {
+    Bnode newNode = map.get(bn);
+    if (newNode == null) {
+      newNode = new Bnode();
+      map.put(bn, newNode);
+    }
+    return newNode;
+  }
+
+}
@@ -16,6 +16,7 @@
 
 package org.mulgara.mrg;
 
+import java.util.Iterator;
 
 /**
  * An RDF graph that triples can be added to.
@@ -38,6 +39,14 @@ public interface AppendableGraph extends Graph {
    */
   public boolean insert(Triple triple);
 
+  /**
+   * Adds a set of triples to the graph. Implementations may load these more efficiently
+   * than inserting each triple in turn.
+   * @param triples The triples to add.
+   * @return The number of triples that were not already in the graph.
+   */
+  public long insertAll(Iterator<Triple> triples);
+
   /**
    * Adds the contents of another graph to this one, creating new blank nodes as required
    * (not re-using the blank nodes from the original graph).
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fully indexed graph that may be shared between threads. The indexes are built from
+ * concurrent hash maps, so readers never block, and the iterators from
+ * {@link #match(SubjectNode, PredicateNode, ObjectNode)} are weakly consistent: they never throw
+ * a {@link java.util.ConcurrentModificationException}, and they may or may not show modifications
+ * made after they were created.
+ * <p>
+ * Writers lock a stripe for the subject, predicate and object of the triple being modified,
+ * always in that order. Writers that do not share any of these nodes do not wait for each other.
+ * A triple becomes visible in each index in turn, so a reader that runs during an insertion
+ * may find the triple with some patterns and not others.
+ * </p>
+ * <p>
+ * Writers on different stripes may update the same index at once, so the triple count in the
+ * indexes is not reliable here. The size of the graph is kept in a separate atomic counter.
+ * </p>
+ */
+public class ConcurrentGraph extends IndexedGraph {
+
+  /** The number of lock stripes for each index. Must be a power of 2. */
+  private static final int STRIPES = 64;
+
+  /** The locks for the first level of the spo index. */
+  private final Object[] spoLocks = createLocks();
+
+  /** The locks for the first level of the pos index. */
+  private final Object[] posLocks = createLocks();
+
+  /** The locks for the first level of the osp index. */
+  private final Object[] ospLocks = createLocks();
+
+  /** The number of triples in the graph. */
+  private final AtomicLong size = new AtomicLong();
+
+  /**
+   * Default constructor for an empty graph.
+   */
+  public ConcurrentGraph() {}
+
+  /**
+   * Builds a graph with a collection of triples.
+   * @param triples The initial triples for the graph.
+   */
+  public ConcurrentGraph(Collection<Triple> triples) {
+    for (Triple t: triples) insert(t);
+  }
+
+  /**
+   * Use concurrent hashmaps for lookups without locking.
+   * @return an instance of a ConcurrentHashMap.
+   */
+  protected <X,Y> Map<X,Y> createMap() {
+    return new ConcurrentHashMap<X,Y>();
+  }
+
+  /**
+   * Use a set backed by a concurrent hashmap for lookups without locking.
+   * @return a Set backed by a ConcurrentHashMap.
+   */
+  protected <X> Collection<X> createCollection() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<X,Boolean>());
+  }
+
+  /**
+   * Use concurrent hashmaps sized for the expected number of entries.
+   * @param size The number of entries the map is expected to hold.
+   * @return an instance of a ConcurrentHashMap.
+   */
+  protected <X,Y> Map<X,Y> createMap(int size) {
+    return new ConcurrentHashMap<X,Y>(capacity(size));
+  }
+
+  /**
+   * Use a set backed by a concurrent hashmap sized for the expected number of entries.
+   * @param size The number of entries the set is expected to hold.
+   * @return a Set backed by a ConcurrentHashMap.
+   */
+  protected <X> Collection<X> createCollection(int size) {
+    return Collections.newSetFromMap(new ConcurrentHashMap<X,Boolean>(capacity(size)));
+  }
+
+  /**
+   * Adds an array of triples one at a time, so that each insertion takes its stripe locks.
+   * Bulk index construction is not safe while other threads may be writing.
+   * @param triples The triples to add.
+   * @return The number of triples that were not already in the graph.
+   */
+  protected long bulkInsert(Triple[] triples) {
+    long added = 0L;
+    for (Triple t: triples) {
+      if (insert(t)) added++;
+    }
+    return added;
+  }
+
+  /**
+   * Add a new triple to the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (lock(spoLocks, s)) {
+      synchronized (lock(posLocks, p)) {
+        synchronized (lock(ospLocks, o)) {
+          if (!super.insert(s, p, o)) return false;
+          size.incrementAndGet();
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove a triple from the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was in the graph.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (lock(spoLocks, s)) {
+      synchronized (lock(posLocks, p)) {
+        synchronized (lock(ospLocks, o)) {
+          if (!super.delete(s, p, o)) return false;
+          size.decrementAndGet();
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the size of the graph, from a counter that is safe to update from any stripe.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return size.get();
+  }
+
+  /**
+   * Creates a set of lock stripes.
+   * @return An array of objects to lock on.
+   */
+  private static Object[] createLocks() {
+    Object[] locks = new Object[STRIPES];
+    for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    return locks;
+  }
+
+  /**
+   * Finds the stripe to lock for a node.
+   * @param locks The stripes for an index.
+   * @param n The node at the first level of the index.
+   * @return The object to lock on.
+   */
+  private static Object lock(Object[] locks, Node n) {
+    int h = n.hashCode();
+    h ^= (h >>> 16);
+    return locks[h & (STRIPES - 1)];
+  }
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * Creates graphs that can be shared between threads.
+ */
+public class ConcurrentGraphFactory implements GraphFactory {
+
+  /**
+   * Creates a new ConcurrentGraph.
+   */
+  @Override
+  public WritableGraph createGraph() {
+    return new ConcurrentGraph();
+  }
+
+}
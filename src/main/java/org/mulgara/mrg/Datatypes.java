@@ -0,0 +1,206 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.namespace.QName;
+
+import org.mulgara.util.Fn1;
+import org.mulgara.util.LexicalDateTime;
+import org.mulgara.util.Strings;
+
+import static org.mulgara.mrg.vocab.uri.XSD.*;
+
+/**
+ * A set of conversions from the lexical form of typed literals to Java data.
+ * Instances are immutable, so they can be shared between threads. New datatypes are added by
+ * creating a new instance with {@link #with(URI, Fn1)}, which leaves the original unchanged.
+ */
+public final class Datatypes {
+
+  /** The conversions for the standard XSD datatypes. */
+  public static final Datatypes STANDARD = new Datatypes(standardConstructors(DateFormat.getInstance()));
+
+  /** All the constructors for known data types, keyed by datatype URI. Never modified. */
+  private final Map<URI,Fn1<String,Object>> constructors;
+
+  /**
+   * Creates a set of conversions.
+   * @param constructors The constructors to use. This map must not be modified afterwards.
+   */
+  private Datatypes(Map<URI,Fn1<String,Object>> constructors) {
+    this.constructors = Collections.unmodifiableMap(constructors);
+  }
+
+  /**
+   * Creates a set of conversions that includes an extra datatype. This object is not changed.
+   * @param type The URI of the datatype.
+   * @param constructor The function for converting the lexical form of the datatype to Java data.
+   *        This must be safe to call from multiple threads.
+   * @return A new set of conversions, with the datatype added or replaced.
+   */
+  public Datatypes with(URI type, Fn1<String,Object> constructor) {
+    Map<URI,Fn1<String,Object>> cons = new HashMap<URI,Fn1<String,Object>>(constructors);
+    cons.put(type, constructor);
+    return new Datatypes(cons);
+  }
+
+  /**
+   * Creates a set of conversions that uses a given format for dateTime values that are not
+   * in the standard lexical form. This object is not changed.
+   * @param format The format to use. This is copied before each use, so it is not shared between threads.
+   * @return A new set of conversions, with the dateTime conversion replaced.
+   */
+  public Datatypes withDateFormat(DateFormat format) {
+    return with(DATE_TIME, new DateTimeConstructor(format));
+  }
+
+  /**
+   * Tests if a datatype can be converted to Java data.
+   * @param type The URI of the data type.
+   * @return <code>true</code> if {@link #toData(URI, String)} can convert values of this type.
+   */
+  public boolean isKnownType(URI type) {
+    return constructors.containsKey(type);
+  }
+
+  /**
+   * Uses the type URI to select a parser for the text and returns the appropriate kind of Object.
+   * @param type The URI of the data type.
+   * @param text The text of the data.
+   * @return The newly constructed data.
+   * @throws IllegalArgumentException If the type is unknown, or the type cannot be parsed.
+   * @throws NumberFormatException If the type is numeric and the text cannot be parsed.
+   */
+  public Object toData(URI type, String text) {
+    Fn1<String,Object> cons = constructors.get(type);
+    if (cons == null) throw new IllegalArgumentException("Unknown data type: " + type);
+    return cons.call(text);
+  }
+
+  /**
+   * Converts dateTime text into a Date. Text that is not in the XSD lexical form is parsed with a
+   * fallback format. DateFormat is not thread safe, so the format is copied for each of these.
+   */
+  private static class DateTimeConstructor implements Fn1<String,Object> {
+
+    /** The fallback format. This is never used directly. */
+    private final DateFormat format;
+
+    /**
+     * Creates the conversion.
+     * @param format The fallback format.
+     */
+    DateTimeConstructor(DateFormat format) {
+      this.format = (DateFormat)format.clone();
+    }
+
+    /**
+     * Converts text into a Date.
+     * @param text The text to convert.
+     * @return The date represented by the text.
+     * @throws IllegalArgumentException If the text cannot be parsed as a date.
+     */
+    public Date call(String text) {
+      try {
+        LexicalDateTime ldt = LexicalDateTime.parseDateTime(text);
+        return new Date(ldt.getMillis());
+      } catch (ParseException e1) {
+        try {
+          // use a local format as a backup
+          return ((DateFormat)format.clone()).parse(text);
+        } catch (ParseException e) {
+          throw new IllegalArgumentException("Unable to parse date: " + text, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates the constructors for the standard XSD datatypes.
+   * @param dateFormat The fallback format for dateTime values.
+   * @return A new map of datatype URIs to constructors.
+   */
+  private static Map<URI,Fn1<String,Object>> standardConstructors(DateFormat dateFormat) {
+    Map<URI,Fn1<String,Object>> constructors = new HashMap<URI,Fn1<String,Object>>();
+    constructors.put(BYTE, new Fn1<String,Object>() {
+      public Byte call(String text) { return Byte.valueOf(text); }
+    });
+    constructors.put(SHORT, new Fn1<String,Object>() {
+      public Short call(String text) { return Short.valueOf(text); }
+    });
+    constructors.put(INT, new Fn1<String,Object>() {
+      public Integer call(String text) { return Integer.valueOf(text); }
+    });
+    constructors.put(LONG, new Fn1<String,Object>() {
+      public Long call(String text) { return Long.valueOf(text); }
+    });
+    constructors.put(INTEGER, new Fn1<String,Object>() {
+      public Object call(String text) {
+        BigInteger i = new BigInteger(text);
+        return (i.bitLength() >= Long.SIZE) ? i : i.longValue();
+      }
+    });
+    constructors.put(DECIMAL, new Fn1<String,Object>() {
+      public Object call(String text) {
+        BigDecimal d = new BigDecimal(text);
+        try {
+          BigInteger i = d.toBigIntegerExact();
+          return (i.bitLength() >= Long.SIZE) ? i : i.longValue();
+        } catch (ArithmeticException e) {
+          double dbl = d.doubleValue();
+          return (dbl == Double.NEGATIVE_INFINITY || dbl == Double.POSITIVE_INFINITY) ? d : dbl;
+        }
+      }
+    });
+    constructors.put(FLOAT, new Fn1<String,Object>() {
+      public Float call(String text) { return Float.valueOf(text); }
+    });
+    constructors.put(DOUBLE, new Fn1<String,Object>() {
+      public Double call(String text) { return Double.valueOf(text); }
+    });
+    constructors.put(QNAME, new Fn1<String,Object>() {
+      public QName call(String text) {
+        int c = text.indexOf(':');
+        return (c >= 0) ? new QName(text.substring(0, c), text.substring(c + 1)) : new QName(text);
+      }
+    });
+    constructors.put(ANY_URI, new Fn1<String,Object>() {
+      public URI call(String text) { return URI.create(text); }
+    });
+    constructors.put(BOOLEAN, new Fn1<String,Object>() {
+      public Boolean call(String text) { return Boolean.valueOf(text); }
+    });
+    constructors.put(HEX_BINARY, new Fn1<String,Object>() {
+      public byte[] call(String text) { return Strings.parseHexToBytes(text); }
+    });
+    constructors.put(STRING, new Fn1<String,Object>() {
+      public String call(String text) { return text; }
+    });
+    constructors.put(DATE_TIME, new DateTimeConstructor(dateFormat));
+    return constructors;
+  }
+
+}
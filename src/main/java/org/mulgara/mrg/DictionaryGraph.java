@@ -0,0 +1,463 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.mulgara.mrg.TripleTable.*;
+
+/**
+ * A graph that stores each node once, in a {@link NodeDictionary}, and represents triples
+ * as integer IDs in a {@link TripleTable}. This avoids the per-triple map entries and
+ * collections used by {@link GraphImpl} and {@link IndexedGraph}, while still providing
+ * indexed access on every position of a triple.
+ * Nodes are not removed from the dictionary when the last triple using them is deleted.
+ * <p>
+ * For read-mostly data, the graph can be {@link #freeze() frozen}. This packs the triples into
+ * sorted, delta compressed arrays for each of the SPO, POS and OSP orderings, and releases the
+ * triple table. A frozen graph cannot be modified until it is {@link #thaw() thawed}.
+ * </p>
+ */
+public class DictionaryGraph extends AbstractWritableMatchGraph implements IndexedMatch {
+
+  /** The dictionary of all nodes in the graph. */
+  final NodeDictionary dictionary;
+
+  /** The triples, as node IDs. <code>null</code> when the graph is frozen. */
+  TripleTable triples;
+
+  /** The packed indexes, by rotation from SPO. <code>null</code> unless the graph is frozen. */
+  PackedTripleIndex[] packed = null;
+
+  /**
+   * Default constructor for an empty graph.
+   */
+  public DictionaryGraph() {
+    dictionary = new NodeDictionary();
+    triples = new TripleTable();
+  }
+
+  /**
+   * Creates an empty graph with space for an expected number of triples.
+   * @param capacity The number of triples expected.
+   */
+  public DictionaryGraph(int capacity) {
+    // in typical data, there are about half as many distinct nodes as triples
+    dictionary = new NodeDictionary(capacity / 2);
+    triples = new TripleTable(capacity, capacity / 2);
+  }
+
+  /**
+   * Builds a graph with a collection of triples.
+   * @param triples The initial triples for the graph.
+   */
+  public DictionaryGraph(Collection<Triple> triples) {
+    this(triples.size());
+    for (Triple t: triples) insert(t);
+  }
+
+  /**
+   * Add a new triple to the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    checkThawed();
+    int sid = dictionary.intern(s);
+    int pid = dictionary.intern(p);
+    int oid = dictionary.intern(o);
+    triples.ensureNodes(dictionary.size());
+    return triples.add(sid, pid, oid);
+  }
+
+  /**
+   * Remove a triple from the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was already in the graph.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    checkThawed();
+    int sid = dictionary.lookup(s);
+    int pid = dictionary.lookup(p);
+    int oid = dictionary.lookup(o);
+    if (sid == NodeDictionary.NONE || pid == NodeDictionary.NONE || oid == NodeDictionary.NONE) return false;
+    return triples.remove(sid, pid, oid);
+  }
+
+  /**
+   * Tests if a triple has been asserted. Be careful of blank nodes, as
+   * they will only match if they are exactly alike.
+   * @param s The subject of the triple to search for.
+   * @param p The predicate of the triple to search for.
+   * @param o The object of the triple to search for.
+   * @return <code>true</code> only if the triple exists in the graph.
+   */
+  public boolean isAsserted(SubjectNode s, PredicateNode p, ObjectNode o) {
+    int sid = dictionary.lookup(s);
+    int pid = dictionary.lookup(p);
+    int oid = dictionary.lookup(o);
+    if (sid == NodeDictionary.NONE || pid == NodeDictionary.NONE || oid == NodeDictionary.NONE) return false;
+    return isFrozen() ? packed[0].contains(sid, pid, oid) : triples.contains(sid, pid, oid);
+  }
+
+  /**
+   * Find all triples that match a given pattern. The resulting iterator is live, and will
+   * throw a {@link ConcurrentModificationException} if the graph is modified.
+   * The list for the most selective of the bound nodes is scanned, and filtered by the others.
+   * When frozen, the packed index with the bound nodes as a prefix is scanned instead.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    s = unbind(s);
+    p = unbind(p);
+    o = unbind(o);
+    Node[] nodes = new Node[] { s, p, o };
+    int[] pattern = new int[3];
+    for (int pos = S; pos <= O; pos++) {
+      if (nodes[pos] == null) {
+        pattern[pos] = NIL;
+      } else {
+        pattern[pos] = dictionary.lookup(nodes[pos]);
+        if (pattern[pos] == NodeDictionary.NONE) return Collections.<Triple>emptyList().iterator();
+      }
+    }
+    if (isFrozen()) return new PackedIterator(pattern);
+
+    int scanPos = NIL;
+    int bound = 0;
+    for (int pos = S; pos <= O; pos++) {
+      if (pattern[pos] == NIL) continue;
+      bound++;
+      if (scanPos == NIL || triples.count(pos, pattern[pos]) < triples.count(scanPos, pattern[scanPos])) scanPos = pos;
+    }
+    if (bound == 3) {
+      if (!triples.contains(pattern[S], pattern[P], pattern[O])) return Collections.<Triple>emptyList().iterator();
+      return Collections.singletonList(new Triple(s, p, o)).iterator();
+    }
+    return new SlotIterator(pattern, scanPos);
+  }
+
+  /**
+   * Every position has a list of its triples, or a packed index when frozen, so any bound position avoids a scan.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if any position is bound.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || p || o;
+  }
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return isFrozen() ? packed[0].size() : triples.size();
+  }
+
+  /**
+   * Gets all the subjects in the graph.
+   * @return All the subjects in the graph.
+   */
+  public Collection<SubjectNode> getSubjects() {
+    return this.<SubjectNode>usedNodes(S);
+  }
+
+  /**
+   * Gets all the predicates in the graph.
+   * @return All the predicatess in the graph.
+   */
+  public Collection<PredicateNode> getPredicates() {
+    return this.<PredicateNode>usedNodes(P);
+  }
+
+  /**
+   * Gets all the objects in the graph.
+   * @return All the objects in the graph.
+   */
+  public Collection<ObjectNode> getObjects() {
+    return this.<ObjectNode>usedNodes(O);
+  }
+
+  /**
+   * Packs the triples into sorted, compressed indexes, and releases the triple table.
+   * Until the graph is thawed, any attempt to modify it will fail.
+   * Does nothing if the graph is already frozen.
+   */
+  public void freeze() {
+    if (isFrozen()) return;
+    int count = triples.size();
+    int[] buffer = new int[count * 3];
+    PackedTripleIndex[] indexes = new PackedTripleIndex[3];
+    for (int rotation = 0; rotation < 3; rotation++) {
+      int t = 0;
+      for (int slot = 0, end = triples.slots(); slot < end; slot++) {
+        if (!triples.isUsed(slot)) continue;
+        for (int i = 0; i < 3; i++) buffer[t++] = triples.get(slot, (rotation + i) % 3);
+      }
+      PackedTripleIndex.sort(buffer, count);
+      indexes[rotation] = new PackedTripleIndex(buffer, count);
+    }
+    packed = indexes;
+    triples = null;
+  }
+
+  /**
+   * Rebuilds the triple table from the packed indexes, so the graph can be modified again.
+   * Does nothing if the graph is not frozen.
+   */
+  public void thaw() {
+    if (!isFrozen()) return;
+    PackedTripleIndex spo = packed[0];
+    TripleTable table = new TripleTable(spo.size(), dictionary.size());
+    table.ensureNodes(dictionary.size());
+    PackedTripleIndex.Scan scan = spo.scan(NIL, NIL);
+    while (scan.next()) table.add(scan.a, scan.b, scan.c);
+    triples = table;
+    packed = null;
+  }
+
+  /**
+   * Indicates if the graph is currently frozen.
+   * @return <code>true</code> if the graph is packed and cannot be modified.
+   */
+  public boolean isFrozen() {
+    return packed != null;
+  }
+
+  /**
+   * Gets the dictionary for this graph.
+   * @return The dictionary that maps the nodes of this graph to IDs.
+   */
+  public NodeDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Gets all the nodes that appear in a given position of a triple.
+   * @param pos The position in the triple.
+   * @return A list of the nodes in use.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Node> List<T> usedNodes(int pos) {
+    List<T> result = new ArrayList<T>();
+    if (isFrozen()) {
+      // the packed index that starts with this position has each node in a contiguous run
+      PackedTripleIndex.Scan scan = packed[pos].scan(NIL, NIL);
+      int last = NIL;
+      while (scan.next()) {
+        if (scan.a != last) result.add((T)dictionary.get(scan.a));
+        last = scan.a;
+      }
+      return result;
+    }
+    int max = dictionary.size();
+    for (int id = 0; id < max; id++) {
+      if (triples.count(pos, id) > 0) result.add((T)dictionary.get(id));
+    }
+    return result;
+  }
+
+  /**
+   * Ensures that the graph is not frozen before an update.
+   * @throws IllegalStateException If the graph is frozen.
+   */
+  private void checkThawed() {
+    if (isFrozen()) throw new IllegalStateException("Graph is frozen");
+  }
+
+  /**
+   * Iterates over the slots of a list in the triple table, or over all slots,
+   * returning those which match a pattern.
+   */
+  private class SlotIterator implements Iterator<Triple> {
+
+    /** The IDs in the pattern to match, with NIL for variables. */
+    private final int[] pattern;
+
+    /** The position of the list being iterated over, or NIL for scanning all slots. */
+    private final int scanPos;
+
+    /** The modification count expected in the table. */
+    private final int expectedModCount;
+
+    /** The next matching slot, or NIL at the end. */
+    private int slot;
+
+    /**
+     * Creates the iterator.
+     * @param pattern The pattern to match.
+     * @param scanPos The position of the list to walk, or NIL for a scan.
+     */
+    SlotIterator(int[] pattern, int scanPos) {
+      this.pattern = pattern;
+      this.scanPos = scanPos;
+      expectedModCount = triples.modCount;
+      if (scanPos == NIL) slot = nextMatch(0);
+      else slot = nextMatch(triples.first(scanPos, pattern[scanPos]));
+    }
+
+    /**
+     * Returns <code>true</code> if the iterator has more elements.
+     * @return <code>true</code> if the iterator has more elements.
+     */
+    public boolean hasNext() {
+      return slot != NIL;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public Triple next() {
+      if (slot == NIL) throw new NoSuchElementException();
+      if (triples.modCount != expectedModCount) throw new ConcurrentModificationException();
+      Triple t = new Triple(dictionary.get(triples.get(slot, S)),
+                            dictionary.get(triples.get(slot, P)),
+                            dictionary.get(triples.get(slot, O)));
+      slot = nextMatch(scanPos == NIL ? slot + 1 : triples.next(scanPos, slot));
+      return t;
+    }
+
+    /**
+     * Removal would invalidate the slot being used for iteration, so this is not supported.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the first slot from a starting point that matches the pattern.
+     * @param from The slot to start with.
+     * @return The matching slot, or NIL if there are no more.
+     */
+    private int nextMatch(int from) {
+      if (scanPos == NIL) {
+        for (int end = triples.slots(); from < end; from++) {
+          if (triples.isUsed(from) && matches(from)) return from;
+        }
+        return NIL;
+      }
+      while (from != NIL && !matches(from)) from = triples.next(scanPos, from);
+      return from;
+    }
+
+    /**
+     * Tests if a slot matches the pattern.
+     */
+    private boolean matches(int slot) {
+      for (int pos = S; pos <= O; pos++) {
+        if (pattern[pos] != NIL && triples.get(slot, pos) != pattern[pos]) return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Iterates over the triples in a packed index that match a pattern.
+   * The index is chosen so that the bound nodes form a prefix of its ordering.
+   */
+  private class PackedIterator implements Iterator<Triple> {
+
+    /** The rotation of the index being scanned from SPO. */
+    private final int rotation;
+
+    /** The scan over the index. */
+    private final PackedTripleIndex.Scan scan;
+
+    /** The third value of the pattern when all three are bound, or NIL. */
+    private final int last;
+
+    /** Indicates that the scan has been moved onto the next triple. */
+    private boolean hasNext;
+
+    /**
+     * Creates an iterator for a pattern.
+     * @param pattern The IDs in the pattern, with NIL for variables.
+     */
+    PackedIterator(int[] pattern) {
+      // choose the rotation that puts the bound values first
+      if (pattern[S] != NIL) rotation = (pattern[P] == NIL && pattern[O] != NIL) ? 2 : 0;
+      else if (pattern[P] != NIL) rotation = 1;
+      else rotation = (pattern[O] != NIL) ? 2 : 0;
+      int a = pattern[rotation];
+      int b = pattern[(rotation + 1) % 3];
+      last = pattern[(rotation + 2) % 3];
+      scan = packed[rotation].scan(a, a == NIL ? NIL : b);
+      hasNext = moveNext();
+    }
+
+    /**
+     * Returns <code>true</code> if the iterator has more elements.
+     * @return <code>true</code> if the iterator has more elements.
+     */
+    public boolean hasNext() {
+      return hasNext;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public Triple next() {
+      if (!hasNext) throw new NoSuchElementException();
+      Node[] t = new Node[3];
+      t[rotation] = dictionary.get(scan.a);
+      t[(rotation + 1) % 3] = dictionary.get(scan.b);
+      t[(rotation + 2) % 3] = dictionary.get(scan.c);
+      hasNext = moveNext();
+      return new Triple(t);
+    }
+
+    /**
+     * A frozen graph cannot be modified.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Moves the scan onto the next matching triple.
+     * @return <code>true</code> if a triple was found.
+     */
+    private boolean moveNext() {
+      while (scan.next()) {
+        if (last == NIL || scan.c == last) return true;
+      }
+      return false;
+    }
+  }
+
+}
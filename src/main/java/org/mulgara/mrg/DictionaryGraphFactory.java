@@ -0,0 +1,51 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * Creates dictionary encoded graphs. Use this with a parser to load data
+ * directly into a {@link DictionaryGraph}.
+ */
+public class DictionaryGraphFactory implements GraphFactory {
+
+  /** The number of triples that new graphs are sized for. */
+  private final int capacity;
+
+  /**
+   * Creates a factory for graphs of the default initial size.
+   */
+  public DictionaryGraphFactory() {
+    this(0);
+  }
+
+  /**
+   * Creates a factory for graphs that are pre-sized for a number of triples.
+   * @param capacity The number of triples expected in each graph.
+   */
+  public DictionaryGraphFactory(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Creates a new DictionaryGraph.
+   */
+  @Override
+  public WritableGraph createGraph() {
+    return capacity > 0 ? new DictionaryGraph(capacity) : new DictionaryGraph();
+  }
+
+}
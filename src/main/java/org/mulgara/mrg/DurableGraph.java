@@ -0,0 +1,1055 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
+
+import org.mulgara.mrg.parser.BinaryParser;
+import org.mulgara.mrg.parser.ParseException;
+import org.mulgara.mrg.writer.BinaryWriter;
+
+/**
+ * A graph that survives restarts. All data is held in memory, and every change is appended to a
+ * write-ahead log before it is acknowledged. Opening the graph loads the last checkpoint, then
+ * replays the log on top of it.
+ * <p>
+ * The data is split by subject into {@link #SEGMENTS} graphs, each created by a {@link GraphFactory}.
+ * A checkpoint only writes the segments that have changed since the previous checkpoint, each in
+ * its own file in the format of {@link BinaryWriter}, and writers continue while it runs. It starts
+ * by moving to a new log file. Each changed segment is then copied while briefly holding the write
+ * lock, and written after the lock is released. Finally a manifest naming the segment files and
+ * the new log replaces the previous manifest in a single move. A segment may include changes made
+ * after the new log started, but the log has those changes as well, and replaying an insertion or
+ * deletion a second time has no effect, so recovery still reaches the latest state.
+ * Files that are no longer named by the manifest are then removed.
+ * </p>
+ * <p>
+ * Each log starts with {@link #MAGIC} and {@link #VERSION} as ints. Each record is then the length
+ * of its payload and the CRC32 of the payload, as ints, followed by the payload: an operation byte,
+ * and the subject, predicate and object, each as a variable length byte count and the node as
+ * encoded by {@link NodeCodec}. A record that is incomplete, or that fails its checksum, marks the
+ * end of a write that was interrupted by a crash. Recovery stops there, and the log is truncated.
+ * </p>
+ * <p>
+ * Records are buffered in memory, and are written and forced to disk once <code>syncBatch</code>
+ * changes are waiting, or every <code>syncMillis</code>, or when {@link #sync()} is called.
+ * A sync covers every record that is buffered when it starts, so writers that arrive while
+ * another thread is forcing the log are committed together by the next force. With a batch of 1,
+ * every change is on disk before it returns. Larger batches trade the last few changes before a
+ * crash for fewer forces. If a write to the log fails, then the records it held may be lost or
+ * torn, so the graph refuses every later change and sync. Reopening it recovers what reached the log.
+ * </p>
+ * <p>
+ * Writes are serialized, so this graph may be modified from many threads. Reads go directly to
+ * the segments, so concurrent reads and writes are only safe if the segment graphs allow them.
+ * </p>
+ */
+public class DurableGraph extends AbstractWritableMatchGraph implements Closeable, IndexedMatch {
+
+  /** The marker at the start of every log: "MRGL". */
+  public static final int MAGIC = 0x4D52474C;
+
+  /** The marker at the start of the manifest: "MRGC". */
+  public static final int CHECKPOINT_MAGIC = 0x4D524743;
+
+  /** The version of the log and manifest formats. */
+  public static final int VERSION = 1;
+
+  /** The number of bits in a segment index. */
+  private static final int SEGMENT_BITS = 6;
+
+  /** The number of segments the data is split into. */
+  public static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+  /** The name of the file that describes the last checkpoint. */
+  static final String MANIFEST_FILE = "manifest";
+
+  /** The start of the name of every log file. */
+  private static final String LOG_PREFIX = "wal-";
+
+  /** The end of the name of every log file. */
+  private static final String LOG_SUFFIX = ".log";
+
+  /** The start of the name of every segment file. */
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  /** The suffix for files that are being written. */
+  private static final String TMP_SUFFIX = ".tmp";
+
+  /** The generation of a segment that has no file. */
+  private static final long NONE = -1;
+
+  /** The operation byte for an insertion. */
+  static final byte INSERT = 1;
+
+  /** The operation byte for a deletion. */
+  static final byte DELETE = 2;
+
+  /** The size of the header of the log. */
+  private static final int HEADER_SIZE = 8;
+
+  /** The size of the length and checksum at the start of every record. */
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  /** The initial size of the record buffers. */
+  private static final int BUFFER_SIZE = 0x10000;
+
+  /** The directory holding the checkpoint and the logs. */
+  private final File dir;
+
+  /** The source of graphs to load into. */
+  private final GraphFactory factory;
+
+  /** The graphs holding the data, indexed by {@link #segment(SubjectNode)}. */
+  private final WritableGraph[] segments = new WritableGraph[SEGMENTS];
+
+  /** The segments modified since the last checkpoint started. Guarded by writeLock. */
+  private final boolean[] dirty = new boolean[SEGMENTS];
+
+  /** The generation of the file for each segment in the manifest. Guarded by checkpointLock. */
+  private long[] segmentGenerations = new long[0];
+
+  /** The generation of the first log to replay after the manifest. Guarded by checkpointLock. */
+  private long checkpointGeneration = 0;
+
+  /** The generation of the current log. Modified while holding syncLock and writeLock. */
+  private long generation;
+
+  /** The current log file. Modified while holding syncLock and writeLock. */
+  private RandomAccessFile logFile;
+
+  /** The channel for appending to the current log. Modified while holding syncLock and writeLock. */
+  private FileChannel log;
+
+  /** The number of changes that may be buffered before a sync. */
+  private final int syncBatch;
+
+  /** The timer for syncs, or <code>null</code> if they are not scheduled. */
+  private final Timer syncTimer;
+
+  /** The timer for checkpoints, or <code>null</code> if they are not scheduled. */
+  private final Timer checkpointTimer;
+
+  /** Held while changing the graph and buffering the record for the change. */
+  private final Object writeLock = new Object();
+
+  /** Held while writing and forcing the log. Always acquired before writeLock. */
+  private final Object syncLock = new Object();
+
+  /** Held while checkpointing. Always acquired before syncLock. */
+  private final Object checkpointLock = new Object();
+
+  /** The records that have not been written. Guarded by writeLock. */
+  private byte[] pending = new byte[BUFFER_SIZE];
+
+  /** The amount of data in {@link #pending}. Guarded by writeLock. */
+  private int pendingLength = 0;
+
+  /** The buffer that is swapped with {@link #pending} when syncing. Guarded by syncLock. */
+  private byte[] spare = new byte[BUFFER_SIZE];
+
+  /** The number of records that have been buffered. Guarded by writeLock. */
+  private long appended = 0;
+
+  /** The number of records that are on disk. */
+  private volatile long synced = 0;
+
+  /** The checksum calculator for records. Guarded by writeLock. */
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * The error from the first failed write to the log, or <code>null</code> if none has failed.
+   * Once set, the buffered records may be lost or torn, so every later write or sync fails.
+   */
+  private volatile IOException failure = null;
+
+  /** Set once the graph has been closed. */
+  private volatile boolean closed = false;
+
+  /**
+   * Opens a graph that forces every change to disk before returning.
+   * @param dir The directory for the graph's files. This is created if it does not exist.
+   * @throws IOException If the files cannot be read or created.
+   */
+  public DurableGraph(File dir) throws IOException {
+    this(dir, new GraphImplFactory(), 1, 0, 0);
+  }
+
+  /**
+   * Opens a graph, recovering all the changes made before it was last closed, or before a crash.
+   * Checkpoints are only made when {@link #checkpoint()} is called.
+   * @param dir The directory for the graph's files. This is created if it does not exist.
+   * @param factory Creates the in-memory graphs to hold the data.
+   * @param syncBatch The number of changes that may wait in memory before they are forced to disk.
+   * @param syncMillis The longest time in milliseconds that a change may wait before it is forced to
+   *        disk, or 0 to only sync by batch.
+   * @throws IOException If the files cannot be read or created.
+   */
+  public DurableGraph(File dir, GraphFactory factory, int syncBatch, long syncMillis) throws IOException {
+    this(dir, factory, syncBatch, syncMillis, 0);
+  }
+
+  /**
+   * Opens a graph, recovering all the changes made before it was last closed, or before a crash.
+   * @param dir The directory for the graph's files. This is created if it does not exist.
+   * @param factory Creates the in-memory graphs to hold the data.
+   * @param syncBatch The number of changes that may wait in memory before they are forced to disk.
+   * @param syncMillis The longest time in milliseconds that a change may wait before it is forced to
+   *        disk, or 0 to only sync by batch.
+   * @param checkpointMillis The time in milliseconds between checkpoints made in the background,
+   *        or 0 to only checkpoint when {@link #checkpoint()} is called.
+   * @throws IOException If the files cannot be read or created.
+   */
+  public DurableGraph(File dir, GraphFactory factory, int syncBatch, long syncMillis, long checkpointMillis) throws IOException {
+    if (syncBatch < 1) throw new IllegalArgumentException("Sync batches must have at least 1 change");
+    if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create directory: " + dir);
+    this.dir = dir;
+    this.factory = factory;
+    this.syncBatch = syncBatch;
+    for (int i = 0; i < SEGMENTS; i++) segments[i] = factory.createGraph();
+    loadCheckpoint();
+    recover();
+    removeUnused();
+    // separate timers, so that a failure in one task cannot stop the other
+    if (syncMillis > 0) {
+      syncTimer = new Timer("DurableGraph sync: " + dir, true);
+      syncTimer.schedule(new TimerTask() {
+        public void run() {
+          try {
+            if (!closed) sync();
+          } catch (IOException e) {
+            // recorded in failure, so every later write and sync fails with it
+          } catch (RuntimeException e) {
+            // closed while syncing
+          }
+        }
+      }, syncMillis, syncMillis);
+    } else {
+      syncTimer = null;
+    }
+    if (checkpointMillis > 0) {
+      checkpointTimer = new Timer("DurableGraph checkpoint: " + dir, true);
+      checkpointTimer.schedule(new TimerTask() {
+        public void run() {
+          try {
+            if (!closed) checkpoint();
+          } catch (IOException e) {
+            // the segments stay dirty, so the next checkpoint writes them
+          } catch (RuntimeException e) {
+            // closed while checkpointing, or a segment could not be written. Either way the
+            // segments stay dirty, and the log still holds the changes.
+          }
+        }
+      }, checkpointMillis, checkpointMillis);
+    } else {
+      checkpointTimer = null;
+    }
+  }
+
+  /**
+   * Add a new triple to the graph, and log it.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   * @throws IllegalStateException If the graph is closed, or the log cannot be written.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    long lsn;
+    synchronized (writeLock) {
+      checkOpen();
+      if (!apply(INSERT, s, p, o)) return false;
+      lsn = append(INSERT, s, p, o);
+    }
+    commit(lsn);
+    return true;
+  }
+
+  /**
+   * Remove a triple from the graph, and log it.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was in the graph.
+   * @throws IllegalStateException If the graph is closed, or the log cannot be written.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    long lsn;
+    synchronized (writeLock) {
+      checkOpen();
+      if (!apply(DELETE, s, p, o)) return false;
+      lsn = append(DELETE, s, p, o);
+    }
+    commit(lsn);
+    return true;
+  }
+
+  /**
+   * Adds a set of triples to the graph, with a single sync for the whole set.
+   * @param triples The triples to add.
+   * @return The number of triples that were not already in the graph.
+   * @throws IllegalStateException If the graph is closed, or the log cannot be written.
+   */
+  public long insertAll(Iterator<Triple> triples) {
+    List<Triple> list = new ArrayList<Triple>();
+    while (triples.hasNext()) list.add(triples.next());
+    long lsn;
+    long added = 0;
+    synchronized (writeLock) {
+      checkOpen();
+      lsn = appended;
+      for (Triple t: list) {
+        if (apply(INSERT, t.getSubject(), t.getPredicate(), t.getObject())) {
+          lsn = append(INSERT, t.getSubject(), t.getPredicate(), t.getObject());
+          added++;
+        }
+      }
+    }
+    commit(lsn);
+    return added;
+  }
+
+  /**
+   * Find all triples that match a given pattern.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    if (s != null && s != Graph.X) return segments[segment(s)].match(s, p, o);
+    return new SegmentIterator(p, o);
+  }
+
+  /**
+   * A bound subject is found in a single segment. Otherwise every segment is searched,
+   * so the pattern is indexed if the segment graphs are indexed for it.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if the segments can find the triples without a scan.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    if (s) return true;
+    return segments[0] instanceof IndexedMatch && ((IndexedMatch)segments[0]).hasIndex(s, p, o);
+  }
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    long size = 0;
+    for (WritableGraph g: segments) size += g.size();
+    return size;
+  }
+
+  /**
+   * Writes and forces to disk every change made so far.
+   * @throws IOException If the log cannot be written.
+   */
+  public void sync() throws IOException {
+    long lsn;
+    synchronized (writeLock) {
+      lsn = appended;
+    }
+    sync(lsn);
+  }
+
+  /**
+   * Writes every segment that has changed since the last checkpoint, and starts a new log.
+   * Writers only wait while the log is switched, and while each changed segment is copied.
+   * A crash at any point leaves either the previous checkpoint and all the logs since it,
+   * or the new checkpoint and the new log.
+   * @return The number of segments that were written.
+   * @throws IOException If the checkpoint cannot be written. The changed segments are written by
+   *         the next checkpoint.
+   * @throws IllegalStateException If the graph is closed, or the log could not be written.
+   */
+  public int checkpoint() throws IOException {
+    synchronized (checkpointLock) {
+      boolean[] changed;
+      long gen;
+      synchronized (syncLock) {
+        synchronized (writeLock) {
+          checkOpen();
+          changed = dirty.clone();
+          if (!isDirty(changed)) return 0;
+          gen = generation + 1;
+          RandomAccessFile next = createLog(gen);
+          try {
+            writePending();
+          } catch (IOException e) {
+            next.close();
+            throw e;
+          }
+          logFile.close();
+          logFile = next;
+          log = next.getChannel();
+          generation = gen;
+          Arrays.fill(dirty, false);
+        }
+      }
+
+      boolean done = false;
+      long[] gens = Arrays.copyOf(segmentGenerations, SEGMENTS);
+      for (int i = segmentGenerations.length; i < SEGMENTS; i++) gens[i] = NONE;
+      int written = 0;
+      try {
+        for (int i = 0; i < SEGMENTS; i++) {
+          if (!changed[i]) continue;
+          List<Triple> image = new ArrayList<Triple>();
+          synchronized (writeLock) {
+            checkOpen();
+            for (Iterator<Triple> t = segments[i].match(null, null, null); t.hasNext(); ) image.add(t.next());
+          }
+          if (image.isEmpty()) {
+            gens[i] = NONE;
+          } else {
+            writeSegment(new File(dir, segmentName(i, gen)), image);
+            gens[i] = gen;
+          }
+          written++;
+        }
+        writeManifest(gen, gens);
+        segmentGenerations = gens;
+        checkpointGeneration = gen;
+        done = true;
+      } finally {
+        if (!done) {
+          synchronized (writeLock) {
+            for (int i = 0; i < SEGMENTS; i++) dirty[i] |= changed[i];
+          }
+        }
+      }
+      removeUnused();
+      return written;
+    }
+  }
+
+  /**
+   * Gets the size of the current log. This grows with every change until the next {@link #checkpoint()}.
+   * @return The number of bytes in the log, including changes that have not been written yet.
+   * @throws IOException If the size of the log file cannot be read.
+   */
+  public long getLogSize() throws IOException {
+    synchronized (writeLock) {
+      return log.size() + pendingLength;
+    }
+  }
+
+  /**
+   * Syncs all changes and closes the log. The graph cannot be used after this.
+   * A checkpoint that is running when this is called is abandoned.
+   * @throws IOException If the log cannot be written.
+   */
+  public void close() throws IOException {
+    if (syncTimer != null) syncTimer.cancel();
+    if (checkpointTimer != null) checkpointTimer.cancel();
+    synchronized (syncLock) {
+      synchronized (writeLock) {
+        if (closed) return;
+        try {
+          writePending();
+        } finally {
+          closed = true;
+          logFile.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Replaces the channel that the log is written through. Used to test failed writes.
+   * @param channel The new channel. This must append to the current log file.
+   */
+  void setLogChannel(FileChannel channel) {
+    synchronized (syncLock) {
+      synchronized (writeLock) {
+        log = channel;
+      }
+    }
+  }
+
+  /**
+   * Gets the name of a log file.
+   * @param generation The generation of the log.
+   * @return The name of the file.
+   */
+  static String logName(long generation) {
+    return LOG_PREFIX + generation + LOG_SUFFIX;
+  }
+
+  /**
+   * Gets the name of a segment file.
+   * @param segment The segment in the file.
+   * @param generation The checkpoint that wrote the file.
+   * @return The name of the file.
+   */
+  static String segmentName(int segment, long generation) {
+    return SEGMENT_PREFIX + segment + "-" + generation + ".bin";
+  }
+
+  /**
+   * Finds the segment for a subject. Subject hashes are calculated from strings, so this is stable
+   * across JVMs, but a checkpoint that is loaded into different segments is redistributed anyway.
+   * @param s The subject.
+   * @return The index of the segment for the subject.
+   */
+  private static int segment(SubjectNode s) {
+    return (s.hashCode() * 0x9E3779B9) >>> (32 - SEGMENT_BITS);
+  }
+
+  /**
+   * Applies a change to the segment for its subject, and marks the segment as dirty if it changed.
+   * Must be called while holding writeLock, or while opening.
+   * @param op The operation: {@link #INSERT} or {@link #DELETE}.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the graph changed.
+   */
+  private boolean apply(byte op, SubjectNode s, PredicateNode p, ObjectNode o) {
+    int i = segment(s);
+    boolean changed = op == INSERT ? segments[i].insert(s, p, o) : segments[i].delete(s, p, o);
+    if (changed) dirty[i] = true;
+    return changed;
+  }
+
+  /**
+   * Makes sure that every record up to a given one is on disk.
+   * If another thread is already syncing, then this waits for it, and only writes
+   * if that sync did not cover the record.
+   * @param lsn The number of the last record that must be on disk.
+   * @throws IOException If the log cannot be written.
+   */
+  private void sync(long lsn) throws IOException {
+    synchronized (syncLock) {
+      if (synced >= lsn) return;
+      writePending();
+    }
+  }
+
+  /**
+   * Writes and forces all buffered records to the current log. Must be called while holding syncLock.
+   * If this fails then the records may be partly written, and cannot be retried, so the failure is
+   * kept and every later call fails with it.
+   * @throws IOException If the log cannot be written, or a previous write failed.
+   */
+  private void writePending() throws IOException {
+    checkLog();
+    byte[] data;
+    int length;
+    long last;
+    synchronized (writeLock) {
+      data = pending;
+      length = pendingLength;
+      last = appended;
+      pending = spare;
+      pendingLength = 0;
+    }
+    spare = data;
+    if (length == 0) return;
+    ByteBuffer bb = ByteBuffer.wrap(data, 0, length);
+    try {
+      while (bb.hasRemaining()) log.write(bb);
+      log.force(false);
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    }
+    synced = last;
+  }
+
+  /**
+   * Syncs if enough records are waiting.
+   * @param lsn The number of the record that was just buffered.
+   * @throws IllegalStateException If the log cannot be written.
+   */
+  private void commit(long lsn) {
+    if (lsn - synced < syncBatch) return;
+    try {
+      sync(lsn);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write to the log for: " + dir, e);
+    }
+  }
+
+  /**
+   * Buffers a record for a change.
+   * @param op The operation: {@link #INSERT} or {@link #DELETE}.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return The number of the record.
+   */
+  private long append(byte op, SubjectNode s, PredicateNode p, ObjectNode o) {
+    byte[] sb = NodeCodec.encode(s);
+    byte[] pb = NodeCodec.encode(p);
+    byte[] ob = NodeCodec.encode(o);
+    int length = 1 + NodeCodec.varintSize(sb.length) + sb.length
+                   + NodeCodec.varintSize(pb.length) + pb.length
+                   + NodeCodec.varintSize(ob.length) + ob.length;
+    int start = pendingLength;
+    int end = start + RECORD_HEADER_SIZE + length;
+    if (end > pending.length) pending = Arrays.copyOf(pending, Math.max(end, pending.length * 2));
+    int offset = start + RECORD_HEADER_SIZE;
+    pending[offset++] = op;
+    offset = put(pending, offset, sb);
+    offset = put(pending, offset, pb);
+    offset = put(pending, offset, ob);
+    assert offset == end;
+    crc.reset();
+    crc.update(pending, start + RECORD_HEADER_SIZE, length);
+    putInt(pending, start, length);
+    putInt(pending, start + 4, (int)crc.getValue());
+    pendingLength = end;
+    return ++appended;
+  }
+
+  /**
+   * Loads the segments named in the manifest, if there is one. A segment file with any triples that
+   * belong in another segment is redistributed, and the segments it changes are marked as dirty.
+   * The file is kept until the next checkpoint has written all of those segments.
+   * @throws IOException If the checkpoint cannot be read.
+   */
+  private void loadCheckpoint() throws IOException {
+    File file = new File(dir, MANIFEST_FILE);
+    if (!file.exists()) return;
+    long[] gens;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != CHECKPOINT_MAGIC) throw new IOException("Not a graph manifest: " + file);
+      int version = in.readInt();
+      if (version != VERSION) throw new IOException("Unsupported graph manifest version: " + version);
+      gens = new long[in.readInt()];
+      checkpointGeneration = in.readLong();
+      for (int i = 0; i < gens.length; i++) gens[i] = in.readLong();
+    } catch (EOFException e) {
+      throw new IOException("Truncated graph manifest: " + file, e);
+    } finally {
+      in.close();
+    }
+
+    segmentGenerations = gens;
+    for (int i = 0; i < gens.length; i++) {
+      if (gens[i] == NONE) continue;
+      WritableGraph image = loadSegment(new File(dir, segmentName(i, gens[i])));
+      if (i < SEGMENTS && segments[i].isEmpty() && belongsTo(image, i)) {
+        segments[i] = image;
+      } else {
+        for (Iterator<Triple> t = image.match(null, null, null); t.hasNext(); ) {
+          Triple triple = t.next();
+          apply(INSERT, triple.getSubject(), triple.getPredicate(), triple.getObject());
+        }
+        if (i < SEGMENTS) dirty[i] = true;
+      }
+    }
+  }
+
+  /**
+   * Tests if every triple in a graph belongs in a given segment.
+   * @param graph The graph to test.
+   * @param segment The index of the segment.
+   * @return <code>true</code> if all the subjects are in the segment.
+   */
+  private static boolean belongsTo(Graph graph, int segment) {
+    for (Iterator<Triple> t = graph.match(null, null, null); t.hasNext(); ) {
+      if (segment(t.next().getSubject()) != segment) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Reads a segment file.
+   * @param file The file to read.
+   * @return A graph with the contents of the segment.
+   * @throws IOException If the segment cannot be read.
+   */
+  private WritableGraph loadSegment(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return new BinaryParser(in, factory).getGraph();
+    } catch (ParseException e) {
+      throw new IOException("Bad checkpoint segment: " + file, e);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes the triples in a segment to a file, and forces the file to disk.
+   * @param file The file to write.
+   * @param triples The triples in the segment.
+   * @throws IOException If the file cannot be written.
+   */
+  private static void writeSegment(File file, List<Triple> triples) throws IOException {
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      OutputStream out = new BufferedOutputStream(stream, BUFFER_SIZE);
+      new BinaryWriter(new SegmentImage(triples)).writeTo(out);
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Writes a new manifest, and moves it over the previous one.
+   * @param logGeneration The first log to replay after loading the segments.
+   * @param gens The generation of each segment file, or {@link #NONE} for an empty segment.
+   * @throws IOException If the manifest cannot be written.
+   */
+  private void writeManifest(long logGeneration, long[] gens) throws IOException {
+    File tmp = new File(dir, MANIFEST_FILE + TMP_SUFFIX);
+    FileOutputStream stream = new FileOutputStream(tmp);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(CHECKPOINT_MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(gens.length);
+      out.writeLong(logGeneration);
+      for (long g: gens) out.writeLong(g);
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+    Files.move(tmp.toPath(), new File(dir, MANIFEST_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replays every log since the checkpoint onto the graph, and opens the last one for appending.
+   * The last log is truncated after its last complete record. A new log is started if there is none.
+   * @throws IOException If a log cannot be read, or is not a log file.
+   */
+  private void recover() throws IOException {
+    List<Long> gens = new ArrayList<Long>();
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f: files) {
+        long gen = logGeneration(f.getName());
+        if (gen >= checkpointGeneration) gens.add(gen);
+      }
+    }
+    Collections.sort(gens);
+    long end = 0;
+    for (long gen: gens) end = replay(new File(dir, logName(gen)));
+    generation = gens.isEmpty() ? checkpointGeneration : gens.get(gens.size() - 1);
+
+    if (end < HEADER_SIZE) {
+      logFile = createLog(generation);
+      end = HEADER_SIZE;
+    } else {
+      logFile = new RandomAccessFile(new File(dir, logName(generation)), "rw");
+    }
+    log = logFile.getChannel();
+    try {
+      if (end < log.size()) {
+        log.truncate(end);
+        log.force(true);
+      }
+      log.position(end);
+    } catch (IOException e) {
+      logFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Replays a log onto the graph, stopping at the first incomplete or damaged record.
+   * @param file The log file.
+   * @return The end of the last complete record, or 0 if the log has no header.
+   * @throws IOException If the log cannot be read, or is not a log file.
+   */
+  private long replay(File file) throws IOException {
+    long size = file.length();
+    if (size < HEADER_SIZE) return 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+    try {
+      if (in.readInt() != MAGIC) throw new IOException("Not a graph log: " + file);
+      int version = in.readInt();
+      if (version != VERSION) throw new IOException("Unsupported graph log version: " + version);
+      long end = HEADER_SIZE;
+      byte[] payload = new byte[BUFFER_SIZE];
+      CRC32 check = new CRC32();
+      try {
+        while (true) {
+          int length = in.readInt();
+          int sum = in.readInt();
+          if (length <= 0 || length > size - end) break;
+          if (length > payload.length) payload = new byte[length];
+          in.readFully(payload, 0, length);
+          check.reset();
+          check.update(payload, 0, length);
+          if ((int)check.getValue() != sum || !replay(payload, length)) break;
+          end += RECORD_HEADER_SIZE + length;
+        }
+      } catch (EOFException e) {
+        // the last record was not completely written
+      }
+      return end;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Applies a logged change to the graph.
+   * @param payload The payload of the record.
+   * @param length The length of the payload.
+   * @return <code>true</code> if the record was valid.
+   */
+  private boolean replay(byte[] payload, int length) {
+    int[] pos = new int[] { 1 };
+    try {
+      Node s = node(payload, pos);
+      Node p = node(payload, pos);
+      Node o = node(payload, pos);
+      if (pos[0] != length) return false;
+      if (payload[0] != INSERT && payload[0] != DELETE) return false;
+      apply(payload[0], (SubjectNode)s, (PredicateNode)p, (ObjectNode)o);
+      return true;
+    } catch (RuntimeException e) {
+      // a record that passed its checksum but cannot be decoded
+      return false;
+    }
+  }
+
+  /**
+   * Creates a new log file with a header, and forces it to disk.
+   * @param gen The generation of the log.
+   * @return The open log file, positioned after the header.
+   * @throws IOException If the log cannot be created.
+   */
+  private RandomAccessFile createLog(long gen) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(dir, logName(gen)), "rw");
+    try {
+      FileChannel channel = file.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      channel.truncate(0);
+      while (header.hasRemaining()) channel.write(header);
+      channel.force(true);
+      return file;
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Removes the segment files that are not in the manifest, the logs from before it,
+   * and any partly written files.
+   */
+  private void removeUnused() {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Set<String> used = new HashSet<String>();
+    for (int i = 0; i < segmentGenerations.length; i++) {
+      if (segmentGenerations[i] != NONE) used.add(segmentName(i, segmentGenerations[i]));
+    }
+    for (File f: files) {
+      String name = f.getName();
+      long gen = logGeneration(name);
+      if ((gen >= 0 && gen < checkpointGeneration) ||
+          (name.startsWith(SEGMENT_PREFIX) && !used.contains(name)) ||
+          name.endsWith(TMP_SUFFIX)) {
+        f.delete();
+      }
+    }
+  }
+
+  /**
+   * Gets the generation from the name of a log file.
+   * @param name The name of a file.
+   * @return The generation of the log, or -1 if the name is not for a log.
+   */
+  private static long logGeneration(String name) {
+    if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX)) return -1;
+    try {
+      return Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Tests if any segment is marked as changed.
+   * @param changed The flags for each segment.
+   * @return <code>true</code> if any flag is set.
+   */
+  private static boolean isDirty(boolean[] changed) {
+    for (boolean c: changed) if (c) return true;
+    return false;
+  }
+
+  /**
+   * Decodes a length prefixed node from a record.
+   * @param data The record payload.
+   * @param pos A single element array with the offset of the node. This is moved past the node.
+   * @return The node.
+   */
+  private static Node node(byte[] data, int[] pos) {
+    int offset = pos[0];
+    int length = 0;
+    int shift = 0;
+    byte v;
+    do {
+      v = data[offset++];
+      length |= (v & 0x7F) << shift;
+      shift += 7;
+    } while (v < 0);
+    Node n = NodeCodec.decode(data, offset);
+    pos[0] = offset + length;
+    return n;
+  }
+
+  /**
+   * Writes a length prefixed array into a buffer.
+   * @param buffer The buffer to write to.
+   * @param offset The position to write at.
+   * @param data The data to write.
+   * @return The position after the data.
+   */
+  private static int put(byte[] buffer, int offset, byte[] data) {
+    offset = NodeCodec.putVarint(buffer, offset, data.length);
+    System.arraycopy(data, 0, buffer, offset, data.length);
+    return offset + data.length;
+  }
+
+  /**
+   * Writes a big-endian int into a buffer.
+   * @param buffer The buffer to write to.
+   * @param offset The position to write at.
+   * @param value The value to write.
+   */
+  private static void putInt(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte)(value >>> 24);
+    buffer[offset + 1] = (byte)(value >>> 16);
+    buffer[offset + 2] = (byte)(value >>> 8);
+    buffer[offset + 3] = (byte)value;
+  }
+
+  /**
+   * Checks that the graph can still be modified.
+   * @throws IllegalStateException If the graph has been closed, or the log could not be written.
+   */
+  private void checkOpen() {
+    if (closed) throw new IllegalStateException("Graph is closed");
+    if (failure != null) throw new IllegalStateException("Unable to write to the log for: " + dir, failure);
+  }
+
+  /**
+   * Checks that no write to the log has failed.
+   * @throws IOException If the log could not be written.
+   */
+  private void checkLog() throws IOException {
+    if (failure != null) throw new IOException("Unable to write to the log for: " + dir, failure);
+  }
+
+  /**
+   * Iterates over the matches in every segment in turn.
+   */
+  private class SegmentIterator implements Iterator<Triple> {
+
+    /** The predicate to match. */
+    private final PredicateNode p;
+
+    /** The object to match. */
+    private final ObjectNode o;
+
+    /** The index of the segment being iterated over. */
+    private int segment = 0;
+
+    /** The matches in the current segment. */
+    private Iterator<Triple> current;
+
+    SegmentIterator(PredicateNode p, ObjectNode o) {
+      this.p = p;
+      this.o = o;
+      current = segments[0].match(null, p, o);
+    }
+
+    public boolean hasNext() {
+      while (!current.hasNext()) {
+        if (segment == SEGMENTS - 1) return false;
+        current = segments[++segment].match(null, p, o);
+      }
+      return true;
+    }
+
+    public Triple next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return current.next();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * A read-only graph over a copy of the triples in a segment, for writing to a checkpoint.
+   */
+  private static class SegmentImage extends AbstractMatchGraph {
+
+    /** The triples in the segment. */
+    private final List<Triple> triples;
+
+    SegmentImage(List<Triple> triples) {
+      this.triples = triples;
+    }
+
+    public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+      return new FilteredIterator(s, p, o, triples);
+    }
+
+    public long size() {
+      return triples.size();
+    }
+  }
+
+}
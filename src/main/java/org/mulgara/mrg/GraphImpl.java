@@ -55,4 +55,22 @@ public class GraphImpl extends AbstractGraph {
   protected <X> Collection<X> createCollection() {
     return new HashSet<X>();
   }
+
+  /**
+   * Use hashmaps sized for the expected number of entries.
+   * @param size The number of entries the map is expected to hold.
+   * @return an instance of a HashMap.
+   */
+  protected <X,Y> Map<X,Y> createMap(int size) {
+    return new HashMap<X,Y>(capacity(size));
+  }
+
+  /**
+   * Use a HashSet sized for the expected number of entries.
+   * @param size The number of entries the set is expected to hold.
+   * @return an instance of a HashSet.
+   */
+  protected <X> Collection<X> createCollection(int size) {
+    return new HashSet<X>(capacity(size));
+  }
 }
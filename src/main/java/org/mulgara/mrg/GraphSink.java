@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * A sink that inserts every triple into a graph. Prefixes are ignored.
+ */
+public class GraphSink implements TripleSink {
+
+  /** The graph to insert into. */
+  private final AppendableGraph graph;
+
+  /**
+   * Creates a sink for a graph.
+   * @param graph The graph to insert the triples into.
+   */
+  public GraphSink(AppendableGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Nothing needs to be done to start.
+   */
+  public void start() {
+    // do nothing
+  }
+
+  /**
+   * Graphs don't keep prefixes.
+   * @param prefix The prefix being declared.
+   * @param namespace The namespace the prefix maps to.
+   */
+  public void prefix(String prefix, String namespace) {
+    // do nothing
+  }
+
+  /**
+   * Inserts a triple into the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   */
+  public void triple(SubjectNode s, PredicateNode p, ObjectNode o) {
+    graph.insert(s, p, o);
+  }
+
+  /**
+   * Nothing needs to be done to finish.
+   */
+  public void end() {
+    // do nothing
+  }
+
+  /**
+   * Gets the graph that this sink inserts into.
+   * @return The graph being populated.
+   */
+  public AppendableGraph getGraph() {
+    return graph;
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * Counts of the data in a graph, maintained as the graph is modified, so they can be read in
+ * constant time. These are used for query planning and monitoring.
+ * A graph only has the counts that its indexes can maintain, and returns {@link #UNKNOWN} for the others.
+ */
+public interface GraphStatistics {
+
+  /** The value of a count that is not maintained. */
+  public static final long UNKNOWN = -1L;
+
+  /**
+   * Gets the number of triples.
+   * @return The number of triples in the graph.
+   */
+  public long getTripleCount();
+
+  /**
+   * Gets the number of distinct subjects.
+   * @return The number of subjects, or {@link #UNKNOWN}.
+   */
+  public long getSubjectCount();
+
+  /**
+   * Gets the number of distinct predicates.
+   * @return The number of predicates, or {@link #UNKNOWN}.
+   */
+  public long getPredicateCount();
+
+  /**
+   * Gets the number of distinct objects.
+   * @return The number of objects, or {@link #UNKNOWN}.
+   */
+  public long getObjectCount();
+
+  /**
+   * Gets the number of triples with a given subject.
+   * @param s The subject to count.
+   * @return The number of triples, or {@link #UNKNOWN}.
+   */
+  public long getSubjectFanOut(SubjectNode s);
+
+  /**
+   * Gets the number of triples with a given predicate.
+   * @param p The predicate to count.
+   * @return The number of triples, or {@link #UNKNOWN}.
+   */
+  public long getPredicateFanOut(PredicateNode p);
+
+  /**
+   * Gets the number of triples with a given object.
+   * @param o The object to count.
+   * @return The number of triples, or {@link #UNKNOWN}.
+   */
+  public long getObjectFanOut(ObjectNode o);
+
+}
@@ -16,6 +16,8 @@
 
 package org.mulgara.mrg;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,31 +25,115 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * A graph with three indexes for complete searchability. Indexes are hash-based, giving constant time lookups.
  * This graph operates the same as other implementations of graph, but is fully indexed.
+ * <p>
+ * The pos and osp indexes can be selected individually, to only pay for the access patterns that are
+ * needed. Patterns that no index serves fall back to scanning the spo index.
+ * </p>
+ * <p>
+ * A value index can also be selected, to find numeric and dateTime literals by range with
+ * {@link #matchRange(PredicateNode, Literal, Literal)}, {@link #matchLowest(PredicateNode, int)}
+ * and {@link #matchHighest(PredicateNode, int)}. This is not part of {@link #ALL_INDEXES}.
+ * </p>
  */
-public class IndexedGraph extends AbstractGraph {
+public class IndexedGraph extends AbstractGraph implements IndexedMatch {
 
-  /** The pos index */
-  ThreeTierIndex<PredicateNode,ObjectNode,SubjectNode> pos = new ThreeTierIndex<PredicateNode,ObjectNode,SubjectNode>();
+  /** Selects the pos index, for lookups by predicate, or by predicate and object. */
+  public static final int POS_INDEX = 1;
 
-  /** The osp index */
-  ThreeTierIndex<ObjectNode,SubjectNode,PredicateNode> osp = new ThreeTierIndex<ObjectNode,SubjectNode,PredicateNode>();
+  /** Selects the osp index, for lookups by object, or by object and subject. */
+  public static final int OSP_INDEX = 2;
+
+  /** Selects all of the hash indexes. */
+  public static final int ALL_INDEXES = POS_INDEX | OSP_INDEX;
+
+  /** Selects the value index, for range queries over numeric and dateTime literals. */
+  public static final int VALUE_INDEX = 4;
+
+  /** The pos index. <code>null</code> if not selected. */
+  ThreeTierIndex<PredicateNode,ObjectNode,SubjectNode> pos;
+
+  /** The osp index. <code>null</code> if not selected. */
+  ThreeTierIndex<ObjectNode,SubjectNode,PredicateNode> osp;
+
+  /** The value index. <code>null</code> if not selected. */
+  ValueIndex values;
+
+  /** The ordering of triples for the pos index. */
+  static final Permutation<PredicateNode,ObjectNode,SubjectNode> POS = new Permutation<PredicateNode,ObjectNode,SubjectNode>() {
+    PredicateNode first(Triple t) { return t.getPredicate(); }
+    ObjectNode second(Triple t) { return t.getObject(); }
+    SubjectNode third(Triple t) { return t.getSubject(); }
+  };
+
+  /** The ordering of triples for the osp index. */
+  static final Permutation<ObjectNode,SubjectNode,PredicateNode> OSP = new Permutation<ObjectNode,SubjectNode,PredicateNode>() {
+    ObjectNode first(Triple t) { return t.getObject(); }
+    SubjectNode second(Triple t) { return t.getSubject(); }
+    PredicateNode third(Triple t) { return t.getPredicate(); }
+  };
+
+  /**
+   * Default constructor for an empty graph with all indexes.
+   */
+  public IndexedGraph() {
+    this(ALL_INDEXES);
+  }
 
   /**
-   * Default constructor for an empty graph.
+   * Creates an empty graph with a selection of indexes.
+   * @param indexes The indexes to use, from {@link #POS_INDEX}, {@link #OSP_INDEX} and {@link #VALUE_INDEX}.
    */
-  public IndexedGraph() {}
+  public IndexedGraph(int indexes) {
+    if ((indexes & POS_INDEX) != 0) pos = new ThreeTierIndex<PredicateNode,ObjectNode,SubjectNode>();
+    if ((indexes & OSP_INDEX) != 0) osp = new ThreeTierIndex<ObjectNode,SubjectNode,PredicateNode>();
+    if ((indexes & VALUE_INDEX) != 0) values = new ValueIndex();
+  }
 
   /**
    * Builds a graph with a collection of triples.
    * @param triples The initial triples for the graph.
    */
   public IndexedGraph(Collection<Triple> triples) {
-    super(triples);
+    this(ALL_INDEXES, triples);
+  }
+
+  /**
+   * Builds a graph with a selection of indexes and a collection of triples.
+   * @param indexes The indexes to use, from {@link #POS_INDEX}, {@link #OSP_INDEX} and {@link #VALUE_INDEX}.
+   * @param triples The initial triples for the graph.
+   */
+  public IndexedGraph(int indexes, Collection<Triple> triples) {
+    this(indexes);
+    insertAll(triples.iterator());
+  }
+
+  /**
+   * Tests if an index is available. The spo index is always available.
+   * @param index The index to test for: {@link #POS_INDEX}, {@link #OSP_INDEX} or {@link #VALUE_INDEX}.
+   * @return <code>true</code> if the graph maintains the index.
+   */
+  public boolean hasIndex(int index) {
+    if (index == POS_INDEX) return pos != null;
+    if (index == OSP_INDEX) return osp != null;
+    if (index == VALUE_INDEX) return values != null;
+    return false;
+  }
+
+  /**
+   * Tests if the indexes can find triples from a set of bound positions.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if the subject is bound, or a bound predicate or object has its index.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || (p && pos != null) || (o && osp != null);
   }
 
   /**
@@ -67,18 +153,64 @@ public class IndexedGraph extends AbstractGraph {
   }
 
   /**
-   * Add a new triple to the graph.
+   * Use hashmaps sized for the expected number of entries.
+   * @param size The number of entries the map is expected to hold.
+   * @return an instance of a HashMap.
+   */
+  protected <X,Y> Map<X,Y> createMap(int size) {
+    return new HashMap<X,Y>(capacity(size));
+  }
+
+  /**
+   * Use a HashSet sized for the expected number of entries.
+   * @param size The number of entries the set is expected to hold.
+   * @return an instance of a HashSet.
+   */
+  protected <X> Collection<X> createCollection(int size) {
+    return new HashSet<X>(capacity(size));
+  }
+
+  /**
+   * Adds an array of triples to each of the selected indexes.
+   * @param triples The triples to add. This array is reordered.
+   * @return The number of triples that were not already in the graph.
+   */
+  protected long bulkInsert(Triple[] triples) {
+    long result = super.bulkInsert(triples);
+    if (pos != null) {
+      Arrays.sort(triples, POS);
+      long r2 = pos.putAll(triples, POS);
+      assert result == r2;
+    }
+    if (osp != null) {
+      Arrays.sort(triples, OSP);
+      long r3 = osp.putAll(triples, OSP);
+      assert result == r3;
+    }
+    if (values != null) {
+      for (Triple t: triples) values.add(t.getSubject(), t.getPredicate(), t.getObject());
+    }
+    return result;
+  }
+
+  /**
+   * Add a new triple to each of the selected indexes.
    * @param s The subject of the triple.
    * @param p The predicate of the triple.
    * @param o The object of the triple.
-   * @return <code>true</code> if the triple was already in the graph.
+   * @return <code>true</code> if the triple was not already in the graph.
    */
-  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
-    boolean result = super.insert(s, p, o);
-    boolean r2 = pos.put(p, o, s);
-    boolean r3 = osp.put(o, s, p);
-    assert result == r2;
-    assert result == r3;
+  protected boolean insertNodes(SubjectNode s, PredicateNode p, ObjectNode o) {
+    boolean result = super.insertNodes(s, p, o);
+    if (pos != null) {
+      boolean r2 = pos.put(p, o, s);
+      assert result == r2;
+    }
+    if (osp != null) {
+      boolean r3 = osp.put(o, s, p);
+      assert result == r3;
+    }
+    if (values != null && result) values.add(s, p, o);
     return result;
   }
 
@@ -91,10 +223,15 @@ public class IndexedGraph extends AbstractGraph {
    */
   public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
     boolean result = super.delete(s, p, o);
-    boolean r2 = pos.remove(p, o, s);
-    boolean r3 = osp.remove(o, s, p);
-    assert result == r2;
-    assert result == r3;
+    if (pos != null) {
+      boolean r2 = pos.remove(p, o, s);
+      assert result == r2;
+    }
+    if (osp != null) {
+      boolean r3 = osp.remove(o, s, p);
+      assert result == r3;
+    }
+    if (values != null && result) values.remove(s, p, o);
     return result;
   }
 
@@ -110,7 +247,7 @@ public class IndexedGraph extends AbstractGraph {
     if (p == Graph.X) p = null;
     if (o == Graph.X) o = null;
 
-    if (s == null && p == null && o == null) return getTriples().iterator();
+    if (s == null && p == null && o == null) return super.match(s, p, o);
     if (s != null && p != null && o != null) {
       if (spo.isDefinedAt(s)) {
         if (spo.get(s).get(p).contains(o)) return Collections.singletonList(new Triple(s, p, o)).iterator();
@@ -123,21 +260,94 @@ public class IndexedGraph extends AbstractGraph {
     if (s != null && p != null && o == null) return new TwoFixedIterator(spo, s, p);
     if (s != null && p == null && o == null) return new OneFixedIterator(spo, s);
 
-    if (s == null && p != null && o != null) return new TwoFixedIterator(pos, p, o);
-    if (s == null && p != null && o == null) return new OneFixedIterator(pos, p);
+    if (s == null && p != null && o != null) {
+      if (pos != null) return new TwoFixedIterator(pos, p, o);
+      if (osp != null) return new FilteredIterator(null, p, null, new OneFixedIterator(osp, o));
+      return super.match(s, p, o);
+    }
+    if (s == null && p != null && o == null) return pos != null ? new OneFixedIterator(pos, p) : super.match(s, p, o);
 
-    if (s != null && p == null && o != null) return new TwoFixedIterator(osp, o, s);
-    if (s == null && p == null && o != null) return new OneFixedIterator(osp, o);
+    if (s != null && p == null && o != null) return osp != null ? new TwoFixedIterator(osp, o, s) : super.match(s, p, o);
+    if (s == null && p == null && o != null) return osp != null ? new OneFixedIterator(osp, o) : super.match(s, p, o);
     throw new AssertionError("Unable to handle query pattern");
   }
 
+  /**
+   * Finds the triples for a predicate with numeric or dateTime values in a range. Both bounds are
+   * inclusive, and literals with other types are not matched. Without the value index, every
+   * triple with the predicate is sorted.
+   * @param p The predicate of the triples to match.
+   * @param low The lowest value to match, or <code>null</code> for no lower bound.
+   * @param high The highest value to match, or <code>null</code> for no upper bound.
+   * @return The matching triples, in ascending order of value.
+   * @throws IllegalArgumentException If a bound is not a numeric or dateTime literal.
+   */
+  public Iterator<Triple> matchRange(PredicateNode p, Literal low, Literal high) {
+    return valueIndex(p).range(p, low, high);
+  }
+
+  /**
+   * Finds the triples for a predicate with the lowest numeric or dateTime values.
+   * @param p The predicate of the triples to match.
+   * @param k The maximum number of triples to return.
+   * @return Up to k triples, in ascending order of value.
+   */
+  public Iterator<Triple> matchLowest(PredicateNode p, int k) {
+    return valueIndex(p).lowest(p, k);
+  }
+
+  /**
+   * Finds the triples for a predicate with the highest numeric or dateTime values.
+   * @param p The predicate of the triples to match.
+   * @param k The maximum number of triples to return.
+   * @return Up to k triples, in descending order of value.
+   */
+  public Iterator<Triple> matchHighest(PredicateNode p, int k) {
+    return valueIndex(p).highest(p, k);
+  }
+
+  /**
+   * Gets the value index, or builds a temporary one for a single predicate.
+   * @param p The predicate to build an index for, if needed.
+   * @return An index holding the values for the predicate.
+   */
+  private ValueIndex valueIndex(PredicateNode p) {
+    if (values != null) return values;
+    ValueIndex index = new ValueIndex();
+    Iterator<Triple> i = match(null, p, null);
+    while (i.hasNext()) {
+      Triple t = i.next();
+      index.add(t.getSubject(), t.getPredicate(), t.getObject());
+    }
+    return index;
+  }
+
+  /**
+   * Gets all the subjects that share a given property/value. This is looked up in the pos
+   * index, or searched for in the osp index, if either is available.
+   * @param property The property being looked for.
+   * @param value The value being looked for.
+   * @return The subjects that have the value for the property.
+   */
+  public List<SubjectNode> getSubjects(PredicateNode property, ObjectNode value) {
+    if (pos != null) return new ArrayList<SubjectNode>(pos.get(property).get(value));
+    if (osp == null) return super.getSubjects(property, value);
+    List<SubjectNode> results = new ArrayList<SubjectNode>();
+    Iterator<Map.Entry<SubjectNode,Collection<PredicateNode>>> i = osp.get(value).entryIterator();
+    while (i.hasNext()) {
+      Map.Entry<SubjectNode,Collection<PredicateNode>> entry = i.next();
+      if (entry.getValue().contains(property)) results.add(entry.getKey());
+    }
+    return results;
+  }
+
 
   /**
    * Gets all the predicates in the graph.
    * @return All the predicatess in the graph.
    */
   public Collection<PredicateNode> getPredicates() {
-    return pos.getKeySet();
+    return pos != null ? pos.getKeySet() : super.getPredicates();
   }
 
   /**
@@ -145,7 +355,42 @@ public class IndexedGraph extends AbstractGraph {
    * @return All the objects in the graph.
    */
   public Collection<ObjectNode> getObjects() {
-    return osp.getKeySet();
+    return osp != null ? osp.getKeySet() : super.getObjects();
+  }
+
+
+  /**
+   * Gets the number of distinct predicates, if the pos index is available.
+   * @return The number of predicates, or {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getPredicateCount() {
+    return pos != null ? pos.getKeyCount() : UNKNOWN;
+  }
+
+  /**
+   * Gets the number of distinct objects, if the osp index is available.
+   * @return The number of objects, or {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getObjectCount() {
+    return osp != null ? osp.getKeyCount() : UNKNOWN;
+  }
+
+  /**
+   * Gets the number of triples with a given predicate, if the pos index is available.
+   * @param p The predicate to count.
+   * @return The number of triples, or {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getPredicateFanOut(PredicateNode p) {
+    return pos != null ? pos.get(p).size() : UNKNOWN;
+  }
+
+  /**
+   * Gets the number of triples with a given object, if the osp index is available.
+   * @param o The object to count.
+   * @return The number of triples, or {@link GraphStatistics#UNKNOWN}.
+   */
+  public long getObjectFanOut(ObjectNode o) {
+    return osp != null ? osp.get(o).size() : UNKNOWN;
   }
 
 
@@ -316,10 +561,14 @@ public class IndexedGraph extends AbstractGraph {
      * @return <code>true</code> if the iterator has more elements.
      */
     public boolean hasNext() {
-      boolean result = innerIt.hasNext();
-      if (result) return result;
-      // this depends on inner collections never being empty
-      return outerIt.hasNext();
+      // inner collections are only empty while a concurrent writer is removing them
+      while (!innerIt.hasNext()) {
+        if (!outerIt.hasNext()) return false;
+        Map.Entry<? extends Node,Collection<? extends Node>> kv = outerIt.next();
+        second = kv.getKey();
+        innerIt = kv.getValue().iterator();
+      }
+      return true;
     }
 
     /**
@@ -328,12 +577,7 @@ public class IndexedGraph extends AbstractGraph {
      * @throws NoSuchElementException iteration has no more elements.
      */
     public Triple next() {
-      if (!innerIt.hasNext()) {
-        Map.Entry<? extends Node,Collection<? extends Node>> kv = outerIt.next();
-        second = kv.getKey();
-        // this depends on inner collections never being empty
-        innerIt = kv.getValue().iterator();
-      }
+      if (!hasNext()) throw new NoSuchElementException();
 
       Node[] t = new Node[3];
       t[rotation] = first;
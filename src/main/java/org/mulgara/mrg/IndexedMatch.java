@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * Implemented by graphs that can report which patterns they match from an index, rather than
+ * by scanning. This is used for query planning. Graphs that do not implement this are assumed
+ * to be indexed on the subject only.
+ */
+public interface IndexedMatch {
+
+  /**
+   * Tests if the graph has an index that finds triples directly from a set of bound positions.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if matching triples can be found without a scan.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o);
+
+}
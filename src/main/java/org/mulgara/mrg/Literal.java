@@ -16,10 +16,16 @@
 
 package org.mulgara.mrg;
 
+import java.math.BigInteger;
 import java.net.URI;
 
+import org.mulgara.mrg.vocab.uri.XSD;
+
 /**
  * A Literal node.
+ * The value of a typed literal is only decoded from its text when it is first asked for,
+ * and is then kept. Use {@link #validate()} to decode the value immediately.
+ * Instances are not shared automatically. Use a {@link NodeCache} to reuse equal objects.
  */
 public class Literal implements ObjectNode {
 
@@ -35,15 +41,21 @@ public class Literal implements ObjectNode {
   /** The datatype of the literal. Optional. */
   private final URI type;
 
-  /** Optional data value for XSD types that map to structured data. */
-  private final Object data;
+  /** Marks a data value that has not been decoded from the text yet. */
+  private static final Object UNDECODED = new Object();
+
+  /**
+   * Optional data value for XSD types that map to structured data.
+   * This is {@link #UNDECODED} until the value is first needed.
+   */
+  private volatile Object data;
 
   /**
    * Create a new simple literal.
    * @param text The text of the literal.
    */
   public Literal(String text) {
-    this.text = text.intern();
+    this.text = text;
     lang = null;
     type = null;
     data = null;
@@ -55,9 +67,9 @@ public class Literal implements ObjectNode {
    * @param type The URI of the datatype.
    */
   public Literal(String text, URI type) {
-    this.text = text.intern();
+    this.text = text;
     this.type = type;
-    data = toData(type, text);
+    data = UNDECODED;
     lang = null;
   }
 
@@ -68,9 +80,9 @@ public class Literal implements ObjectNode {
    * @param type The URI of the datatype.
    */
   public Literal(String text, Object val, URI type) {
-    this.text = text.intern();
+    this.text = text;
     this.type = type;
-    data = val;
+    data = (val != null) ? val : UNDECODED;
     lang = null;
   }
 
@@ -94,7 +106,7 @@ public class Literal implements ObjectNode {
    * @param type The URI of the datatype.
    */
   public Literal(String text, String lang, URI type) {
-    this.text = text.intern();
+    this.text = text;
     if (lang != null) {
       if (type != null) throw new IllegalArgumentException("Literals may not have a language tag and a data type");
       this.type = null;
@@ -105,7 +117,7 @@ public class Literal implements ObjectNode {
       this.lang = null;
       if (type != null) {
         this.type = type;
-        data = toData(type, text);
+        data = UNDECODED;
       } else {
         this.type = null;
         data = null;
@@ -147,7 +159,7 @@ public class Literal implements ObjectNode {
    */
   public boolean valueEquals(Literal l) {
     // defer to the standard equality until values are handled.
-    return eq(data, l.data);
+    return eq(toJava(), l.toJava());
   }
 
   /**
@@ -227,8 +239,96 @@ public class Literal implements ObjectNode {
    * @return a Java object with the literal data in it.
    */
   public Object toJava() {
-    if (data != null) return data;
-    return toData(type, text);
+    Object d = data;
+    if (d == UNDECODED) {
+      d = toData(type, text);
+      data = d;
+    }
+    return d != null ? d : text;
+  }
+
+  /**
+   * Convert to a Java type, using a given set of datatype conversions. The result is only
+   * cached when the conversions are the ones used by {@link #toJava()}.
+   * @param types The conversions to use.
+   * @return a Java object with the literal data in it.
+   */
+  public Object toJava(Datatypes types) {
+    if (types == XSDMapper.getDatatypes()) return toJava();
+    try {
+      if (type != null && types.isKnownType(type)) return types.toData(type, text);
+    } catch (IllegalArgumentException e) {
+      // unable to convert to data
+    }
+    return text;
+  }
+
+  /**
+   * Gets the value of a numeric literal as a long, without creating any objects.
+   * Floating point values are truncated.
+   * @return The value of the literal.
+   * @throws NumberFormatException If the text is not a number, or is an integer that does not fit in a long.
+   */
+  public long asLong() {
+    Object d = data;
+    if (d instanceof BigInteger && ((BigInteger)d).bitLength() > 63) {
+      throw new NumberFormatException("Value out of range for a long: " + text);
+    }
+    if (d instanceof Number) return ((Number)d).longValue();
+    if (isFloatingPoint()) return (long)asDouble();
+    return Long.parseLong(text);
+  }
+
+  /**
+   * Gets the value of a numeric literal as a double, without creating a boxed value.
+   * @return The value of the literal.
+   * @throws NumberFormatException If the text is not a number.
+   */
+  public double asDouble() {
+    Object d = data;
+    if (d instanceof Number) return ((Number)d).doubleValue();
+    // XSD uses different names than Java for infinity
+    if (text.equals("INF") || text.equals("+INF")) return Double.POSITIVE_INFINITY;
+    if (text.equals("-INF")) return Double.NEGATIVE_INFINITY;
+    return Double.parseDouble(text);
+  }
+
+  /**
+   * Gets the value of a boolean literal, without creating a boxed value.
+   * @return The value of the literal.
+   * @throws IllegalArgumentException If the text is not a boolean value.
+   */
+  public boolean asBoolean() {
+    if (text.equals("true") || text.equals("1")) return true;
+    if (text.equals("false") || text.equals("0")) return false;
+    throw new IllegalArgumentException("Not a boolean value: " + text);
+  }
+
+  /**
+   * Tests if the datatype of this literal has a fractional part.
+   * @return <code>true</code> if the datatype is xsd:double, xsd:float or xsd:decimal.
+   */
+  private boolean isFloatingPoint() {
+    return type != null && (type.equals(XSD.DOUBLE) || type.equals(XSD.FLOAT) || type.equals(XSD.DECIMAL));
+  }
+
+  /**
+   * Decodes the value of a typed literal now, rather than waiting for it to be used.
+   * Literals with a datatype that is not known to {@link XSDMapper} are not checked.
+   * @return This literal.
+   * @throws IllegalArgumentException If the text is not a valid value for the datatype.
+   */
+  public Literal validate() {
+    Object d = data;
+    // a value that could not be decoded is held as the text
+    if ((d == UNDECODED || d == text) && type != null && XSDMapper.isKnownType(type)) {
+      try {
+        data = XSDMapper.toData(type, text);
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid " + type + " value: " + text, e);
+      }
+    }
+    return this;
   }
 
   /**
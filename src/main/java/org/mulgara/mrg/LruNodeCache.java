@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A node cache that holds a bounded number of nodes. When the cache is full, the least
+ * recently used node is dropped. This suits parsing, where repeated nodes are usually close together.
+ */
+public class LruNodeCache extends NodeCache {
+
+  /** The default maximum number of nodes to hold. */
+  public static final int DEFAULT_SIZE = 0x10000;
+
+  /** The cached nodes, in order of use. */
+  private final Map<Node,Node> nodes;
+
+  /**
+   * Creates a cache of the default size.
+   */
+  public LruNodeCache() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Creates a cache that holds up to a given number of nodes.
+   * @param maxSize The maximum number of nodes to hold.
+   */
+  public LruNodeCache(final int maxSize) {
+    if (maxSize < 1) throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+    nodes = new LinkedHashMap<Node,Node>(AbstractGraph.capacity(maxSize), 0.75f, true) {
+      private static final long serialVersionUID = -3405948203527845619L;
+      protected boolean removeEldestEntry(Map.Entry<Node,Node> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Looks up a node, and adds it to the cache if an equal node is not already there.
+   * @param node The node to look up.
+   * @return The cached node that equals the node, or <code>null</code> if there was none.
+   */
+  protected synchronized Node find(Node node) {
+    Node cached = nodes.get(node);
+    if (cached == null) nodes.put(node, node);
+    return cached;
+  }
+
+  /**
+   * Gets the number of nodes in the cache.
+   * @return The number of cached nodes.
+   */
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Removes all the nodes from the cache.
+   */
+  public synchronized void clear() {
+    nodes.clear();
+  }
+
+}
@@ -0,0 +1,714 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.mulgara.mrg.LsmRun.Entry;
+
+/**
+ * A graph stored as a log-structured merge tree, for data sets that are larger than memory.
+ * <p>
+ * Changes go to a memtable: a pair of {@link ConcurrentGraph}s, holding the triples that were
+ * inserted and the triples that were deleted. When the memtable reaches its size limit it is
+ * frozen, a new memtable takes its place, and a background thread writes the frozen memtable to
+ * disk as an {@link LsmRun}. Each run holds the SPO, POS and OSP orderings of its entries, sorted
+ * by the encoded nodes, with deleted triples kept as markers that hide older entries.
+ * Runs are merged in the background in tiers: when {@link #FANOUT} runs of the same tier build up,
+ * they are merged into one run of the next tier. Deletion markers are discarded once a merge
+ * includes the oldest run.
+ * </p>
+ * <p>
+ * {@link #match(SubjectNode, PredicateNode, ObjectNode)} chooses the ordering that has the bound
+ * nodes as a prefix, and merges the matching entries from the memtables and every run, taking the
+ * newest entry for each triple. Runs are memory mapped, so only the memtables and the entries
+ * being read are on the heap. A list of the runs and the number of triples they hold is kept in
+ * a manifest, which is replaced in a single move whenever the runs change.
+ * </p>
+ * <p>
+ * There is no write-ahead log, so changes in the memtable are lost if the process stops without
+ * {@link #close()} or {@link #flush()}. Writes are serialized. Reads do not lock, and iterators are
+ * weakly consistent.
+ * </p>
+ */
+public class LsmGraph extends AbstractWritableMatchGraph implements Closeable, IndexedMatch {
+
+  /** The marker at the start of the manifest: "MRGS". */
+  public static final int MAGIC = 0x4D524753;
+
+  /** The version of the manifest format. */
+  public static final int VERSION = 1;
+
+  /** The default number of entries in a memtable before it is written to disk. */
+  public static final int DEFAULT_MEMTABLE_SIZE = 100000;
+
+  /** The number of runs in a tier that causes them to be merged. */
+  public static final int FANOUT = 4;
+
+  /** The largest number of frozen memtables waiting to be written before writers wait. */
+  private static final int MAX_FROZEN = 2;
+
+  /** The name of the file that lists the runs. */
+  static final String MANIFEST_FILE = "manifest";
+
+  /** The start of the name of every run file. */
+  private static final String RUN_PREFIX = "run-";
+
+  /** The end of the name of every run file. */
+  private static final String RUN_SUFFIX = ".lsm";
+
+  /** The directory holding the runs. */
+  private final File dir;
+
+  /** The number of entries in a memtable before it is written to disk. */
+  private final int memtableSize;
+
+  /** The memtables and runs. Replaced while holding writeLock. */
+  private volatile Levels levels;
+
+  /** The number of triples in the graph. Modified while holding writeLock. */
+  private volatile long size;
+
+  /** The number of triples in the runs. Modified while holding writeLock. */
+  private long persistedSize;
+
+  /** The ID for the next run file. Modified while holding writeLock. */
+  private long nextRun;
+
+  /** Held while modifying the graph, and while changing the levels. */
+  private final Object writeLock = new Object();
+
+  /** The thread that writes and merges runs. */
+  private final ExecutorService background;
+
+  /** The first error from the background thread, or <code>null</code>. */
+  private volatile IOException failure = null;
+
+  /** Set once the graph has been closed. */
+  private volatile boolean closed = false;
+
+  /**
+   * Opens a graph with the default memtable size.
+   * @param dir The directory for the graph's files. This is created if it does not exist.
+   * @throws IOException If the files cannot be read or created.
+   */
+  public LsmGraph(File dir) throws IOException {
+    this(dir, DEFAULT_MEMTABLE_SIZE);
+  }
+
+  /**
+   * Opens a graph.
+   * @param dir The directory for the graph's files. This is created if it does not exist.
+   * @param memtableSize The number of inserted and deleted triples to hold in memory
+   *        before writing them to disk.
+   * @throws IOException If the files cannot be read or created.
+   */
+  public LsmGraph(final File dir, int memtableSize) throws IOException {
+    if (memtableSize < 1) throw new IllegalArgumentException("Memtables must hold at least 1 triple");
+    if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create directory: " + dir);
+    this.dir = dir;
+    this.memtableSize = memtableSize;
+    levels = new Levels(new Memtable(), Collections.<Memtable>emptyList(), loadManifest());
+    size = persistedSize;
+    removeUnused(levels.runs);
+    background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "LsmGraph: " + dir);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Add a new triple to the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   * @throws IllegalStateException If the graph is closed, or runs could not be written.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (writeLock) {
+      checkOpen();
+      Triple t = new Triple(s, p, o);
+      if (isLive(levels, t)) return false;
+      Memtable m = levels.memtable;
+      m.deleted.delete(t);
+      m.live.insert(t);
+      m.delta++;
+      size++;
+      checkFull();
+      return true;
+    }
+  }
+
+  /**
+   * Remove a triple from the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was in the graph.
+   * @throws IllegalStateException If the graph is closed, or runs could not be written.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (writeLock) {
+      checkOpen();
+      Triple t = new Triple(s, p, o);
+      if (!isLive(levels, t)) return false;
+      Memtable m = levels.memtable;
+      m.live.delete(t);
+      m.deleted.insert(t);
+      m.delta--;
+      size--;
+      checkFull();
+      return true;
+    }
+  }
+
+  /**
+   * Find all triples that match a given pattern.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    Node[] pattern = new Node[] { unbind(s), unbind(p), unbind(o) };
+    boolean[] bound = new boolean[3];
+    for (int i = 0; i < 3; i++) bound[i] = pattern[i] != null;
+    int rotation = LsmRun.rotation(bound);
+    byte[][] prefix = new byte[3][];
+    for (int i = 0; i < 3; i++) {
+      Node n = pattern[(rotation + i) % 3];
+      if (n == null) break;
+      prefix[i] = NodeCodec.encode(n);
+    }
+
+    Levels l = levels;
+    List<Iterator<Entry>> sources = new ArrayList<Iterator<Entry>>();
+    sources.add(l.memtable.scan(rotation, pattern));
+    for (Memtable m: l.frozen) sources.add(m.scan(rotation, pattern));
+    for (LsmRun r: l.runs) sources.add(r.scan(rotation, prefix));
+    return new TripleIterator(LsmRun.merge(sources, true), rotation);
+  }
+
+  /**
+   * The memtables and runs are sorted in all three orderings, so any bound position avoids a scan.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if any position is bound.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || p || o;
+  }
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of runs on disk. This changes as memtables are written and runs are merged.
+   * @return The number of runs.
+   */
+  public int getRunCount() {
+    return levels.runs.size();
+  }
+
+  /**
+   * Writes the memtable to disk, and waits until it has been written.
+   * @throws IOException If the memtable could not be written.
+   */
+  public void flush() throws IOException {
+    Future<?> done;
+    synchronized (writeLock) {
+      checkOpen();
+      done = freeze();
+    }
+    await(done);
+  }
+
+  /**
+   * Writes the memtable to disk, waits for background merges, and closes the graph.
+   * The graph cannot be used after this.
+   * @throws IOException If the memtable could not be written.
+   */
+  public void close() throws IOException {
+    Future<?> done;
+    synchronized (writeLock) {
+      if (closed) return;
+      done = freeze();
+      closed = true;
+    }
+    try {
+      await(done);
+    } finally {
+      background.shutdown();
+      try {
+        background.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Gets the name of a run file.
+   * @param id The ID of the run.
+   * @return The name of the file.
+   */
+  static String runName(long id) {
+    return RUN_PREFIX + id + RUN_SUFFIX;
+  }
+
+  /**
+   * Tests if a triple is in the graph, by finding the newest entry for it.
+   * @param l The memtables and runs to search.
+   * @param t The triple to find.
+   * @return <code>true</code> if the newest entry for the triple is not deleted.
+   */
+  private static boolean isLive(Levels l, Triple t) {
+    int state = l.memtable.state(t);
+    if (state != Memtable.ABSENT) return state == Memtable.LIVE;
+    for (Memtable m: l.frozen) {
+      state = m.state(t);
+      if (state != Memtable.ABSENT) return state == Memtable.LIVE;
+    }
+    if (l.runs.isEmpty()) return false;
+    byte[][] key = new Entry(t, 0, false).key;
+    for (LsmRun r: l.runs) {
+      Entry e = r.find(key);
+      if (e != null) return !e.deleted;
+    }
+    return false;
+  }
+
+  /**
+   * Freezes the memtable if it is full. Waits while too many frozen memtables are waiting to be written.
+   * Must be called while holding writeLock.
+   */
+  private void checkFull() {
+    if (levels.memtable.entries() < memtableSize) return;
+    freeze();
+    while (levels.frozen.size() > MAX_FROZEN && failure == null) {
+      try {
+        writeLock.wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for runs to be written", e);
+      }
+    }
+  }
+
+  /**
+   * Replaces the memtable with an empty one, and schedules the old one to be written.
+   * Must be called while holding writeLock.
+   * @return The result of writing the memtable.
+   */
+  private Future<?> freeze() {
+    Levels l = levels;
+    if (!l.memtable.isEmpty()) {
+      List<Memtable> frozen = new ArrayList<Memtable>(l.frozen.size() + 1);
+      frozen.add(l.memtable);
+      frozen.addAll(l.frozen);
+      levels = new Levels(new Memtable(), frozen, l.tiers);
+    }
+    return background.submit(new Runnable() {
+      public void run() {
+        try {
+          writeFrozen();
+          compact();
+        } catch (IOException e) {
+          if (failure == null) failure = e;
+        } finally {
+          synchronized (writeLock) {
+            writeLock.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes the oldest frozen memtables to disk, as new runs. Called from the background thread.
+   * @throws IOException If a run could not be written.
+   */
+  private void writeFrozen() throws IOException {
+    while (true) {
+      Levels l = levels;
+      if (l.frozen.isEmpty()) return;
+      Memtable m = l.frozen.get(l.frozen.size() - 1);
+      long id;
+      synchronized (writeLock) {
+        id = nextRun++;
+      }
+      File file = new File(dir, runName(id));
+      List<Iterator<Entry>> orderings = new ArrayList<Iterator<Entry>>(3);
+      for (int r = 0; r < 3; r++) orderings.add(m.scan(r, new Node[3]));
+      LsmRun.write(file, orderings);
+      LsmRun run = new LsmRun(file);
+      synchronized (writeLock) {
+        l = levels;
+        List<Memtable> frozen = new ArrayList<Memtable>(l.frozen);
+        frozen.remove(m);
+        List<Tier> runs = new ArrayList<Tier>(l.tiers.size() + 1);
+        runs.add(new Tier(run, 0));
+        runs.addAll(l.tiers);
+        writeManifest(runs, persistedSize + m.delta);
+        persistedSize += m.delta;
+        levels = new Levels(l.memtable, frozen, runs);
+        writeLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Merges runs while any tier has {@link #FANOUT} runs. Called from the background thread.
+   * Runs are only added and removed on this thread, so they cannot change during a merge.
+   * @throws IOException If a run could not be written.
+   */
+  private void compact() throws IOException {
+    while (true) {
+      List<Tier> tiers = levels.tiers;
+      int start = -1;
+      int end = -1;
+      for (int i = 0; i < tiers.size(); ) {
+        int j = i;
+        while (j < tiers.size() && tiers.get(j).tier == tiers.get(i).tier) j++;
+        if (j - i >= FANOUT) {
+          start = i;
+          end = j;
+          break;
+        }
+        i = j;
+      }
+      if (start < 0) return;
+
+      List<Tier> merging = tiers.subList(start, end);
+      boolean oldest = end == tiers.size();
+      long id;
+      synchronized (writeLock) {
+        id = nextRun++;
+      }
+      File file = new File(dir, runName(id));
+      List<Iterator<Entry>> orderings = new ArrayList<Iterator<Entry>>(3);
+      for (int r = 0; r < 3; r++) {
+        List<Iterator<Entry>> sources = new ArrayList<Iterator<Entry>>(merging.size());
+        for (Tier t: merging) sources.add(t.run.scan(r, new byte[3][]));
+        orderings.add(LsmRun.merge(sources, oldest));
+      }
+      LsmRun.write(file, orderings);
+      LsmRun run = new LsmRun(file);
+
+      synchronized (writeLock) {
+        List<Tier> runs = new ArrayList<Tier>();
+        runs.addAll(tiers.subList(0, start));
+        runs.add(new Tier(run, merging.get(0).tier + 1));
+        runs.addAll(tiers.subList(end, tiers.size()));
+        writeManifest(runs, persistedSize);
+        Levels l = levels;
+        levels = new Levels(l.memtable, l.frozen, runs);
+      }
+      for (Tier t: merging) t.run.getFile().delete();
+    }
+  }
+
+  /**
+   * Waits for a background task.
+   * @param done The result of the task.
+   * @throws IOException If the task, or an earlier one, failed.
+   */
+  private void await(Future<?> done) throws IOException {
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing runs", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to write runs", e.getCause());
+    }
+    if (failure != null) throw new IOException("Unable to write runs", failure);
+  }
+
+  /**
+   * Reads the manifest, and opens the runs it lists.
+   * @return The runs, from newest to oldest.
+   * @throws IOException If the manifest or a run cannot be read.
+   */
+  private List<Tier> loadManifest() throws IOException {
+    List<Tier> runs = new ArrayList<Tier>();
+    File file = new File(dir, MANIFEST_FILE);
+    if (!file.exists()) return runs;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) throw new IOException("Not a graph manifest: " + file);
+      int version = in.readInt();
+      if (version != VERSION) throw new IOException("Unsupported graph manifest version: " + version);
+      persistedSize = in.readLong();
+      nextRun = in.readLong();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        long id = in.readLong();
+        int tier = in.readInt();
+        runs.add(new Tier(new LsmRun(new File(dir, runName(id))), tier));
+      }
+    } catch (EOFException e) {
+      throw new IOException("Truncated graph manifest: " + file, e);
+    } finally {
+      in.close();
+    }
+    return runs;
+  }
+
+  /**
+   * Writes a new manifest, and moves it over the previous one. Must be called while holding writeLock.
+   * @param runs The runs, from newest to oldest.
+   * @param persisted The number of triples in the runs.
+   * @throws IOException If the manifest cannot be written.
+   */
+  private void writeManifest(List<Tier> runs, long persisted) throws IOException {
+    File tmp = new File(dir, MANIFEST_FILE + ".tmp");
+    FileOutputStream stream = new FileOutputStream(tmp);
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(persisted);
+      out.writeLong(nextRun);
+      out.writeInt(runs.size());
+      for (Tier t: runs) {
+        out.writeLong(runId(t.run.getFile().getName()));
+        out.writeInt(t.tier);
+      }
+      out.flush();
+      stream.getFD().sync();
+    } finally {
+      stream.close();
+    }
+    Files.move(tmp.toPath(), new File(dir, MANIFEST_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Removes run files that are not in the manifest, and partly written files.
+   * @param runs The runs in the manifest.
+   */
+  private void removeUnused(List<LsmRun> runs) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Set<String> used = new HashSet<String>();
+    for (LsmRun r: runs) used.add(r.getFile().getName());
+    for (File f: files) {
+      String name = f.getName();
+      if ((runId(name) >= 0 && !used.contains(name)) || name.endsWith(".tmp")) f.delete();
+    }
+  }
+
+  /**
+   * Gets the ID from the name of a run file.
+   * @param name The name of a file.
+   * @return The ID of the run, or -1 if the name is not for a run.
+   */
+  private static long runId(String name) {
+    if (!name.startsWith(RUN_PREFIX) || !name.endsWith(RUN_SUFFIX)) return -1;
+    try {
+      return Long.parseLong(name.substring(RUN_PREFIX.length(), name.length() - RUN_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Checks that the graph can still be modified, and that the background thread has not failed.
+   * @throws IllegalStateException If the graph has been closed, or runs could not be written.
+   */
+  private void checkOpen() {
+    if (closed) throw new IllegalStateException("Graph is closed");
+    if (failure != null) throw new IllegalStateException("Unable to write runs to: " + dir, failure);
+  }
+
+  /**
+   * The triples that have changed in memory since the last run was written.
+   */
+  private static class Memtable {
+
+    /** The state of a triple with no entry. */
+    static final int ABSENT = 0;
+
+    /** The state of a triple that was inserted. */
+    static final int LIVE = 1;
+
+    /** The state of a triple that was deleted. */
+    static final int DELETED = 2;
+
+    /** The triples that were inserted. */
+    final WritableGraph live = new ConcurrentGraph();
+
+    /** The triples that were deleted. */
+    final WritableGraph deleted = new ConcurrentGraph();
+
+    /** The change in the size of the graph from this memtable. */
+    long delta = 0;
+
+    /**
+     * Gets the number of entries in this memtable.
+     * @return The number of inserted and deleted triples.
+     */
+    long entries() {
+      return live.size() + deleted.size();
+    }
+
+    /**
+     * Tests if this memtable has no entries.
+     * @return <code>true</code> if no triples were inserted or deleted.
+     */
+    boolean isEmpty() {
+      return live.isEmpty() && deleted.isEmpty();
+    }
+
+    /**
+     * Gets the state of a triple in this memtable.
+     * @param t The triple.
+     * @return {@link #LIVE}, {@link #DELETED} or {@link #ABSENT}.
+     */
+    int state(Triple t) {
+      if (live.isAsserted(t)) return LIVE;
+      if (deleted.isAsserted(t)) return DELETED;
+      return ABSENT;
+    }
+
+    /**
+     * Finds the entries that match a pattern, sorted for an ordering.
+     * @param rotation The ordering, as a rotation from SPO.
+     * @param pattern The subject, predicate and object, with <code>null</code> for unbound nodes.
+     * @return The sorted entries.
+     */
+    Iterator<Entry> scan(int rotation, Node[] pattern) {
+      List<Entry> entries = new ArrayList<Entry>();
+      SubjectNode s = (SubjectNode)pattern[0];
+      PredicateNode p = (PredicateNode)pattern[1];
+      ObjectNode o = (ObjectNode)pattern[2];
+      for (Iterator<Triple> i = live.match(s, p, o); i.hasNext(); ) entries.add(new Entry(i.next(), rotation, false));
+      for (Iterator<Triple> i = deleted.match(s, p, o); i.hasNext(); ) entries.add(new Entry(i.next(), rotation, true));
+      Collections.sort(entries);
+      return entries.iterator();
+    }
+  }
+
+  /**
+   * A run, and the tier it was merged into.
+   */
+  private static class Tier {
+
+    /** The run. */
+    final LsmRun run;
+
+    /** The number of merges that built the run. New runs are tier 0. */
+    final int tier;
+
+    Tier(LsmRun run, int tier) {
+      this.run = run;
+      this.tier = tier;
+    }
+  }
+
+  /**
+   * An immutable view of the memtables and runs, from newest to oldest.
+   */
+  private static class Levels {
+
+    /** The memtable that takes changes. */
+    final Memtable memtable;
+
+    /** The memtables waiting to be written. */
+    final List<Memtable> frozen;
+
+    /** The runs, with their tiers. */
+    final List<Tier> tiers;
+
+    /** The runs. */
+    final List<LsmRun> runs;
+
+    Levels(Memtable memtable, List<Memtable> frozen, List<Tier> tiers) {
+      this.memtable = memtable;
+      this.frozen = Collections.unmodifiableList(frozen);
+      this.tiers = Collections.unmodifiableList(tiers);
+      List<LsmRun> runs = new ArrayList<LsmRun>(tiers.size());
+      for (Tier t: tiers) runs.add(t.run);
+      this.runs = Collections.unmodifiableList(runs);
+    }
+  }
+
+  /**
+   * Converts merged entries to triples.
+   */
+  private static class TripleIterator implements Iterator<Triple> {
+
+    /** The merged entries. */
+    private final Iterator<Entry> entries;
+
+    /** The ordering of the entries. */
+    private final int rotation;
+
+    TripleIterator(Iterator<Entry> entries, int rotation) {
+      this.entries = entries;
+      this.rotation = rotation;
+    }
+
+    public boolean hasNext() {
+      return entries.hasNext();
+    }
+
+    public Triple next() {
+      if (!entries.hasNext()) throw new NoSuchElementException();
+      return entries.next().toTriple(rotation);
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
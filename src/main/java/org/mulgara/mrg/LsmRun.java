@@ -0,0 +1,561 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import static org.mulgara.mrg.TripleTable.*;
+
+/**
+ * An immutable, sorted run of triples on disk, for {@link LsmGraph}. Each triple is stored once
+ * for each of the SPO, POS and OSP orderings, along with a flag to say if the triple was deleted.
+ * Deleted entries hide the same triple in older runs. Entries are ordered by the encodings of
+ * their nodes from {@link NodeCodec}, compared as unsigned bytes, so runs written at different
+ * times can be merged without a shared node dictionary.
+ * <p>
+ * The file is made up of a header of {@link #HEADER_SIZE} bytes: the magic number, the format version,
+ * the number of entries, and the start and end of the section for each ordering. Each section holds
+ * the entries, then the offset of every {@link #BLOCK_SIZE}th entry from the start of the section,
+ * and then the number of those offsets. An entry is a flag byte, followed by each node as a
+ * variable length byte count and the encoded node. All ints are big-endian. The sections are memory
+ * mapped, so a run only uses heap for the entries being read, and no one section may be larger than 2GB.
+ * </p>
+ * Set to package scope.
+ */
+class LsmRun {
+
+  /** The marker at the start of every run: "MRGR". */
+  static final int MAGIC = 0x4D524752;
+
+  /** The version of the format. */
+  static final int VERSION = 1;
+
+  /** The size of the header, in bytes. */
+  static final int HEADER_SIZE = 64;
+
+  /** The number of entries between each offset in the block index. */
+  static final int BLOCK_SIZE = 64;
+
+  /** The flag byte for a triple that is in the graph. */
+  private static final byte LIVE = 0;
+
+  /** The flag byte for a triple that has been deleted. */
+  private static final byte DELETED = 1;
+
+  /** The file holding the run. */
+  private final File file;
+
+  /** The number of entries in each ordering. */
+  private final long count;
+
+  /** The entries for each ordering, by rotation from SPO. */
+  private final ByteBuffer[] sections = new ByteBuffer[3];
+
+  /** The end of the entries in each section. */
+  private final int[] entriesEnd = new int[3];
+
+  /** The number of blocks in each section. */
+  private final int[] blocks = new int[3];
+
+  /**
+   * Opens a run by mapping it into memory.
+   * @param file The file holding the run.
+   * @throws IOException If the file cannot be mapped, or is not a run.
+   */
+  LsmRun(File file) throws IOException {
+    this.file = file;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long length = channel.size();
+      if (length < HEADER_SIZE) throw new IOException("Not a graph run: " + file);
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt(0) != MAGIC) throw new IOException("Not a graph run: " + file);
+      if (header.getInt(4) != VERSION) throw new IOException("Unsupported graph run version: " + header.getInt(4));
+      count = header.getLong(8);
+      for (int r = 0; r < 3; r++) {
+        long start = header.getLong(16 + r * 16);
+        long end = header.getLong(24 + r * 16);
+        if (start < HEADER_SIZE || end < start + 4 || end > length) throw new IOException("Truncated graph run: " + file);
+        if (end - start > Integer.MAX_VALUE) throw new IOException("Graph run section too large: " + file);
+        sections[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int size = (int)(end - start);
+        blocks[r] = sections[r].getInt(size - 4);
+        entriesEnd[r] = size - 4 - blocks[r] * 4;
+        if (blocks[r] < 0 || entriesEnd[r] < 0) throw new IOException("Bad graph run index: " + file);
+      }
+    } finally {
+      // the mappings remain valid after the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Gets the file holding this run.
+   * @return The file for the run.
+   */
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the number of entries in this run, including deleted entries.
+   * @return The number of entries in each ordering.
+   */
+  long size() {
+    return count;
+  }
+
+  /**
+   * Finds the entry for a triple.
+   * @param key The encoded subject, predicate and object.
+   * @return The entry, or <code>null</code> if this run has no entry for the triple.
+   */
+  Entry find(byte[][] key) {
+    Iterator<Entry> i = scan(0, key);
+    return i.hasNext() ? i.next() : null;
+  }
+
+  /**
+   * Iterates over the entries in an ordering that start with a given prefix.
+   * @param rotation The ordering to scan, as a rotation from SPO.
+   * @param prefix The encoded nodes that the entries must start with, in the order of the rotation.
+   *        Elements after the bound nodes are <code>null</code>.
+   * @return The matching entries, in order.
+   */
+  Iterator<Entry> scan(int rotation, byte[][] prefix) {
+    return new Scanner(rotation, prefix);
+  }
+
+  /**
+   * Writes a run. Each ordering must have the same entries.
+   * @param file The file to write.
+   * @param orderings An iterator over the sorted entries for each rotation from SPO.
+   * @return The number of entries written for each ordering.
+   * @throws IOException If the file cannot be written.
+   */
+  static long write(File file, List<Iterator<Entry>> orderings) throws IOException {
+    FileOutputStream stream = new FileOutputStream(file);
+    try {
+      Output out = new Output(new BufferedOutputStream(stream, 0x10000));
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      out.write(header.array(), 0, HEADER_SIZE);
+      long count = -1;
+      for (int r = 0; r < 3; r++) {
+        long start = out.position;
+        int[] index = new int[16];
+        int indexSize = 0;
+        long n = 0;
+        for (Iterator<Entry> i = orderings.get(r); i.hasNext(); n++) {
+          if (n % BLOCK_SIZE == 0) {
+            if (out.position - start > Integer.MAX_VALUE) throw new IOException("Graph run section too large: " + file);
+            if (indexSize == index.length) index = Arrays.copyOf(index, indexSize * 2);
+            index[indexSize++] = (int)(out.position - start);
+          }
+          i.next().write(out);
+        }
+        for (int b = 0; b < indexSize; b++) out.writeInt(index[b]);
+        out.writeInt(indexSize);
+        if (out.position - start > Integer.MAX_VALUE) throw new IOException("Graph run section too large: " + file);
+        if (count >= 0 && n != count) throw new IllegalArgumentException("Orderings have different entries");
+        count = n;
+        header.putLong(16 + r * 16, start);
+        header.putLong(24 + r * 16, out.position);
+      }
+      out.flush();
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putLong(8, count);
+      FileChannel channel = stream.getChannel();
+      header.position(0);
+      while (header.hasRemaining()) channel.write(header, header.position());
+      channel.force(true);
+      return count;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Merges sorted streams of entries. Where more than one stream has an entry for the same triple,
+   * only the entry from the first of those streams is used.
+   * @param sources The streams to merge, from newest to oldest.
+   * @param dropDeleted <code>true</code> if deleted entries should be left out of the result.
+   * @return The merged entries, in order.
+   */
+  static Iterator<Entry> merge(List<Iterator<Entry>> sources, boolean dropDeleted) {
+    return new MergeIterator(sources, dropDeleted);
+  }
+
+  /**
+   * Compares encoded nodes as unsigned bytes.
+   * @param a The first encoded node.
+   * @param b The second encoded node.
+   * @return negative if a is first, 0 if they are equal, and positive if b is first.
+   */
+  static int compare(byte[] a, byte[] b) {
+    int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+      if (c != 0) return c;
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Chooses the ordering for a pattern, so that the bound nodes form a prefix of it.
+   * @param bound Which of the subject, predicate and object are bound.
+   * @return The rotation from SPO.
+   */
+  static int rotation(boolean[] bound) {
+    if (bound[S]) return (!bound[P] && bound[O]) ? 2 : 0;
+    if (bound[P]) return 1;
+    return bound[O] ? 2 : 0;
+  }
+
+  /**
+   * An entry in a run: a triple in the order of one rotation, and whether it was deleted.
+   */
+  static final class Entry implements Comparable<Entry> {
+
+    /** The encoded nodes, in the order of the rotation. */
+    final byte[][] key;
+
+    /** <code>true</code> if the triple was deleted. */
+    final boolean deleted;
+
+    /**
+     * Creates an entry for a triple.
+     * @param t The triple.
+     * @param rotation The rotation from SPO to store the nodes in.
+     * @param deleted <code>true</code> if the triple was deleted.
+     */
+    Entry(Triple t, int rotation, boolean deleted) {
+      Node[] nodes = new Node[] { t.getSubject(), t.getPredicate(), t.getObject() };
+      key = new byte[3][];
+      for (int i = 0; i < 3; i++) key[i] = NodeCodec.encode(nodes[(rotation + i) % 3]);
+      this.deleted = deleted;
+    }
+
+    /**
+     * Creates an entry from its parts.
+     * @param key The encoded nodes, in the order of the rotation.
+     * @param deleted <code>true</code> if the triple was deleted.
+     */
+    Entry(byte[][] key, boolean deleted) {
+      this.key = key;
+      this.deleted = deleted;
+    }
+
+    /**
+     * Decodes the triple in this entry.
+     * @param rotation The rotation from SPO that the nodes are stored in.
+     * @return The triple.
+     */
+    Triple toTriple(int rotation) {
+      Node[] t = new Node[3];
+      for (int i = 0; i < 3; i++) t[(rotation + i) % 3] = NodeCodec.decode(key[i], 0);
+      return new Triple(t);
+    }
+
+    /**
+     * Compares the nodes of this entry with another.
+     * @param e The entry to compare to.
+     * @return negative if this entry is first, 0 if they have the same triple, and positive if e is first.
+     */
+    public int compareTo(Entry e) {
+      for (int i = 0; i < 3; i++) {
+        int c = compare(key[i], e.key[i]);
+        if (c != 0) return c;
+      }
+      return 0;
+    }
+
+    /**
+     * Compares the nodes of this entry with a prefix.
+     * @param prefix The prefix, with <code>null</code> after the bound nodes.
+     * @return negative if this entry is before the prefix, 0 if it starts with the prefix, and positive if it is after.
+     */
+    int comparePrefix(byte[][] prefix) {
+      for (int i = 0; i < 3 && prefix[i] != null; i++) {
+        int c = compare(key[i], prefix[i]);
+        if (c != 0) return c;
+      }
+      return 0;
+    }
+
+    /**
+     * Writes this entry to a run.
+     * @param out The output for the run.
+     * @throws IOException If the entry cannot be written.
+     */
+    void write(Output out) throws IOException {
+      out.write(deleted ? DELETED : LIVE);
+      for (byte[] k: key) {
+        out.writeVarint(k.length);
+        out.write(k, 0, k.length);
+      }
+    }
+  }
+
+  /**
+   * Reads the entry at a position in a section.
+   * @param section The section to read.
+   * @param pos A single element array with the position of the entry. This is moved past the entry.
+   * @return The entry.
+   */
+  private static Entry read(ByteBuffer section, int[] pos) {
+    int offset = pos[0];
+    boolean deleted = section.get(offset++) == DELETED;
+    byte[][] key = new byte[3][];
+    for (int i = 0; i < 3; i++) {
+      int length = 0;
+      int shift = 0;
+      byte v;
+      do {
+        v = section.get(offset++);
+        length |= (v & 0x7F) << shift;
+        shift += 7;
+      } while (v < 0);
+      key[i] = new byte[length];
+      for (int j = 0; j < length; j++) key[i][j] = section.get(offset++);
+    }
+    pos[0] = offset;
+    return new Entry(key, deleted);
+  }
+
+  /**
+   * Iterates over the entries in a section that start with a prefix.
+   */
+  private class Scanner implements Iterator<Entry> {
+
+    /** The section being scanned. */
+    private final ByteBuffer section;
+
+    /** The end of the entries in the section. */
+    private final int end;
+
+    /** The prefix to match. */
+    private final byte[][] prefix;
+
+    /** The position of the entry after {@link #next}. */
+    private final int[] pos = new int[1];
+
+    /** The next entry to return, or <code>null</code> at the end. */
+    private Entry next;
+
+    /**
+     * Finds the first entry with the prefix. A binary search of the block index finds the last block
+     * that starts before the prefix, and then the block is read until the prefix is reached.
+     * @param rotation The ordering to scan.
+     * @param prefix The prefix to match.
+     */
+    Scanner(int rotation, byte[][] prefix) {
+      section = sections[rotation];
+      end = entriesEnd[rotation];
+      this.prefix = prefix;
+      int lo = 0;
+      int hi = blocks[rotation];
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        pos[0] = blockOffset(rotation, mid);
+        if (read(section, pos).comparePrefix(prefix) < 0) lo = mid + 1;
+        else hi = mid;
+      }
+      pos[0] = lo == 0 ? 0 : blockOffset(rotation, lo - 1);
+      do {
+        next = pos[0] < end ? read(section, pos) : null;
+      } while (next != null && next.comparePrefix(prefix) < 0);
+      if (next != null && next.comparePrefix(prefix) != 0) next = null;
+    }
+
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    public Entry next() {
+      if (next == null) throw new NoSuchElementException();
+      Entry result = next;
+      next = pos[0] < end ? read(section, pos) : null;
+      if (next != null && next.comparePrefix(prefix) != 0) next = null;
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Gets the offset of the first entry in a block.
+     * @param rotation The ordering of the section.
+     * @param block The block number.
+     * @return The position of the entry in the section.
+     */
+    private int blockOffset(int rotation, int block) {
+      return section.getInt(end + block * 4);
+    }
+  }
+
+  /**
+   * Merges sorted iterators of entries, with earlier iterators taking precedence for equal triples.
+   */
+  private static class MergeIterator implements Iterator<Entry> {
+
+    /** The next entry from each source that has not been consumed, in order. */
+    private final PriorityQueue<Head> heads = new PriorityQueue<Head>();
+
+    /** <code>true</code> if deleted entries are left out. */
+    private final boolean dropDeleted;
+
+    /** The next entry to return, or <code>null</code> at the end. */
+    private Entry next;
+
+    MergeIterator(List<Iterator<Entry>> sources, boolean dropDeleted) {
+      this.dropDeleted = dropDeleted;
+      for (int i = 0; i < sources.size(); i++) {
+        Iterator<Entry> source = sources.get(i);
+        if (source.hasNext()) heads.add(new Head(source.next(), i, source));
+      }
+      next = findNext();
+    }
+
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    public Entry next() {
+      if (next == null) throw new NoSuchElementException();
+      Entry result = next;
+      next = findNext();
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Takes the newest entry for the lowest triple, and skips the older entries for it.
+     * @return The entry, or <code>null</code> if there are no more.
+     */
+    private Entry findNext() {
+      while (!heads.isEmpty()) {
+        Head first = heads.poll();
+        Entry entry = first.entry;
+        advance(first);
+        while (!heads.isEmpty() && heads.peek().entry.compareTo(entry) == 0) advance(heads.poll());
+        if (!dropDeleted || !entry.deleted) return entry;
+      }
+      return null;
+    }
+
+    /**
+     * Moves a source to its next entry, and puts it back in the queue if it has one.
+     * @param head The source to move.
+     */
+    private void advance(Head head) {
+      if (head.source.hasNext()) {
+        head.entry = head.source.next();
+        heads.add(head);
+      }
+    }
+  }
+
+  /**
+   * The current entry from a source being merged.
+   */
+  private static class Head implements Comparable<Head> {
+
+    /** The current entry. */
+    Entry entry;
+
+    /** The position of the source in the merge. Lower positions are newer. */
+    final int order;
+
+    /** The remaining entries. */
+    final Iterator<Entry> source;
+
+    Head(Entry entry, int order, Iterator<Entry> source) {
+      this.entry = entry;
+      this.order = order;
+      this.source = source;
+    }
+
+    public int compareTo(Head h) {
+      int c = entry.compareTo(h.entry);
+      return c != 0 ? c : order - h.order;
+    }
+  }
+
+  /**
+   * A buffered output that tracks its position, since sections may be larger than an int.
+   */
+  private static class Output {
+
+    /** The stream to write to. */
+    private final OutputStream out;
+
+    /** The number of bytes written. */
+    long position = 0;
+
+    Output(OutputStream out) {
+      this.out = out;
+    }
+
+    void write(int b) throws IOException {
+      out.write(b);
+      position++;
+    }
+
+    void write(byte[] data, int offset, int length) throws IOException {
+      out.write(data, offset, length);
+      position += length;
+    }
+
+    void writeInt(int v) throws IOException {
+      write(v >>> 24);
+      write(v >>> 16);
+      write(v >>> 8);
+      write(v);
+    }
+
+    void writeVarint(int v) throws IOException {
+      while ((v & ~0x7F) != 0) {
+        write((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      write(v);
+    }
+
+    void flush() throws IOException {
+      out.flush();
+    }
+  }
+
+}
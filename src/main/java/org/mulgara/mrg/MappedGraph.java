@@ -0,0 +1,488 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.mulgara.mrg.TripleTable.*;
+
+/**
+ * A read-only graph that works directly on a binary image, usually a memory mapped file.
+ * Opening the graph only maps the file and reads the header, so it takes the same time
+ * regardless of the size of the data. Nodes are only decoded when they are returned.
+ * <p>
+ * The image is written by {@link #write(Graph, File)}, and is made up of the following sections:
+ * <ul>
+ * <li>A header of {@link #HEADER_SIZE} bytes: the magic number, the format version, the number
+ *     of nodes, the number of hash slots, the number of triples, and the length of the node data.</li>
+ * <li>The node index: the offset of each node in the node data, plus the end of the data.</li>
+ * <li>A hash table of node IDs, keyed on the hash of the encoded nodes, with -1 for empty slots.</li>
+ * <li>The node data: each node, as encoded by {@link NodeCodec}.</li>
+ * <li>The SPO, POS and OSP indexes, each with every triple stored as 3 sorted ints of node IDs.</li>
+ * </ul>
+ * All values are big-endian. Each section is mapped separately, so the only size limit is that
+ * no one section may be larger than 2GB.
+ * </p>
+ */
+public class MappedGraph extends AbstractMatchGraph implements IndexedMatch {
+
+  /** The marker at the start of every file: "MRGM". */
+  public static final int MAGIC = 0x4D52474D;
+
+  /** The version of the format. */
+  public static final int VERSION = 1;
+
+  /** The size of the header, in bytes. */
+  static final int HEADER_SIZE = 32;
+
+  /** The number of bytes in each triple in an index. */
+  private static final int TRIPLE_SIZE = 12;
+
+  /** The number of nodes in the graph. */
+  private final int nodeCount;
+
+  /** The number of triples in the graph. */
+  private final int tripleCount;
+
+  /** The offset of each node in {@link #nodeData}, as ints. */
+  private final ByteBuffer nodeIndex;
+
+  /** The hash table of node IDs, as ints. */
+  private final ByteBuffer hashTable;
+
+  /** The mask for positions in the hash table. */
+  private final int hashMask;
+
+  /** The encoded nodes. */
+  private final ByteBuffer nodeData;
+
+  /** The sorted triples, by rotation from SPO. */
+  private final ByteBuffer[] indexes = new ByteBuffer[3];
+
+  /**
+   * Opens a graph file by mapping it into memory. The file is not read at this point.
+   * @param file The file to open.
+   * @throws IOException If the file cannot be mapped, or is not a graph file.
+   */
+  public MappedGraph(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+      long[] sections = readHeader(header, channel.size());
+      nodeCount = header.getInt(8);
+      tripleCount = header.getInt(16);
+      hashMask = header.getInt(12) - 1;
+      nodeIndex = map(channel, sections[0], sections[1]);
+      hashTable = map(channel, sections[1], sections[2]);
+      nodeData = map(channel, sections[2], sections[3]);
+      for (int i = 0; i < 3; i++) indexes[i] = map(channel, sections[3 + i], sections[4 + i]);
+    } finally {
+      // the mappings remain valid after the file is closed
+      raf.close();
+    }
+  }
+
+  /**
+   * Opens a graph image that is already in memory. The buffer is shared, not copied.
+   * @param image The buffer holding the image, from position 0.
+   * @throws IOException If the buffer does not hold a graph image.
+   */
+  public MappedGraph(ByteBuffer image) throws IOException {
+    long[] sections = readHeader(image, image.limit());
+    nodeCount = image.getInt(8);
+    tripleCount = image.getInt(16);
+    hashMask = image.getInt(12) - 1;
+    nodeIndex = slice(image, sections[0], sections[1]);
+    hashTable = slice(image, sections[1], sections[2]);
+    nodeData = slice(image, sections[2], sections[3]);
+    for (int i = 0; i < 3; i++) indexes[i] = slice(image, sections[3 + i], sections[4 + i]);
+  }
+
+  /**
+   * Writes a graph to a file in the mapped graph format.
+   * @param graph The graph to write.
+   * @param file The file to write to. This is replaced if it already exists.
+   * @throws IOException If there was an error writing to the file.
+   */
+  public static void write(Graph graph, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      write(graph, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes a graph to a stream in the mapped graph format.
+   * @param graph The graph to write.
+   * @param out The stream to write to. This is flushed, but not closed.
+   * @throws IOException If there was an error writing to the stream.
+   */
+  public static void write(Graph graph, OutputStream out) throws IOException {
+    // allocate IDs for all the nodes
+    List<Triple> triples = graph.getTriples();
+    NodeDictionary dictionary = new NodeDictionary();
+    int[] spo = new int[triples.size() * 3];
+    int count = 0;
+    for (Triple t: triples) {
+      spo[count * 3 + S] = dictionary.intern(t.getSubject());
+      spo[count * 3 + P] = dictionary.intern(t.getPredicate());
+      spo[count * 3 + O] = dictionary.intern(t.getObject());
+      count++;
+    }
+    PackedTripleIndex.sort(spo, count);
+    count = PackedTripleIndex.unique(spo, count);
+
+    // encode the nodes, and hash them
+    int nodes = dictionary.size();
+    byte[][] encoded = new byte[nodes][];
+    int[] offsets = new int[nodes + 1];
+    long dataLength = 0;
+    for (int id = 0; id < nodes; id++) {
+      encoded[id] = NodeCodec.encode(dictionary.get(id));
+      offsets[id] = (int)dataLength;
+      dataLength += encoded[id].length;
+      if (dataLength > Integer.MAX_VALUE) throw new IOException("Node data too large for mapped graph");
+    }
+    offsets[nodes] = (int)dataLength;
+    int slots = tableSize(nodes);
+    int[] table = new int[slots];
+    Arrays.fill(table, NodeDictionary.NONE);
+    for (int id = 0; id < nodes; id++) {
+      int h = NodeCodec.hash(encoded[id]) & (slots - 1);
+      while (table[h] != NodeDictionary.NONE) h = (h + 1) & (slots - 1);
+      table[h] = id;
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 0x10000));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(nodes);
+    data.writeInt(slots);
+    data.writeInt(count);
+    data.writeInt(0);
+    data.writeLong(dataLength);
+    for (int offset: offsets) data.writeInt(offset);
+    for (int id: table) data.writeInt(id);
+    for (byte[] node: encoded) data.write(node);
+    writeIndex(data, spo, count);
+    int[] buffer = new int[count * 3];
+    for (int rotation = 1; rotation < 3; rotation++) {
+      for (int i = 0; i < count * 3; i += 3) {
+        for (int j = 0; j < 3; j++) buffer[i + j] = spo[i + (rotation + j) % 3];
+      }
+      PackedTripleIndex.sort(buffer, count);
+      writeIndex(data, buffer, count);
+    }
+    data.flush();
+  }
+
+  /**
+   * Finds the triples matching a pattern, by a binary search of the index with the bound nodes as a prefix.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    Node[] nodes = new Node[] { unbind(s), unbind(p), unbind(o) };
+    int[] pattern = new int[3];
+    for (int pos = S; pos <= O; pos++) {
+      if (nodes[pos] == null) {
+        pattern[pos] = NIL;
+      } else {
+        pattern[pos] = lookup(nodes[pos]);
+        if (pattern[pos] == NodeDictionary.NONE) return Collections.<Triple>emptyList().iterator();
+      }
+    }
+    return new IndexIterator(pattern);
+  }
+
+  /**
+   * The SPO, POS and OSP indexes can find triples from any bound position.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if any position is bound.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || p || o;
+  }
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return tripleCount;
+  }
+
+  /**
+   * Gets all the subjects in the graph.
+   * @return All the subjects in the graph.
+   */
+  public Collection<SubjectNode> getSubjects() {
+    return this.<SubjectNode>usedNodes(S);
+  }
+
+  /**
+   * Gets all the predicates in the graph.
+   * @return All the predicatess in the graph.
+   */
+  public Collection<PredicateNode> getPredicates() {
+    return this.<PredicateNode>usedNodes(P);
+  }
+
+  /**
+   * Gets all the objects in the graph.
+   * @return All the objects in the graph.
+   */
+  public Collection<ObjectNode> getObjects() {
+    return this.<ObjectNode>usedNodes(O);
+  }
+
+  /**
+   * Gets the number of distinct nodes in the graph.
+   * @return The number of nodes in the node table.
+   */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Finds the ID of a node, by hashing its encoded form and comparing it against the stored encodings.
+   * @param n The node to find.
+   * @return The ID of the node, or {@link NodeDictionary#NONE} if it is not in the graph.
+   */
+  int lookup(Node n) {
+    byte[] encoded = NodeCodec.encode(n);
+    for (int h = NodeCodec.hash(encoded) & hashMask; ; h = (h + 1) & hashMask) {
+      int id = hashTable.getInt(h * 4);
+      if (id == NodeDictionary.NONE) return NodeDictionary.NONE;
+      int start = nodeIndex.getInt(id * 4);
+      int end = nodeIndex.getInt(id * 4 + 4);
+      if (NodeCodec.equals(nodeData, start, end - start, encoded)) return id;
+    }
+  }
+
+  /**
+   * Decodes the node with a given ID.
+   * @param id The ID of the node.
+   * @return The node.
+   */
+  Node getNode(int id) {
+    return NodeCodec.decode(nodeData, nodeIndex.getInt(id * 4));
+  }
+
+  /**
+   * Gets all the nodes that appear in a given position of a triple.
+   * @param pos The position in the triple.
+   * @return A list of the nodes in use.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Node> List<T> usedNodes(int pos) {
+    // the index that starts with this position has each node in a contiguous run
+    ByteBuffer index = indexes[pos];
+    List<T> result = new ArrayList<T>();
+    int last = NIL;
+    for (int i = 0; i < tripleCount; i++) {
+      int id = index.getInt(i * TRIPLE_SIZE);
+      if (id != last) result.add((T)getNode(id));
+      last = id;
+    }
+    return result;
+  }
+
+  /**
+   * Checks the header of an image, and calculates the boundaries of each section.
+   * @param header A buffer holding the header.
+   * @param length The total length of the image.
+   * @return The start of each section, followed by the end of the last section.
+   * @throws IOException If the header is not valid.
+   */
+  private static long[] readHeader(ByteBuffer header, long length) throws IOException {
+    if (length < HEADER_SIZE || header.getInt(0) != MAGIC) throw new IOException("Not a mapped graph");
+    if (header.getInt(4) != VERSION) throw new IOException("Unsupported mapped graph version: " + header.getInt(4));
+    long nodes = header.getInt(8);
+    long slots = header.getInt(12);
+    long indexSize = (long)header.getInt(16) * TRIPLE_SIZE;
+    long[] sections = new long[7];
+    sections[0] = HEADER_SIZE;
+    sections[1] = sections[0] + (nodes + 1) * 4;
+    sections[2] = sections[1] + slots * 4;
+    sections[3] = sections[2] + header.getLong(24);
+    for (int i = 4; i < 7; i++) sections[i] = sections[i - 1] + indexSize;
+    if (sections[6] > length) throw new IOException("Truncated mapped graph");
+    return sections;
+  }
+
+  /**
+   * Maps a section of a file.
+   * @param channel The channel for the file.
+   * @param start The start of the section.
+   * @param end The end of the section.
+   * @return A read-only buffer for the section.
+   * @throws IOException If the section cannot be mapped.
+   */
+  private static ByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+    if (end - start > Integer.MAX_VALUE) throw new IOException("Mapped graph section too large");
+    return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+  }
+
+  /**
+   * Creates a buffer for a section of an image.
+   * @param image The buffer holding the image.
+   * @param start The start of the section.
+   * @param end The end of the section.
+   * @return A buffer sharing the data of the section.
+   */
+  private static ByteBuffer slice(ByteBuffer image, long start, long end) {
+    ByteBuffer section = image.duplicate();
+    section.limit((int)end);
+    section.position((int)start);
+    return section.slice();
+  }
+
+  /**
+   * Writes sorted triples to an index section.
+   * @param out The stream to write to.
+   * @param triples The triples, 3 ints per triple.
+   * @param count The number of triples.
+   */
+  private static void writeIndex(DataOutputStream out, int[] triples, int count) throws IOException {
+    for (int i = 0; i < count * 3; i++) out.writeInt(triples[i]);
+  }
+
+  /**
+   * Calculates a hash table size that keeps the load factor below 1/2.
+   * @param capacity The number of nodes to be stored.
+   * @return A power of 2 that is large enough to hold the capacity.
+   */
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 4)) << 2;
+  }
+
+  /**
+   * Iterates over the triples in an index that match a pattern.
+   * The index is chosen so that the bound nodes form a prefix of its ordering.
+   */
+  private class IndexIterator implements Iterator<Triple> {
+
+    /** The rotation of the index being scanned from SPO. */
+    private final int rotation;
+
+    /** The index being scanned. */
+    private final ByteBuffer index;
+
+    /** The pattern, in the order of the index. */
+    private final int[] prefix = new int[3];
+
+    /** The position of the next triple in the index. */
+    private int current;
+
+    /**
+     * Creates an iterator for a pattern.
+     * @param pattern The IDs in the pattern, with NIL for variables.
+     */
+    IndexIterator(int[] pattern) {
+      // choose the rotation that puts the bound values first
+      if (pattern[S] != NIL) rotation = (pattern[P] == NIL && pattern[O] != NIL) ? 2 : 0;
+      else if (pattern[P] != NIL) rotation = 1;
+      else rotation = (pattern[O] != NIL) ? 2 : 0;
+      index = indexes[rotation];
+      for (int i = 0; i < 3; i++) prefix[i] = pattern[(rotation + i) % 3];
+      current = lowerBound();
+    }
+
+    /**
+     * Returns <code>true</code> if the iterator has more elements.
+     * @return <code>true</code> if the iterator has more elements.
+     */
+    public boolean hasNext() {
+      return current < tripleCount && comparePrefix(current) == 0;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public Triple next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Node[] t = new Node[3];
+      int base = current * TRIPLE_SIZE;
+      for (int i = 0; i < 3; i++) t[(rotation + i) % 3] = getNode(index.getInt(base + i * 4));
+      current++;
+      return new Triple(t);
+    }
+
+    /**
+     * A mapped graph cannot be modified.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the first triple that is not before the prefix.
+     * @return The position of the triple, or the number of triples if there is none.
+     */
+    private int lowerBound() {
+      int lo = 0;
+      int hi = tripleCount;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (comparePrefix(mid) < 0) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+
+    /**
+     * Compares a triple in the index to the bound part of the prefix.
+     * @param i The position of the triple.
+     * @return negative if the triple is before the prefix, 0 if it matches, and positive if it is after.
+     */
+    private int comparePrefix(int i) {
+      int base = i * TRIPLE_SIZE;
+      for (int j = 0; j < 3 && prefix[j] != NIL; j++) {
+        int v = index.getInt(base + j * 4);
+        if (v != prefix[j]) return v < prefix[j] ? -1 : 1;
+      }
+      return 0;
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of node instances, so that equal nodes can share a single object.
+ * This replaces interning the strings inside of nodes, which places every URI and literal
+ * into the JVM string table, and never lets go of them.
+ * <p>
+ * Implementations decide how much to hold on to. {@link LruNodeCache} keeps a bounded number of
+ * recently used nodes, while {@link WeakNodeCache} keeps every node that is still in use elsewhere.
+ * All implementations are thread safe.
+ * </p>
+ */
+public abstract class NodeCache {
+
+  /** The cache used by the parsers when none is given. */
+  private static volatile NodeCache defaultCache = new LruNodeCache();
+
+  /** The number of lookups that found a cached node. */
+  private final AtomicLong hits = new AtomicLong();
+
+  /** The number of lookups that did not find a cached node. */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Gets the cache used by the parsers when none is given.
+   * @return The default cache.
+   */
+  public static NodeCache getDefault() {
+    return defaultCache;
+  }
+
+  /**
+   * Sets the cache used by the parsers when none is given.
+   * @param cache The new default cache.
+   */
+  public static void setDefault(NodeCache cache) {
+    if (cache == null) throw new IllegalArgumentException("Default node cache may not be null");
+    defaultCache = cache;
+  }
+
+  /**
+   * Gets the cached instance of a node. If no equal node is cached, then the node is
+   * added to the cache and returned.
+   * @param node The node to look up.
+   * @return An instance equal to the node, or the node itself if it was not in the cache.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Node> T intern(T node) {
+    Node cached = find(node);
+    if (cached == null) {
+      misses.incrementAndGet();
+      return node;
+    }
+    hits.incrementAndGet();
+    return (T)cached;
+  }
+
+  /**
+   * Gets the number of lookups that found a cached node.
+   * @return The number of cache hits.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups that did not find a cached node.
+   * @return The number of cache misses.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Resets the hit and miss counts.
+   */
+  public void resetStatistics() {
+    hits.set(0L);
+    misses.set(0L);
+  }
+
+  /**
+   * Looks up a node, and adds it to the cache if an equal node is not already there.
+   * @param node The node to look up.
+   * @return The cached node that equals the node, or <code>null</code> if there was none.
+   */
+  protected abstract Node find(Node node);
+
+  /**
+   * Gets the number of nodes in the cache.
+   * @return The number of cached nodes.
+   */
+  public abstract int size();
+
+  /**
+   * Removes all the nodes from the cache.
+   */
+  public abstract void clear();
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import org.mulgara.util.Strings;
+
+/**
+ * Converts nodes to and from a compact binary form. Each encoding starts with a flag byte,
+ * holding the type ID of the node and flags for optional parts. This is followed by each
+ * string in the node as a variable length byte count, and the UTF-8 bytes of the string.
+ * <ul>
+ * <li>{@link Uri}: the URI.</li>
+ * <li>{@link Bnode}: the full label.</li>
+ * <li>{@link Literal}: the text, then the language or the datatype URI if present.</li>
+ * </ul>
+ * Decoding reads buffers at absolute offsets, so buffers may be shared between readers.
+ */
+public class NodeCodec {
+
+  /** The mask for the type ID in the flag byte. */
+  private static final int TYPE_MASK = 0x03;
+
+  /** The flag for a literal with a language code. */
+  private static final int LANG_FLAG = 0x04;
+
+  /** The flag for a literal with a datatype. */
+  private static final int DATATYPE_FLAG = 0x08;
+
+  /** The seed for FNV-1a hashing. */
+  private static final int FNV_BASIS = 0x811C9DC5;
+
+  /** The multiplier for FNV-1a hashing. */
+  private static final int FNV_PRIME = 0x01000193;
+
+  /**
+   * Encodes a node.
+   * @param n The node to encode.
+   * @return A byte array holding the encoded node.
+   */
+  public static byte[] encode(Node n) {
+    byte[][] parts;
+    int flags = n.getTypeId();
+    switch (n.getTypeId()) {
+    case Uri.TYPE_ID:
+      parts = new byte[][] { Strings.toUtf8Bytes(((Uri)n).getURI().toString()) };
+      break;
+    case Bnode.TYPE_ID:
+      parts = new byte[][] { Strings.toUtf8Bytes(n.toString()) };
+      break;
+    case Literal.TYPE_ID:
+      Literal l = (Literal)n;
+      byte[] text = Strings.toUtf8Bytes(l.getText());
+      if (l.getLang() != null) {
+        flags |= LANG_FLAG;
+        parts = new byte[][] { text, Strings.toUtf8Bytes(l.getLang()) };
+      } else if (l.getType() != null) {
+        flags |= DATATYPE_FLAG;
+        parts = new byte[][] { text, Strings.toUtf8Bytes(l.getType().toString()) };
+      } else {
+        parts = new byte[][] { text };
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown Node type: " + n);
+    }
+    int length = 1;
+    for (byte[] part: parts) length += varintSize(part.length) + part.length;
+    byte[] result = new byte[length];
+    result[0] = (byte)flags;
+    int offset = 1;
+    for (byte[] part: parts) {
+      offset = putVarint(result, offset, part.length);
+      System.arraycopy(part, 0, result, offset, part.length);
+      offset += part.length;
+    }
+    return result;
+  }
+
+  /**
+   * Decodes a node from a byte array.
+   * @param data The array holding the encoded node.
+   * @param offset The start of the node in the array.
+   * @return The decoded node.
+   */
+  public static Node decode(byte[] data, int offset) {
+    return decode(ByteBuffer.wrap(data), offset);
+  }
+
+  /**
+   * Decodes a node from a buffer. The position of the buffer is not changed.
+   * @param bb The buffer holding the encoded node.
+   * @param offset The absolute position of the node in the buffer.
+   * @return The decoded node.
+   */
+  public static Node decode(ByteBuffer bb, int offset) {
+    int flags = bb.get(offset++);
+    int[] pos = new int[] { offset };
+    String first = getString(bb, pos);
+    switch (flags & TYPE_MASK) {
+    case Uri.TYPE_ID:
+      return new Uri(URI.create(first));
+    case Bnode.TYPE_ID:
+      return new Bnode(first);
+    case Literal.TYPE_ID:
+      if ((flags & LANG_FLAG) != 0) return new Literal(first, getString(bb, pos));
+      if ((flags & DATATYPE_FLAG) != 0) return new Literal(first, URI.create(getString(bb, pos)));
+      return new Literal(first);
+    default:
+      throw new IllegalArgumentException("Bad node encoding at offset: " + (offset - 1));
+    }
+  }
+
+  /**
+   * Calculates a hash of an encoded node. This is stable across JVMs, so it may be stored.
+   * @param data The encoded node.
+   * @return The hash of the encoding.
+   */
+  public static int hash(byte[] data) {
+    int h = FNV_BASIS;
+    for (byte b: data) h = (h ^ (b & 0xFF)) * FNV_PRIME;
+    return h;
+  }
+
+  /**
+   * Compares an encoded node with the bytes in a buffer.
+   * @param bb The buffer to compare against.
+   * @param offset The absolute position in the buffer to compare from.
+   * @param length The number of bytes available in the buffer for this comparison.
+   * @param data The encoded node.
+   * @return <code>true</code> if the buffer holds exactly the same encoding.
+   */
+  public static boolean equals(ByteBuffer bb, int offset, int length, byte[] data) {
+    if (length != data.length) return false;
+    for (int i = 0; i < length; i++) {
+      if (bb.get(offset + i) != data[i]) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Writes a non-negative value into an array as a variable length integer, 7 bits per byte.
+   * @param buffer The array to write to.
+   * @param offset The location to write to.
+   * @param value The value to write.
+   * @return The offset after the written value.
+   */
+  static int putVarint(byte[] buffer, int offset, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer[offset++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[offset++] = (byte)value;
+    return offset;
+  }
+
+  /**
+   * Calculates the number of bytes needed for a variable length integer.
+   * @param value The non-negative value to be written.
+   * @return The number of bytes the value will use.
+   */
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      size++;
+      value >>>= 7;
+    }
+    return size;
+  }
+
+  /**
+   * Reads a length prefixed string from a buffer.
+   * @param bb The buffer to read from.
+   * @param pos A single element array with the offset to read from. This is moved past the string.
+   * @return The string that was read.
+   */
+  private static String getString(ByteBuffer bb, int[] pos) {
+    int offset = pos[0];
+    int length = 0;
+    int shift = 0;
+    byte v;
+    do {
+      v = bb.get(offset++);
+      length |= (v & 0x7F) << shift;
+      shift += 7;
+    } while (v < 0);
+    byte[] bytes;
+    int start;
+    if (bb.hasArray()) {
+      bytes = bb.array();
+      start = bb.arrayOffset() + offset;
+    } else {
+      bytes = new byte[length];
+      start = 0;
+      ByteBuffer src = bb.duplicate();
+      src.position(offset);
+      src.get(bytes);
+    }
+    pos[0] = offset + length;
+    return Strings.fromUtf8Bytes(bytes, start, length);
+  }
+
+}
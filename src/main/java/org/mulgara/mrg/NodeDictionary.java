@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.Arrays;
+
+/**
+ * A two-way mapping between nodes and dense integer identifiers. Each distinct node is stored
+ * exactly once, and is allocated the next available ID, starting from 0.
+ * The reverse mapping is an open addressed hash table of IDs, so no boxed keys or map entries
+ * are created per node.
+ * Nodes are never removed from the dictionary, since an ID may still be held by an index.
+ */
+public class NodeDictionary {
+
+  /** The value returned when a node is not in the dictionary. */
+  public static final int NONE = -1;
+
+  /** The initial number of nodes that space is allocated for. */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** All the nodes, indexed by ID. */
+  private Node[] nodes;
+
+  /** The hash table of IDs. Empty slots hold {@link #NONE}. Always a power of 2 in length. */
+  private int[] table;
+
+  /** The number of nodes in the dictionary. */
+  private int size = 0;
+
+  /**
+   * Creates an empty dictionary.
+   */
+  public NodeDictionary() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates an empty dictionary, with space for an expected number of nodes.
+   * @param capacity The number of nodes expected.
+   */
+  public NodeDictionary(int capacity) {
+    nodes = new Node[Math.max(capacity, 16)];
+    table = newTable(tableSize(nodes.length));
+  }
+
+  /**
+   * Looks up the ID of a node.
+   * @param n The node to find.
+   * @return The ID of the node, or {@link #NONE} if it has not been allocated.
+   */
+  public int lookup(Node n) {
+    int mask = table.length - 1;
+    for (int h = hash(n) & mask; ; h = (h + 1) & mask) {
+      int id = table[h];
+      if (id == NONE) return NONE;
+      if (nodes[id].equals(n)) return id;
+    }
+  }
+
+  /**
+   * Gets the ID of a node, allocating a new ID if it has not been seen before.
+   * @param n The node to get the ID for.
+   * @return The ID of the node.
+   */
+  public int intern(Node n) {
+    int mask = table.length - 1;
+    int h = hash(n) & mask;
+    for (int id; (id = table[h]) != NONE; h = (h + 1) & mask) {
+      if (nodes[id].equals(n)) return id;
+    }
+    int id = size++;
+    if (id == nodes.length) nodes = Arrays.copyOf(nodes, grow(nodes.length));
+    nodes[id] = n;
+    table[h] = id;
+    if (size > (table.length >> 1) + (table.length >> 2)) rehash(table.length << 1);
+    return id;
+  }
+
+  /**
+   * Gets the node for an ID.
+   * @param id The ID of the node.
+   * @return The node that was allocated the ID.
+   * @throws ArrayIndexOutOfBoundsException If the ID has not been allocated.
+   */
+  public Node get(int id) {
+    if (id >= size) throw new ArrayIndexOutOfBoundsException(id);
+    return nodes[id];
+  }
+
+  /**
+   * Gets the number of nodes in the dictionary. All IDs are less than this value.
+   * @return The number of nodes in the dictionary.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Ensures that the dictionary can hold a number of nodes without reallocation.
+   * @param capacity The total number of nodes to allow for.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > nodes.length) nodes = Arrays.copyOf(nodes, capacity);
+    int t = tableSize(capacity);
+    if (t > table.length) rehash(t);
+  }
+
+  /**
+   * Rebuilds the hash table at a new size.
+   * @param length The new length of the table. Must be a power of 2.
+   */
+  private void rehash(int length) {
+    table = newTable(length);
+    int mask = length - 1;
+    for (int id = 0; id < size; id++) {
+      int h = hash(nodes[id]) & mask;
+      while (table[h] != NONE) h = (h + 1) & mask;
+      table[h] = id;
+    }
+  }
+
+  /**
+   * Spreads the bits of a node's hashcode, since open addressing is sensitive to clustering.
+   * @param n The node to hash.
+   * @return The spread hashcode.
+   */
+  private static int hash(Node n) {
+    int h = n.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Calculates a table size that keeps the load factor below 3/4.
+   * @param capacity The number of nodes to be stored.
+   * @return A power of 2 that is large enough to hold the capacity.
+   */
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 8) * 4 / 3) << 1;
+  }
+
+  /**
+   * Creates a new empty hash table.
+   * @param length The size of the table.
+   * @return An array filled with {@link #NONE}.
+   */
+  private static int[] newTable(int length) {
+    int[] t = new int[length];
+    Arrays.fill(t, NONE);
+    return t;
+  }
+
+  /**
+   * Calculates the next size for an array.
+   * @param length The current length.
+   * @return The new length.
+   */
+  static int grow(int length) {
+    return length + (length >> 1) + 1;
+  }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A two-way mapping between nodes and dense integer identifiers, like {@link NodeDictionary},
+ * but holding the nodes outside of the Java heap. Each node is stored as its {@link NodeCodec}
+ * encoding in a direct buffer, and a new node object is decoded every time an ID is looked up.
+ * The location, length and hash of each encoding are kept in an {@link OffHeapInts}, as is
+ * the open addressed hash table of IDs, so the heap holds nothing per node.
+ * Set to package scope.
+ */
+class OffHeapDictionary {
+
+  /** The value returned when a node is not in the dictionary. */
+  static final int NONE = NodeDictionary.NONE;
+
+  /** The size of the first buffer of node data. */
+  private static final int INITIAL_DATA_SIZE = 1 << 14;
+
+  /** The largest size for a buffer of node data, unless a single node needs more. */
+  private static final int MAX_DATA_SIZE = 1 << 22;
+
+  /** The number of ints recorded for each ID. */
+  private static final int ENTRY_INTS = 4;
+
+  /** The offset in an entry of the buffer holding the node. */
+  private static final int BUFFER = 0;
+
+  /** The offset in an entry of the position of the node in its buffer. */
+  private static final int OFFSET = 1;
+
+  /** The offset in an entry of the length of the encoded node. */
+  private static final int LENGTH = 2;
+
+  /** The offset in an entry of the hash of the encoded node. */
+  private static final int HASH = 3;
+
+  /** The buffers of encoded nodes. Only the last one has space for more nodes. */
+  private ByteBuffer[] data = new ByteBuffer[0];
+
+  /** The number of bytes used in the last data buffer. */
+  private int dataUsed = 0;
+
+  /** The buffer, offset, length and hash of each node, indexed by ID. */
+  private final OffHeapInts entries;
+
+  /** The hash table of IDs. Empty slots hold {@link #NONE}. */
+  private OffHeapInts table;
+
+  /** The number of slots in the hash table. Always a power of 2. */
+  private int tableLength;
+
+  /** The number of nodes in the dictionary. */
+  private int size = 0;
+
+  /** The number of bytes of node data that have been allocated. */
+  private long dataBytes = 0;
+
+  /**
+   * Creates an empty dictionary, with space for an expected number of nodes.
+   * @param capacity The number of nodes expected.
+   */
+  OffHeapDictionary(int capacity) {
+    capacity = Math.max(capacity, 16);
+    entries = new OffHeapInts(capacity * ENTRY_INTS, 0);
+    tableLength = tableSize(capacity);
+    table = new OffHeapInts(tableLength, NONE);
+  }
+
+  /**
+   * Looks up the ID of a node.
+   * @param n The node to find.
+   * @return The ID of the node, or {@link #NONE} if it has not been allocated.
+   */
+  int lookup(Node n) {
+    byte[] encoded = NodeCodec.encode(n);
+    return table.get(find(encoded, NodeCodec.hash(encoded)));
+  }
+
+  /**
+   * Gets the ID of a node, allocating a new ID if it has not been seen before.
+   * @param n The node to get the ID for.
+   * @return The ID of the node.
+   */
+  int intern(Node n) {
+    byte[] encoded = NodeCodec.encode(n);
+    int hash = NodeCodec.hash(encoded);
+    int h = find(encoded, hash);
+    int id = table.get(h);
+    if (id != NONE) return id;
+
+    id = size++;
+    int base = id * ENTRY_INTS;
+    entries.ensure(base + ENTRY_INTS);
+    ByteBuffer buffer = reserve(encoded.length).duplicate();
+    buffer.position(dataUsed);
+    buffer.put(encoded);
+    entries.set(base + BUFFER, data.length - 1);
+    entries.set(base + OFFSET, dataUsed);
+    entries.set(base + LENGTH, encoded.length);
+    entries.set(base + HASH, hash);
+    dataUsed += encoded.length;
+    table.set(h, id);
+    if (size > (tableLength >> 1) + (tableLength >> 2)) rehash(tableLength << 1);
+    return id;
+  }
+
+  /**
+   * Decodes the node for an ID. Each call returns a new node object.
+   * @param id The ID of the node.
+   * @return The node that was allocated the ID.
+   * @throws ArrayIndexOutOfBoundsException If the ID has not been allocated.
+   */
+  Node get(int id) {
+    if (id >= size) throw new ArrayIndexOutOfBoundsException(id);
+    int base = id * ENTRY_INTS;
+    return NodeCodec.decode(data[entries.get(base + BUFFER)], entries.get(base + OFFSET));
+  }
+
+  /**
+   * Gets the number of nodes in the dictionary. All IDs are less than this value.
+   * @return The number of nodes in the dictionary.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the amount of memory reserved outside of the heap for this dictionary.
+   * @return The number of bytes allocated in direct buffers.
+   */
+  long bytes() {
+    return dataBytes + entries.bytes() + table.bytes();
+  }
+
+  /**
+   * Finds the slot in the hash table for an encoded node.
+   * @param encoded The encoded node.
+   * @param hash The hash of the encoding.
+   * @return The slot holding the ID of the node, or the empty slot where it would be inserted.
+   */
+  private int find(byte[] encoded, int hash) {
+    int mask = tableLength - 1;
+    for (int h = spread(hash) & mask; ; h = (h + 1) & mask) {
+      int id = table.get(h);
+      if (id == NONE) return h;
+      int base = id * ENTRY_INTS;
+      if (entries.get(base + HASH) == hash &&
+          NodeCodec.equals(data[entries.get(base + BUFFER)], entries.get(base + OFFSET), entries.get(base + LENGTH), encoded)) {
+        return h;
+      }
+    }
+  }
+
+  /**
+   * Gets a data buffer with space for a number of bytes at {@link #dataUsed},
+   * starting a new buffer if the current one is full.
+   * @param length The number of bytes needed.
+   * @return The last data buffer.
+   */
+  private ByteBuffer reserve(int length) {
+    int count = data.length;
+    if (count > 0 && dataUsed + length <= data[count - 1].capacity()) return data[count - 1];
+    int size = count == 0 ? INITIAL_DATA_SIZE : Math.min(data[count - 1].capacity() << 1, MAX_DATA_SIZE);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(size, length));
+    ByteBuffer[] newData = new ByteBuffer[count + 1];
+    System.arraycopy(data, 0, newData, 0, count);
+    newData[count] = buffer;
+    data = newData;
+    dataUsed = 0;
+    dataBytes += buffer.capacity();
+    return buffer;
+  }
+
+  /**
+   * Rebuilds the hash table at a new size, using the stored hashes.
+   * @param length The new length of the table. Must be a power of 2.
+   */
+  private void rehash(int length) {
+    OffHeapInts newTable = new OffHeapInts(length, NONE);
+    int mask = length - 1;
+    for (int id = 0; id < size; id++) {
+      int h = spread(entries.get(id * ENTRY_INTS + HASH)) & mask;
+      while (newTable.get(h) != NONE) h = (h + 1) & mask;
+      newTable.set(h, id);
+    }
+    table = newTable;
+    tableLength = length;
+  }
+
+  /**
+   * Spreads the bits of a hash, since open addressing is sensitive to clustering.
+   * @param h The hash of an encoded node.
+   * @return The spread hash.
+   */
+  private static int spread(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Calculates a table size that keeps the load factor below 3/4.
+   * @param capacity The number of nodes to be stored.
+   * @return A power of 2 that is large enough to hold the capacity.
+   */
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 8) * 4 / 3) << 1;
+  }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.mulgara.mrg.TripleTable.*;
+
+/**
+ * A graph that keeps all of its data outside of the Java heap, so that large graphs do not
+ * add to the work of the garbage collector. This has the same structure as a {@link DictionaryGraph}:
+ * nodes are given integer IDs by a dictionary, and triples of IDs are stored in a table that links
+ * each triple into a list for its subject, predicate and object. Both the encoded nodes and the
+ * table are held in direct buffers, which are allocated in chunks as the graph grows.
+ * <p>
+ * No node objects are retained by the graph. Each call to {@link #match(SubjectNode, PredicateNode, ObjectNode)}
+ * or to the methods that return nodes decodes new objects, which are short lived unless the caller
+ * keeps them. This makes reading slower than a {@link DictionaryGraph}, in exchange for a heap that
+ * does not grow with the data. Like the other dictionary based graphs, nodes are not removed
+ * when the last triple using them is deleted. The off-heap memory is released when the graph
+ * is garbage collected.
+ * </p>
+ */
+public class OffHeapGraph extends AbstractWritableMatchGraph implements IndexedMatch {
+
+  /** The initial number of triples that space is allocated for. */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** The dictionary of all nodes in the graph. */
+  private final OffHeapDictionary dictionary;
+
+  /** The triples, as node IDs. */
+  private final OffHeapTripleTable triples;
+
+  /**
+   * Default constructor for an empty graph.
+   */
+  public OffHeapGraph() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates an empty graph with space for an expected number of triples.
+   * @param capacity The number of triples expected.
+   */
+  public OffHeapGraph(int capacity) {
+    // in typical data, there are about half as many distinct nodes as triples
+    dictionary = new OffHeapDictionary(capacity / 2);
+    triples = new OffHeapTripleTable(capacity, capacity / 2);
+  }
+
+  /**
+   * Builds a graph with a collection of triples.
+   * @param triples The initial triples for the graph.
+   */
+  public OffHeapGraph(Collection<Triple> triples) {
+    this(triples.size());
+    for (Triple t: triples) insert(t);
+  }
+
+  /**
+   * Add a new triple to the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    int sid = dictionary.intern(s);
+    int pid = dictionary.intern(p);
+    int oid = dictionary.intern(o);
+    triples.ensureNodes(dictionary.size());
+    return triples.add(sid, pid, oid);
+  }
+
+  /**
+   * Remove a triple from the graph.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was already in the graph.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    int sid = dictionary.lookup(s);
+    int pid = dictionary.lookup(p);
+    int oid = dictionary.lookup(o);
+    if (sid == OffHeapDictionary.NONE || pid == OffHeapDictionary.NONE || oid == OffHeapDictionary.NONE) return false;
+    return triples.remove(sid, pid, oid);
+  }
+
+  /**
+   * Tests if a triple has been asserted. Be careful of blank nodes, as
+   * they will only match if they are exactly alike.
+   * @param s The subject of the triple to search for.
+   * @param p The predicate of the triple to search for.
+   * @param o The object of the triple to search for.
+   * @return <code>true</code> only if the triple exists in the graph.
+   */
+  public boolean isAsserted(SubjectNode s, PredicateNode p, ObjectNode o) {
+    int sid = dictionary.lookup(s);
+    int pid = dictionary.lookup(p);
+    int oid = dictionary.lookup(o);
+    if (sid == OffHeapDictionary.NONE || pid == OffHeapDictionary.NONE || oid == OffHeapDictionary.NONE) return false;
+    return triples.contains(sid, pid, oid);
+  }
+
+  /**
+   * Find all triples that match a given pattern. The resulting iterator is live, and will
+   * throw a {@link ConcurrentModificationException} if the graph is modified.
+   * The list for the most selective of the bound nodes is scanned, and filtered by the others.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    s = unbind(s);
+    p = unbind(p);
+    o = unbind(o);
+    Node[] nodes = new Node[] { s, p, o };
+    int[] pattern = new int[3];
+    int scanPos = NIL;
+    int bound = 0;
+    for (int pos = S; pos <= O; pos++) {
+      if (nodes[pos] == null) {
+        pattern[pos] = NIL;
+        continue;
+      }
+      pattern[pos] = dictionary.lookup(nodes[pos]);
+      if (pattern[pos] == OffHeapDictionary.NONE) return Collections.<Triple>emptyList().iterator();
+      bound++;
+      if (scanPos == NIL || triples.count(pos, pattern[pos]) < triples.count(scanPos, pattern[scanPos])) scanPos = pos;
+    }
+    if (bound == 3) {
+      if (!triples.contains(pattern[S], pattern[P], pattern[O])) return Collections.<Triple>emptyList().iterator();
+      return Collections.singletonList(new Triple(s, p, o)).iterator();
+    }
+    return new SlotIterator(pattern, scanPos);
+  }
+
+  /**
+   * Every position has a list of its triples, so any bound position avoids a scan.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if any position is bound.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || p || o;
+  }
+
+  /**
+   * Gets the number of triples in this graph.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return triples.size();
+  }
+
+  /**
+   * Gets all the subjects in the graph.
+   * @return All the subjects in the graph.
+   */
+  public Collection<SubjectNode> getSubjects() {
+    return this.<SubjectNode>usedNodes(S);
+  }
+
+  /**
+   * Gets all the predicates in the graph.
+   * @return All the predicatess in the graph.
+   */
+  public Collection<PredicateNode> getPredicates() {
+    return this.<PredicateNode>usedNodes(P);
+  }
+
+  /**
+   * Gets all the objects in the graph.
+   * @return All the objects in the graph.
+   */
+  public Collection<ObjectNode> getObjects() {
+    return this.<ObjectNode>usedNodes(O);
+  }
+
+  /**
+   * Gets the amount of memory that this graph has reserved outside of the Java heap.
+   * @return The number of bytes allocated in direct buffers.
+   */
+  public long getOffHeapSize() {
+    return dictionary.bytes() + triples.bytes();
+  }
+
+  /**
+   * Gets all the nodes that appear in a given position of a triple.
+   * @param pos The position in the triple.
+   * @return A list of newly decoded nodes.
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Node> List<T> usedNodes(int pos) {
+    List<T> result = new ArrayList<T>();
+    int max = dictionary.size();
+    for (int id = 0; id < max; id++) {
+      if (triples.count(pos, id) > 0) result.add((T)dictionary.get(id));
+    }
+    return result;
+  }
+
+  /**
+   * Iterates over the slots of a list in the triple table, or over all slots,
+   * returning those which match a pattern. Each triple is decoded when it is returned.
+   */
+  private class SlotIterator implements Iterator<Triple> {
+
+    /** The IDs in the pattern to match, with NIL for variables. */
+    private final int[] pattern;
+
+    /** The position of the list being iterated over, or NIL for scanning all slots. */
+    private final int scanPos;
+
+    /** The modification count expected in the table. */
+    private final int expectedModCount;
+
+    /** The next matching slot, or NIL at the end. */
+    private int slot;
+
+    /**
+     * Creates the iterator.
+     * @param pattern The pattern to match.
+     * @param scanPos The position of the list to walk, or NIL for a scan.
+     */
+    SlotIterator(int[] pattern, int scanPos) {
+      this.pattern = pattern;
+      this.scanPos = scanPos;
+      expectedModCount = triples.modCount;
+      if (scanPos == NIL) slot = nextMatch(0);
+      else slot = nextMatch(triples.first(scanPos, pattern[scanPos]));
+    }
+
+    /**
+     * Returns <code>true</code> if the iterator has more elements.
+     * @return <code>true</code> if the iterator has more elements.
+     */
+    public boolean hasNext() {
+      return slot != NIL;
+    }
+
+    /**
+     * Returns the next element in the iteration.
+     * @return the next element in the iteration.
+     * @throws NoSuchElementException iteration has no more elements.
+     */
+    public Triple next() {
+      if (slot == NIL) throw new NoSuchElementException();
+      if (triples.modCount != expectedModCount) throw new ConcurrentModificationException();
+      Triple t = new Triple(dictionary.get(triples.get(slot, S)),
+                            dictionary.get(triples.get(slot, P)),
+                            dictionary.get(triples.get(slot, O)));
+      slot = nextMatch(scanPos == NIL ? slot + 1 : triples.next(scanPos, slot));
+      return t;
+    }
+
+    /**
+     * Removal would invalidate the slot being used for iteration, so this is not supported.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the first slot from a starting point that matches the pattern.
+     * @param from The slot to start with.
+     * @return The matching slot, or NIL if there are no more.
+     */
+    private int nextMatch(int from) {
+      if (scanPos == NIL) {
+        for (int end = triples.slots(); from < end; from++) {
+          if (triples.isUsed(from) && matches(from)) return from;
+        }
+        return NIL;
+      }
+      while (from != NIL && !matches(from)) from = triples.next(scanPos, from);
+      return from;
+    }
+
+    /**
+     * Tests if a slot matches the pattern.
+     */
+    private boolean matches(int slot) {
+      for (int pos = S; pos <= O; pos++) {
+        if (pattern[pos] != NIL && triples.get(slot, pos) != pattern[pos]) return false;
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A growable array of ints, held in direct buffers outside of the Java heap.
+ * The array is made of fixed size chunks, so that growing a large array never copies it,
+ * and its length is not limited to what a single buffer can hold. Only the first chunk
+ * may be smaller than the others, so that small arrays do not reserve a whole chunk.
+ * Set to package scope.
+ */
+class OffHeapInts {
+
+  /** The number of bits in an index into a chunk. */
+  private static final int CHUNK_BITS = 16;
+
+  /** The number of ints in a full chunk. */
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /** The mask for an index into a chunk. */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** The chunks of the array. */
+  private IntBuffer[] chunks;
+
+  /** The value that new elements are set to. */
+  private final int fill;
+
+  /** The number of elements that can be accessed. */
+  private int length;
+
+  /**
+   * Creates an array.
+   * @param length The initial length of the array.
+   * @param fill The value to initialize every element with.
+   */
+  OffHeapInts(int length, int fill) {
+    this.fill = fill;
+    chunks = new IntBuffer[0];
+    this.length = 0;
+    ensure(length);
+  }
+
+  /**
+   * Gets an element of the array.
+   * @param i The index of the element.
+   * @return The value at the index.
+   */
+  int get(int i) {
+    return chunks[i >>> CHUNK_BITS].get(i & CHUNK_MASK);
+  }
+
+  /**
+   * Sets an element of the array.
+   * @param i The index of the element.
+   * @param value The value to set.
+   */
+  void set(int i, int value) {
+    chunks[i >>> CHUNK_BITS].put(i & CHUNK_MASK, value);
+  }
+
+  /**
+   * Gets the number of elements that can be accessed.
+   * This may be more than was asked for, as arrays larger than a chunk are a whole number of chunks.
+   * @return The length of the array.
+   */
+  int length() {
+    return length;
+  }
+
+  /**
+   * Gets the amount of memory reserved by this array.
+   * @return The number of bytes in all the chunks.
+   */
+  long bytes() {
+    return (long)length * 4;
+  }
+
+  /**
+   * Ensures that the array has a minimum length. New elements are set to the fill value.
+   * @param minLength The length required.
+   */
+  void ensure(int minLength) {
+    if (minLength <= length) return;
+    if (length < CHUNK_SIZE) {
+      // grow the first chunk, up to a full chunk
+      int size = Math.min(Math.max(minLength, NodeDictionary.grow(length)), CHUNK_SIZE);
+      IntBuffer chunk = allocate(size);
+      if (length > 0) {
+        IntBuffer old = chunks[0].duplicate();
+        old.clear();
+        chunk.put(old);
+      }
+      if (fill != 0) for (int i = length; i < size; i++) chunk.put(i, fill);
+      chunks = new IntBuffer[] { chunk };
+      length = size;
+    }
+    if (minLength <= length) return;
+    int count = (int)(((long)minLength + CHUNK_MASK) >>> CHUNK_BITS);
+    IntBuffer[] newChunks = new IntBuffer[count];
+    System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+    for (int c = chunks.length; c < count; c++) {
+      IntBuffer chunk = allocate(CHUNK_SIZE);
+      // direct buffers are already zeroed
+      if (fill != 0) for (int i = 0; i < CHUNK_SIZE; i++) chunk.put(i, fill);
+      newChunks[c] = chunk;
+    }
+    chunks = newChunks;
+    length = (int)Math.min((long)count << CHUNK_BITS, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Allocates a direct buffer for ints in the native byte order.
+   * @param size The number of ints in the buffer.
+   * @return The new buffer. Its memory is released when the buffer is garbage collected.
+   */
+  private static IntBuffer allocate(int size) {
+    return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+}
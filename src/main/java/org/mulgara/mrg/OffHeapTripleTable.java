@@ -0,0 +1,349 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import static org.mulgara.mrg.TripleTable.*;
+
+/**
+ * A table of triples of node IDs with the same structure as {@link TripleTable}, but with
+ * every array held in an {@link OffHeapInts}. Each triple occupies a slot, which is threaded
+ * onto a doubly linked list for each of its subject, predicate and object, and an open addressed
+ * hash table over the slots detects duplicates. The slot arrays grow by adding chunks, so
+ * existing triples are never copied, and the only objects on the heap are the chunk buffers.
+ * Set to package scope.
+ */
+class OffHeapTripleTable {
+
+  /** The node IDs of each slot, 3 per slot. A free slot has NIL for its subject. */
+  private final OffHeapInts ids;
+
+  /** The next slot in each of the 3 lists a slot is in. The subject position of a free slot links the free list. */
+  private final OffHeapInts next;
+
+  /** The previous slot in each of the 3 lists a slot is in. */
+  private final OffHeapInts prev;
+
+  /** The first slot for each node ID, for each position. */
+  private final OffHeapInts[] heads = new OffHeapInts[3];
+
+  /** The number of triples using each node ID, for each position. */
+  private final OffHeapInts[] counts = new OffHeapInts[3];
+
+  /** The hash table of slots. Empty entries are NIL. */
+  private OffHeapInts table;
+
+  /** The number of entries in the hash table. Always a power of 2. */
+  private int tableLength;
+
+  /** The number of slots that have ever been used. */
+  private int used = 0;
+
+  /** The first slot in the list of free slots. */
+  private int free = NIL;
+
+  /** The number of triples in the table. */
+  private int size = 0;
+
+  /** Incremented on every modification, so that iterators can detect changes. */
+  int modCount = 0;
+
+  /**
+   * Creates an empty table with space for an expected number of triples and nodes.
+   * @param tripleCapacity The number of triples expected.
+   * @param nodeCapacity The number of node IDs expected.
+   */
+  OffHeapTripleTable(int tripleCapacity, int nodeCapacity) {
+    tripleCapacity = Math.max(tripleCapacity, 16);
+    ids = new OffHeapInts(tripleCapacity * 3, NIL);
+    next = new OffHeapInts(tripleCapacity * 3, NIL);
+    prev = new OffHeapInts(tripleCapacity * 3, NIL);
+    tableLength = tableSize(tripleCapacity);
+    table = new OffHeapInts(tableLength, NIL);
+    for (int pos = 0; pos < 3; pos++) {
+      heads[pos] = new OffHeapInts(Math.max(nodeCapacity, 16), NIL);
+      counts[pos] = new OffHeapInts(Math.max(nodeCapacity, 16), 0);
+    }
+  }
+
+  /**
+   * Ensures that node IDs up to a given value can be used in the table.
+   * @param nodes The number of node IDs in use.
+   */
+  void ensureNodes(int nodes) {
+    for (int pos = 0; pos < 3; pos++) {
+      heads[pos].ensure(nodes);
+      counts[pos].ensure(nodes);
+    }
+  }
+
+  /**
+   * Adds a triple to the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple was not already in the table.
+   */
+  boolean add(int s, int p, int o) {
+    int mask = tableLength - 1;
+    int h = hash(s, p, o) & mask;
+    for (int slot; (slot = table.get(h)) != NIL; h = (h + 1) & mask) {
+      if (equals(slot, s, p, o)) return false;
+    }
+    int slot = allocate();
+    int base = slot * 3;
+    ids.set(base + S, s);
+    ids.set(base + P, p);
+    ids.set(base + O, o);
+    link(slot, S, s);
+    link(slot, P, p);
+    link(slot, O, o);
+    table.set(h, slot);
+    size++;
+    modCount++;
+    if (size > (tableLength >> 1) + (tableLength >> 2)) rehash(tableLength << 1);
+    return true;
+  }
+
+  /**
+   * Removes a triple from the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple was in the table.
+   */
+  boolean remove(int s, int p, int o) {
+    int mask = tableLength - 1;
+    int h = hash(s, p, o) & mask;
+    int slot;
+    while ((slot = table.get(h)) != NIL) {
+      if (equals(slot, s, p, o)) break;
+      h = (h + 1) & mask;
+    }
+    if (slot == NIL) return false;
+    unlink(slot, S);
+    unlink(slot, P);
+    unlink(slot, O);
+    ids.set(slot * 3, NIL);
+    next.set(slot * 3, free);
+    free = slot;
+    removeFromTable(h);
+    size--;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Tests if a triple is in the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple is in the table.
+   */
+  boolean contains(int s, int p, int o) {
+    int mask = tableLength - 1;
+    for (int h = hash(s, p, o) & mask, slot; (slot = table.get(h)) != NIL; h = (h + 1) & mask) {
+      if (equals(slot, s, p, o)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of triples in the table.
+   * @return The number of triples.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of triples that use a node in a given position.
+   * @param pos The position in the triple: S, P or O.
+   * @param id The node ID.
+   * @return The number of triples with the node in that position.
+   */
+  int count(int pos, int id) {
+    return id < counts[pos].length() ? counts[pos].get(id) : 0;
+  }
+
+  /**
+   * Gets the first slot in the list for a node in a given position.
+   * @param pos The position in the triple: S, P or O.
+   * @param id The node ID.
+   * @return The first slot, or NIL if the node is not used in that position.
+   */
+  int first(int pos, int id) {
+    return id < heads[pos].length() ? heads[pos].get(id) : NIL;
+  }
+
+  /**
+   * Gets the slot following a given slot in the list for one of its positions.
+   * @param pos The position in the triple that the list is for.
+   * @param slot The current slot.
+   * @return The next slot, or NIL at the end of the list.
+   */
+  int next(int pos, int slot) {
+    return next.get(slot * 3 + pos);
+  }
+
+  /**
+   * Gets the number of slots that can be scanned. Some of these may be free.
+   * @return The upper bound on slot numbers.
+   */
+  int slots() {
+    return used;
+  }
+
+  /**
+   * Tests if a slot holds a triple.
+   * @param slot The slot to test.
+   * @return <code>true</code> if the slot is in use.
+   */
+  boolean isUsed(int slot) {
+    return ids.get(slot * 3) != NIL;
+  }
+
+  /**
+   * Gets a node ID from a slot.
+   * @param slot The slot to read.
+   * @param pos The position in the triple to get.
+   * @return The node ID at that position.
+   */
+  int get(int slot, int pos) {
+    return ids.get(slot * 3 + pos);
+  }
+
+  /**
+   * Gets the amount of memory reserved outside of the heap for this table.
+   * @return The number of bytes allocated in direct buffers.
+   */
+  long bytes() {
+    long total = ids.bytes() + next.bytes() + prev.bytes() + table.bytes();
+    for (int pos = 0; pos < 3; pos++) total += heads[pos].bytes() + counts[pos].bytes();
+    return total;
+  }
+
+  /**
+   * Tests if a slot holds a given triple.
+   */
+  private boolean equals(int slot, int s, int p, int o) {
+    int base = slot * 3;
+    return ids.get(base + S) == s && ids.get(base + P) == p && ids.get(base + O) == o;
+  }
+
+  /**
+   * Gets a slot to put a new triple into, reusing free slots before extending the table.
+   * @return The slot number.
+   */
+  private int allocate() {
+    if (free != NIL) {
+      int slot = free;
+      free = next.get(slot * 3);
+      return slot;
+    }
+    if ((used + 1) * 3 > ids.length()) {
+      int length = NodeDictionary.grow(used) * 3;
+      ids.ensure(length);
+      next.ensure(length);
+      prev.ensure(length);
+    }
+    return used++;
+  }
+
+  /**
+   * Adds a slot to the head of the list for a node.
+   */
+  private void link(int slot, int pos, int id) {
+    int i = slot * 3 + pos;
+    int head = heads[pos].get(id);
+    next.set(i, head);
+    prev.set(i, NIL);
+    if (head != NIL) prev.set(head * 3 + pos, slot);
+    heads[pos].set(id, slot);
+    counts[pos].set(id, counts[pos].get(id) + 1);
+  }
+
+  /**
+   * Removes a slot from the list it is in for a position.
+   */
+  private void unlink(int slot, int pos) {
+    int i = slot * 3 + pos;
+    int id = ids.get(i);
+    int n = next.get(i);
+    int p = prev.get(i);
+    if (p == NIL) heads[pos].set(id, n);
+    else next.set(p * 3 + pos, n);
+    if (n != NIL) prev.set(n * 3 + pos, p);
+    counts[pos].set(id, counts[pos].get(id) - 1);
+  }
+
+  /**
+   * Removes an entry from the hash table, shifting back any entries that probed past it.
+   * @param h The location of the entry to remove.
+   */
+  private void removeFromTable(int h) {
+    int mask = tableLength - 1;
+    table.set(h, NIL);
+    for (int j = (h + 1) & mask, slot; (slot = table.get(j)) != NIL; j = (j + 1) & mask) {
+      int base = slot * 3;
+      int home = hash(ids.get(base + S), ids.get(base + P), ids.get(base + O)) & mask;
+      // move the entry back if its home is not cyclically within (h, j]
+      boolean inRange = (h <= j) ? (h < home && home <= j) : (h < home || home <= j);
+      if (!inRange) {
+        table.set(h, slot);
+        table.set(j, NIL);
+        h = j;
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the hash table at a new size.
+   * @param length The new length of the table. Must be a power of 2.
+   */
+  private void rehash(int length) {
+    OffHeapInts newTable = new OffHeapInts(length, NIL);
+    int mask = length - 1;
+    for (int slot = 0; slot < used; slot++) {
+      int base = slot * 3;
+      if (ids.get(base) == NIL) continue;
+      int h = hash(ids.get(base + S), ids.get(base + P), ids.get(base + O)) & mask;
+      while (newTable.get(h) != NIL) h = (h + 1) & mask;
+      newTable.set(h, slot);
+    }
+    table = newTable;
+    tableLength = length;
+  }
+
+  /**
+   * Hashes a triple of IDs.
+   */
+  private static int hash(int s, int p, int o) {
+    int h = (s * 31 + p) * 31 + o;
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Calculates a table size that keeps the load factor below 3/4.
+   * @param capacity The number of triples to be stored.
+   * @return A power of 2 that is large enough to hold the capacity.
+   */
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 8) * 4 / 3) << 1;
+  }
+
+}
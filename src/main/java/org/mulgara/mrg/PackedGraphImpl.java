@@ -24,6 +24,7 @@ import java.util.Map;
 /**
  * A graph that uses tree sets and maps to keep the memory footprint smaller.
  * This gives log(N) lookups.
+ * For read-mostly data that needs to be smaller again, see {@link DictionaryGraph#freeze()}.
  */
 public class PackedGraphImpl extends AbstractGraph {
 
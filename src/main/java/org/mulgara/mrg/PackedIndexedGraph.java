@@ -24,6 +24,7 @@ import java.util.Map;
 /**
  * A fully indexed graph with tree indexes. This gives log(N) lookups, but uses less memory.
  * Aside from this, it operates the same way as IndexedGraph.
+ * For read-mostly data that needs to be smaller again, see {@link DictionaryGraph#freeze()}.
  */
 public class PackedIndexedGraph extends IndexedGraph {
 
@@ -40,6 +41,23 @@ public class PackedIndexedGraph extends IndexedGraph {
     super(triples);
   }
 
+  /**
+   * Creates an empty graph with a selection of indexes.
+   * @param indexes The indexes to use, from {@link #POS_INDEX} and {@link #OSP_INDEX}.
+   */
+  public PackedIndexedGraph(int indexes) {
+    super(indexes);
+  }
+
+  /**
+   * Builds a graph with a selection of indexes and a collection of triples.
+   * @param indexes The indexes to use, from {@link #POS_INDEX} and {@link #OSP_INDEX}.
+   * @param triples The initial triples for the graph.
+   */
+  public PackedIndexedGraph(int indexes, Collection<Triple> triples) {
+    super(indexes, triples);
+  }
+
   /**
    * Use hashmaps for efficient lookups.
    * @return an instance of a HashMap.
@@ -56,4 +74,22 @@ public class PackedIndexedGraph extends IndexedGraph {
     return new TreeSet<X>();
   }
 
+  /**
+   * Trees are not sized in advance, so the expected size is ignored.
+   * @param size The number of entries the map is expected to hold.
+   * @return an instance of a TreeMap.
+   */
+  protected <X,Y> Map<X,Y> createMap(int size) {
+    return createMap();
+  }
+
+  /**
+   * Trees are not sized in advance, so the expected size is ignored.
+   * @param size The number of entries the set is expected to hold.
+   * @return an instance of a TreeSet.
+   */
+  protected <X> Collection<X> createCollection(int size) {
+    return createCollection();
+  }
+
 }
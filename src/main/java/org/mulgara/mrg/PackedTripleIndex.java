@@ -0,0 +1,360 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, sorted index of triples of node IDs, for one permutation of the triple positions.
+ * Triples are grouped into fixed size blocks. The first triple of each block is stored in full,
+ * so blocks can be found with a binary search, and the remaining triples are stored as variable
+ * length deltas from their predecessor. Typical data needs 2-4 bytes per triple.
+ * Set to package scope.
+ */
+class PackedTripleIndex {
+
+  /** Used for unbound values in a search prefix. Node IDs are never negative. */
+  static final int NIL = TripleTable.NIL;
+
+  /** The number of triples in each block. */
+  static final int BLOCK_SIZE = 64;
+
+  /** Below this size, ranges are sorted by insertion. */
+  private static final int INSERTION_SORT_SIZE = 12;
+
+  /** The number of triples in the index. */
+  private final int size;
+
+  /** The first triple in each block, 3 ints per block. */
+  private final int[] blockKeys;
+
+  /** The offset in {@link #data} of the encoded triples following the first triple in each block. */
+  private final int[] blockOffsets;
+
+  /** The delta encoded triples. */
+  private final byte[] data;
+
+  /**
+   * Builds an index from sorted triples. The triples must already be in the order
+   * of this permutation, with no duplicates.
+   * @param triples The triples to pack, 3 ints per triple.
+   * @param count The number of triples in the array.
+   */
+  PackedTripleIndex(int[] triples, int count) {
+    size = count;
+    int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    blockKeys = new int[blocks * 3];
+    blockOffsets = new int[blocks];
+    byte[] buffer = new byte[Math.max(16, count * 4)];
+    int offset = 0;
+    for (int i = 0; i < count; i++) {
+      int t = i * 3;
+      if (i % BLOCK_SIZE == 0) {
+        int b = i / BLOCK_SIZE;
+        System.arraycopy(triples, t, blockKeys, b * 3, 3);
+        blockOffsets[b] = offset;
+        continue;
+      }
+      // at most 3 varints of 5 bytes each
+      if (offset + 15 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      int da = triples[t] - triples[t - 3];
+      offset = putVarint(buffer, offset, da);
+      if (da != 0) {
+        offset = putVarint(buffer, offset, triples[t + 1]);
+        offset = putVarint(buffer, offset, triples[t + 2]);
+      } else {
+        int db = triples[t + 1] - triples[t - 2];
+        offset = putVarint(buffer, offset, db);
+        offset = putVarint(buffer, offset, db != 0 ? triples[t + 2] : triples[t + 2] - triples[t - 1]);
+      }
+    }
+    data = Arrays.copyOf(buffer, offset);
+  }
+
+  /**
+   * Gets the number of triples in the index.
+   * @return The number of triples.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the approximate number of bytes used by the index.
+   * @return The size of the internal arrays, in bytes.
+   */
+  long byteSize() {
+    return data.length + (blockKeys.length + blockOffsets.length) * 4L;
+  }
+
+  /**
+   * Tests if a triple is in the index. The parameters are in the order of this permutation.
+   * @return <code>true</code> if the triple is present.
+   */
+  boolean contains(int a, int b, int c) {
+    Scan scan = scan(a, b);
+    while (scan.next()) {
+      if (scan.c >= c) return scan.c == c;
+    }
+    return false;
+  }
+
+  /**
+   * Creates a scan over all triples matching a prefix.
+   * @param a The first value of the prefix, or {@link #NIL} to scan everything.
+   * @param b The second value of the prefix, or {@link #NIL}. Must be NIL if a is NIL.
+   * @return A scan, positioned before the first matching triple.
+   */
+  Scan scan(int a, int b) {
+    return new Scan(a, b);
+  }
+
+  /**
+   * Sorts an array of triples, in place.
+   * @param t The triples to sort, 3 ints per triple.
+   * @param count The number of triples in the array.
+   */
+  static void sort(int[] t, int count) {
+    sort(t, 0, count - 1);
+  }
+
+  /**
+   * Removes adjacent duplicates from a sorted array of triples.
+   * @param t The sorted triples, 3 ints per triple.
+   * @param count The number of triples in the array.
+   * @return The number of distinct triples now at the start of the array.
+   */
+  static int unique(int[] t, int count) {
+    if (count == 0) return 0;
+    int last = 0;
+    for (int i = 1; i < count; i++) {
+      if (compare(t, i, last) != 0) {
+        last++;
+        if (last != i) System.arraycopy(t, i * 3, t, last * 3, 3);
+      }
+    }
+    return last + 1;
+  }
+
+  /**
+   * Quicksort over a range of triples.
+   * @param t The triple array.
+   * @param lo The first triple in the range.
+   * @param hi The last triple in the range, inclusive.
+   */
+  private static void sort(int[] t, int lo, int hi) {
+    while (hi - lo >= INSERTION_SORT_SIZE) {
+      int mid = (lo + hi) >>> 1;
+      // median of three, leaving the pivot at mid
+      if (compare(t, mid, lo) < 0) swap(t, mid, lo);
+      if (compare(t, hi, lo) < 0) swap(t, hi, lo);
+      if (compare(t, hi, mid) < 0) swap(t, hi, mid);
+      int pa = t[mid * 3], pb = t[mid * 3 + 1], pc = t[mid * 3 + 2];
+      int i = lo, j = hi;
+      while (i <= j) {
+        while (compare(t, i, pa, pb, pc) < 0) i++;
+        while (compare(t, j, pa, pb, pc) > 0) j--;
+        if (i <= j) swap(t, i++, j--);
+      }
+      // recurse on the smaller partition to bound the stack
+      if (j - lo < hi - i) {
+        sort(t, lo, j);
+        lo = i;
+      } else {
+        sort(t, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      for (int j = i; j > lo && compare(t, j, j - 1) < 0; j--) swap(t, j, j - 1);
+    }
+  }
+
+  /** Compares two triples in an array. */
+  private static int compare(int[] t, int i, int j) {
+    return compare(t, i, t[j * 3], t[j * 3 + 1], t[j * 3 + 2]);
+  }
+
+  /** Compares a triple in an array to the given values. */
+  private static int compare(int[] t, int i, int a, int b, int c) {
+    int x = i * 3;
+    if (t[x] != a) return t[x] < a ? -1 : 1;
+    if (t[x + 1] != b) return t[x + 1] < b ? -1 : 1;
+    if (t[x + 2] != c) return t[x + 2] < c ? -1 : 1;
+    return 0;
+  }
+
+  /** Swaps two triples in an array. */
+  private static void swap(int[] t, int i, int j) {
+    int x = i * 3, y = j * 3;
+    for (int k = 0; k < 3; k++) {
+      int tmp = t[x + k];
+      t[x + k] = t[y + k];
+      t[y + k] = tmp;
+    }
+  }
+
+  /**
+   * Writes a non-negative value as a variable length integer, 7 bits per byte.
+   * @return The offset after the written value.
+   */
+  private static int putVarint(byte[] buffer, int offset, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer[offset++] = (byte)((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[offset++] = (byte)value;
+    return offset;
+  }
+
+  /**
+   * A forward scan over the triples that match a prefix. The current triple is
+   * available in the fields {@link #a}, {@link #b} and {@link #c} after each call to {@link #next()}.
+   */
+  class Scan {
+
+    /** The first value of the current triple. */
+    int a;
+
+    /** The second value of the current triple. */
+    int b;
+
+    /** The third value of the current triple. */
+    int c;
+
+    /** The first value of the prefix being scanned, or NIL. */
+    private final int prefixA;
+
+    /** The second value of the prefix being scanned, or NIL. */
+    private final int prefixB;
+
+    /** The index of the next triple to decode. */
+    private int index;
+
+    /** The offset in the data of the next triple to decode. */
+    private int offset;
+
+    /** Set when the scan has moved past the prefix. */
+    private boolean done = false;
+
+    /**
+     * Creates a scan, positioned at the start of the block where the prefix may start.
+     * @param prefixA The first value of the prefix, or NIL.
+     * @param prefixB The second value of the prefix, or NIL.
+     */
+    private Scan(int prefixA, int prefixB) {
+      this.prefixA = prefixA;
+      this.prefixB = prefixB;
+      index = (prefixA == NIL) ? 0 : findBlock(prefixA, prefixB) * BLOCK_SIZE;
+    }
+
+    /**
+     * Moves to the next matching triple.
+     * @return <code>true</code> if there is a current triple, <code>false</code> at the end of the scan.
+     */
+    boolean next() {
+      while (!done && index < size) {
+        decode();
+        if (prefixA == NIL) return true;
+        int cmp = comparePrefix();
+        if (cmp == 0) return true;
+        if (cmp > 0) done = true;
+      }
+      done = true;
+      return false;
+    }
+
+    /**
+     * Compares the current triple to the prefix.
+     * @return negative if the triple is before the prefix, 0 if it matches, and positive if it is after.
+     */
+    private int comparePrefix() {
+      if (a != prefixA) return a < prefixA ? -1 : 1;
+      if (prefixB == NIL || b == prefixB) return 0;
+      return b < prefixB ? -1 : 1;
+    }
+
+    /**
+     * Decodes the triple at the current index, and moves the index on.
+     */
+    private void decode() {
+      if (index % BLOCK_SIZE == 0) {
+        int block = index / BLOCK_SIZE;
+        a = blockKeys[block * 3];
+        b = blockKeys[block * 3 + 1];
+        c = blockKeys[block * 3 + 2];
+        offset = blockOffsets[block];
+      } else {
+        int da = getVarint();
+        if (da != 0) {
+          a += da;
+          b = getVarint();
+          c = getVarint();
+        } else {
+          int db = getVarint();
+          if (db != 0) {
+            b += db;
+            c = getVarint();
+          } else {
+            c += getVarint();
+          }
+        }
+      }
+      index++;
+    }
+
+    /**
+     * Reads a variable length integer from the data, moving the offset on.
+     * @return The value read.
+     */
+    private int getVarint() {
+      int value = 0;
+      int shift = 0;
+      byte v;
+      do {
+        v = data[offset++];
+        value |= (v & 0x7F) << shift;
+        shift += 7;
+      } while (v < 0);
+      return value;
+    }
+
+    /**
+     * Finds the last block that starts before a prefix. The prefix can only begin in this block.
+     * @param a The first value of the prefix.
+     * @param b The second value of the prefix, or NIL.
+     * @return The block number to start scanning from.
+     */
+    private int findBlock(int a, int b) {
+      int lo = 0;
+      int hi = blockOffsets.length - 1;
+      int result = 0;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        // NIL is less than all IDs, so an unbound b compares as the lowest value for a
+        if (compare(blockKeys, mid, a, b, NIL) < 0) {
+          result = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      return result;
+    }
+  }
+
+}
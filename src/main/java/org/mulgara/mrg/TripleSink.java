@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+/**
+ * A destination for a stream of triples. Parsers push each triple into a sink as it is read,
+ * so data can be filtered, converted or written without holding the whole graph in memory.
+ * A stream starts with a call to {@link #start()}, then has any number of calls to
+ * {@link #prefix(String, String)} and {@link #triple(SubjectNode, PredicateNode, ObjectNode)},
+ * and finishes with a call to {@link #end()} once all the data has been successfully read.
+ */
+public interface TripleSink {
+
+  /**
+   * Called before any data is sent to the sink.
+   */
+  public void start();
+
+  /**
+   * Called when the input declares a namespace prefix.
+   * @param prefix The prefix being declared. This is an empty string for the default namespace.
+   * @param namespace The namespace the prefix maps to.
+   */
+  public void prefix(String prefix, String namespace);
+
+  /**
+   * Called for each triple in the input.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   */
+  public void triple(SubjectNode s, PredicateNode p, ObjectNode o);
+
+  /**
+   * Called after all the data has been sent to the sink.
+   */
+  public void end();
+
+}
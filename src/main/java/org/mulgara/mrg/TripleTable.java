@@ -0,0 +1,375 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.util.Arrays;
+
+/**
+ * A table of triples of node IDs, stored entirely in primitive arrays.
+ * Each triple occupies a slot, and each slot is threaded onto three doubly linked lists:
+ * one for the triples sharing its subject, one for its predicate, and one for its object.
+ * This provides the access paths of the SPO, POS and OSP indexes for the cost of 9 ints per triple,
+ * plus an open addressed hash table over the slots to detect duplicates.
+ * Set to package scope.
+ */
+class TripleTable {
+
+  /** Indicates the end of a list, or an empty slot. */
+  static final int NIL = -1;
+
+  /** The position of subjects in a triple. */
+  static final int S = 0;
+
+  /** The position of predicates in a triple. */
+  static final int P = 1;
+
+  /** The position of objects in a triple. */
+  static final int O = 2;
+
+  /** The initial number of slots. */
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** The node IDs of each slot, 3 per slot. A free slot has NIL for its subject. */
+  private int[] ids;
+
+  /** The next slot in each of the 3 lists a slot is in. The subject position of a free slot links the free list. */
+  private int[] next;
+
+  /** The previous slot in each of the 3 lists a slot is in. */
+  private int[] prev;
+
+  /** The first slot for each node ID, for each position. */
+  private final int[][] heads = new int[3][];
+
+  /** The number of triples using each node ID, for each position. */
+  private final int[][] counts = new int[3][];
+
+  /** The hash table of slots. Empty entries are NIL. Always a power of 2 in length. */
+  private int[] table;
+
+  /** The number of slots that have ever been used. */
+  private int used = 0;
+
+  /** The first slot in the list of free slots. */
+  private int free = NIL;
+
+  /** The number of triples in the table. */
+  private int size = 0;
+
+  /** Incremented on every modification, so that iterators can detect changes. */
+  int modCount = 0;
+
+  /**
+   * Creates an empty table.
+   */
+  TripleTable() {
+    this(INITIAL_CAPACITY, INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates an empty table with space for an expected number of triples and nodes.
+   * @param tripleCapacity The number of triples expected.
+   * @param nodeCapacity The number of node IDs expected.
+   */
+  TripleTable(int tripleCapacity, int nodeCapacity) {
+    tripleCapacity = Math.max(tripleCapacity, 16);
+    ids = new int[tripleCapacity * 3];
+    next = new int[tripleCapacity * 3];
+    prev = new int[tripleCapacity * 3];
+    table = new int[tableSize(tripleCapacity)];
+    Arrays.fill(table, NIL);
+    for (int pos = 0; pos < 3; pos++) {
+      heads[pos] = new int[Math.max(nodeCapacity, 16)];
+      Arrays.fill(heads[pos], NIL);
+      counts[pos] = new int[heads[pos].length];
+    }
+  }
+
+  /**
+   * Ensures that node IDs up to a given value can be used in the table.
+   * @param nodes The number of node IDs in use.
+   */
+  void ensureNodes(int nodes) {
+    int length = heads[S].length;
+    if (nodes <= length) return;
+    int newLength = Math.max(nodes, NodeDictionary.grow(length));
+    for (int pos = 0; pos < 3; pos++) {
+      heads[pos] = Arrays.copyOf(heads[pos], newLength);
+      Arrays.fill(heads[pos], length, newLength, NIL);
+      counts[pos] = Arrays.copyOf(counts[pos], newLength);
+    }
+  }
+
+  /**
+   * Ensures that a number of triples can be stored without reallocation.
+   * @param triples The total number of triples to allow for.
+   */
+  void ensureCapacity(int triples) {
+    if (triples * 3 > ids.length) resize(triples);
+    int t = tableSize(triples);
+    if (t > table.length) rehash(t);
+  }
+
+  /**
+   * Adds a triple to the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple was not already in the table.
+   */
+  boolean add(int s, int p, int o) {
+    int mask = table.length - 1;
+    int h = hash(s, p, o) & mask;
+    for (int slot; (slot = table[h]) != NIL; h = (h + 1) & mask) {
+      if (equals(slot, s, p, o)) return false;
+    }
+    int slot = allocate();
+    int base = slot * 3;
+    ids[base + S] = s;
+    ids[base + P] = p;
+    ids[base + O] = o;
+    link(slot, S, s);
+    link(slot, P, p);
+    link(slot, O, o);
+    table[h] = slot;
+    size++;
+    modCount++;
+    if (size > (table.length >> 1) + (table.length >> 2)) rehash(table.length << 1);
+    return true;
+  }
+
+  /**
+   * Removes a triple from the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple was in the table.
+   */
+  boolean remove(int s, int p, int o) {
+    int mask = table.length - 1;
+    int h = hash(s, p, o) & mask;
+    int slot;
+    while ((slot = table[h]) != NIL) {
+      if (equals(slot, s, p, o)) break;
+      h = (h + 1) & mask;
+    }
+    if (slot == NIL) return false;
+    unlink(slot, S);
+    unlink(slot, P);
+    unlink(slot, O);
+    ids[slot * 3] = NIL;
+    next[slot * 3] = free;
+    free = slot;
+    removeFromTable(h);
+    size--;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Tests if a triple is in the table.
+   * @param s The subject ID.
+   * @param p The predicate ID.
+   * @param o The object ID.
+   * @return <code>true</code> if the triple is in the table.
+   */
+  boolean contains(int s, int p, int o) {
+    int mask = table.length - 1;
+    for (int h = hash(s, p, o) & mask, slot; (slot = table[h]) != NIL; h = (h + 1) & mask) {
+      if (equals(slot, s, p, o)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of triples in the table.
+   * @return The number of triples.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of triples that use a node in a given position.
+   * @param pos The position in the triple: {@link #S}, {@link #P} or {@link #O}.
+   * @param id The node ID.
+   * @return The number of triples with the node in that position.
+   */
+  int count(int pos, int id) {
+    return id < counts[pos].length ? counts[pos][id] : 0;
+  }
+
+  /**
+   * Gets the first slot in the list for a node in a given position.
+   * @param pos The position in the triple: {@link #S}, {@link #P} or {@link #O}.
+   * @param id The node ID.
+   * @return The first slot, or {@link #NIL} if the node is not used in that position.
+   */
+  int first(int pos, int id) {
+    return id < heads[pos].length ? heads[pos][id] : NIL;
+  }
+
+  /**
+   * Gets the slot following a given slot in the list for one of its positions.
+   * @param pos The position in the triple that the list is for.
+   * @param slot The current slot.
+   * @return The next slot, or {@link #NIL} at the end of the list.
+   */
+  int next(int pos, int slot) {
+    return next[slot * 3 + pos];
+  }
+
+  /**
+   * Gets the number of slots that can be scanned. Some of these may be free.
+   * @return The upper bound on slot numbers.
+   */
+  int slots() {
+    return used;
+  }
+
+  /**
+   * Tests if a slot holds a triple.
+   * @param slot The slot to test.
+   * @return <code>true</code> if the slot is in use.
+   */
+  boolean isUsed(int slot) {
+    return ids[slot * 3] != NIL;
+  }
+
+  /**
+   * Gets a node ID from a slot.
+   * @param slot The slot to read.
+   * @param pos The position in the triple to get.
+   * @return The node ID at that position.
+   */
+  int get(int slot, int pos) {
+    return ids[slot * 3 + pos];
+  }
+
+  /**
+   * Tests if a slot holds a given triple.
+   */
+  private boolean equals(int slot, int s, int p, int o) {
+    int base = slot * 3;
+    return ids[base + S] == s && ids[base + P] == p && ids[base + O] == o;
+  }
+
+  /**
+   * Gets a slot to put a new triple into, reusing free slots before extending the table.
+   * @return The slot number.
+   */
+  private int allocate() {
+    if (free != NIL) {
+      int slot = free;
+      free = next[slot * 3];
+      return slot;
+    }
+    if (used * 3 == ids.length) resize(NodeDictionary.grow(used));
+    return used++;
+  }
+
+  /**
+   * Adds a slot to the head of the list for a node.
+   */
+  private void link(int slot, int pos, int id) {
+    int i = slot * 3 + pos;
+    int head = heads[pos][id];
+    next[i] = head;
+    prev[i] = NIL;
+    if (head != NIL) prev[head * 3 + pos] = slot;
+    heads[pos][id] = slot;
+    counts[pos][id]++;
+  }
+
+  /**
+   * Removes a slot from the list it is in for a position.
+   */
+  private void unlink(int slot, int pos) {
+    int i = slot * 3 + pos;
+    int n = next[i];
+    int p = prev[i];
+    if (p == NIL) heads[pos][ids[i]] = n;
+    else next[p * 3 + pos] = n;
+    if (n != NIL) prev[n * 3 + pos] = p;
+    counts[pos][ids[i]]--;
+  }
+
+  /**
+   * Removes an entry from the hash table, shifting back any entries that probed past it.
+   * @param h The location of the entry to remove.
+   */
+  private void removeFromTable(int h) {
+    int mask = table.length - 1;
+    table[h] = NIL;
+    for (int j = (h + 1) & mask, slot; (slot = table[j]) != NIL; j = (j + 1) & mask) {
+      int home = hash(ids[slot * 3 + S], ids[slot * 3 + P], ids[slot * 3 + O]) & mask;
+      // move the entry back if its home is not cyclically within (h, j]
+      boolean inRange = (h <= j) ? (h < home && home <= j) : (h < home || home <= j);
+      if (!inRange) {
+        table[h] = slot;
+        table[j] = NIL;
+        h = j;
+      }
+    }
+  }
+
+  /**
+   * Reallocates the slot arrays.
+   * @param capacity The new number of slots.
+   */
+  private void resize(int capacity) {
+    ids = Arrays.copyOf(ids, capacity * 3);
+    next = Arrays.copyOf(next, capacity * 3);
+    prev = Arrays.copyOf(prev, capacity * 3);
+  }
+
+  /**
+   * Rebuilds the hash table at a new size.
+   * @param length The new length of the table. Must be a power of 2.
+   */
+  private void rehash(int length) {
+    table = new int[length];
+    Arrays.fill(table, NIL);
+    int mask = length - 1;
+    for (int slot = 0; slot < used; slot++) {
+      int base = slot * 3;
+      if (ids[base] == NIL) continue;
+      int h = hash(ids[base + S], ids[base + P], ids[base + O]) & mask;
+      while (table[h] != NIL) h = (h + 1) & mask;
+      table[h] = slot;
+    }
+  }
+
+  /**
+   * Hashes a triple of IDs.
+   */
+  private static int hash(int s, int p, int o) {
+    int h = (s * 31 + p) * 31 + o;
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Calculates a table size that keeps the load factor below 3/4.
+   * @param capacity The number of triples to be stored.
+   * @return A power of 2 that is large enough to hold the capacity.
+   */
+  private static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 8) * 4 / 3) << 1;
+  }
+
+}
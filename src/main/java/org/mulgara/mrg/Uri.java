@@ -21,9 +21,7 @@ import java.net.URISyntaxException;
 
 /**
  * A wrapper for a URI. This allows the use of URI as a Node.
- * TODO: create Uri with factory from the graph. If a uri string is already
- * internal (u == u.intern()) then it is already in the graph, and we want
- * to find it with the existing indexes so that we can reuse the object.
+ * Instances are not shared automatically. Use a {@link NodeCache} to reuse equal objects.
  */
 public class Uri implements SubjectNode, PredicateNode, ObjectNode {
 
@@ -41,7 +39,7 @@ public class Uri implements SubjectNode, PredicateNode, ObjectNode {
    * @param u The string form of the URI to wrap.
    */
   public Uri(String u) throws URISyntaxException {
-    this.uri = new URI(u.intern());
+    this.uri = new URI(u);
   }
 
   /**
@@ -57,7 +55,7 @@ public class Uri implements SubjectNode, PredicateNode, ObjectNode {
    * @param u The string form of the URI to wrap.
    */
   public static Uri create(String u) {
-    return new Uri(URI.create(u.intern()));
+    return new Uri(URI.create(u));
   }
 
   /**
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.mulgara.util.LexicalDateTime;
+
+import static org.mulgara.mrg.vocab.uri.XSD.*;
+
+/**
+ * A sorted index of the values of numeric and dateTime literals, for each predicate.
+ * This answers range and top-k queries in O(log n + k) time. Literals of other types, or
+ * with text that is not valid for their type, are not indexed.
+ * <p>
+ * Numbers are ordered by their value as a double, and sort before all dateTimes.
+ * DateTimes are ordered by their instant in time.
+ * </p>
+ * Set to package scope.
+ */
+class ValueIndex {
+
+  /** The numeric types known to {@link XSDMapper}. */
+  private static final Set<URI> NUMERIC_TYPES = new HashSet<URI>();
+
+  /** The sorted values for each predicate. */
+  private final Map<PredicateNode,NavigableMap<Value,Set<Triple>>> index = new HashMap<PredicateNode,NavigableMap<Value,Set<Triple>>>();
+
+  /**
+   * Adds a triple to the index, if its object is an indexed literal.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was indexed and was not already in the index.
+   */
+  public boolean add(SubjectNode s, PredicateNode p, ObjectNode o) {
+    Value v = toValue(o);
+    if (v == null) return false;
+    NavigableMap<Value,Set<Triple>> values = index.get(p);
+    if (values == null) {
+      values = new TreeMap<Value,Set<Triple>>();
+      index.put(p, values);
+    }
+    Set<Triple> triples = values.get(v);
+    if (triples == null) {
+      triples = new HashSet<Triple>();
+      values.put(v, triples);
+    }
+    return triples.add(new Triple(s, p, o));
+  }
+
+  /**
+   * Removes a triple from the index.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was in the index.
+   */
+  public boolean remove(SubjectNode s, PredicateNode p, ObjectNode o) {
+    Value v = toValue(o);
+    if (v == null) return false;
+    NavigableMap<Value,Set<Triple>> values = index.get(p);
+    if (values == null) return false;
+    Set<Triple> triples = values.get(v);
+    if (triples == null || !triples.remove(new Triple(s, p, o))) return false;
+    if (triples.isEmpty()) {
+      values.remove(v);
+      if (values.isEmpty()) index.remove(p);
+    }
+    return true;
+  }
+
+  /**
+   * Finds the triples for a predicate with values in a range. Both bounds are inclusive.
+   * When only one bound is given, the range does not extend into values of another kind,
+   * so a lower bound on a number does not find any dateTimes.
+   * @param p The predicate of the triples.
+   * @param low The lowest value to find, or <code>null</code> for no lower bound.
+   * @param high The highest value to find, or <code>null</code> for no upper bound.
+   * @return The triples with values in the range, in ascending order of value.
+   * @throws IllegalArgumentException If a bound is not a numeric or dateTime literal.
+   */
+  public Iterator<Triple> range(PredicateNode p, Literal low, Literal high) {
+    NavigableMap<Value,Set<Triple>> values = index.get(p);
+    if (values == null) return Collections.<Triple>emptyList().iterator();
+    Value lv = (low == null) ? null : bound(low);
+    Value hv = (high == null) ? null : bound(high);
+    if (lv == null && hv != null) lv = new Value(hv.kind, Double.NEGATIVE_INFINITY, Long.MIN_VALUE);
+    if (hv == null && lv != null) hv = new Value(lv.kind, Double.POSITIVE_INFINITY, Long.MAX_VALUE);
+    if (lv != null) {
+      if (lv.compareTo(hv) > 0) return Collections.<Triple>emptyList().iterator();
+      values = values.subMap(lv, true, hv, true);
+    }
+    return new ValueIterator(values.values().iterator(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Finds the triples for a predicate with the lowest values.
+   * @param p The predicate of the triples.
+   * @param k The maximum number of triples to find.
+   * @return Up to k triples, in ascending order of value.
+   */
+  public Iterator<Triple> lowest(PredicateNode p, int k) {
+    NavigableMap<Value,Set<Triple>> values = index.get(p);
+    if (values == null) return Collections.<Triple>emptyList().iterator();
+    return new ValueIterator(values.values().iterator(), k);
+  }
+
+  /**
+   * Finds the triples for a predicate with the highest values.
+   * @param p The predicate of the triples.
+   * @param k The maximum number of triples to find.
+   * @return Up to k triples, in descending order of value.
+   */
+  public Iterator<Triple> highest(PredicateNode p, int k) {
+    NavigableMap<Value,Set<Triple>> values = index.get(p);
+    if (values == null) return Collections.<Triple>emptyList().iterator();
+    return new ValueIterator(values.descendingMap().values().iterator(), k);
+  }
+
+  /**
+   * Tests if a node is a literal that can be indexed.
+   * @param o The node to test.
+   * @return <code>true</code> if the node is a numeric or dateTime literal.
+   */
+  public static boolean isIndexed(ObjectNode o) {
+    if (!(o instanceof Literal)) return false;
+    URI type = ((Literal)o).getType();
+    return type != null && (NUMERIC_TYPES.contains(type) || type.equals(DATE_TIME));
+  }
+
+  /**
+   * Converts a bound of a range to a value.
+   * @param l The literal for the bound.
+   * @return The value of the literal.
+   * @throws IllegalArgumentException If the literal cannot be indexed.
+   */
+  private static Value bound(Literal l) {
+    Value v = toValue(l);
+    if (v == null) throw new IllegalArgumentException("Range bounds must be numeric or dateTime literals: " + l);
+    return v;
+  }
+
+  /**
+   * Converts a node to the value it is indexed on.
+   * @param o The node to convert.
+   * @return The value of the node, or <code>null</code> if it is not indexed.
+   */
+  private static Value toValue(ObjectNode o) {
+    if (!isIndexed(o)) return null;
+    Literal l = (Literal)o;
+    try {
+      if (DATE_TIME.equals(l.getType())) {
+        return new Value(Value.DATE_TIME, 0.0, LexicalDateTime.parseDateTime(l.getText()).getMillis());
+      }
+      return new Value(Value.NUMBER, l.asDouble(), 0L);
+    } catch (Exception e) {
+      // invalid text for the datatype
+      return null;
+    }
+  }
+
+  /**
+   * A key in the index.
+   */
+  private static class Value implements Comparable<Value> {
+
+    /** The kind for numbers. */
+    static final int NUMBER = 0;
+
+    /** The kind for dateTimes. */
+    static final int DATE_TIME = 1;
+
+    /** The kind of value. */
+    final int kind;
+
+    /** The value of a number. */
+    final double number;
+
+    /** The milliseconds since the epoch of a dateTime. */
+    final long millis;
+
+    /**
+     * Creates a key.
+     * @param kind The kind of value.
+     * @param number The value of a number.
+     * @param millis The milliseconds of a dateTime.
+     */
+    Value(int kind, double number, long millis) {
+      this.kind = kind;
+      this.number = number;
+      this.millis = millis;
+    }
+
+    /** {@inheritDoc} */
+    public int compareTo(Value v) {
+      if (kind != v.kind) return kind - v.kind;
+      return (kind == NUMBER) ? Double.compare(number, v.number) : (millis < v.millis ? -1 : (millis == v.millis ? 0 : 1));
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object o) {
+      return (o instanceof Value) && compareTo((Value)o) == 0;
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode() {
+      return kind == NUMBER ? Double.valueOf(number).hashCode() : (int)(millis ^ (millis >>> 32));
+    }
+  }
+
+  /**
+   * Iterates over the triples in a sequence of sets, up to a limit.
+   */
+  private static class ValueIterator implements Iterator<Triple> {
+
+    /** The sets of triples, in order. */
+    private final Iterator<Set<Triple>> sets;
+
+    /** The triples in the current set. */
+    private Iterator<Triple> current = Collections.<Triple>emptyList().iterator();
+
+    /** The number of triples that may still be returned. */
+    private int remaining;
+
+    /**
+     * Creates the iterator.
+     * @param sets The sets of triples to iterate over.
+     * @param limit The maximum number of triples to return.
+     */
+    ValueIterator(Iterator<Set<Triple>> sets, int limit) {
+      this.sets = sets;
+      this.remaining = limit;
+    }
+
+    /** {@inheritDoc} */
+    public boolean hasNext() {
+      if (remaining <= 0) return false;
+      while (!current.hasNext()) {
+        if (!sets.hasNext()) return false;
+        current = sets.next().iterator();
+      }
+      return true;
+    }
+
+    /** {@inheritDoc} */
+    public Triple next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      remaining--;
+      return current.next();
+    }
+
+    /**
+     * Removal would leave the other indexes of the graph out of step with this one.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  static {
+    Collection<URI> numeric = NUMERIC_TYPES;
+    numeric.add(BYTE);
+    numeric.add(SHORT);
+    numeric.add(INT);
+    numeric.add(LONG);
+    numeric.add(INTEGER);
+    numeric.add(DECIMAL);
+    numeric.add(FLOAT);
+    numeric.add(DOUBLE);
+  }
+
+}
@@ -0,0 +1,650 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fully indexed graph that keeps old versions of its data while readers need them.
+ * Every modification commits a new version. {@link #snapshot()} returns an immutable view of
+ * the latest version in constant time, without copying anything, and that view stays the same
+ * while writers continue to modify the graph.
+ * <p>
+ * Each triple in the indexes has a record of the version that added it and the version that
+ * removed it, so a snapshot only sees the triples that were present when it was taken.
+ * Removed triples are kept until no snapshot can see them. Snapshots are tracked with weak
+ * references, so they are released when they are garbage collected, or earlier with
+ * {@link Snapshot#release()}.
+ * </p>
+ * <p>
+ * Readers never lock. Writers are serialized. Reading the graph directly, rather than through
+ * a snapshot, always sees the latest version, and iterators are weakly consistent.
+ * </p>
+ */
+public class VersionedGraph extends AbstractWritableMatchGraph implements IndexedMatch {
+
+  /** The removal version of a triple that is still in the graph. */
+  private static final long LIVE = Long.MAX_VALUE;
+
+  /** The spo index */
+  private final VersionIndex spo = new VersionIndex(0);
+
+  /** The pos index */
+  private final VersionIndex pos = new VersionIndex(1);
+
+  /** The osp index */
+  private final VersionIndex osp = new VersionIndex(2);
+
+  /** The latest committed version and its size. Replaced on every commit. */
+  private volatile State state = new State(0, 0);
+
+  /** The lock for all modifications. */
+  private final Object writeLock = new Object();
+
+  /** Removed triples that may still be visible to a snapshot, in the order they were removed. */
+  private final LinkedList<Removal> removals = new LinkedList<Removal>();
+
+  /** The number of active snapshots for each version. */
+  private final TreeMap<Long,Integer> active = new TreeMap<Long,Integer>();
+
+  /** References to all active snapshots. Keeps the references reachable. */
+  private final Set<SnapshotRef> snapshots = new HashSet<SnapshotRef>();
+
+  /** Receives references to snapshots that have been garbage collected. */
+  private final ReferenceQueue<Snapshot> collected = new ReferenceQueue<Snapshot>();
+
+  /**
+   * Default constructor for an empty graph.
+   */
+  public VersionedGraph() {}
+
+  /**
+   * Builds a graph with a collection of triples.
+   * @param triples The initial triples for the graph.
+   */
+  public VersionedGraph(Collection<Triple> triples) {
+    for (Triple t: triples) insert(t);
+  }
+
+  /**
+   * Add a new triple to the graph, committing a new version.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was not already in the graph.
+   */
+  public boolean insert(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (writeLock) {
+      Version head = spo.get(s, p, o);
+      if (head != null && head.removed == LIVE) return false;
+      State current = state;
+      Version v = new Version(current.version + 1, head);
+      spo.put(s, p, o, v);
+      pos.put(p, o, s, v);
+      osp.put(o, s, p, v);
+      state = new State(v.added, current.size + 1);
+      purge();
+      return true;
+    }
+  }
+
+  /**
+   * Remove a triple from the graph, committing a new version.
+   * Snapshots taken earlier continue to see the triple.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   * @return <code>true</code> if the triple was in the graph.
+   */
+  public boolean delete(SubjectNode s, PredicateNode p, ObjectNode o) {
+    synchronized (writeLock) {
+      Version head = spo.get(s, p, o);
+      if (head == null || head.removed != LIVE) return false;
+      State current = state;
+      head.removed = current.version + 1;
+      removals.add(new Removal(s, p, o, head.removed));
+      state = new State(head.removed, current.size - 1);
+      purge();
+      return true;
+    }
+  }
+
+  /**
+   * Creates an immutable view of the latest version of the graph.
+   * @return A graph that will not change.
+   */
+  public Snapshot snapshot() {
+    synchronized (active) {
+      Snapshot snapshot = new Snapshot(state);
+      Integer count = active.get(snapshot.getVersion());
+      active.put(snapshot.getVersion(), count == null ? 1 : count + 1);
+      snapshots.add(snapshot.ref);
+      return snapshot;
+    }
+  }
+
+  /**
+   * Gets the latest committed version.
+   * @return The version number, which increases with every modification.
+   */
+  public long getVersion() {
+    return state.version;
+  }
+
+  /**
+   * Find all triples in the latest version that match a given pattern.
+   * The iterator is weakly consistent, and may or may not show later modifications.
+   * Use {@link #snapshot()} for a view that does not change.
+   * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+   * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+   * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+   * @return An Iterator on the matching triples.
+   */
+  public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+    return find(s, p, o, state.version, null);
+  }
+
+  /**
+   * The SPO, POS and OSP version indexes can find triples from any bound position.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if any position is bound.
+   */
+  public boolean hasIndex(boolean s, boolean p, boolean o) {
+    return s || p || o;
+  }
+
+  /**
+   * Gets the number of triples in the latest version.
+   * @return the number of triples in the graph.
+   */
+  public long size() {
+    return state.size;
+  }
+
+  /**
+   * Gets the number of removed triples that are being kept for snapshots.
+   * @return The number of removals that have not been reclaimed.
+   */
+  int getRetained() {
+    synchronized (writeLock) {
+      purge();
+      return removals.size();
+    }
+  }
+
+  /**
+   * Finds the triples matching a pattern at a given version.
+   * @param s The subject to match, or <code>null</code>.
+   * @param p The predicate to match, or <code>null</code>.
+   * @param o The object to match, or <code>null</code>.
+   * @param version The version to read.
+   * @param snapshot The snapshot being read, or <code>null</code> for the latest version.
+   * @return An iterator over the matching triples.
+   */
+  private Iterator<Triple> find(SubjectNode s, PredicateNode p, ObjectNode o, long version, Snapshot snapshot) {
+    if (s == Graph.X) s = null;
+    if (p == Graph.X) p = null;
+    if (o == Graph.X) o = null;
+    if (s != null) {
+      if (p == null && o != null) return new VersionIterator(osp, o, s, null, version, snapshot);
+      return new VersionIterator(spo, s, p, o, version, snapshot);
+    }
+    if (p != null) return new VersionIterator(pos, p, o, null, version, snapshot);
+    if (o != null) return new VersionIterator(osp, o, null, null, version, snapshot);
+    return new VersionIterator(spo, null, null, null, version, snapshot);
+  }
+
+  /**
+   * Reclaims removed triples that no snapshot can see. Must be called with the write lock held.
+   */
+  private void purge() {
+    long oldest;
+    synchronized (active) {
+      releaseCollected();
+      oldest = active.isEmpty() ? state.version : active.firstKey();
+    }
+    while (!removals.isEmpty() && removals.getFirst().version <= oldest) {
+      Removal r = removals.removeFirst();
+      Version head = spo.get(r.s, r.p, r.o);
+      if (head == null) continue;
+      if (head.removed <= oldest) {
+        spo.remove(r.s, r.p, r.o);
+        pos.remove(r.p, r.o, r.s);
+        osp.remove(r.o, r.s, r.p);
+      } else {
+        // later lifetimes were removed later, so everything after the first invisible record is invisible
+        for (Version v = head; v.previous != null; v = v.previous) {
+          if (v.previous.removed <= oldest) {
+            v.previous = null;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the snapshots that have been garbage collected. Must be called with the lock on active held.
+   */
+  private void releaseCollected() {
+    Reference<? extends Snapshot> ref;
+    while ((ref = collected.poll()) != null) unregister((SnapshotRef)ref);
+  }
+
+  /**
+   * Removes a snapshot from the active set. Must be called with the lock on active held.
+   * @param ref The reference for the snapshot.
+   */
+  private void unregister(SnapshotRef ref) {
+    if (!snapshots.remove(ref)) return;
+    int count = active.get(ref.version);
+    if (count == 1) active.remove(ref.version);
+    else active.put(ref.version, count - 1);
+  }
+
+  /**
+   * An immutable view of a version of the graph.
+   */
+  public class Snapshot extends AbstractMatchGraph implements IndexedMatch {
+
+    /** The state of the graph when the snapshot was taken. */
+    private final State snapshotState;
+
+    /** The reference used to track this snapshot. */
+    private final SnapshotRef ref;
+
+    /** Indicates that the snapshot has been released. */
+    private volatile boolean released = false;
+
+    /**
+     * Creates a snapshot of a given state.
+     * @param snapshotState The state of the graph to view.
+     */
+    Snapshot(State snapshotState) {
+      this.snapshotState = snapshotState;
+      this.ref = new SnapshotRef(this, snapshotState.version, collected);
+    }
+
+    /**
+     * Gets the version of the graph seen by this snapshot.
+     * @return The version number.
+     */
+    public long getVersion() {
+      return snapshotState.version;
+    }
+
+    /**
+     * Find all triples in this version that match a given pattern.
+     * @param s The subject of the triples to match. If <code>null</code> or {@link Graph#X} then all subjects match.
+     * @param p The predicate of the triple to add. If <code>null</code> or {@link Graph#X} then all predicates match.
+     * @param o The object of the triple to add. If <code>null</code> or {@link Graph#X} then all objects match.
+     * @return An Iterator on the matching triples.
+     * @throws IllegalStateException If the snapshot has been released.
+     */
+    public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+      if (released) throw new IllegalStateException("Snapshot has been released");
+      return find(s, p, o, snapshotState.version, this);
+    }
+
+    /**
+     * A snapshot reads the same indexes as the graph.
+     * @param s <code>true</code> if the subject is bound.
+     * @param p <code>true</code> if the predicate is bound.
+     * @param o <code>true</code> if the object is bound.
+     * @return <code>true</code> if any position is bound.
+     */
+    public boolean hasIndex(boolean s, boolean p, boolean o) {
+      return VersionedGraph.this.hasIndex(s, p, o);
+    }
+
+    /**
+     * Gets the number of triples in this version.
+     * @return the number of triples in the snapshot.
+     */
+    public long size() {
+      return snapshotState.size;
+    }
+
+    /**
+     * Releases this snapshot, so the data it uses can be reclaimed.
+     * The snapshot may not be read after this.
+     */
+    public void release() {
+      released = true;
+      synchronized (active) {
+        unregister(ref);
+      }
+    }
+  }
+
+  /** A weak reference to a snapshot, which remembers the version of the snapshot. */
+  private static class SnapshotRef extends WeakReference<Snapshot> {
+    final long version;
+    SnapshotRef(Snapshot snapshot, long version, ReferenceQueue<Snapshot> queue) {
+      super(snapshot, queue);
+      this.version = version;
+    }
+  }
+
+  /** A committed version and the number of triples it contains. */
+  private static class State {
+    final long version;
+    final long size;
+    State(long version, long size) {
+      this.version = version;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The lifetime of a triple. A triple that has been inserted more than once links
+   * to its previous lifetimes, newest first.
+   */
+  private static class Version {
+    /** The version that added the triple. */
+    final long added;
+    /** The version that removed the triple, or {@link VersionedGraph#LIVE}. */
+    volatile long removed = LIVE;
+    /** The previous lifetime of the triple, or <code>null</code>. */
+    volatile Version previous;
+
+    Version(long added, Version previous) {
+      this.added = added;
+      this.previous = previous;
+    }
+
+    /**
+     * Tests if any lifetime of the triple includes a given version.
+     * @param version The version to test.
+     * @return <code>true</code> if the triple was in the graph at that version.
+     */
+    boolean isVisible(long version) {
+      for (Version v = this; v != null; v = v.previous) {
+        if (v.added <= version && version < v.removed) return true;
+      }
+      return false;
+    }
+  }
+
+  /** A triple that was removed, and the version that removed it. */
+  private static class Removal {
+    final SubjectNode s;
+    final PredicateNode p;
+    final ObjectNode o;
+    final long version;
+    Removal(SubjectNode s, PredicateNode p, ObjectNode o, long version) {
+      this.s = s;
+      this.p = p;
+      this.o = o;
+      this.version = version;
+    }
+  }
+
+  /**
+   * A three level index of concurrent maps, with the lifetimes of each triple at the lowest level.
+   */
+  private static class VersionIndex {
+
+    /** The rotation of this index from spo. */
+    final int rotation;
+
+    /** The map that serves as the index. */
+    final Map<Node,Map<Node,Map<Node,Version>>> index = new ConcurrentHashMap<Node,Map<Node,Map<Node,Version>>>();
+
+    /**
+     * Creates an index.
+     * @param rotation The rotation of this index from spo.
+     */
+    VersionIndex(int rotation) {
+      this.rotation = rotation;
+    }
+
+    /**
+     * Gets the lifetimes of a triple.
+     * @return The newest lifetime, or <code>null</code> if the triple has never been seen.
+     */
+    Version get(Node a, Node b, Node c) {
+      Map<Node,Map<Node,Version>> second = index.get(a);
+      if (second == null) return null;
+      Map<Node,Version> third = second.get(b);
+      return third == null ? null : third.get(c);
+    }
+
+    /**
+     * Sets the lifetimes of a triple.
+     */
+    void put(Node a, Node b, Node c, Version v) {
+      Map<Node,Map<Node,Version>> second = index.get(a);
+      if (second == null) {
+        second = new ConcurrentHashMap<Node,Map<Node,Version>>();
+        index.put(a, second);
+      }
+      Map<Node,Version> third = second.get(b);
+      if (third == null) {
+        third = new ConcurrentHashMap<Node,Version>();
+        second.put(b, third);
+      }
+      third.put(c, v);
+    }
+
+    /**
+     * Removes a triple, and any levels of the index that become empty.
+     */
+    void remove(Node a, Node b, Node c) {
+      Map<Node,Map<Node,Version>> second = index.get(a);
+      if (second == null) return;
+      Map<Node,Version> third = second.get(b);
+      if (third == null) return;
+      third.remove(c);
+      if (third.isEmpty()) {
+        second.remove(b);
+        if (second.isEmpty()) index.remove(a);
+      }
+    }
+  }
+
+  /**
+   * Iterates over the triples in an index that match a pattern and are visible at a version.
+   * Bound values must be a prefix of the index.
+   */
+  private static class VersionIterator implements Iterator<Triple> {
+
+    /** The rotation of the index from spo. */
+    private final int rotation;
+
+    /** The version to read. */
+    private final long version;
+
+    /**
+     * The snapshot being read, or <code>null</code>. Holding this keeps the snapshot registered,
+     * so the versions being iterated over are not reclaimed if the caller only keeps the iterator.
+     */
+    @SuppressWarnings("unused")
+    private final Snapshot snapshot;
+
+    /** The bound first value, or <code>null</code>. */
+    private final Node first;
+
+    /** The bound second value, or <code>null</code>. */
+    private final Node second;
+
+    /** The bound third value, or <code>null</code>. */
+    private final Node third;
+
+    /** The iterator over the first level, or <code>null</code> if it is bound. */
+    private final Iterator<Map.Entry<Node,Map<Node,Map<Node,Version>>>> firstIt;
+
+    /** The iterator over the second level, or <code>null</code> if it is bound. */
+    private Iterator<Map.Entry<Node,Map<Node,Version>>> secondIt = null;
+
+    /** The iterator over the third level. */
+    private Iterator<Map.Entry<Node,Version>> thirdIt = Collections.<Node,Version>emptyMap().entrySet().iterator();
+
+    /** The current node from the first level. */
+    private Node currentFirst;
+
+    /** The current second level of the index. */
+    private Map<Node,Map<Node,Version>> currentSecond;
+
+    /** The current node from the second level. */
+    private Node currentSecondNode;
+
+    /** Indicates that a bound first value has been visited. */
+    private boolean firstDone = false;
+
+    /** Indicates that a bound second value has been visited. */
+    private boolean secondDone = true;
+
+    /** The next triple to return. */
+    private Triple nextTriple;
+
+    /**
+     * Creates an iterator for a pattern on an index.
+     * @param index The index to search.
+     * @param first The first value, or <code>null</code>.
+     * @param second The second value, or <code>null</code>.
+     * @param third The third value, or <code>null</code>.
+     * @param version The version to read.
+     * @param snapshot The snapshot being read, or <code>null</code> for the latest version.
+     */
+    VersionIterator(VersionIndex index, Node first, Node second, Node third, long version, Snapshot snapshot) {
+      this.rotation = index.rotation;
+      this.version = version;
+      this.snapshot = snapshot;
+      this.first = first;
+      this.second = second;
+      this.third = third;
+      if (first == null) {
+        firstIt = index.index.entrySet().iterator();
+      } else {
+        firstIt = null;
+        currentSecond = index.index.get(first);
+        if (currentSecond == null) firstDone = true;
+      }
+      nextTriple = findNext();
+    }
+
+    public boolean hasNext() {
+      return nextTriple != null;
+    }
+
+    public Triple next() {
+      if (nextTriple == null) throw new NoSuchElementException();
+      Triple result = nextTriple;
+      nextTriple = findNext();
+      return result;
+    }
+
+    /**
+     * Removal is not supported, as snapshots are immutable.
+     * @throws UnsupportedOperationException Always.
+     */
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the next visible triple.
+     * @return The next triple, or <code>null</code> if nothing is left.
+     */
+    private Triple findNext() {
+      while (true) {
+        while (thirdIt.hasNext()) {
+          Map.Entry<Node,Version> entry = thirdIt.next();
+          if (entry.getValue().isVisible(version)) return triple(entry.getKey());
+        }
+        if (!nextSecond() && !nextFirst()) return null;
+      }
+    }
+
+    /**
+     * Moves to the next value in the first level.
+     * @return <code>true</code> if there was another value.
+     */
+    private boolean nextFirst() {
+      if (firstIt == null) {
+        if (firstDone) return false;
+        firstDone = true;
+        currentFirst = first;
+      } else {
+        if (!firstIt.hasNext()) return false;
+        Map.Entry<Node,Map<Node,Map<Node,Version>>> entry = firstIt.next();
+        currentFirst = entry.getKey();
+        currentSecond = entry.getValue();
+      }
+      if (second == null) secondIt = currentSecond.entrySet().iterator();
+      else secondDone = false;
+      return true;
+    }
+
+    /**
+     * Moves to the next value in the second level of the current first value.
+     * @return <code>true</code> if there was another value.
+     */
+    private boolean nextSecond() {
+      Map<Node,Version> thirds;
+      if (second != null) {
+        if (secondDone) return false;
+        secondDone = true;
+        currentSecondNode = second;
+        thirds = currentSecond.get(second);
+        if (thirds == null) thirds = Collections.emptyMap();
+      } else {
+        if (secondIt == null || !secondIt.hasNext()) return false;
+        Map.Entry<Node,Map<Node,Version>> entry = secondIt.next();
+        currentSecondNode = entry.getKey();
+        thirds = entry.getValue();
+      }
+      if (third == null) {
+        thirdIt = thirds.entrySet().iterator();
+      } else {
+        Version v = thirds.get(third);
+        if (v == null) thirdIt = Collections.<Node,Version>emptyMap().entrySet().iterator();
+        else thirdIt = Collections.singletonMap(third, v).entrySet().iterator();
+      }
+      return true;
+    }
+
+    /**
+     * Builds a triple from the current position in the index.
+     * @param last The value from the third level.
+     * @return The triple in spo order.
+     */
+    private Triple triple(Node last) {
+      Node[] t = new Node[3];
+      t[rotation] = currentFirst;
+      t[(rotation + 1) % 3] = currentSecondNode;
+      t[(rotation + 2) % 3] = last;
+      return new Triple(t);
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A node cache that holds every node that is still referred to from elsewhere, such as from a graph.
+ * Nodes are dropped by the garbage collector once nothing else uses them, so this finds every
+ * duplicate without bounding the size, and without keeping unused nodes alive.
+ */
+public class WeakNodeCache extends NodeCache {
+
+  /** The cached nodes. Values refer to the keys, so they must be weak as well. */
+  private final Map<Node,WeakReference<Node>> nodes = new WeakHashMap<Node,WeakReference<Node>>();
+
+  /**
+   * Looks up a node, and adds it to the cache if an equal node is not already there.
+   * @param node The node to look up.
+   * @return The cached node that equals the node, or <code>null</code> if there was none.
+   */
+  protected synchronized Node find(Node node) {
+    WeakReference<Node> ref = nodes.get(node);
+    Node cached = (ref == null) ? null : ref.get();
+    if (cached == null) nodes.put(node, new WeakReference<Node>(node));
+    return cached;
+  }
+
+  /**
+   * Gets the number of nodes in the cache. This includes nodes that are
+   * about to be removed by the garbage collector.
+   * @return The number of cached nodes.
+   */
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Removes all the nodes from the cache.
+   */
+  public synchronized void clear() {
+    nodes.clear();
+  }
+
+}
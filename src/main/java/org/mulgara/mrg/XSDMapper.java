@@ -20,14 +20,12 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URI;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import javax.xml.namespace.QName;
 
-import org.mulgara.util.Fn1;
 import org.mulgara.util.LexicalDateTime;
 import org.mulgara.util.Strings;
 
@@ -41,14 +39,19 @@ public class XSDMapper {
 
   private static final Class<?> BYTE_ARRAY_CLASS = new byte[0].getClass();
 
-  /** All the constructors for known data types, keyed by URI in the XSD namespace.  */
-  private static Map<URI,Fn1<String,Object>> constructors = new HashMap<URI,Fn1<String,Object>>();
-
   /** Maps classes to URIs that can represent that class. */
   private static Map<Class<?>,URI> typeMapper = new HashMap<Class<?>,URI>();
 
-  /** The default instance for date parsing in the current locale.*/
-  private static DateFormat dateFormat = DateFormat.getInstance();
+  /** The conversions used for typed literals. Replaced by {@link #setLocale(int, Locale)}. */
+  private static volatile Datatypes datatypes = Datatypes.STANDARD;
+
+  /**
+   * Gets the conversions used for typed literals.
+   * @return The current conversions.
+   */
+  public static Datatypes getDatatypes() {
+    return datatypes;
+  }
 
   /**
    * Uses the type URI to select a parser for the
@@ -60,9 +63,16 @@ public class XSDMapper {
    * @throws NumberFormatException If the type is numeric and the text cannot be parsed.
    */
   public static Object toData(URI type, String text) {
-    Fn1<String,Object> cons = constructors.get(type);
-    if (cons == null) throw new IllegalArgumentException("Unknown data type: " + type);
-    return cons.call(text);
+    return datatypes.toData(type, text);
+  }
+
+  /**
+   * Tests if a datatype can be converted to Java data.
+   * @param type The URI of the data type.
+   * @return <code>true</code> if {@link #toData(URI, String)} can convert values of this type.
+   */
+  public static boolean isKnownType(URI type) {
+    return datatypes.isKnownType(type);
   }
 
   /**
@@ -71,9 +81,12 @@ public class XSDMapper {
    * @param style The formatting style for dates.
    * @param aLocale The locale to use for date parsing.
    * @see DateFormat#getDateInstance(int,Locale)
+   * @deprecated This changes the conversions for all threads. Use {@link Datatypes#withDateFormat(DateFormat)}
+   *             and {@link Literal#toJava(Datatypes)} instead.
    */
+  @Deprecated
   public static void setLocale(int style, Locale aLocale) {
-    dateFormat = DateFormat.getDateInstance(style, aLocale);
+    datatypes = Datatypes.STANDARD.withDateFormat(DateFormat.getDateInstance(style, aLocale));
   }
 
   /**
@@ -83,9 +96,12 @@ public class XSDMapper {
    * @param timeStyle The formatting style for dates.
    * @param aLocale The locale to use for date parsing.
    * @see DateFormat#getDateTimeInstance(int, int, Locale)
+   * @deprecated This changes the conversions for all threads. Use {@link Datatypes#withDateFormat(DateFormat)}
+   *             and {@link Literal#toJava(Datatypes)} instead.
    */
+  @Deprecated
   public static void setLocale(int dateStyle, int timeStyle, Locale aLocale) {
-    dateFormat = DateFormat.getDateTimeInstance(dateStyle, timeStyle, aLocale);
+    datatypes = Datatypes.STANDARD.withDateFormat(DateFormat.getDateTimeInstance(dateStyle, timeStyle, aLocale));
   }
 
   /**
@@ -140,78 +156,6 @@ public class XSDMapper {
     return new Literal(n.toString(), n, typeMapper.get(n.getClass()));
   }
 
-  static {
-    constructors.put(BYTE, new Fn1<String,Object>() {
-      public Byte call(String text) { return Byte.valueOf(text); }
-    });
-    constructors.put(SHORT, new Fn1<String,Object>() {
-      public Short call(String text) { return Short.valueOf(text); }
-    });
-    constructors.put(INT, new Fn1<String,Object>() {
-      public Integer call(String text) { return Integer.valueOf(text); }
-    });
-    constructors.put(LONG, new Fn1<String,Object>() {
-      public Long call(String text) { return Long.valueOf(text); }
-    });
-    constructors.put(INTEGER, new Fn1<String,Object>() {
-      public Object call(String text) {
-        BigInteger i = new BigInteger(text);
-        return (i.bitLength() >= Long.SIZE) ? i : i.longValue();
-      }
-    });
-    constructors.put(DECIMAL, new Fn1<String,Object>() {
-      public Object call(String text) {
-        BigDecimal d = new BigDecimal(text);
-        try {
-          BigInteger i = d.toBigIntegerExact();
-          return (i.bitLength() >= Long.SIZE) ? i : i.longValue();
-        } catch (ArithmeticException e) {
-          double dbl = d.doubleValue();
-          return (dbl == Double.NEGATIVE_INFINITY || dbl == Double.POSITIVE_INFINITY) ? d : dbl;
-        }
-      }
-    });
-    constructors.put(FLOAT, new Fn1<String,Object>() {
-      public Float call(String text) { return Float.valueOf(text); }
-    });
-    constructors.put(DOUBLE, new Fn1<String,Object>() {
-      public Double call(String text) { return Double.valueOf(text); }
-    });
-    constructors.put(QNAME, new Fn1<String,Object>() {
-      public QName call(String text) {
-        int c = text.indexOf(':');
-        return (c >= 0) ? new QName(text.substring(0, c), text.substring(c + 1)) : new QName(text);
-      }
-    });
-    constructors.put(ANY_URI, new Fn1<String,Object>() {
-      public URI call(String text) { return URI.create(text); }
-    });
-    constructors.put(BOOLEAN, new Fn1<String,Object>() {
-      public Boolean call(String text) { return Boolean.valueOf(text); }
-    });
-    constructors.put(HEX_BINARY, new Fn1<String,Object>() {
-      public byte[] call(String text) { return Strings.parseHexToBytes(text); }
-    });
-    constructors.put(STRING, new Fn1<String,Object>() {
-      public String call(String text) { return text; }
-    });
-    constructors.put(DATE_TIME, new Fn1<String,Object>() {
-      public Date call(String text) {
-        try {
-          LexicalDateTime ldt = LexicalDateTime.parseDateTime(text);
-          return new Date(ldt.getMillis());
-        } catch (ParseException e1) {
-          try {
-            // use a local format as a backup
-            return dateFormat.parse(text);
-          } catch (ParseException e) {
-            throw new IllegalArgumentException("Unable to parse date: " + text, e);
-          }
-        }
-      }
-    });
-  }
-
   static {
     typeMapper.put(Date.class, DATE_TIME);
     typeMapper.put(URI.class, ANY_URI);
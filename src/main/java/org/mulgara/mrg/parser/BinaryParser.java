@@ -0,0 +1,442 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.GraphFactory;
+import org.mulgara.mrg.GraphImplFactory;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Node;
+import org.mulgara.mrg.NodeCache;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.WritableGraph;
+import org.mulgara.util.LexicalDateTime;
+
+import static org.mulgara.mrg.writer.BinaryWriter.*;
+import static org.mulgara.util.Strings.fromUtf8Bytes;
+
+/**
+ * Parses the binary form of a graph, as written by {@link org.mulgara.mrg.writer.BinaryWriter}.
+ * The node table is decoded once, and each triple is then three node IDs, so no text is parsed
+ * after the table has been read. When parsing into a graph, the triples are loaded with
+ * {@link WritableGraph#insertAll(java.util.Iterator)}.
+ */
+public class BinaryParser implements GraphParser {
+
+  /** The size of the buffer for reading input. This grows if a node is larger. */
+  private static final int BUFFER_SIZE = 0x10000;
+
+  /** The graph that is parsed from the input data. <code>null</code> when parsing into a sink. */
+  private final WritableGraph graph;
+
+  /** The input being parsed. */
+  private InputStream in;
+
+  /** The cache for sharing parsed nodes. */
+  private final NodeCache nodes = NodeCache.getDefault();
+
+  /** The number of triples parsed. */
+  private long triples = 0;
+
+  /** The namespace table. */
+  private String[] namespaces;
+
+  /** The node table. */
+  private Node[] table;
+
+  /** The most recently read name in each namespace. */
+  private String[] previousNames;
+
+  /** The buffered input. */
+  private byte[] buf = new byte[BUFFER_SIZE];
+
+  /** The subject ID of the most recent triple. */
+  private int lastSubject = 0;
+
+  /** The predicate ID of the most recent triple. */
+  private int lastPredicate = 0;
+
+  /** The most recent object ID for each predicate. */
+  private int[] lastObjects;
+
+  /** The position of the next byte to read in the buffer. */
+  private int pos = 0;
+
+  /** The end of the data in the buffer. */
+  private int limit = 0;
+
+  /**
+   * Create a graph from a byte array.
+   * @param data The binary graph data.
+   */
+  public BinaryParser(byte[] data) throws ParseException, IOException {
+    this(data, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the binary graph.
+   */
+  public BinaryParser(File f) throws ParseException, IOException {
+    this(f, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   */
+  public BinaryParser(InputStream is) throws ParseException, IOException {
+    this(is, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from a byte array.
+   * @param data The binary graph data.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public BinaryParser(byte[] data, GraphFactory graphFactory) throws ParseException, IOException {
+    this(new ByteArrayInputStream(data), graphFactory);
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the binary graph.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public BinaryParser(File f, GraphFactory graphFactory) throws ParseException, IOException {
+    this(new FileInputStream(f), graphFactory);
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public BinaryParser(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
+    this.graph = graphFactory.createGraph();
+    this.in = is;
+    readTables();
+    Triple[] data = new Triple[readCount()];
+    for (int i = 0; i < data.length; i++) data[i] = readTriple();
+    graph.insertAll(Arrays.asList(data).iterator());
+  }
+
+  /**
+   * Parse a byte array into a sink. No graph is created.
+   * @param data The binary graph data.
+   * @param sink The destination for the parsed data.
+   */
+  public BinaryParser(byte[] data, TripleSink sink) throws ParseException, IOException {
+    this(new ByteArrayInputStream(data), sink);
+  }
+
+  /**
+   * Parse an InputStream into a sink. No graph is created.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   */
+  public BinaryParser(InputStream is, TripleSink sink) throws ParseException, IOException {
+    this.graph = null;
+    this.in = is;
+    sink.start();
+    readTables();
+    long count = readVarint();
+    for (long i = 0; i < count; i++) {
+      Triple t = readTriple();
+      sink.triple(t.getSubject(), t.getPredicate(), t.getObject());
+    }
+    sink.end();
+  }
+
+  /**
+   * Create a graph from a byte array.
+   * @param data The binary graph data.
+   */
+  public static WritableGraph parse(byte[] data) throws ParseException, IOException {
+    return new BinaryParser(data).getGraph();
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the binary graph.
+   */
+  public static WritableGraph parse(File f) throws ParseException, IOException {
+    return new BinaryParser(f).getGraph();
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   */
+  public static WritableGraph parse(InputStream is) throws ParseException, IOException {
+    return new BinaryParser(is).getGraph();
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the binary graph.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public static WritableGraph parse(File f, GraphFactory graphFactory) throws ParseException, IOException {
+    return new BinaryParser(f, graphFactory).getGraph();
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public static WritableGraph parse(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
+    return new BinaryParser(is, graphFactory).getGraph();
+  }
+
+  /**
+   * Retrieves the graph that this parser built.
+   * @return The parsed graph, or <code>null</code> if the data was parsed into a sink.
+   */
+  public WritableGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Return the number of rows parsed.
+   */
+  public long getProcessedRows() {
+    return triples;
+  }
+
+  /**
+   * Reads the header, the namespace table and the node table.
+   * @throws ParseException If the data is not in the binary format.
+   * @throws IOException If the input cannot be read.
+   */
+  private void readTables() throws ParseException, IOException {
+    require(MAGIC.length);
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buf[pos++] != MAGIC[i]) throw new ParseException("Not a binary graph");
+    }
+    long version = readVarint();
+    if (version != VERSION) throw new ParseException("Unsupported binary graph version: " + version);
+    long flags = readVarint();
+    if ((flags & DEFLATE_FLAG) != 0) {
+      // the rest of the data is compressed, including anything already buffered
+      InputStream rest = new SequenceInputStream(new ByteArrayInputStream(Arrays.copyOfRange(buf, pos, limit)), in);
+      in = new InflaterInputStream(rest, new Inflater(), BUFFER_SIZE);
+      pos = limit = 0;
+    }
+
+    namespaces = new String[readCount()];
+    for (int i = 0; i < namespaces.length; i++) namespaces[i] = readString();
+    previousNames = new String[namespaces.length];
+
+    table = new Node[readCount()];
+    lastObjects = new int[table.length];
+    for (int i = 0; i < table.length; i++) {
+      int length = readCount();
+      require(length);
+      int end = pos + length;
+      table[i] = nodes.intern(readNode(i));
+      if (pos != end) throw new ParseException("Bad length for node " + i);
+    }
+  }
+
+  /**
+   * Reads a node table entry. The entry is already in the buffer.
+   * @param id The ID of the node being read.
+   * @return The node.
+   * @throws ParseException If the entry is not valid.
+   * @throws IOException If the input cannot be read.
+   */
+  private Node readNode(int id) throws ParseException, IOException {
+    int tag = (int)readVarint();
+    switch (tag) {
+    case URI_TAG:
+      int ns = readCount();
+      if (ns >= namespaces.length) throw new ParseException("Bad namespace for node " + id);
+      int shared = readCount();
+      String previous = previousNames[ns];
+      if (shared > 0 && (previous == null || shared > previous.length())) throw new ParseException("Bad name for node " + id);
+      String name = (shared == 0) ? readString() : previous.substring(0, shared) + readString();
+      previousNames[ns] = name;
+      String uri = namespaces[ns] + name;
+      try {
+        return new Uri(new URI(uri));
+      } catch (URISyntaxException e) {
+        throw new ParseException("Bad URI: " + uri);
+      }
+    case BNODE_TAG:
+      return new Bnode(readString());
+    case PLAIN_TAG:
+      return new Literal(readString());
+    case LANG_TAG:
+      return new Literal(readString(), readString());
+    case TYPED_TAG:
+      URI type = datatype(id);
+      return new Literal(readString(), type);
+    case INTEGER_TAG:
+      type = datatype(id);
+      return new Literal(Long.toString(unzigzag(readVarint())), type);
+    case DATE_TIME_TAG:
+      type = datatype(id);
+      long millis = unzigzag(readVarint());
+      require(2);
+      LexicalDateTime dt = LexicalDateTime.decode(millis, buf[pos++], buf[pos++]);
+      return new Literal(dt.toString(), type);
+    default:
+      throw new ParseException("Bad tag for node " + id + ": " + tag);
+    }
+  }
+
+  /**
+   * Reads the ID of a datatype.
+   * @param id The ID of the literal being read. The datatype must come before this.
+   * @return The datatype URI.
+   * @throws ParseException If the ID is not for an earlier URI.
+   * @throws IOException If the input cannot be read.
+   */
+  private URI datatype(int id) throws ParseException, IOException {
+    int type = readCount();
+    if (type >= id || !(table[type] instanceof Uri)) throw new ParseException("Bad datatype for node " + id);
+    return ((Uri)table[type]).getURI();
+  }
+
+  /**
+   * Reads the next triple.
+   * @return The triple.
+   * @throws ParseException If the triple refers to an unknown node.
+   * @throws IOException If the input cannot be read.
+   */
+  private Triple readTriple() throws ParseException, IOException {
+    lastSubject += (int)unzigzag(readVarint());
+    lastPredicate += (int)unzigzag(readVarint());
+    SubjectNode s = (SubjectNode)node(lastSubject, SubjectNode.class);
+    PredicateNode p = (PredicateNode)node(lastPredicate, PredicateNode.class);
+    int object = lastObjects[lastPredicate] += (int)unzigzag(readVarint());
+    ObjectNode o = (ObjectNode)node(object, ObjectNode.class);
+    triples++;
+    return new Triple(s, p, o);
+  }
+
+  /**
+   * Gets a node from the node table.
+   * @param id The ID of the node.
+   * @param position The type of node needed for the position in the triple.
+   * @return The node.
+   * @throws ParseException If there is no such node, or it cannot be used in the position.
+   */
+  private Node node(int id, Class<?> position) throws ParseException {
+    if (id < 0 || id >= table.length) throw new ParseException("Bad node ID in triple " + triples + ": " + id);
+    Node n = table[id];
+    if (!position.isInstance(n)) throw new ParseException("Bad node in triple " + triples + ": " + n);
+    return n;
+  }
+
+  /**
+   * Reads a non-negative count or index.
+   * @return The value.
+   * @throws ParseException If the value is too large for an int.
+   * @throws IOException If the input cannot be read.
+   */
+  private int readCount() throws ParseException, IOException {
+    long v = readVarint();
+    if (v > Integer.MAX_VALUE) throw new ParseException("Value out of range: " + v);
+    return (int)v;
+  }
+
+  /**
+   * Reads an unsigned variable length integer.
+   * @return The value.
+   * @throws ParseException If the data ends before the value.
+   * @throws IOException If the input cannot be read.
+   */
+  private long readVarint() throws ParseException, IOException {
+    long result = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (pos == limit) require(1);
+      b = buf[pos++];
+      result |= (long)(b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0 && shift < Long.SIZE);
+    if (b < 0) throw new ParseException("Bad variable length integer");
+    return result;
+  }
+
+  /**
+   * Reads a length prefixed UTF-8 string.
+   * @return The string.
+   * @throws ParseException If the data ends before the string.
+   * @throws IOException If the input cannot be read.
+   */
+  private String readString() throws ParseException, IOException {
+    int length = readCount();
+    require(length);
+    String s = fromUtf8Bytes(buf, pos, length);
+    pos += length;
+    return s;
+  }
+
+  /**
+   * Ensures that the buffer holds a number of unread bytes, reading more input if needed.
+   * @param size The number of bytes needed.
+   * @throws ParseException If the input ends first.
+   * @throws IOException If the input cannot be read.
+   */
+  private void require(int size) throws ParseException, IOException {
+    if (limit - pos >= size) return;
+    if (size > buf.length) {
+      buf = Arrays.copyOfRange(buf, pos, pos + Math.max(size, buf.length * 2));
+    } else {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+    }
+    limit -= pos;
+    pos = 0;
+    while (limit < size) {
+      int n = in.read(buf, limit, buf.length - limit);
+      if (n == -1) throw new ParseException("Unexpected end of binary graph data");
+      limit += n;
+    }
+  }
+
+  /**
+   * Reverses the zig-zag encoding of a signed value.
+   * @param value The encoded value.
+   * @return The signed value.
+   */
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+}
@@ -26,7 +26,8 @@ public interface GraphParser {
 
   /**
    * Gets the parsed graph.
-   * @return a writable graph that has been parsed.
+   * @return a writable graph that has been parsed, or <code>null</code> if the data was sent to a
+   *         {@link org.mulgara.mrg.TripleSink} instead of a graph.
    */
   public WritableGraph getGraph();
 
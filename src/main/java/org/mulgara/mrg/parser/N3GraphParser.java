@@ -40,9 +40,15 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
   /** Logging for this class. */
   private static final Logger logger = Logger.getLogger(XMLGraphParser.class.getName());
 
-  /** The graph that is parsed from the input data. */
+  /** The graph that is parsed from the input data. <code>null</code> when parsing into a sink. */
   private final WritableGraph graph;
 
+  /** The destination for the parsed data. */
+  private final TripleSink sink;
+
+  /** The cache for sharing parsed nodes. */
+  private final NodeCache nodes = NodeCache.getDefault();
+
   /** The number of triples parsed. */
   private long triples = 0;
 
@@ -94,7 +100,55 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
    * @param graphFactory A mechanism for creating a graph to populate.
    */
   public N3GraphParser(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
-    graph = graphFactory.createGraph();
+    this(graphFactory.createGraph(), is);
+  }
+
+  /**
+   * Parse a string into a sink. No graph is created.
+   * @param s The string containing the N3.
+   * @param sink The destination for the parsed data.
+   */
+  public N3GraphParser(String s, TripleSink sink) throws ParseException, IOException {
+    this(new ByteArrayInputStream(toUtf8Bytes(s)), sink);
+  }
+
+  /**
+   * Parse a file into a sink. No graph is created.
+   * @param f The file containing the N3.
+   * @param sink The destination for the parsed data.
+   */
+  public N3GraphParser(File f, TripleSink sink) throws ParseException, IOException {
+    this(new FileInputStream(f), sink);
+  }
+
+  /**
+   * Parse an InputStream into a sink. No graph is created.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   */
+  public N3GraphParser(InputStream is, TripleSink sink) throws ParseException, IOException {
+    this(is, sink, null);
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param graph The graph to populate.
+   * @param is The input stream with the graph data.
+   */
+  private N3GraphParser(WritableGraph graph, InputStream is) throws ParseException, IOException {
+    this(is, new GraphSink(graph), graph);
+  }
+
+  /**
+   * Parse an InputStream into a sink.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   * @param graph The graph being populated by the sink, or <code>null</code> if there is none.
+   */
+  private N3GraphParser(InputStream is, TripleSink sink, WritableGraph graph) throws ParseException, IOException {
+    this.graph = graph;
+    this.sink = sink;
+    sink.start();
     try {
       TurtleParser parser = new TurtleParser(is);
       parser.setEventHandler(this);
@@ -102,6 +156,7 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
     } catch (Exception e) {
       throw new ParseException("Error reading N3 from stream", e);
     }
+    sink.end();
   }
 
   /**
@@ -156,7 +211,8 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
   }
 
   /**
-   * Retrieves the ResultSet that this parser built.
+   * Retrieves the graph that this parser built.
+   * @return The parsed graph, or <code>null</code> if the data was parsed into a sink.
    */
   public WritableGraph getGraph() {
     return graph;
@@ -185,7 +241,7 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
    */
   public void triple(int line, int col, Triple triple) {
     try {
-      graph.insert(triple);
+      sink.triple(nodes.intern(triple.getSubject()), nodes.intern(triple.getPredicate()), nodes.intern(triple.getObject()));
       triples++;
     } catch (ClassCastException e) {
       error("Bad triple at line: " + line + ", column: " + col + ": " + triple);
@@ -193,14 +249,14 @@ public class N3GraphParser implements TurtleEventHandler, GraphParser {
   }
 
   /**
-   * Shouldn't need to know about prefixes at this level.
+   * Passes a prefix declaration on to the sink.
    * @param line The line number that the parser has reached.
    * @param col The column number that the parser has reached.
    * @param prefix The prefix to be mapped.
    * @param iri The IRI to map the prefix to.
    */
   public void prefix(int line, int col, String prefix, String iri) {
-    // do nothing
+    sink.prefix(prefix, iri);
   }
 
   /**
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.GraphFactory;
+import org.mulgara.mrg.GraphImplFactory;
+import org.mulgara.mrg.GraphSink;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.NodeCache;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.WritableGraph;
+
+import static org.mulgara.util.Strings.fromUtf8Bytes;
+import static org.mulgara.util.Strings.toUtf8Bytes;
+
+/**
+ * Parses the contents of an N-Triples file into a graph representation.
+ * This works directly on the bytes of the input, one line at a time. Each term is only decoded
+ * from UTF-8 once its boundaries are known, and URIs are cached, since most documents repeat
+ * the same predicates and types on many lines. Parsed nodes are shared through a {@link NodeCache}.
+ * A fourth term for the graph name of an N-Quads line is accepted and ignored.
+ */
+public class NTriplesParser implements GraphParser {
+
+  /** The size of the buffer for reading input. This grows if a line is longer. */
+  private static final int BUFFER_SIZE = 0x10000;
+
+  /** The number of URIs to cache before the cache is cleared. */
+  private static final int CACHE_SIZE = 0x2000;
+
+  /** The graph that is parsed from the input data. <code>null</code> when parsing into a sink. */
+  private final WritableGraph graph;
+
+  /** The destination for the parsed data. */
+  private final TripleSink sink;
+
+  /** The number of triples parsed. */
+  private long triples = 0;
+
+  /** The number of lines completed. */
+  private long lines = 0;
+
+  /** The cache for sharing parsed nodes. */
+  private final NodeCache nodes;
+
+  /** Recently seen URIs. */
+  private final Map<String,Uri> uris = new HashMap<String,Uri>();
+
+  /** Recently seen datatypes. */
+  private final Map<String,URI> datatypes = new HashMap<String,URI>();
+
+  /** A buffer for building escaped strings. */
+  private final StringBuilder text = new StringBuilder();
+
+  /** A string to insert at the start of all blank node labels, or <code>null</code> to use labels as they are. */
+  private String bnodePrefix = null;
+
+  /** The data of the line being parsed. */
+  private byte[] buf;
+
+  /** The current position in the line being parsed. */
+  private int pos;
+
+  /** The end of the line being parsed. */
+  private int end;
+
+  /**
+   * Create a graph from a string.
+   * @param s The string containing the N-Triples.
+   */
+  public NTriplesParser(String s) throws ParseException, IOException {
+    this(s, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the N-Triples.
+   */
+  public NTriplesParser(File f) throws ParseException, IOException {
+    this(f, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   */
+  public NTriplesParser(InputStream is) throws ParseException, IOException {
+    this(is, new GraphImplFactory());
+  }
+
+  /**
+   * Create a graph from a string.
+   * @param s The string containing the N-Triples.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public NTriplesParser(String s, GraphFactory graphFactory) throws ParseException, IOException {
+    this(new ByteArrayInputStream(toUtf8Bytes(s)), graphFactory);
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the N-Triples.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public NTriplesParser(File f, GraphFactory graphFactory) throws ParseException, IOException {
+    this(new FileInputStream(f), graphFactory);
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public NTriplesParser(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
+    this(graphFactory.createGraph(), is);
+  }
+
+  /**
+   * Parse a string into a sink. No graph is created.
+   * @param s The string containing the N-Triples.
+   * @param sink The destination for the parsed data.
+   */
+  public NTriplesParser(String s, TripleSink sink) throws ParseException, IOException {
+    this(new ByteArrayInputStream(toUtf8Bytes(s)), sink);
+  }
+
+  /**
+   * Parse a file into a sink. No graph is created.
+   * @param f The file containing the N-Triples.
+   * @param sink The destination for the parsed data.
+   */
+  public NTriplesParser(File f, TripleSink sink) throws ParseException, IOException {
+    this(new FileInputStream(f), sink);
+  }
+
+  /**
+   * Parse an InputStream into a sink. No graph is created.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   */
+  public NTriplesParser(InputStream is, TripleSink sink) throws ParseException, IOException {
+    this(is, sink, null);
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param graph The graph to populate.
+   * @param is The input stream with the graph data.
+   */
+  private NTriplesParser(WritableGraph graph, InputStream is) throws ParseException, IOException {
+    this(is, new GraphSink(graph), graph);
+  }
+
+  /**
+   * Parse an InputStream into a sink.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   * @param graph The graph being populated by the sink, or <code>null</code> if there is none.
+   */
+  private NTriplesParser(InputStream is, TripleSink sink, WritableGraph graph) throws ParseException, IOException {
+    this.graph = graph;
+    this.sink = sink;
+    this.nodes = NodeCache.getDefault();
+    sink.start();
+    byte[] data = new byte[BUFFER_SIZE];
+    int length = 0;
+    int n;
+    while ((n = is.read(data, length, data.length - length)) != -1) {
+      length += n;
+      int done = parseLines(data, 0, length, false);
+      if (done == 0) {
+        // no complete line in the buffer
+        if (length == data.length) data = Arrays.copyOf(data, data.length * 2);
+      } else {
+        System.arraycopy(data, done, data, 0, length - done);
+        length -= done;
+      }
+    }
+    parseLines(data, 0, length, true);
+    sink.end();
+  }
+
+  /**
+   * Creates a parser that sends data to a sink, but does not read anything.
+   * Data is provided with {@link #parseLines(byte[], int, int, boolean)}.
+   * @param sink The destination for the parsed data.
+   * @param bnodePrefix A string to insert at the start of blank node labels, or <code>null</code>.
+   * @param nodes The cache for sharing parsed nodes.
+   */
+  NTriplesParser(TripleSink sink, String bnodePrefix, NodeCache nodes) {
+    this.graph = null;
+    this.sink = sink;
+    this.bnodePrefix = bnodePrefix;
+    this.nodes = nodes;
+  }
+
+  /**
+   * Create a graph from a string.
+   * @param s The string containing the N-Triples.
+   */
+  public static WritableGraph parse(String s) throws ParseException, IOException {
+    return new NTriplesParser(s).getGraph();
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the N-Triples.
+   */
+  public static WritableGraph parse(File f) throws ParseException, IOException {
+    return new NTriplesParser(f).getGraph();
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   */
+  public static WritableGraph parse(InputStream is) throws ParseException, IOException {
+    return new NTriplesParser(is).getGraph();
+  }
+
+  /**
+   * Create a graph from a string.
+   * @param s The string containing the N-Triples.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public static WritableGraph parse(String s, GraphFactory graphFactory) throws ParseException, IOException {
+    return new NTriplesParser(s, graphFactory).getGraph();
+  }
+
+  /**
+   * Create a graph from a file.
+   * @param f The file containing the N-Triples.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public static WritableGraph parse(File f, GraphFactory graphFactory) throws ParseException, IOException {
+    return new NTriplesParser(f, graphFactory).getGraph();
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param is The input stream with the graph data.
+   * @param graphFactory A mechanism for creating a graph to populate.
+   */
+  public static WritableGraph parse(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
+    return new NTriplesParser(is, graphFactory).getGraph();
+  }
+
+  /**
+   * Retrieves the graph that this parser built.
+   * @return The parsed graph, or <code>null</code> if the data was parsed into a sink.
+   */
+  public WritableGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Return the number of rows parsed.
+   */
+  public long getProcessedRows() {
+    return triples;
+  }
+
+  /**
+   * Parses all the complete lines in a section of a buffer.
+   * @param data The buffer holding the lines.
+   * @param start The start of the first line.
+   * @param limit The end of the data in the buffer.
+   * @param last <code>true</code> if there is no more data, so a final line does not need a line ending.
+   * @return The position after the last line that was parsed.
+   * @throws ParseException If a line is not valid N-Triples.
+   */
+  int parseLines(byte[] data, int start, int limit, boolean last) throws ParseException {
+    int lineStart = start;
+    for (int i = start; i < limit; i++) {
+      byte b = data[i];
+      if (b == '\n' || b == '\r') {
+        parseLine(data, lineStart, i);
+        if (b == '\n') lines++;
+        lineStart = i + 1;
+      }
+    }
+    if (last && lineStart < limit) {
+      parseLine(data, lineStart, limit);
+      lineStart = limit;
+    }
+    return lineStart;
+  }
+
+  /**
+   * Parses a single line, and sends the triple on it to the sink.
+   * @param data The buffer holding the line.
+   * @param start The start of the line.
+   * @param limit The end of the line, not including any line ending.
+   * @throws ParseException If the line is not valid N-Triples.
+   */
+  private void parseLine(byte[] data, int start, int limit) throws ParseException {
+    buf = data;
+    pos = start;
+    end = limit;
+    skipSpace();
+    if (pos == end || buf[pos] == '#') return;
+
+    SubjectNode s = (buf[pos] == '<') ? uri() : bnode();
+    skipSpace();
+    PredicateNode p = uri();
+    skipSpace();
+    ObjectNode o;
+    if (pos == end) throw error("Missing object");
+    switch (buf[pos]) {
+    case '<': o = uri(); break;
+    case '"': o = literal(); break;
+    default: o = bnode();
+    }
+    skipSpace();
+    // skip the graph of a quad
+    if (pos < end && buf[pos] != '.') {
+      if (buf[pos] == '<') uri();
+      else bnode();
+      skipSpace();
+    }
+    if (pos == end || buf[pos] != '.') throw error("Expected '.'");
+    pos++;
+    skipSpace();
+    if (pos < end && buf[pos] != '#') throw error("Unexpected data after '.'");
+
+    sink.triple(s, p, o);
+    triples++;
+  }
+
+  /**
+   * Reads a URI reference, starting at a '&lt;' character.
+   * @return The URI.
+   * @throws ParseException If the URI is not terminated, or is not a valid URI.
+   */
+  private Uri uri() throws ParseException {
+    String str = uriString();
+    Uri u = uris.get(str);
+    if (u == null) {
+      try {
+        u = nodes.intern(new Uri(new URI(str)));
+      } catch (URISyntaxException e) {
+        throw error("Bad URI: " + str);
+      }
+      if (uris.size() == CACHE_SIZE) uris.clear();
+      uris.put(str, u);
+    }
+    return u;
+  }
+
+  /**
+   * Reads the text of a URI reference, starting at a '&lt;' character.
+   * @return The unescaped text between the angle brackets.
+   * @throws ParseException If there is no URI, or it is not terminated.
+   */
+  private String uriString() throws ParseException {
+    if (pos == end || buf[pos] != '<') throw error("Expected URI");
+    int start = ++pos;
+    while (pos < end && buf[pos] != '>') pos++;
+    if (pos == end) throw error("Unterminated URI");
+    return unescape(start, pos++);
+  }
+
+  /**
+   * Reads a blank node, starting at a "_:" label.
+   * @return The blank node.
+   * @throws ParseException If there is no blank node.
+   */
+  private Bnode bnode() throws ParseException {
+    int start = pos;
+    if (end - pos < 3 || buf[pos] != '_' || buf[pos + 1] != ':') throw error("Expected a URI or blank node");
+    pos += 2;
+    while (pos < end && buf[pos] != ' ' && buf[pos] != '\t' && buf[pos] != '<' && buf[pos] != '"') pos++;
+    // a label cannot end with a '.', so this is the end of the statement
+    while (buf[pos - 1] == '.') pos--;
+    if (pos - start < 3) throw error("Empty blank node label");
+    if (bnodePrefix != null) return nodes.intern(new Bnode("_:" + bnodePrefix + fromUtf8Bytes(buf, start + 2, pos - start - 2)));
+    return nodes.intern(new Bnode(fromUtf8Bytes(buf, start, pos - start)));
+  }
+
+  /**
+   * Reads a literal, starting at the opening quote.
+   * @return The literal.
+   * @throws ParseException If the literal is not terminated, or has a bad datatype.
+   */
+  private Literal literal() throws ParseException {
+    int start = ++pos;
+    while (pos < end && buf[pos] != '"') {
+      if (buf[pos] == '\\') pos++;
+      pos++;
+    }
+    if (pos >= end) throw error("Unterminated literal");
+    String lex = unescape(start, pos++);
+    if (pos < end && buf[pos] == '@') {
+      start = ++pos;
+      while (pos < end && (buf[pos] == '-' || Character.isLetterOrDigit(buf[pos]))) pos++;
+      if (pos == start) throw error("Empty language tag");
+      return nodes.intern(new Literal(lex, fromUtf8Bytes(buf, start, pos - start)));
+    }
+    if (end - pos > 1 && buf[pos] == '^' && buf[pos + 1] == '^') {
+      pos += 2;
+      String str = uriString();
+      URI type = datatypes.get(str);
+      if (type == null) {
+        try {
+          type = new URI(str);
+        } catch (URISyntaxException e) {
+          throw error("Bad datatype: " + str);
+        }
+        if (datatypes.size() == CACHE_SIZE) datatypes.clear();
+        datatypes.put(str, type);
+      }
+      return nodes.intern(new Literal(lex, type));
+    }
+    return nodes.intern(new Literal(lex));
+  }
+
+  /**
+   * Decodes a section of the line, processing any escape sequences.
+   * @param start The start of the section.
+   * @param limit The end of the section.
+   * @return The decoded string.
+   * @throws ParseException If an escape sequence is not valid.
+   */
+  private String unescape(int start, int limit) throws ParseException {
+    int i = start;
+    while (i < limit && buf[i] != '\\') i++;
+    if (i == limit) return fromUtf8Bytes(buf, start, limit - start);
+
+    text.setLength(0);
+    int from = start;
+    while (i < limit) {
+      if (buf[i] != '\\') {
+        i++;
+        continue;
+      }
+      text.append(fromUtf8Bytes(buf, from, i - from));
+      if (i + 1 == limit) throw error("Bad escape sequence");
+      switch (buf[i + 1]) {
+      case 't': text.append('\t'); i += 2; break;
+      case 'b': text.append('\b'); i += 2; break;
+      case 'n': text.append('\n'); i += 2; break;
+      case 'r': text.append('\r'); i += 2; break;
+      case 'f': text.append('\f'); i += 2; break;
+      case '"': text.append('"'); i += 2; break;
+      case '\'': text.append('\''); i += 2; break;
+      case '\\': text.append('\\'); i += 2; break;
+      case 'u': text.appendCodePoint(hex(i + 2, 4, limit)); i += 6; break;
+      case 'U': text.appendCodePoint(hex(i + 2, 8, limit)); i += 10; break;
+      default: throw error("Bad escape sequence");
+      }
+      from = i;
+    }
+    text.append(fromUtf8Bytes(buf, from, limit - from));
+    return text.toString();
+  }
+
+  /**
+   * Reads a hexadecimal number from an escape sequence.
+   * @param start The position of the first digit.
+   * @param digits The number of digits.
+   * @param limit The end of the section being decoded.
+   * @return The value of the number.
+   * @throws ParseException If there are not enough hexadecimal digits.
+   */
+  private int hex(int start, int digits, int limit) throws ParseException {
+    if (start + digits > limit) throw error("Bad escape sequence");
+    int value = 0;
+    for (int i = start; i < start + digits; i++) {
+      int d = Character.digit(buf[i], 16);
+      if (d < 0) throw error("Bad escape sequence");
+      value = (value << 4) | d;
+    }
+    if (!Character.isValidCodePoint(value)) throw error("Bad escape sequence");
+    return value;
+  }
+
+  /**
+   * Moves past any spaces or tabs.
+   */
+  private void skipSpace() {
+    while (pos < end && (buf[pos] == ' ' || buf[pos] == '\t')) pos++;
+  }
+
+  /**
+   * Creates an exception for an error on the current line.
+   * @param msg The description of the error.
+   * @return A new exception.
+   */
+  private ParseException error(String msg) {
+    return new ParseException("Error at line " + (lines + 1) + ": " + msg);
+  }
+
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mulgara.mrg.AppendableGraph;
+import org.mulgara.mrg.GraphSink;
+import org.mulgara.mrg.LruNodeCache;
+import org.mulgara.mrg.NodeCache;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.TripleSink;
+
+/**
+ * Loads an N-Triples or N-Quads file using several threads. The file is split into chunks
+ * on line boundaries, and each chunk is read and parsed by a task on a fork-join pool.
+ * Parsed triples are collected into a batch for each task, and each full batch is sent to the
+ * destination while holding the lock on the destination, so the destination does not need to
+ * be thread safe, and lock contention is low.
+ * <p>
+ * Blank nodes are identified by their label, so a label refers to the same node in every chunk.
+ * To keep the blank nodes of a file distinct from those already in a graph, a prefix can be
+ * set for all blank node labels with {@link #setBnodePrefix(String)}.
+ * Triples may arrive at the destination in any order.
+ * </p>
+ */
+public class ParallelNTriplesLoader {
+
+  /** The default number of triples sent to the destination at a time. */
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  /** The smallest chunk of the file to parse in one task. */
+  private static final int MIN_CHUNK_SIZE = 0x100000;
+
+  /** The largest chunk of the file to parse in one task. */
+  private static final int MAX_CHUNK_SIZE = 0x1000000;
+
+  /** The number of bytes to read at a time when looking for the end of a line. */
+  private static final int SCAN_SIZE = 0x1000;
+
+  /** The pool to run tasks on, or <code>null</code> if a pool is created for each load. */
+  private final ForkJoinPool pool;
+
+  /** The number of triples sent to the destination at a time. */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  /** A string to insert at the start of all blank node labels, or <code>null</code>. */
+  private String bnodePrefix = null;
+
+  /** The cache shared by all the chunk parsers, or <code>null</code> to give each chunk its own cache. */
+  private NodeCache nodeCache = null;
+
+  /** A fixed size for chunks, or 0 to size them by the file and the number of threads. */
+  private int chunkSize = 0;
+
+  /**
+   * Creates a loader that uses a new pool with a thread for each processor on every load.
+   */
+  public ParallelNTriplesLoader() {
+    this(null);
+  }
+
+  /**
+   * Creates a loader that runs on a given pool.
+   * @param pool The pool to run the parsing tasks on. This is not shut down by the loader.
+   */
+  public ParallelNTriplesLoader(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Sets the number of triples sent to the destination at a time.
+   * @param batchSize The number of triples in a batch.
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive");
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Sets a prefix for all blank node labels. Using a new prefix for each file
+   * stops blank nodes in different files from being merged.
+   * @param bnodePrefix The prefix to use, or <code>null</code> to use labels as they appear in the file.
+   */
+  public void setBnodePrefix(String bnodePrefix) {
+    this.bnodePrefix = bnodePrefix;
+  }
+
+  /**
+   * Sets a node cache to be shared by the threads parsing each chunk. By default each chunk
+   * is parsed with its own cache, so that the threads do not contend on a single lock.
+   * @param nodeCache The cache to share, or <code>null</code> to use a new cache for each chunk.
+   */
+  public void setNodeCache(NodeCache nodeCache) {
+    this.nodeCache = nodeCache;
+  }
+
+  /**
+   * Sets a fixed size for chunks. This is used for testing with small files.
+   * @param chunkSize The number of bytes to aim for in each chunk.
+   */
+  void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Loads a file into a graph.
+   * @param f The file to load.
+   * @param graph The graph to insert the triples into.
+   * @return The number of triples parsed.
+   * @throws ParseException If the file contains invalid data.
+   * @throws IOException If the file could not be read.
+   */
+  public long load(File f, AppendableGraph graph) throws ParseException, IOException {
+    return load(f, new GraphSink(graph));
+  }
+
+  /**
+   * Loads a file into a sink. The sink is only called by one thread at a time.
+   * @param f The file to load.
+   * @param sink The destination for the triples.
+   * @return The number of triples parsed.
+   * @throws ParseException If the file contains invalid data.
+   * @throws IOException If the file could not be read.
+   */
+  public long load(File f, TripleSink sink) throws ParseException, IOException {
+    RandomAccessFile raf = new RandomAccessFile(f, "r");
+    ForkJoinPool p = (pool != null) ? pool : new ForkJoinPool();
+    try {
+      FileChannel channel = raf.getChannel();
+      long[] bounds = split(channel, p.getParallelism());
+      AtomicLong count = new AtomicLong();
+      sink.start();
+      try {
+        p.invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1, sink, count));
+      } catch (LoadException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ParseException) throw (ParseException)cause;
+        if (cause instanceof IOException) throw (IOException)cause;
+        throw e;
+      }
+      sink.end();
+      return count.get();
+    } finally {
+      if (p != pool) p.shutdown();
+      raf.close();
+    }
+  }
+
+  /**
+   * Finds the boundaries of the chunks in a file. Each boundary is at the start of a line.
+   * @param channel The channel for the file.
+   * @param parallelism The number of threads that will be parsing.
+   * @return The start of each chunk, followed by the end of the file.
+   * @throws IOException If the file could not be read.
+   */
+  private long[] split(FileChannel channel, int parallelism) throws IOException {
+    long size = channel.size();
+    // aim for several chunks per thread, so the load stays balanced
+    long chunkSize = this.chunkSize;
+    if (chunkSize <= 0) chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (parallelism * 4L)));
+    List<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    ByteBuffer scan = ByteBuffer.allocate(SCAN_SIZE);
+    long pos = chunkSize;
+    while (pos < size) {
+      // move forward to the start of the next line
+      long lineStart = -1;
+      while (lineStart < 0 && pos < size) {
+        scan.clear();
+        int n = channel.read(scan, pos);
+        if (n <= 0) break;
+        for (int i = 0; i < n; i++) {
+          if (scan.get(i) == '\n') {
+            lineStart = pos + i + 1;
+            break;
+          }
+        }
+        if (lineStart < 0) pos += n;
+      }
+      if (lineStart < 0 || lineStart >= size) break;
+      bounds.add(lineStart);
+      pos = lineStart + chunkSize;
+    }
+    bounds.add(size);
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+    return result;
+  }
+
+  /**
+   * Wraps a checked exception from a task, so it can be passed out of the pool.
+   */
+  private static class LoadException extends RuntimeException {
+    private static final long serialVersionUID = -4237751938117614527L;
+    LoadException(Throwable cause) { super(cause); }
+  }
+
+  /**
+   * A task that parses a range of chunks, splitting the range until there is a single chunk.
+   */
+  private class ChunkTask extends RecursiveTask<Long> {
+
+    private static final long serialVersionUID = 8510293733214520127L;
+
+    /** The channel for the file being loaded. */
+    private final FileChannel channel;
+
+    /** The boundaries of all the chunks. */
+    private final long[] bounds;
+
+    /** The first chunk for this task. */
+    private final int first;
+
+    /** The chunk after the last chunk for this task. */
+    private final int last;
+
+    /** The destination for the triples. */
+    private final TripleSink sink;
+
+    /** The total number of triples parsed by all tasks. */
+    private final AtomicLong count;
+
+    /**
+     * Creates a task for a range of chunks.
+     * @param channel The channel for the file being loaded.
+     * @param bounds The boundaries of all the chunks.
+     * @param first The first chunk to parse.
+     * @param last The chunk after the last chunk to parse.
+     * @param sink The destination for the triples.
+     * @param count The total number of triples parsed.
+     */
+    ChunkTask(FileChannel channel, long[] bounds, int first, int last, TripleSink sink, AtomicLong count) {
+      this.channel = channel;
+      this.bounds = bounds;
+      this.first = first;
+      this.last = last;
+      this.sink = sink;
+      this.count = count;
+    }
+
+    /**
+     * Parses the chunks, or splits them between two new tasks.
+     * @return The number of triples parsed by this task.
+     */
+    protected Long compute() {
+      if (last - first > 1) {
+        int mid = (first + last) >>> 1;
+        ChunkTask right = new ChunkTask(channel, bounds, mid, last, sink, count);
+        right.fork();
+        long left = new ChunkTask(channel, bounds, first, mid, sink, count).compute();
+        return left + right.join();
+      }
+      try {
+        return parseChunk(bounds[first], bounds[last]);
+      } catch (ParseException e) {
+        throw new LoadException(new ParseException("Error in chunk at byte " + bounds[first] + ". " + e.getMessage(), e));
+      } catch (IOException e) {
+        throw new LoadException(e);
+      }
+    }
+
+    /**
+     * Reads and parses a single chunk.
+     * @param start The start of the chunk in the file.
+     * @param end The end of the chunk in the file.
+     * @return The number of triples parsed.
+     */
+    private long parseChunk(long start, long end) throws ParseException, IOException {
+      byte[] data = new byte[(int)(end - start)];
+      ByteBuffer bb = ByteBuffer.wrap(data);
+      while (bb.hasRemaining()) {
+        if (channel.read(bb, start + bb.position()) < 0) throw new IOException("Unexpected end of file");
+      }
+      BatchSink batch = new BatchSink(sink);
+      NTriplesParser parser = new NTriplesParser(batch, bnodePrefix, nodeCache != null ? nodeCache : new LruNodeCache());
+      parser.parseLines(data, 0, data.length, true);
+      batch.flush();
+      count.addAndGet(parser.getProcessedRows());
+      return parser.getProcessedRows();
+    }
+  }
+
+  /**
+   * Collects triples for a single task, and sends them to the destination in batches.
+   */
+  private class BatchSink implements TripleSink {
+
+    /** The destination for the triples. */
+    private final TripleSink sink;
+
+    /** The triples waiting to be sent. */
+    private final List<Triple> batch = new ArrayList<Triple>(batchSize);
+
+    /**
+     * Creates a batch for a destination.
+     * @param sink The destination for the triples.
+     */
+    BatchSink(TripleSink sink) {
+      this.sink = sink;
+    }
+
+    /** The destination is started by the loader. */
+    public void start() { }
+
+    /** Prefixes do not appear in N-Triples. */
+    public void prefix(String prefix, String namespace) { }
+
+    /**
+     * Adds a triple to the batch, sending the batch if it is full.
+     * @param s The subject of the triple.
+     * @param p The predicate of the triple.
+     * @param o The object of the triple.
+     */
+    public void triple(SubjectNode s, PredicateNode p, ObjectNode o) {
+      batch.add(new Triple(s, p, o));
+      if (batch.size() == batchSize) flush();
+    }
+
+    /** The destination is ended by the loader. */
+    public void end() { }
+
+    /**
+     * Sends all waiting triples to the destination.
+     */
+    void flush() {
+      if (batch.isEmpty()) return;
+      synchronized (sink) {
+        for (Triple t: batch) sink.triple(t.getSubject(), t.getPredicate(), t.getObject());
+      }
+      batch.clear();
+    }
+  }
+
+}
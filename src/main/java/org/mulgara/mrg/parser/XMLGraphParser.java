@@ -34,15 +34,19 @@ import org.mulgara.jena.rdf.arp.ARP;
 import org.mulgara.jena.rdf.arp.ARPOptions;
 import org.mulgara.jena.rdf.arp.ARPHandlers;
 import org.mulgara.jena.rdf.arp.AResource;
+import org.mulgara.jena.rdf.arp.NamespaceHandler;
 import org.mulgara.jena.rdf.arp.StatementHandler;
 import org.mulgara.mrg.Bnode;
 import org.mulgara.mrg.GraphFactory;
 import org.mulgara.mrg.GraphImplFactory;
+import org.mulgara.mrg.GraphSink;
 import org.mulgara.mrg.Literal;
 import org.mulgara.mrg.Node;
+import org.mulgara.mrg.NodeCache;
 import org.mulgara.mrg.ObjectNode;
 import org.mulgara.mrg.PredicateNode;
 import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.TripleSink;
 import org.mulgara.mrg.Uri;
 import org.mulgara.mrg.WritableGraph;
 
@@ -52,14 +56,20 @@ import static org.mulgara.util.Strings.toUtf8Bytes;
 /**
  * Parses the contents of an RDF/XML file into a graph representation.
  */
-public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphParser {
+public class XMLGraphParser implements StatementHandler, NamespaceHandler, ErrorHandler, GraphParser {
 
   /** Logging for this class. */
   private static final Logger logger = Logger.getLogger(XMLGraphParser.class.getName());
 
-  /** The graph that is parsed from the input data. */
+  /** The graph that is parsed from the input data. <code>null</code> when parsing into a sink. */
   private final WritableGraph graph;
 
+  /** The destination for the parsed data. */
+  private final TripleSink sink;
+
+  /** The cache for sharing parsed nodes. */
+  private final NodeCache nodes = NodeCache.getDefault();
+
   /** The number of triples parsed. */
   private long triples = 0;
 
@@ -111,7 +121,54 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
    * @param graphFactory A mechanism for creating a graph to populate.
    */
   public XMLGraphParser(InputStream is, GraphFactory graphFactory) throws ParseException, IOException {
-    graph = graphFactory.createGraph();
+    this(graphFactory.createGraph(), is);
+  }
+
+  /**
+   * Parse a string into a sink. No graph is created.
+   * @param s The string containing the RDF/XML.
+   * @param sink The destination for the parsed data.
+   */
+  public XMLGraphParser(String s, TripleSink sink) throws ParseException, IOException {
+    this(new ByteArrayInputStream(toUtf8Bytes(s)), sink);
+  }
+
+  /**
+   * Parse a file into a sink. No graph is created.
+   * @param f The file containing the RDF/XML.
+   * @param sink The destination for the parsed data.
+   */
+  public XMLGraphParser(File f, TripleSink sink) throws ParseException, IOException {
+    this(new FileInputStream(f), sink);
+  }
+
+  /**
+   * Parse an InputStream into a sink. No graph is created.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   */
+  public XMLGraphParser(InputStream is, TripleSink sink) throws ParseException, IOException {
+    this(is, sink, null);
+  }
+
+  /**
+   * Create a graph from an InputStream.
+   * @param graph The graph to populate.
+   * @param is The input stream with the graph data.
+   */
+  private XMLGraphParser(WritableGraph graph, InputStream is) throws ParseException, IOException {
+    this(is, new GraphSink(graph), graph);
+  }
+
+  /**
+   * Parse an InputStream into a sink.
+   * @param is The input stream with the graph data.
+   * @param sink The destination for the parsed data.
+   * @param graph The graph being populated by the sink, or <code>null</code> if there is none.
+   */
+  private XMLGraphParser(InputStream is, TripleSink sink, WritableGraph graph) throws ParseException, IOException {
+    this.graph = graph;
+    this.sink = sink;
     ARP arp = new ARP();
 
     ARPOptions options = arp.getOptions();
@@ -121,7 +178,9 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
     ARPHandlers handlers = arp.getHandlers();
     handlers.setErrorHandler(this);
     handlers.setStatementHandler(this);
+    handlers.setNamespaceHandler(this);
 
+    sink.start();
     try {
       arp.load(is);
     } catch (IOException e) {
@@ -129,6 +188,7 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
     } catch (Exception e) {
       throw new ParseException(e);
     }
+    sink.end();
   }
 
   /**
@@ -184,6 +244,7 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
 
   /**
    * Gets the parsed graph.
+   * @return The parsed graph, or <code>null</code> if the data was parsed into a sink.
    */
   public WritableGraph getGraph() {
     return graph;
@@ -232,6 +293,23 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
     addTriple(toNode(subject), toNode(predicate), toNode(obj));
   }
 
+  /**
+   * Passes a namespace declaration on to the sink.
+   * @param prefix The prefix being declared.
+   * @param uri The namespace for the prefix.
+   */
+  public void startPrefixMapping(String prefix, String uri) {
+    sink.prefix(prefix, uri);
+  }
+
+  /**
+   * Prefixes are not scoped in the sink, so this is ignored.
+   * @param prefix The prefix going out of scope.
+   */
+  public void endPrefixMapping(String prefix) {
+    // do nothing
+  }
+
   /**
    * Indicates an error detected in the XML stream.
    * @param e The exception describing the error condition.
@@ -259,13 +337,14 @@ public class XMLGraphParser implements StatementHandler, ErrorHandler, GraphPars
   }
 
   /**
-   * Internal method to add a triple to the graph.
+   * Internal method to send a triple to the sink.
    * @param s The subject of the triple.
    * @param p The predicate of the triple.
    * @param o The object of the triple.
    */
   private void addTriple(Node s, Node p, Node o) {
-    graph.insert((SubjectNode)s, (PredicateNode)p, (ObjectNode)o);
+    sink.triple((SubjectNode)nodes.intern(s), (PredicateNode)nodes.intern(p), (ObjectNode)nodes.intern(o));
+    triples++;
   }
 
   /**
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.query;
+
+import java.util.List;
+import java.util.Map;
+
+import org.mulgara.mrg.Node;
+
+/**
+ * A solution to a query: the value of each variable.
+ */
+public class Bindings {
+
+  /** The variables of the query, in column order. */
+  private final List<Var> vars;
+
+  /** The column of each variable. */
+  private final Map<Var,Integer> columns;
+
+  /** The value of each variable, by column. */
+  private final Node[] values;
+
+  /**
+   * Creates a set of bindings. Only created by the query engine.
+   * @param vars The variables of the query, in column order.
+   * @param columns The column of each variable.
+   * @param values The value of each variable.
+   */
+  Bindings(List<Var> vars, Map<Var,Integer> columns, Node[] values) {
+    this.vars = vars;
+    this.columns = columns;
+    this.values = values;
+  }
+
+  /**
+   * Gets the value of a variable.
+   * @param v The variable.
+   * @return The value of the variable, or <code>null</code> if it does not appear in the query.
+   */
+  public Node get(Var v) {
+    Integer c = columns.get(v);
+    return c == null ? null : values[c];
+  }
+
+  /**
+   * Gets the value of a variable.
+   * @param name The name of the variable.
+   * @return The value of the variable, or <code>null</code> if it does not appear in the query.
+   */
+  public Node get(String name) {
+    return get(new Var(name));
+  }
+
+  /**
+   * Gets the variables that are bound.
+   * @return The variables of the query.
+   */
+  public List<Var> getVars() {
+    return vars;
+  }
+
+  public boolean equals(Object o) {
+    if (!(o instanceof Bindings)) return false;
+    Bindings b = (Bindings)o;
+    if (vars.size() != b.vars.size()) return false;
+    for (Var v: vars) {
+      Node n = b.get(v);
+      if (n == null || !n.equals(get(v))) return false;
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int h = 0;
+    for (int i = 0; i < values.length; i++) h += vars.get(i).hashCode() ^ values[i].hashCode();
+    return h;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) sb.append(", ");
+      sb.append(vars.get(i)).append("=").append(values[i]);
+    }
+    return sb.append("}").toString();
+  }
+
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphStatistics;
+import org.mulgara.mrg.IndexedMatch;
+import org.mulgara.mrg.Node;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+
+import static org.mulgara.mrg.query.TriplePattern.*;
+
+/**
+ * Finds all the bindings of variables that match a list of triple patterns in a graph
+ * (a basic graph pattern). This works on any {@link Graph}, using only
+ * {@link Graph#match(SubjectNode, PredicateNode, ObjectNode)}.
+ * <p>
+ * Patterns are evaluated one at a time, in an order chosen from an estimate of the number of
+ * triples each will match. The first pattern is the most selective, and each later pattern is the
+ * most selective of those that share a variable with the patterns before it.
+ * If the graph provides {@link GraphStatistics}, estimates come from its counts. Otherwise the
+ * matches for each pattern are counted, and fixed selectivities are used for joined variables.
+ * </p>
+ * <p>
+ * A pattern is joined to the earlier results with a nested loop when the graph has an index
+ * for the nodes that will be bound, so each row is a direct lookup. Otherwise the pattern is
+ * matched once, and joined through a hash table on the shared variables.
+ * </p>
+ */
+public class QueryEngine {
+
+  /** The most triples to count when estimating the size of a pattern. */
+  static final int COUNT_LIMIT = 10000;
+
+  /** The estimated fraction of triples that remain when the subject is bound by a join. */
+  static final double SUBJECT_SELECTIVITY = 0.01;
+
+  /** The estimated fraction of triples that remain when the predicate is bound by a join. */
+  static final double PREDICATE_SELECTIVITY = 0.2;
+
+  /** The estimated fraction of triples that remain when the object is bound by a join. */
+  static final double OBJECT_SELECTIVITY = 0.05;
+
+  /** The graph to query. */
+  private final Graph graph;
+
+  /** The statistics for the graph, or <code>null</code> if it does not provide them. */
+  private final GraphStatistics stats;
+
+  /**
+   * Creates an engine for a graph.
+   * @param graph The graph to query.
+   */
+  public QueryEngine(Graph graph) {
+    this.graph = graph;
+    this.stats = (graph instanceof GraphStatistics) ? (GraphStatistics)graph : null;
+  }
+
+  /**
+   * Finds all the solutions to a list of patterns. Results are calculated as the iterator is read,
+   * so the graph should not be modified until it is finished.
+   * @param patterns The patterns to match.
+   * @return An iterator over the bindings for all the variables in the patterns.
+   */
+  public Iterator<Bindings> execute(List<TriplePattern> patterns) {
+    List<TriplePattern> plan = plan(patterns);
+    final Map<Var,Integer> columns = new LinkedHashMap<Var,Integer>();
+    for (TriplePattern tp: plan) {
+      for (Var v: tp.getVars()) {
+        if (!columns.containsKey(v)) columns.put(v, columns.size());
+      }
+    }
+    final List<Var> vars = Collections.unmodifiableList(new ArrayList<Var>(columns.keySet()));
+
+    Set<Var> bound = new HashSet<Var>();
+    Iterator<Node[]> rows = Collections.singletonList(new Node[columns.size()]).iterator();
+    boolean first = true;
+    for (TriplePattern tp: plan) {
+      Binder binder = new Binder(tp, columns);
+      boolean[] b = boundPositions(tp, bound);
+      if (first || isIndexed(b[SUBJECT], b[PREDICATE], b[OBJECT])) rows = new NestedLoopJoin(rows, binder);
+      else rows = new HashJoin(rows, binder, bound);
+      bound.addAll(tp.getVars());
+      first = false;
+    }
+
+    final Iterator<Node[]> results = rows;
+    final Map<Var,Integer> cols = Collections.unmodifiableMap(columns);
+    return new Iterator<Bindings>() {
+      public boolean hasNext() { return results.hasNext(); }
+      public Bindings next() { return new Bindings(vars, cols, results.next()); }
+      public void remove() { throw new UnsupportedOperationException(); }
+    };
+  }
+
+  /**
+   * Finds all the solutions to a list of patterns.
+   * @param patterns The patterns to match.
+   * @return A list of the bindings for all the variables in the patterns.
+   */
+  public List<Bindings> solve(List<TriplePattern> patterns) {
+    List<Bindings> result = new ArrayList<Bindings>();
+    for (Iterator<Bindings> i = execute(patterns); i.hasNext(); ) result.add(i.next());
+    return result;
+  }
+
+  /**
+   * Chooses the order to evaluate patterns in.
+   * @param patterns The patterns to evaluate.
+   * @return The same patterns, in the order they will be evaluated.
+   */
+  public List<TriplePattern> plan(List<TriplePattern> patterns) {
+    List<TriplePattern> remaining = new ArrayList<TriplePattern>(patterns);
+    List<TriplePattern> plan = new ArrayList<TriplePattern>(patterns.size());
+    Set<Var> bound = new HashSet<Var>();
+    Map<TriplePattern,Long> counts = new HashMap<TriplePattern,Long>();
+    while (!remaining.isEmpty()) {
+      TriplePattern best = null;
+      boolean bestConnected = false;
+      double bestEstimate = Double.MAX_VALUE;
+      for (TriplePattern tp: remaining) {
+        boolean connected = bound.isEmpty() || !Collections.disjoint(bound, tp.getVars());
+        // never choose a cross product while a connected pattern is available
+        if (bestConnected && !connected) continue;
+        double e = estimate(tp, bound, counts);
+        if ((connected && !bestConnected) || e < bestEstimate) {
+          best = tp;
+          bestConnected = connected;
+          bestEstimate = e;
+        }
+      }
+      remaining.remove(best);
+      plan.add(best);
+      bound.addAll(best.getVars());
+    }
+    return plan;
+  }
+
+  /**
+   * Estimates the number of triples a pattern will match for each row of earlier results.
+   * @param tp The pattern to estimate.
+   * @param bound The variables bound by earlier patterns.
+   * @param counts A cache of the counts of each pattern.
+   * @return The estimated number of matches.
+   */
+  double estimate(TriplePattern tp, Set<Var> bound, Map<TriplePattern,Long> counts) {
+    Long count = counts.get(tp);
+    if (count == null) {
+      count = count(tp);
+      counts.put(tp, count);
+    }
+    double e = count;
+    if (tp.isVar(SUBJECT) && bound.contains(tp.get(SUBJECT))) e *= selectivity(SUBJECT);
+    if (tp.isVar(PREDICATE) && bound.contains(tp.get(PREDICATE))) e *= selectivity(PREDICATE);
+    if (tp.isVar(OBJECT) && bound.contains(tp.get(OBJECT))) e *= selectivity(OBJECT);
+    return e;
+  }
+
+  /**
+   * Estimates the fraction of triples that remain when a position is bound by a join.
+   * This is 1 over the number of distinct values in that position, if the graph counts them.
+   * @param pos The position being bound.
+   * @return The fraction of triples that are expected to match.
+   */
+  private double selectivity(int pos) {
+    long distinct = GraphStatistics.UNKNOWN;
+    if (stats != null) {
+      switch (pos) {
+      case SUBJECT: distinct = stats.getSubjectCount(); break;
+      case PREDICATE: distinct = stats.getPredicateCount(); break;
+      default: distinct = stats.getObjectCount();
+      }
+    }
+    if (distinct > 0) return 1.0 / distinct;
+    switch (pos) {
+    case SUBJECT: return SUBJECT_SELECTIVITY;
+    case PREDICATE: return PREDICATE_SELECTIVITY;
+    default: return OBJECT_SELECTIVITY;
+    }
+  }
+
+  /**
+   * Estimates the triples that match the fixed nodes of a pattern from the graph statistics.
+   * Each fixed node is assumed to be independent of the others.
+   * @param tp The pattern to estimate.
+   * @return The estimated number of triples, or {@link GraphStatistics#UNKNOWN} if a count is not available.
+   */
+  private long statsCount(TriplePattern tp) {
+    double size = stats.getTripleCount();
+    if (size == 0) return 0;
+    double e = size;
+    for (int i = 0; i < 3; i++) {
+      if (tp.isVar(i)) continue;
+      long fanOut;
+      switch (i) {
+      case SUBJECT: fanOut = stats.getSubjectFanOut((SubjectNode)tp.get(i)); break;
+      case PREDICATE: fanOut = stats.getPredicateFanOut((PredicateNode)tp.get(i)); break;
+      default: fanOut = stats.getObjectFanOut((ObjectNode)tp.get(i));
+      }
+      if (fanOut == GraphStatistics.UNKNOWN) return GraphStatistics.UNKNOWN;
+      e *= fanOut / size;
+    }
+    return (e > 0 && e < 1) ? 1 : (long)e;
+  }
+
+  /**
+   * Counts the triples that match the fixed nodes of a pattern. This is estimated from the
+   * statistics if possible, or else the matches are counted, up to {@link #COUNT_LIMIT}.
+   * @param tp The pattern to count.
+   * @return The number of matches, or the size of the graph if there are too many to count.
+   */
+  private long count(TriplePattern tp) {
+    if (tp.isVar(SUBJECT) && tp.isVar(PREDICATE) && tp.isVar(OBJECT)) return graph.size();
+    if (stats != null) {
+      long c = statsCount(tp);
+      if (c != GraphStatistics.UNKNOWN) return c;
+    }
+    Iterator<Triple> i = graph.match(constant(tp, SUBJECT, SubjectNode.class),
+                                     constant(tp, PREDICATE, PredicateNode.class),
+                                     constant(tp, OBJECT, ObjectNode.class));
+    long c = 0;
+    while (i.hasNext() && c < COUNT_LIMIT) {
+      i.next();
+      c++;
+    }
+    return c < COUNT_LIMIT ? c : Math.max(c, graph.size());
+  }
+
+  /**
+   * Tests if the graph has an index that finds triples directly from a set of bound positions.
+   * Graphs that do not implement {@link IndexedMatch} are assumed to be indexed on the subject only.
+   * @param s <code>true</code> if the subject is bound.
+   * @param p <code>true</code> if the predicate is bound.
+   * @param o <code>true</code> if the object is bound.
+   * @return <code>true</code> if the graph can find the triples without a scan.
+   */
+  boolean isIndexed(boolean s, boolean p, boolean o) {
+    if (graph instanceof IndexedMatch) return ((IndexedMatch)graph).hasIndex(s, p, o);
+    return s;
+  }
+
+  /**
+   * Finds which positions of a pattern will be bound when it is evaluated.
+   * @param tp The pattern.
+   * @param bound The variables bound by earlier patterns.
+   * @return An array indicating if each position is bound.
+   */
+  private static boolean[] boundPositions(TriplePattern tp, Set<Var> bound) {
+    boolean[] result = new boolean[3];
+    for (int i = 0; i < 3; i++) result[i] = !tp.isVar(i) || bound.contains(tp.get(i));
+    return result;
+  }
+
+  /**
+   * Gets the node at a position in a pattern.
+   * @return The node, or <code>null</code> if the position holds a variable.
+   */
+  private static <T> T constant(TriplePattern tp, int pos, Class<T> type) {
+    return tp.isVar(pos) ? null : type.cast(tp.get(pos));
+  }
+
+  /**
+   * Gets a node from a triple by position.
+   */
+  private static Node get(Triple t, int pos) {
+    switch (pos) {
+    case SUBJECT: return t.getSubject();
+    case PREDICATE: return t.getPredicate();
+    default: return t.getObject();
+    }
+  }
+
+  /**
+   * Binds the variables of a pattern into rows of results.
+   */
+  private static class Binder {
+
+    /** The pattern being bound. */
+    final TriplePattern pattern;
+
+    /** The column for each position, or -1 for a fixed node. */
+    final int[] columns = new int[3];
+
+    /**
+     * Creates a binder for a pattern.
+     * @param pattern The pattern to bind.
+     * @param cols The column of each variable.
+     */
+    Binder(TriplePattern pattern, Map<Var,Integer> cols) {
+      this.pattern = pattern;
+      for (int i = 0; i < 3; i++) columns[i] = pattern.isVar(i) ? cols.get(pattern.get(i)) : -1;
+    }
+
+    /**
+     * Gets the value at a position of the pattern for a row.
+     * @param row The current row of results.
+     * @param pos The position in the pattern.
+     * @return The node, or <code>null</code> if the position is an unbound variable.
+     */
+    Node value(Node[] row, int pos) {
+      return columns[pos] < 0 ? (Node)pattern.get(pos) : row[columns[pos]];
+    }
+
+    /**
+     * Extends a row with the values of a matching triple.
+     * @param row The row to extend. This is not modified.
+     * @param t The triple that matched the pattern.
+     * @return A new row, or <code>null</code> if the triple conflicts with the row.
+     */
+    Node[] extend(Node[] row, Triple t) {
+      Node[] result = null;
+      for (int i = 0; i < 3; i++) {
+        int c = columns[i];
+        if (c < 0) continue;
+        Node n = get(t, i);
+        Node current = (result == null) ? row[c] : result[c];
+        if (current != null) {
+          if (!current.equals(n)) return null;
+        } else {
+          if (result == null) result = Arrays.copyOf(row, row.length);
+          result[c] = n;
+        }
+      }
+      return result == null ? Arrays.copyOf(row, row.length) : result;
+    }
+  }
+
+  /**
+   * A join stage that produces its rows ahead of time, one at a time.
+   */
+  private abstract static class Join implements Iterator<Node[]> {
+
+    /** The rows from the earlier stages. */
+    final Iterator<Node[]> input;
+
+    /** Binds the pattern for this stage. */
+    final Binder binder;
+
+    /** The row from the input being extended. */
+    Node[] current = null;
+
+    /** The matching triples for the current row. */
+    Iterator<Triple> matches = Collections.<Triple>emptyList().iterator();
+
+    /** The next row to return. */
+    Node[] nextRow = null;
+
+    /** Indicates that the next row has been found. */
+    boolean ready = false;
+
+    Join(Iterator<Node[]> input, Binder binder) {
+      this.input = input;
+      this.binder = binder;
+    }
+
+    /**
+     * Finds the triples that match the pattern for a row.
+     * @param row The row from the input.
+     * @return The matching triples, which may conflict with the row.
+     */
+    abstract Iterator<Triple> lookup(Node[] row);
+
+    public boolean hasNext() {
+      if (!ready) {
+        nextRow = findNext();
+        ready = true;
+      }
+      return nextRow != null;
+    }
+
+    public Node[] next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      ready = false;
+      return nextRow;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the next row of results.
+     * @return The next row, or <code>null</code> if there are no more.
+     */
+    private Node[] findNext() {
+      while (true) {
+        while (matches.hasNext()) {
+          Node[] row = binder.extend(current, matches.next());
+          if (row != null) return row;
+        }
+        if (!input.hasNext()) return null;
+        current = input.next();
+        matches = lookup(current);
+      }
+    }
+  }
+
+  /**
+   * Joins by looking up the pattern in the graph for each input row.
+   */
+  private class NestedLoopJoin extends Join {
+
+    NestedLoopJoin(Iterator<Node[]> input, Binder binder) {
+      super(input, binder);
+    }
+
+    Iterator<Triple> lookup(Node[] row) {
+      Node s = binder.value(row, SUBJECT);
+      Node p = binder.value(row, PREDICATE);
+      Node o = binder.value(row, OBJECT);
+      // values from other positions may not be usable here
+      if ((s != null && !(s instanceof SubjectNode)) || (p != null && !(p instanceof PredicateNode))) {
+        return Collections.<Triple>emptyList().iterator();
+      }
+      return graph.match((SubjectNode)s, (PredicateNode)p, (ObjectNode)o);
+    }
+  }
+
+  /**
+   * Joins by matching the pattern once, and looking up the triples for each input row
+   * by the variables that it shares with earlier patterns.
+   */
+  private class HashJoin extends Join {
+
+    /** The positions of the pattern holding variables bound by earlier patterns. */
+    private final int[] keyPositions;
+
+    /** The matching triples, by the values of the shared variables. Built on first use. */
+    private Map<List<Node>,List<Triple>> table = null;
+
+    HashJoin(Iterator<Node[]> input, Binder binder, Set<Var> bound) {
+      super(input, binder);
+      List<Integer> positions = new ArrayList<Integer>();
+      for (int i = 0; i < 3; i++) {
+        if (binder.pattern.isVar(i) && bound.contains(binder.pattern.get(i))) positions.add(i);
+      }
+      keyPositions = new int[positions.size()];
+      for (int i = 0; i < keyPositions.length; i++) keyPositions[i] = positions.get(i);
+    }
+
+    Iterator<Triple> lookup(Node[] row) {
+      if (table == null) build();
+      Node[] key = new Node[keyPositions.length];
+      for (int i = 0; i < key.length; i++) key[i] = binder.value(row, keyPositions[i]);
+      List<Triple> found = table.get(Arrays.asList(key));
+      return found == null ? Collections.<Triple>emptyList().iterator() : found.iterator();
+    }
+
+    /**
+     * Matches the fixed nodes of the pattern, and builds the table.
+     */
+    private void build() {
+      TriplePattern tp = binder.pattern;
+      table = new HashMap<List<Node>,List<Triple>>();
+      Iterator<Triple> i = graph.match(constant(tp, SUBJECT, SubjectNode.class),
+                                       constant(tp, PREDICATE, PredicateNode.class),
+                                       constant(tp, OBJECT, ObjectNode.class));
+      while (i.hasNext()) {
+        Triple t = i.next();
+        Node[] key = new Node[keyPositions.length];
+        for (int k = 0; k < key.length; k++) key[k] = get(t, keyPositions[k]);
+        List<Node> keyList = Arrays.asList(key);
+        List<Triple> bucket = table.get(keyList);
+        if (bucket == null) {
+          bucket = new ArrayList<Triple>(2);
+          table.put(keyList, bucket);
+        }
+        bucket.add(t);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+
+/**
+ * A triple where any position may be a {@link Var} instead of a node.
+ */
+public class TriplePattern {
+
+  /** The position of the subject. */
+  public static final int SUBJECT = 0;
+
+  /** The position of the predicate. */
+  public static final int PREDICATE = 1;
+
+  /** The position of the object. */
+  public static final int OBJECT = 2;
+
+  /** The terms of the pattern, each a node or a {@link Var}. */
+  private final Object[] terms;
+
+  /** The distinct variables in the pattern, in order of position. */
+  private final List<Var> vars;
+
+  /**
+   * Creates a pattern.
+   * @param s The subject: a {@link SubjectNode} or a {@link Var}.
+   * @param p The predicate: a {@link PredicateNode} or a {@link Var}.
+   * @param o The object: an {@link ObjectNode} or a {@link Var}.
+   * @throws IllegalArgumentException If a term is not a variable or a node for its position.
+   */
+  public TriplePattern(Object s, Object p, Object o) {
+    if (!(s instanceof Var || s instanceof SubjectNode)) throw new IllegalArgumentException("Bad subject: " + s);
+    if (!(p instanceof Var || p instanceof PredicateNode)) throw new IllegalArgumentException("Bad predicate: " + p);
+    if (!(o instanceof Var || o instanceof ObjectNode)) throw new IllegalArgumentException("Bad object: " + o);
+    terms = new Object[] { s, p, o };
+    List<Var> v = new ArrayList<Var>(3);
+    for (Object t: terms) {
+      if (t instanceof Var && !v.contains(t)) v.add((Var)t);
+    }
+    vars = Collections.unmodifiableList(v);
+  }
+
+  /**
+   * Gets the term at a position.
+   * @param position {@link #SUBJECT}, {@link #PREDICATE} or {@link #OBJECT}.
+   * @return A node or a {@link Var}.
+   */
+  public Object get(int position) {
+    return terms[position];
+  }
+
+  /**
+   * Tests if a position holds a variable.
+   * @param position {@link #SUBJECT}, {@link #PREDICATE} or {@link #OBJECT}.
+   * @return <code>true</code> if the position holds a {@link Var}.
+   */
+  public boolean isVar(int position) {
+    return terms[position] instanceof Var;
+  }
+
+  /**
+   * @return The subject: a {@link SubjectNode} or a {@link Var}.
+   */
+  public Object getSubject() {
+    return terms[SUBJECT];
+  }
+
+  /**
+   * @return The predicate: a {@link PredicateNode} or a {@link Var}.
+   */
+  public Object getPredicate() {
+    return terms[PREDICATE];
+  }
+
+  /**
+   * @return The object: an {@link ObjectNode} or a {@link Var}.
+   */
+  public Object getObject() {
+    return terms[OBJECT];
+  }
+
+  /**
+   * Gets the variables in this pattern.
+   * @return The distinct variables, in order of position.
+   */
+  public List<Var> getVars() {
+    return vars;
+  }
+
+  public boolean equals(Object o) {
+    if (!(o instanceof TriplePattern)) return false;
+    TriplePattern tp = (TriplePattern)o;
+    return terms[0].equals(tp.terms[0]) && terms[1].equals(tp.terms[1]) && terms[2].equals(tp.terms[2]);
+  }
+
+  public int hashCode() {
+    return (terms[0].hashCode() * 31 + terms[1].hashCode()) * 31 + terms[2].hashCode();
+  }
+
+  public String toString() {
+    return terms[0] + " " + terms[1] + " " + terms[2];
+  }
+
+}
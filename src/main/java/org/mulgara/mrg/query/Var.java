@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.query;
+
+/**
+ * A variable in a {@link TriplePattern}. Variables are identified by name.
+ */
+public class Var {
+
+  /** The name of the variable. */
+  private final String name;
+
+  /**
+   * Creates a variable.
+   * @param name The name of the variable, without a leading '?'.
+   */
+  public Var(String name) {
+    if (name == null) throw new IllegalArgumentException("Variables must have a name");
+    this.name = name;
+  }
+
+  /**
+   * Gets the name of this variable.
+   * @return The name, without a leading '?'.
+   */
+  public String getName() {
+    return name;
+  }
+
+  public boolean equals(Object o) {
+    return (o instanceof Var) && ((Var)o).name.equals(name);
+  }
+
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  public String toString() {
+    return "?" + name;
+  }
+
+}
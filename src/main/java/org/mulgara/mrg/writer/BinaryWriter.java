@@ -0,0 +1,532 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Node;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.vocab.uri.XSD;
+import org.mulgara.util.LexicalDateTime;
+import org.mulgara.util.Strings;
+
+/**
+ * Creates a writer for a compact binary form of a graph, which is read by
+ * {@link org.mulgara.mrg.parser.BinaryParser}. All numbers are written as unsigned variable length
+ * integers of 7 bits per byte, and all strings as a byte count followed by UTF-8 bytes.
+ * <ol>
+ * <li>The {@link #MAGIC} bytes, the {@link #VERSION} and the flags. If the {@link #DEFLATE_FLAG} is set,
+ *   then everything after the flags is compressed with {@link Deflater}.</li>
+ * <li>The namespace table: a count, then each namespace string.</li>
+ * <li>The node table: a count, then each node as a byte count and a tag byte, followed by:
+ *   <ul>
+ *   <li>{@link #URI_TAG}: the namespace index, the number of characters at the start of the name that are the
+ *       same as the previous name in that namespace, then the rest of the name as a string.</li>
+ *   <li>{@link #BNODE_TAG}: the label.</li>
+ *   <li>{@link #PLAIN_TAG}: the text.</li>
+ *   <li>{@link #LANG_TAG}: the text, then the language.</li>
+ *   <li>{@link #TYPED_TAG}: the node ID of the datatype, then the text.</li>
+ *   <li>{@link #INTEGER_TAG}: the node ID of the datatype, then the zig-zag encoded value.</li>
+ *   <li>{@link #DATE_TIME_TAG}: the node ID of the datatype, then the zig-zag encoded milliseconds, the
+ *       timezone state and the decimal places of a {@link LexicalDateTime}.</li>
+ *   </ul>
+ *   Node IDs are positions in this table, and a datatype always appears before the literals that use it.</li>
+ * <li>The triples: a count, then the subject, predicate and object IDs of each triple. Each ID is written as
+ *   a zig-zag encoded difference. Subjects and predicates are relative to the previous triple, and objects
+ *   are relative to the previous object for the same predicate.</li>
+ * </ol>
+ * Integers and dateTimes with a timezone are only written as values when this reproduces the original text exactly.
+ * Namespaces are found automatically, so registered prefixes are not used.
+ */
+public class BinaryWriter extends AbstractGraphWriter implements GraphWriter {
+
+  /** The bytes at the start of every document. */
+  public static final byte[] MAGIC = { 'M', 'R', 'G', 'B' };
+
+  /** The version of the format. */
+  public static final int VERSION = 1;
+
+  /** The flag for a compressed document. */
+  public static final int DEFLATE_FLAG = 1;
+
+  /** The tag for a URI. */
+  public static final int URI_TAG = 0;
+
+  /** The tag for a blank node. */
+  public static final int BNODE_TAG = 1;
+
+  /** The tag for a literal with no language or datatype. */
+  public static final int PLAIN_TAG = 2;
+
+  /** The tag for a literal with a language. */
+  public static final int LANG_TAG = 3;
+
+  /** The tag for a typed literal, stored as text. */
+  public static final int TYPED_TAG = 4;
+
+  /** The tag for a typed literal, stored as an integer value. */
+  public static final int INTEGER_TAG = 5;
+
+  /** The tag for an xsd:dateTime literal, stored as a value. */
+  public static final int DATE_TIME_TAG = 6;
+
+  /** The amount of data to buffer before writing to the stream. */
+  private static final int BUFFER_SIZE = 0x10000;
+
+  /** The order of nodes in the node table. URIs are first, so datatypes come before literals. */
+  private static final Comparator<Node> NODE_ORDER = new Comparator<Node>() {
+    public int compare(Node a, Node b) {
+      int c = a.getTypeId() - b.getTypeId();
+      if (c != 0) return c;
+      if (a.getTypeId() == Uri.TYPE_ID) return ((Uri)a).getURI().toString().compareTo(((Uri)b).getURI().toString());
+      if (a.getTypeId() == Literal.TYPE_ID) {
+        // text is cheaper to compare than the datatypes
+        c = ((Literal)a).getText().compareTo(((Literal)b).getText());
+        if (c != 0) return c;
+      }
+      return a.compareTo(b);
+    }
+  };
+
+  /** The ID of each node that has been seen. */
+  private final Map<Node,Integer> ids = new HashMap<Node,Integer>();
+
+  /** The nodes, in order of ID. */
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  /** The index of each namespace that has been seen. */
+  private final Map<String,Integer> namespaces = new HashMap<String,Integer>();
+
+  /** The namespaces, in order of index. */
+  private final List<String> namespaceList = new ArrayList<String>();
+
+  /** The most recently written name in each namespace. */
+  private String[] previousNames;
+
+  /** Indicates that the output is to be compressed. */
+  private final boolean deflate;
+
+  /**
+   * Creates a graph writer.
+   * @param graph The graph to be written by this writer.
+   */
+  public BinaryWriter(Graph graph) {
+    this(graph, false);
+  }
+
+  /**
+   * Creates a graph writer that can compress its output. This is slower, but is much smaller
+   * when the data is very repetitive.
+   * @param graph The graph to be written by this writer.
+   * @param deflate <code>true</code> if the output is to be compressed.
+   */
+  public BinaryWriter(Graph graph, boolean deflate) {
+    super(graph, null);
+    this.deflate = deflate;
+  }
+
+  /**
+   * Namespaces are found while writing, so there is nothing to scan for.
+   */
+  @Override
+  public void scanNamespaces() {
+    // do nothing
+  }
+
+  /**
+   * Writes the graph to a stream. The graph is read once, holding the triples as node IDs.
+   * The node table is then sorted so that similar URIs are together, and the triples are
+   * written in order of subject.
+   * @see org.mulgara.mrg.writer.GraphWriter#writeTo(java.io.OutputStream)
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    ids.clear();
+    nodes.clear();
+    namespaces.clear();
+    namespaceList.clear();
+
+    int[] spo = new int[3 * 1024];
+    int count = 0;
+    Iterator<Triple> i = graph.match((SubjectNode)null, (PredicateNode)null, (ObjectNode)null);
+    while (i.hasNext()) {
+      Triple t = i.next();
+      if (spo.length < 3 * (count + 1)) spo = Arrays.copyOf(spo, spo.length * 2);
+      spo[3 * count] = id(t.getSubject());
+      spo[3 * count + 1] = id(t.getPredicate());
+      spo[3 * count + 2] = id(t.getObject());
+      count++;
+    }
+
+    // sort the nodes, and move the triples to the new IDs
+    Node[] table = nodes.toArray(new Node[nodes.size()]);
+    Arrays.sort(table, NODE_ORDER);
+    int[] remap = new int[table.length];
+    for (int n = 0; n < table.length; n++) {
+      remap[ids.get(table[n])] = n;
+      ids.put(table[n], n);
+      if (table[n] instanceof Uri) namespace(((Uri)table[n]).getURI().toString());
+    }
+    for (int t = 0; t < 3 * count; t++) spo[t] = remap[spo[t]];
+    int[] order = orderBySubject(spo, count, table.length);
+
+    Buffer buffer = new Buffer(out);
+    buffer.bytes(MAGIC, 0, MAGIC.length);
+    buffer.varint(VERSION);
+    buffer.varint(deflate ? DEFLATE_FLAG : 0);
+    Deflater deflater = null;
+    if (deflate) {
+      buffer.flush();
+      deflater = new Deflater();
+      buffer = new Buffer(new DeflaterOutputStream(out, deflater, BUFFER_SIZE));
+    }
+
+    buffer.varint(namespaceList.size());
+    for (String ns: namespaceList) buffer.string(ns);
+    previousNames = new String[namespaceList.size()];
+
+    Buffer entry = new Buffer(null);
+    buffer.varint(table.length);
+    for (Node n: table) {
+      entry.clear();
+      encode(entry, n);
+      buffer.varint(entry.length);
+      buffer.bytes(entry.data, 0, entry.length);
+      buffer.drain();
+    }
+
+    buffer.varint(count);
+    int lastSubject = 0;
+    int lastPredicate = 0;
+    int[] lastObjects = new int[table.length];
+    for (int t: order) {
+      int s = spo[3 * t];
+      int p = spo[3 * t + 1];
+      int o = spo[3 * t + 2];
+      buffer.varint(zigzag(s - lastSubject));
+      buffer.varint(zigzag(p - lastPredicate));
+      buffer.varint(zigzag(o - lastObjects[p]));
+      lastSubject = s;
+      lastPredicate = p;
+      lastObjects[p] = o;
+      buffer.drain();
+    }
+    buffer.flush();
+    if (deflater != null) {
+      ((DeflaterOutputStream)buffer.out).finish();
+      deflater.end();
+    }
+    ids.clear();
+    nodes.clear();
+    previousNames = null;
+  }
+
+  /**
+   * Orders triples by subject ID, with a counting sort.
+   * @param spo The node IDs of the triples, in groups of three.
+   * @param count The number of triples.
+   * @param nodeCount The number of node IDs.
+   * @return The positions of the triples, in order of subject.
+   */
+  private static int[] orderBySubject(int[] spo, int count, int nodeCount) {
+    int[] start = new int[nodeCount + 1];
+    for (int t = 0; t < count; t++) start[spo[3 * t] + 1]++;
+    for (int n = 0; n < nodeCount; n++) start[n + 1] += start[n];
+    int[] order = new int[count];
+    for (int t = 0; t < count; t++) order[start[spo[3 * t]]++] = t;
+    return order;
+  }
+
+  /**
+   * Gets the ID of a node, adding it to the node table if it has not been seen.
+   * The datatype of a literal is also added to the table.
+   * @param n The node to find.
+   * @return The ID of the node.
+   */
+  private int id(Node n) {
+    Integer id = ids.get(n);
+    if (id != null) return id;
+    if (n instanceof Literal && ((Literal)n).getType() != null) id(new Uri(((Literal)n).getType()));
+    int result = nodes.size();
+    ids.put(n, result);
+    nodes.add(n);
+    return result;
+  }
+
+  /**
+   * Finds the namespace of a URI, and adds it to the namespace table if it has not been seen.
+   * @param uri The URI to get the namespace for.
+   * @return The index of the namespace.
+   */
+  private int namespace(String uri) {
+    String ns = uri.substring(0, Strings.startOfName(uri));
+    Integer index = namespaces.get(ns);
+    if (index == null) {
+      index = namespaceList.size();
+      namespaces.put(ns, index);
+      namespaceList.add(ns);
+    }
+    return index;
+  }
+
+  /**
+   * Encodes a node table entry.
+   * @param b The buffer to encode into.
+   * @param n The node to encode.
+   */
+  private void encode(Buffer b, Node n) {
+    switch (n.getTypeId()) {
+    case Uri.TYPE_ID:
+      String uri = ((Uri)n).getURI().toString();
+      int ns = namespace(uri);
+      String name = uri.substring(namespaceList.get(ns).length());
+      String previous = previousNames[ns];
+      int shared = 0;
+      if (previous != null) {
+        int max = Math.min(name.length(), previous.length());
+        while (shared < max && name.charAt(shared) == previous.charAt(shared)) shared++;
+        // don't split a surrogate pair
+        if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) shared--;
+      }
+      previousNames[ns] = name;
+      b.varint(URI_TAG);
+      b.varint(ns);
+      b.varint(shared);
+      b.string(name.substring(shared));
+      return;
+    case Bnode.TYPE_ID:
+      b.varint(BNODE_TAG);
+      b.string(n.toString());
+      return;
+    case Literal.TYPE_ID:
+      Literal l = (Literal)n;
+      if (l.getLang() != null) {
+        b.varint(LANG_TAG);
+        b.string(l.getText());
+        b.string(l.getLang());
+      } else if (l.getType() != null) {
+        encodeTyped(b, l, ids.get(new Uri(l.getType())));
+      } else {
+        b.varint(PLAIN_TAG);
+        b.string(l.getText());
+      }
+      return;
+    default:
+      throw new IllegalArgumentException("Unknown Node type: " + n);
+    }
+  }
+
+  /**
+   * Encodes a typed literal, as a value if its text can be recreated exactly.
+   * @param b The buffer to encode into.
+   * @param l The literal to encode.
+   * @param type The node ID of the datatype.
+   */
+  private static void encodeTyped(Buffer b, Literal l, int type) {
+    String text = l.getText();
+    Long value = canonicalLong(text);
+    if (value != null) {
+      b.varint(INTEGER_TAG);
+      b.varint(type);
+      b.varint(zigzag(value));
+      return;
+    }
+    if (XSD.DATE_TIME.equals(l.getType())) {
+      LexicalDateTime dt = canonicalDateTime(text);
+      if (dt != null) {
+        b.varint(DATE_TIME_TAG);
+        b.varint(type);
+        b.varint(zigzag(dt.getMillis()));
+        b.put(dt.encodeTimezoneState());
+        b.put(dt.getDecimalPlaces());
+        return;
+      }
+    }
+    b.varint(TYPED_TAG);
+    b.varint(type);
+    b.string(text);
+  }
+
+  /**
+   * Reads a string as an integer, if it is in the form that {@link Long#toString(long)} creates.
+   * @param text The text to read.
+   * @return The value, or <code>null</code> if the text is not a canonical integer.
+   */
+  private static Long canonicalLong(String text) {
+    int length = text.length();
+    if (length == 0 || length > 20) return null;
+    char c = text.charAt(0);
+    if ((c < '0' || c > '9') && c != '-') return null;
+    try {
+      long value = Long.parseLong(text);
+      return Long.toString(value).equals(text) ? value : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads a string as a dateTime, if the dateTime is written back with the same text
+   * and its timezone can be encoded.
+   * @param text The text to read.
+   * @return The dateTime, or <code>null</code> if the text is not reproduced exactly.
+   */
+  private static LexicalDateTime canonicalDateTime(String text) {
+    try {
+      LexicalDateTime dt = LexicalDateTime.parseDateTime(text);
+      // local times depend on the default timezone of the reader
+      if (dt.isLocal() || !dt.toString().equals(text)) return null;
+      // offsets that are not in the timezone table cannot be encoded
+      dt.encodeTimezoneState();
+      return dt;
+    } catch (Exception e) {
+      // invalid or unrepresentable, so keep the text
+      return null;
+    }
+  }
+
+  /**
+   * Maps a signed value to an unsigned one, so small negative numbers are encoded in few bytes.
+   * @param value The value to map.
+   * @return The value, with the sign moved into the lowest bit.
+   */
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * A growable byte buffer that can be drained to a stream.
+   */
+  private static class Buffer {
+
+    /** The stream to drain to, or <code>null</code> if this buffer only accumulates. */
+    final OutputStream out;
+
+    /** The buffered data. */
+    byte[] data = new byte[BUFFER_SIZE];
+
+    /** The amount of data in the buffer. */
+    int length = 0;
+
+    /**
+     * Creates a buffer.
+     * @param out The stream to drain to, or <code>null</code>.
+     */
+    Buffer(OutputStream out) {
+      this.out = out;
+    }
+
+    /**
+     * Reserves space at the end of the buffer.
+     * @param size The number of bytes to reserve.
+     * @return The position of the reserved space.
+     */
+    int reserve(int size) {
+      if (length + size > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+      int result = length;
+      length += size;
+      return result;
+    }
+
+    /**
+     * Appends an unsigned variable length integer.
+     * @param value The value to append.
+     */
+    void varint(long value) {
+      reserve(10);
+      length -= 10;
+      while ((value & ~0x7FL) != 0) {
+        data[length++] = (byte)((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      data[length++] = (byte)value;
+    }
+
+    /**
+     * Appends a single byte.
+     * @param b The byte to append.
+     */
+    void put(byte b) {
+      data[reserve(1)] = b;
+    }
+
+    /**
+     * Appends a section of a byte array.
+     * @param b The array to append from.
+     * @param offset The start of the data to append.
+     * @param len The number of bytes to append.
+     */
+    void bytes(byte[] b, int offset, int len) {
+      System.arraycopy(b, offset, data, reserve(len), len);
+    }
+
+    /**
+     * Appends a string as a byte count and its UTF-8 bytes.
+     * @param s The string to append.
+     */
+    void string(String s) {
+      byte[] b = Strings.toUtf8Bytes(s);
+      varint(b.length);
+      bytes(b, 0, b.length);
+    }
+
+    /**
+     * Removes all the data.
+     */
+    void clear() {
+      length = 0;
+    }
+
+    /**
+     * Writes out the data if the buffer is full.
+     * @throws IOException If the stream cannot be written to.
+     */
+    void drain() throws IOException {
+      if (length >= BUFFER_SIZE) {
+        out.write(data, 0, length);
+        length = 0;
+      }
+    }
+
+    /**
+     * Writes out all the data.
+     * @throws IOException If the stream cannot be written to.
+     */
+    void flush() throws IOException {
+      out.write(data, 0, length);
+      out.flush();
+      length = 0;
+    }
+  }
+
+}
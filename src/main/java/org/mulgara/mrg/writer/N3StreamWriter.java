@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.writer;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Node;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.Uri;
+import org.mulgara.util.Strings;
+
+/**
+ * Writes a stream of triples as N3, as they arrive. Each triple is written on a single line,
+ * and nothing is buffered beyond the output stream, so a graph of any size can be written
+ * in constant memory. This makes it suitable as the destination of a parser.
+ * Prefixes are written when they are declared, and URIs are abbreviated with any prefixes seen so far.
+ * Without any prefixes the output is also valid N-Triples.
+ */
+public class N3StreamWriter implements TripleSink {
+
+  private static final String UTF8 = "UTF-8";
+
+  /** The destination for the data. */
+  private final PrintStream out;
+
+  /** A map of prefixes to their current namespaces. */
+  private final Map<String,String> prefixes = new HashMap<String,String>();
+
+  /** A map of namespaces to their prefixes. Only holds namespaces that a prefix is still bound to. */
+  private final Map<String,String> rns = new HashMap<String,String>();
+
+  /** The number of triples written. */
+  private long triples = 0;
+
+  /**
+   * Creates a writer with no initial prefixes.
+   * @param out The stream to write to.
+   */
+  public N3StreamWriter(OutputStream out) {
+    this(out, Collections.<String,URI>emptyMap());
+  }
+
+  /**
+   * Creates a writer.
+   * @param out The stream to write to.
+   * @param ns The namespaces to use while writing. These are written when the stream is started.
+   */
+  public N3StreamWriter(OutputStream out, Map<String,URI> ns) {
+    try {
+      this.out = new PrintStream(new BufferedOutputStream(out), false, UTF8);
+    } catch (UnsupportedEncodingException e) {
+      throw new Error("Unable to load UTF-8 encoding", e);
+    }
+    for (Map.Entry<String,URI> e: ns.entrySet()) bind(e.getKey(), e.getValue().toString());
+  }
+
+  /**
+   * Writes the initial namespaces.
+   */
+  public void start() {
+    for (Map.Entry<String,String> n: rns.entrySet()) writePrefix(n.getValue(), n.getKey());
+  }
+
+  /**
+   * Writes a prefix declaration, and uses it for all following URIs.
+   * @param prefix The prefix being declared.
+   * @param namespace The namespace the prefix maps to.
+   */
+  public void prefix(String prefix, String namespace) {
+    if (prefix.equals(rns.get(namespace))) return;
+    bind(prefix, namespace);
+    writePrefix(prefix, namespace);
+  }
+
+  /**
+   * Writes a triple.
+   * @param s The subject of the triple.
+   * @param p The predicate of the triple.
+   * @param o The object of the triple.
+   */
+  public void triple(SubjectNode s, PredicateNode p, ObjectNode o) {
+    StringBuilder line = new StringBuilder();
+    format(line, s).append(' ');
+    format(line, p).append(' ');
+    format(line, o).append(" .\n");
+    out.print(line);
+    triples++;
+  }
+
+  /**
+   * Flushes all data to the output stream. The stream is not closed.
+   */
+  public void end() {
+    out.flush();
+  }
+
+  /**
+   * Tests if the output stream has reported an error, in the same way as {@link PrintStream#checkError()}.
+   * @return <code>true</code> if there was an error writing to the stream.
+   */
+  public boolean checkError() {
+    return out.checkError();
+  }
+
+  /**
+   * Gets the number of triples written.
+   * @return The number of calls to {@link #triple(SubjectNode, PredicateNode, ObjectNode)}.
+   */
+  public long getWrittenRows() {
+    return triples;
+  }
+
+  /**
+   * Records a prefix, removing any namespace that the prefix was previously bound to,
+   * so that URIs in the old namespace are no longer abbreviated with it.
+   * @param prefix The prefix.
+   * @param namespace The namespace for the prefix.
+   */
+  private void bind(String prefix, String namespace) {
+    String old = prefixes.put(prefix, namespace);
+    if (old != null && prefix.equals(rns.get(old))) rns.remove(old);
+    rns.put(namespace, prefix);
+  }
+
+  /**
+   * Writes a prefix declaration.
+   * @param prefix The prefix.
+   * @param namespace The namespace for the prefix.
+   */
+  private void writePrefix(String prefix, String namespace) {
+    out.print(String.format("@prefix %s: <%s> .\n", prefix, namespace));
+  }
+
+  /**
+   * Formats a node into a buffer.
+   * @param b The buffer to append to.
+   * @param n The node to format.
+   * @return The buffer.
+   */
+  private StringBuilder format(StringBuilder b, Node n) {
+    switch (n.getTypeId()) {
+    case Uri.TYPE_ID: return formatUri(b, ((Uri)n).getURI().toString());
+    case Bnode.TYPE_ID: return b.append(n.toString());
+    case Literal.TYPE_ID:
+      Literal l = (Literal)n;
+      b.append('"').append(N3Writer.n3escape(l.getText())).append('"');
+      if (l.getLang() != null) b.append('@').append(l.getLang());
+      else if (l.getType() != null) formatUri(b.append("^^"), l.getType().toString());
+      return b;
+    }
+    throw new Error("Unknown Node type: " + n);
+  }
+
+  /**
+   * Formats a URI as a prefixed name if it has a known namespace, or in full otherwise.
+   * @param b The buffer to append to.
+   * @param uri The URI to format.
+   * @return The buffer.
+   */
+  private StringBuilder formatUri(StringBuilder b, String uri) {
+    if (!rns.isEmpty()) {
+      int split = Strings.startOfName(uri);
+      String prefix = rns.get(uri.substring(0, split));
+      if (prefix != null) return b.append(prefix).append(':').append(uri, split, uri.length());
+    }
+    return b.append('<').append(uri).append('>');
+  }
+
+}
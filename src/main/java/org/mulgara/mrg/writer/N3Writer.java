@@ -179,7 +179,7 @@ public class N3Writer extends AbstractGraphWriter implements GraphWriter {
     String lang = l.getLang();
     URI type = l.getType();
     if (lang != null) label.append("@").append(lang);
-    if (type != null) label.append("^^").append(type);
+    if (type != null) label.append("^^").append(formatUri(new Uri(type)));
     return label.toString();
   }
   
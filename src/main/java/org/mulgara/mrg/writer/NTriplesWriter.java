@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+
+/**
+ * Creates a writer for N-Triples output. Each triple is written on its own line, with all URIs
+ * in full, so namespaces are never used. Triples are streamed from
+ * {@link Graph#match(SubjectNode, PredicateNode, ObjectNode)}, so the graph is never copied.
+ */
+public class NTriplesWriter extends AbstractGraphWriter implements GraphWriter {
+
+  /**
+   * Creates a graph writer.
+   * @param graph The graph to be written by this writer.
+   */
+  public NTriplesWriter(Graph graph) {
+    super(graph, null);
+  }
+
+  /**
+   * N-Triples does not use namespaces, so there is nothing to scan for.
+   */
+  @Override
+  public void scanNamespaces() {
+    // do nothing
+  }
+
+  /**
+   * @see org.mulgara.mrg.writer.GraphWriter#writeTo(java.io.OutputStream)
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    // with no prefixes, the stream writer emits N-Triples
+    N3StreamWriter writer = new N3StreamWriter(out);
+    writer.start();
+    Iterator<Triple> i = graph.match((SubjectNode)null, (PredicateNode)null, (ObjectNode)null);
+    while (i.hasNext()) {
+      Triple t = i.next();
+      writer.triple(t.getSubject(), t.getPredicate(), t.getObject());
+    }
+    writer.end();
+    if (writer.checkError()) throw new IOException("Error writing N-Triples");
+  }
+
+}
@@ -18,16 +18,17 @@ package org.mulgara.util;
 
 import java.text.ParseException;
 import java.nio.ByteBuffer;
-import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import static org.joda.time.DateTimeZone.UTC;
 
 /**
  * This class represents a dateTime value, preserving its lexical representation exactly.
  * It stores the value of the dateTime in the canonical form, but also contains values which
  * allow the preservation of the non-canonical format.
+ * <p>
+ * Parsing and formatting work directly on the characters, with calendar arithmetic on the
+ * proleptic Gregorian calendar, so no intermediate objects are created. Formatting can append
+ * to a caller's {@link StringBuilder} or {@link ByteBuffer}.
+ * </p>
  *
  * @author Paula Gearon
  * &copy; 2008 <a href="http://www.fedora-commons.org/">Fedora Commons</a>
@@ -46,15 +47,9 @@ public class LexicalDateTime {
   /** The character for separating the milliseconds from the seconds */
   private static final char MILLI_SEPARATOR = '.';
 
-  /** The string form for the character separating the milliseconds from the seconds */
-  private static final String MILLI_SEPARATOR_STR = ".";
-
   /** The character for indicating the UTC timezone (Zulu time). */
   private static final char ZULU = 'Z';
 
-  /** The string form for the character indicating the UTC timezone (Zulu time). */
-  private static final String ZULU_STR = "Z";
-
   /** The character for indicating a positive timezone offset */
   private static final char POS_TZ = '+';
 
@@ -64,24 +59,9 @@ public class LexicalDateTime {
   /** The hour value for midnight */
   private static final int MIDNIGHT = 24;
 
-  /** The string representation of midnight when the midnight flag is set */
-  private static final String MIDNIGHT_STR = "24:00:00";
-
   /** Standard start of parsing error messages */
   private static final String BAD_FORMAT = "Bad format in ";
 
-  /** Output format for the dateTime */
-  private static final String LEXICAL_PATTERN = "yyyy-MM-dd'T'HH:mm:ss";
-
-  /** Output format for the date portion of the dateTime */
-  private static final String SHORT_PATTERN = "yyyy-MM-dd'T'";
-
-  /** The formatter used for converting the dateTime into a lexical form */
-  private static final DateTimeFormatter MAIN_FORMATTER = DateTimeFormat.forPattern(LEXICAL_PATTERN);
-
-  /** A supplemantary formatter for outputting the date, when the time has to be represented in non-canonical form */
-  private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern(SHORT_PATTERN);
-
   /** The number of milliseconds in a second */
   private static final int MILLIS = 1000;
 
@@ -91,6 +71,32 @@ public class LexicalDateTime {
   /** The number of milliseconds in an hour */
   private static final long MILLIS_IN_HOUR = MILLIS_IN_MINUTE * 60;
 
+  /** The number of milliseconds in a day */
+  private static final long MILLIS_IN_DAY = MILLIS_IN_HOUR * 24;
+
+  /** The earliest year that can be represented in milliseconds, as used by Joda time */
+  private static final long MIN_YEAR = -292275054L;
+
+  /** The latest year that can be represented in milliseconds, as used by Joda time */
+  private static final long MAX_YEAR = 292278993L;
+
+  /** The number of days in a 400 year cycle of the Gregorian calendar */
+  private static final int DAYS_IN_ERA = 146097;
+
+  /** The number of days from 0000-03-01, the start of the calendar used for day arithmetic, to 1970-01-01 */
+  private static final int EPOCH_DAY_OFFSET = 719468;
+
+  /** The longest lexical form: sign, 19 digit year, "-MM-ddThh:mm:ss", ".sss" and "+hh:mm" */
+  private static final int MAX_LENGTH = 1 + 19 + 15 + 4 + 6;
+
+  /** A buffer for each thread to format into. */
+  private static final ThreadLocal<char[]> SCRATCH = new ThreadLocal<char[]>() {
+    protected char[] initialValue() { return new char[MAX_LENGTH]; }
+  };
+
+  /** The number of days in each month of a non-leap year */
+  private static final int[] MONTH_DAYS = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
   /** The bit used to encode the localFlag */
   private static final byte LOCAL_BIT = 0x02;
 
@@ -127,9 +133,6 @@ public class LexicalDateTime {
   /** Indicates ZULU time, which is equivalent to +00:00. */
   private final boolean zuluFlag;
 
-  /** A DateTime corresponding to this object. Only created if needed. */
-  private DateTime cachedDateTime = null;
-
   /**
    * This constructor is used to set each field explicitly, when all such information is available.
    * No checking is performed on the consistency of the millisecond value, though some minimal testing is done on flags.
@@ -161,41 +164,6 @@ public class LexicalDateTime {
     testTimezoneConsistency();
   }
 
-  /**
-   * Internal constructor used with a dateTime object, and parsed fields.
-   * No checking is performed on the consistency of the millisecond value, though some minimal testing is done on flags.
-   * Whether tested or not, the following should hold:
-   * <ul>
-   * <li>if <code>isMidnight</code> is set, then <code>millis</code> plus the timezone offset must be a multiple
-   *     of 24 hours.</li>
-   * <li>if <code>isLocalTz</code> is set, then <code>tzHours</code> and <code>tzMinutes</code> should be 0,
-   *     and <code>isZulu</code> must be false.</li>
-   * <li>if <code>isZulu</code> is set, then <code>tzHours</code> and <code>tzMinutes</code> must be 0.</li>
-   * <li><code>millis</code> % 10^(3 - milliPlaces) == 0</li>
-   * <li>The <code>tzHours</code> and <code>tzMinutes</code> values should correspond to the values in the
-   *     <code>dateTime</code> field.</li>
-   * </ul>
-   * @param dateTime The dateTime object representing the time.
-   * @param tzHours The hour offset for the timezone.
-   * @param tzMinutes The minute offset for the timezone.
-   * @param isMidnight If the non-canonical form for midnight is used. "24:00:00"
-   * @param milliPlaces The number of decimal places used for representing millisecds as fractions of a second.
-   * @param isLocalTz Indicates no timezone information, so use the local default.
-   * @param isZulu Indicates that the timezone is "Zulu". This is equivalent to 00:00 and is represented as "Z".
-   * @throws IllegalArgumentException if the <code>isZulu</code> flag conflicts with the timezone values or the offsets.
-   */
-  private LexicalDateTime(DateTime dateTime, int tzHours, int tzMinutes, boolean isMidnight, byte milliPlaces, boolean isLocalTz, boolean isZulu) {
-    this.millis = dateTime.getMillis();
-    this.tzHours = tzHours;
-    this.tzMinutes = tzMinutes;
-    this.midnight = isMidnight;
-    this.cachedDateTime = dateTime;
-    this.milliPlaces = milliPlaces;
-    this.localFlag = isLocalTz;
-    this.zuluFlag = isZulu;
-    testTimezoneConsistency();
-  }
-
   /**
    * Convenience constructor which allows easy construction of a LexicalDateTime using the milliseconds since the epoch.
    * @param millis Milliseconds since the epoch.
@@ -206,7 +174,6 @@ public class LexicalDateTime {
     tzHours = (int)(offset / MILLIS_IN_HOUR);
     tzMinutes = (int)(offset % MILLIS_IN_HOUR) / MILLIS_IN_MINUTE;
     midnight = false;
-    cachedDateTime = null;
     localFlag = true;
     zuluFlag = false;
     milliPlaces = minimumPlaces(millis);
@@ -311,38 +278,105 @@ public class LexicalDateTime {
 
   /** Return a lexical representation of this dateTime. */
   public String toString() {
-    if (cachedDateTime == null) {
-      DateTimeZone dtz;
-      dtz = (localFlag) ? null : DateTimeZone.forOffsetHoursMinutes(tzHours, tzMinutes);
-      cachedDateTime = new DateTime(millis, dtz);
+    return appendTo(new StringBuilder(32)).toString();
+  }
+
+  /**
+   * Appends the lexical representation of this dateTime to a buffer.
+   * @param sb The buffer to append to.
+   * @return The buffer.
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    char[] chars = SCRATCH.get();
+    int len = format(chars);
+    return sb.append(chars, 0, len);
+  }
+
+  /**
+   * Writes the lexical representation of this dateTime into a buffer, as ASCII bytes.
+   * This starts at the buffer's position, and moves the position past the text.
+   * @param bb The buffer to write to.
+   * @return The buffer.
+   * @throws java.nio.BufferOverflowException If the text does not fit in the remaining space.
+   */
+  public ByteBuffer appendTo(ByteBuffer bb) {
+    char[] chars = SCRATCH.get();
+    int len = format(chars);
+    for (int i = 0; i < len; i++) bb.put((byte)chars[i]);
+    return bb;
+  }
+
+  /**
+   * Writes the lexical representation of this dateTime into an array.
+   * @param out The array to write to. Must be at least {@link #MAX_LENGTH} long.
+   * @return The number of characters written.
+   */
+  private int format(char[] out) {
+    long offset = localFlag ? DateTimeZone.getDefault().getOffset(millis) : offsetMillis(tzHours, tzMinutes);
+    long local = millis + offset;
+    long day = floorDiv(local, MILLIS_IN_DAY);
+    int msOfDay = (int)(local - day * MILLIS_IN_DAY);
+    // midnight is shown as the end of the previous day
+    if (midnight) day--;
+
+    // convert the day number into a civil date
+    long z = day + EPOCH_DAY_OFFSET;
+    long era = floorDiv(z, DAYS_IN_ERA);
+    int doe = (int)(z - era * DAYS_IN_ERA);
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int dom = doy - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+    int pos = 0;
+    if (year < 0) {
+      out[pos++] = NEG_TZ;
+      year = -year;
     }
-    StringBuilder result;
-    if (!midnight) {
-      result = new StringBuilder(MAIN_FORMATTER.print(cachedDateTime));
-      if (milliPlaces > 0) {
-        result.append(MILLI_SEPARATOR_STR);
-        int place = MILLIS;
-        long fraction = millis;
-        if (fraction < 0) fraction = fraction % place + place;
-        for (int m = 0; m < milliPlaces; m++) {
-          fraction = fraction % place;
-          place /= 10;
-          result.append(fraction / place);
-        }
-      }
+    int width = 4;
+    for (long y = year / 10000; y > 0; y /= 10) width++;
+    pos = digits(out, pos, year, width);
+    out[pos++] = DATE_SEPARATOR;
+    pos = digits(out, pos, month, 2);
+    out[pos++] = DATE_SEPARATOR;
+    pos = digits(out, pos, dom, 2);
+    out[pos++] = DATE_TIME_SEPARATOR;
+    if (midnight) {
+      pos = digits(out, pos, MIDNIGHT, 2);
+      out[pos++] = TIME_SEPARATOR;
+      pos = digits(out, pos, 0, 2);
+      out[pos++] = TIME_SEPARATOR;
+      pos = digits(out, pos, 0, 2);
     } else {
-      result = new StringBuilder(DATE_FORMATTER.print(cachedDateTime.plusDays(-1)));
-      result.append(MIDNIGHT_STR);
-      if (milliPlaces > 0) {
-        result.append(MILLI_SEPARATOR_STR);
-        for (int i = 0; i < milliPlaces; i++) result.append("0");
+      pos = digits(out, pos, (int)(msOfDay / MILLIS_IN_HOUR), 2);
+      out[pos++] = TIME_SEPARATOR;
+      pos = digits(out, pos, (msOfDay / MILLIS_IN_MINUTE) % 60, 2);
+      out[pos++] = TIME_SEPARATOR;
+      pos = digits(out, pos, (msOfDay / MILLIS) % 60, 2);
+    }
+    if (milliPlaces > 0) {
+      out[pos++] = MILLI_SEPARATOR;
+      int fraction = midnight ? 0 : msOfDay % MILLIS;
+      int place = MILLIS;
+      for (int m = 0; m < milliPlaces; m++) {
+        fraction = fraction % place;
+        place /= 10;
+        out[pos++] = (char)('0' + (place == 0 ? 0 : fraction / place));
       }
     }
     if (!localFlag) {
-      if (zuluFlag) result.append(ZULU_STR);
-      else result.append(String.format("%+03d:%02d", tzHours, tzMinutes));
+      if (zuluFlag) {
+        out[pos++] = ZULU;
+      } else {
+        out[pos++] = tzHours < 0 ? NEG_TZ : POS_TZ;
+        pos = digits(out, pos, Math.abs(tzHours), 2);
+        out[pos++] = TIME_SEPARATOR;
+        pos = digits(out, pos, tzMinutes, 2);
+      }
     }
-    return result.toString();
+    return pos;
   }
 
   /**
@@ -353,13 +387,31 @@ public class LexicalDateTime {
    * @throws ParseException If a character that doesn't match the above pattern is discovered.
    */
   public static LexicalDateTime parseDateTime(String dt) throws ParseException {
+    return parseDateTime((CharSequence)dt);
+  }
+
+  /**
+   * Parse a dateTime from a sequence of characters. This is scanned once, and no intermediate
+   * objects are created. It <strong>must</strong> be of the form:
+   * ('-')? yyyy '-' MM '-' dd 'T' hh ':' mm ':' ss ( '.' s+ )? ( ( ('+'|'-')? hh ':' mm ) | 'Z' )?
+   * @param dt The characters to parse.
+   * @return a new LexcalDateTime value.
+   * @throws ParseException If a character that doesn't match the above pattern is discovered.
+   * @throws IllegalArgumentException If the text is too short, or a field is out of range.
+   */
+  public static LexicalDateTime parseDateTime(CharSequence dt) throws ParseException {
     int pos = 0;
     try {
       boolean negative = dt.charAt(pos) == '-';
       if (negative) pos++;
-      int year = d(dt, pos++) * 1000 + d(dt, pos++) * 100 + d(dt, pos++) * 10 + d(dt, pos++);
-      while (dt.charAt(pos) != DATE_SEPARATOR) year = year * 10 + d(dt, pos++);
+      long year = d(dt, pos++) * 1000 + d(dt, pos++) * 100 + d(dt, pos++) * 10 + d(dt, pos++);
+      while (dt.charAt(pos) != DATE_SEPARATOR) {
+        year = year * 10 + d(dt, pos++);
+        // already out of range, so stop before the value can overflow
+        if (year > MAX_YEAR - MIN_YEAR) break;
+      }
       if (negative) year = -year;
+      checkRange("year", year, MIN_YEAR, MAX_YEAR);
       if (dt.charAt(pos++) != DATE_SEPARATOR) throw new ParseException(BAD_FORMAT + "date: " + dt, pos - 1);
       int month = d(dt, pos++) * 10 + d(dt, pos++);
       if (dt.charAt(pos++) != DATE_SEPARATOR) throw new ParseException(BAD_FORMAT + "date: " + dt, pos - 1);
@@ -381,8 +433,8 @@ public class LexicalDateTime {
           int place = MILLIS / 10;
           int digit;
           while (isDecimal((digit = dt.charAt(++pos) - '0'))) {
+            if (++milliPlaces > 3) throw new ParseException(BAD_FORMAT + "milliseconds: " + dt, pos);
             millisecs += digit * place;
-            if (milliPlaces++ > 3) throw new ParseException(BAD_FORMAT + "milliseconds: " + dt, pos);
             place /= 10;
             if (pos == lastPos) {
               pos++;
@@ -398,34 +450,54 @@ public class LexicalDateTime {
         hour = 0;
       }
       if (midnightFlag && (minute > 0 || second > 0 || millisecs > 0)) throw new ParseException(BAD_FORMAT + "time: " + dt, pos);
+      checkRange("monthOfYear", month, 1, 12);
+      checkRange("dayOfMonth", day, 1, daysInMonth(year, month));
+      checkRange("hourOfDay", hour, 0, 23);
+      checkRange("minuteOfHour", minute, 0, 59);
+      checkRange("secondOfMinute", second, 0, 59);
   
       boolean local = false;
       int tzHour = 0;
       int tzMinute = 0;
       boolean zuluFlag = false;
-      DateTimeZone timezone = null;
       if (pos <= lastPos) {
         char tz = dt.charAt(pos++);
         if (tz == ZULU) {
           if (pos != lastPos + 1) throw new ParseException(BAD_FORMAT + "timezone: " + dt, pos);
-          timezone = UTC;
           zuluFlag = true;
         } else {
           if (pos != lastPos - 4 || (tz != NEG_TZ && tz != POS_TZ)) throw new ParseException(BAD_FORMAT + "timezone: " + dt, pos);
           tzHour = d(dt, pos++) * 10 + d(dt, pos++);
           if (dt.charAt(pos++) != TIME_SEPARATOR) throw new ParseException(BAD_FORMAT + "timezone: " + dt, pos - 1);
           tzMinute = d(dt, pos++) * 10 + d(dt, pos++);
+          checkRange("hoursOffset", tzHour, 0, 23);
+          checkRange("minutesOffset", tzMinute, 0, 59);
           if (tz == NEG_TZ) tzHour = -tzHour;
-          timezone = DateTimeZone.forOffsetHoursMinutes(tzHour, tzMinute);
         }
       } else {
         local = true;
       }
   
-      DateTime dateTime = new DateTime(year, month, day, hour, minute, second, millisecs, timezone);
-      if (midnightFlag) dateTime = dateTime.plusDays(1);
-      return new LexicalDateTime(dateTime, tzHour, tzMinute, midnightFlag, milliPlaces, local, zuluFlag);
-    } catch (StringIndexOutOfBoundsException e) {
+      long localMillis = daysFromCivil(year, month, day) * MILLIS_IN_DAY
+          + hour * MILLIS_IN_HOUR + minute * MILLIS_IN_MINUTE + second * MILLIS + millisecs;
+      long offset;
+      if (local) {
+        DateTimeZone zone = DateTimeZone.getDefault();
+        offset = zone.getOffsetFromLocal(localMillis);
+        // local times skipped by a daylight savings change do not exist
+        if (zone.getOffset(localMillis - offset) != offset) {
+          throw new IllegalArgumentException("Illegal local time due to time zone offset transition: " + dt);
+        }
+        if (midnightFlag) {
+          localMillis += MILLIS_IN_DAY;
+          offset = zone.getOffsetFromLocal(localMillis);
+        }
+      } else {
+        offset = offsetMillis(tzHour, tzMinute);
+        if (midnightFlag) localMillis += MILLIS_IN_DAY;
+      }
+      return new LexicalDateTime(localMillis - offset, tzHour, tzMinute, midnightFlag, milliPlaces, local, zuluFlag);
+    } catch (IndexOutOfBoundsException e) {
       throw new IllegalArgumentException(BAD_FORMAT + "date: " + dt);
     }
   }
@@ -463,9 +535,9 @@ public class LexicalDateTime {
    * @return The extracted digit.
    * @throws ParseException If the character to be extracted is not a decimal digit.
    */
-  private static int d(String str, int i) throws ParseException {
+  private static int d(CharSequence str, int i) throws ParseException {
     int d = str.charAt(i) - '0';
-    if (d >= 10 || d < 0) throw new ParseException("Unexpected character: " + Character.toString(str.charAt(i)) + ". Expected numeric digit.", i);
+    if (d >= 10 || d < 0) throw new ParseException("Unexpected character: " + str.charAt(i) + ". Expected numeric digit.", i);
     return d;
   }
 
@@ -494,4 +566,85 @@ public class LexicalDateTime {
     }
     return p;
   }
+
+  /**
+   * Calculates the offset of a timezone, in milliseconds. When the hours are negative, the minutes
+   * are also subtracted.
+   * @param hours The hours of the offset.
+   * @param minutes The minutes of the offset. Always positive.
+   * @return The offset from UTC in milliseconds.
+   */
+  private static long offsetMillis(int hours, int minutes) {
+    long m = (hours < 0) ? hours * 60L - minutes : hours * 60L + minutes;
+    return m * MILLIS_IN_MINUTE;
+  }
+
+  /**
+   * Calculates the number of days from the epoch to a date in the proleptic Gregorian calendar.
+   * @param year The year. Year 0 is 1 BCE.
+   * @param month The month, from 1 to 12.
+   * @param day The day of the month, from 1.
+   * @return The number of days since 1970-01-01.
+   */
+  private static long daysFromCivil(long year, int month, int day) {
+    // count years from March, so the leap day is at the end of the year
+    long y = month <= 2 ? year - 1 : year;
+    long era = floorDiv(y, 400);
+    int yoe = (int)(y - era * 400);
+    int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * DAYS_IN_ERA + doe - EPOCH_DAY_OFFSET;
+  }
+
+  /**
+   * Gets the number of days in a month.
+   * @param year The year of the month.
+   * @param month The month, from 1 to 12.
+   * @return The number of days in the month.
+   */
+  private static int daysInMonth(long year, int month) {
+    if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) return 29;
+    return MONTH_DAYS[month - 1];
+  }
+
+  /**
+   * Tests that a field of a dateTime is in range.
+   * @param field The name of the field.
+   * @param value The value of the field.
+   * @param min The smallest allowed value.
+   * @param max The largest allowed value.
+   * @throws IllegalArgumentException If the value is not in range.
+   */
+  private static void checkRange(String field, long value, long min, long max) {
+    if (value < min || value > max) {
+      throw new IllegalArgumentException("Value " + value + " for " + field + " must be in the range [" + min + "," + max + "]");
+    }
+  }
+
+  /**
+   * Divides, rounding towards negative infinity.
+   * @param x The dividend.
+   * @param y The divisor. Must be positive.
+   * @return The largest integer that is less than or equal to x/y.
+   */
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y < 0) ? q - 1 : q;
+  }
+
+  /**
+   * Writes a number as decimal digits, with leading zeros.
+   * @param out The array to write to.
+   * @param pos The position to write at.
+   * @param value The number to write. Must not be negative.
+   * @param width The number of digits to write.
+   * @return The position after the digits.
+   */
+  private static int digits(char[] out, int pos, long value, int width) {
+    for (int i = pos + width - 1; i >= pos; i--) {
+      out[i] = (char)('0' + value % 10);
+      value /= 10;
+    }
+    return pos + width;
+  }
 }
@@ -47,6 +47,24 @@ public class Strings {
   }
 
 
+  /**
+   * Converts a section of a UTF8 byte array to a string.
+   * Any problems are emitted as an InternalError instead of an Exception.
+   * @param bytes The array containing the UTF8 data.
+   * @param offset The start of the data in the array.
+   * @param length The number of bytes to convert.
+   * @return The decoded string.
+   * @throws InternalError If UTF-8 decoding fails.
+   */
+  public static final String fromUtf8Bytes(byte[] bytes, int offset, int length) {
+    try {
+      return new String(bytes, offset, length, UTF8);
+    } catch (UnsupportedEncodingException e) {
+      throw new InternalError("Unable to decode with: " + UTF8);
+    }
+  }
+
+
   /**
    * Converts a string of hexadecimal characters into a byte array.
    * This is the inverse operation to {@link #toHexString}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.mulgara.mrg.ConcurrentGraph;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Triple;
+
+/**
+ * Unit test for the concurrent graph.
+ */
+public class ConcurrentGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public ConcurrentGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new ConcurrentGraphTest("testCreate"));
+    tests.addTest(new ConcurrentGraphTest("testProps"));
+    tests.addTest(new ConcurrentGraphTest("testValues"));
+    tests.addTest(new ConcurrentGraphTest("testValue"));
+    tests.addTest(new ConcurrentGraphTest("testList"));
+    tests.addTest(new ConcurrentGraphTest("testSubject"));
+    tests.addTest(new ConcurrentGraphTest("testMerge"));
+    tests.addTest(new ConcurrentGraphTest("testUnion"));
+    tests.addTest(new ConcurrentGraphTest("testMatch"));
+    tests.addTest(new ConcurrentGraphTest("testSubgraph"));
+    tests.addTest(new ConcurrentGraphTest("testThreads"));
+    return tests;
+  }
+
+  /**
+   * Test that readers can scan while several writers insert and delete.
+   */
+  public void testThreads() throws Exception {
+    final ConcurrentGraph graph = (ConcurrentGraph)getGraph(getTriples());
+    final int writers = 4;
+    final int count = 2000;
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int w = 0; w < writers; w++) {
+      final int id = w;
+      threads.add(new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < count; i++) {
+              Triple t = new Triple(Uri.create("ex:s" + (i % 13)), Uri.create("ex:p" + (i % 3)), Uri.create("ex:o" + id + "_" + i));
+              assertTrue(graph.insert(t));
+              // remove every second triple again
+              if (i % 2 == 1) assertTrue(graph.delete(t));
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    for (int r = 0; r < 2; r++) {
+      threads.add(new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 50; i++) {
+              for (Iterator<Triple> it = graph.match(null, null, null); it.hasNext(); ) assertNotNull(it.next());
+              for (Iterator<Triple> it = graph.match(null, Uri.create("ex:p1"), null); it.hasNext(); ) assertNotNull(it.next());
+              assertTrue(graph.isAsserted(fred, knows, barney));
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      });
+    }
+    for (Thread t: threads) t.start();
+    for (Thread t: threads) t.join();
+    if (failure.get() != null) throw new Exception(failure.get());
+
+    assertEquals(getTriples().size() + writers * count / 2, graph.size());
+    int found = 0;
+    for (Iterator<Triple> it = graph.match(null, null, Uri.create("ex:o2_10")); it.hasNext(); it.next()) found++;
+    assertEquals(1, found);
+    found = 0;
+    for (Iterator<Triple> it = graph.match(null, Uri.create("ex:p0"), null); it.hasNext(); it.next()) found++;
+    int expected = 0;
+    for (int i = 0; i < count; i += 2) if (i % 3 == 0) expected++;
+    assertEquals(expected * writers, found);
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new ConcurrentGraph(triples);
+  }
+}
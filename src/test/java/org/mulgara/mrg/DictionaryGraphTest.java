@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.mulgara.mrg.DictionaryGraph;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Triple;
+
+/**
+ * Unit test for the dictionary encoded graph.
+ */
+public class DictionaryGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public DictionaryGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new DictionaryGraphTest("testCreate"));
+    tests.addTest(new DictionaryGraphTest("testProps"));
+    tests.addTest(new DictionaryGraphTest("testValues"));
+    tests.addTest(new DictionaryGraphTest("testValue"));
+    tests.addTest(new DictionaryGraphTest("testList"));
+    tests.addTest(new DictionaryGraphTest("testSubject"));
+    tests.addTest(new DictionaryGraphTest("testMerge"));
+    tests.addTest(new DictionaryGraphTest("testUnion"));
+    tests.addTest(new DictionaryGraphTest("testMatch"));
+    tests.addTest(new DictionaryGraphTest("testSubgraph"));
+    tests.addTest(new DictionaryGraphTest("testDelete"));
+    tests.addTest(new DictionaryGraphTest("testFreeze"));
+    return tests;
+  }
+
+  /**
+   * Test that deleted triples are no longer found, and that their space is reused.
+   */
+  public void testDelete() throws Exception {
+    List<Triple> triples = getTriples();
+    DictionaryGraph graph = (DictionaryGraph)getGraph(triples);
+    for (int i = 0; i < triples.size(); i += 2) assertTrue(graph.delete(triples.get(i)));
+    assertFalse(graph.delete(triples.get(0)));
+    assertEquals(triples.size() / 2, graph.size());
+    for (int i = 0; i < triples.size(); i++) assertEquals(i % 2 == 1, graph.isAsserted(triples.get(i)));
+
+    Iterator<Triple> it = graph.match(null, hasName, null);
+    int count = 0;
+    for (; it.hasNext(); it.next()) count++;
+    assertEquals(2, count);
+
+    for (Triple t: triples) graph.insert(t);
+    assertEquals(triples.size(), graph.size());
+    assertEquals(3, graph.getValues(fred, knows).size());
+  }
+
+  /**
+   * Test that a frozen graph answers queries from its packed indexes, and can be thawed.
+   */
+  public void testFreeze() throws Exception {
+    List<Triple> triples = getTriples();
+    // enough data to span several blocks
+    for (int i = 0; i < 200; i++) triples.add(new Triple(Uri.create("ex:s" + (i % 7)), knows, Uri.create("ex:o" + i)));
+    DictionaryGraph graph = (DictionaryGraph)getGraph(triples);
+    graph.freeze();
+    assertTrue(graph.isFrozen());
+    assertEquals(triples.size(), graph.size());
+    for (Triple t: triples) assertTrue(graph.isAsserted(t));
+    assertFalse(graph.isAsserted(fred, knows, fred));
+    assertEquals(3, graph.getValues(fred, knows).size());
+    assertEquals(4, graph.getSubjects(type, person).size());
+    assertEquals(triples.size(), graph.getTriples().size());
+
+    int count = 0;
+    for (Iterator<Triple> i = graph.match(Uri.create("ex:s3"), null, null); i.hasNext(); i.next()) count++;
+    assertEquals(29, count);
+    count = 0;
+    for (Iterator<Triple> i = graph.match(null, knows, null); i.hasNext(); i.next()) count++;
+    assertEquals(203, count);
+    Iterator<Triple> i = graph.match(Uri.create("ex:s3"), null, Uri.create("ex:o10"));
+    assertEquals(new Triple(Uri.create("ex:s3"), knows, Uri.create("ex:o10")), i.next());
+    assertFalse(i.hasNext());
+
+    try {
+      graph.insert(fred, knows, fred);
+      fail("Frozen graph was modified");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    graph.thaw();
+    assertFalse(graph.isFrozen());
+    assertEquals(triples.size(), graph.size());
+    assertTrue(graph.insert(fred, knows, fred));
+    assertTrue(graph.delete(fred, knows, fred));
+    for (Triple t: triples) assertTrue(graph.isAsserted(t));
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new DictionaryGraph(triples);
+  }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for the durable graph.
+ */
+public class DurableGraphTest extends GraphTest {
+
+  /** The directories created by the tests. */
+  private List<File> dirs = new ArrayList<File>();
+
+  /** The graphs opened by the tests. */
+  private List<DurableGraph> graphs = new ArrayList<DurableGraph>();
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public DurableGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new DurableGraphTest("testCreate"));
+    tests.addTest(new DurableGraphTest("testProps"));
+    tests.addTest(new DurableGraphTest("testValues"));
+    tests.addTest(new DurableGraphTest("testValue"));
+    tests.addTest(new DurableGraphTest("testList"));
+    tests.addTest(new DurableGraphTest("testSubject"));
+    tests.addTest(new DurableGraphTest("testMerge"));
+    tests.addTest(new DurableGraphTest("testUnion"));
+    tests.addTest(new DurableGraphTest("testMatch"));
+    tests.addTest(new DurableGraphTest("testSubgraph"));
+    tests.addTest(new DurableGraphTest("testReplay"));
+    tests.addTest(new DurableGraphTest("testCheckpoint"));
+    tests.addTest(new DurableGraphTest("testTornLog"));
+    tests.addTest(new DurableGraphTest("testBatch"));
+    tests.addTest(new DurableGraphTest("testIncremental"));
+    tests.addTest(new DurableGraphTest("testLiveCheckpoint"));
+    tests.addTest(new DurableGraphTest("testTimerFailure"));
+    tests.addTest(new DurableGraphTest("testWriteFailure"));
+    return tests;
+  }
+
+  protected void tearDown() throws Exception {
+    for (DurableGraph g: graphs) g.close();
+    for (File dir: dirs) {
+      File[] files = dir.listFiles();
+      if (files != null) for (File f: files) f.delete();
+      dir.delete();
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Test that inserts and deletes are recovered from the log.
+   */
+  public void testReplay() throws Exception {
+    File dir = newDir();
+    List<Triple> triples = getTriples();
+    triples.add(new Triple(fred, hasName, new Literal("Frederick", "en")));
+    triples.add(new Triple(fred, hasName, new Literal("42", URI.create("http://www.w3.org/2001/XMLSchema#int"))));
+    DurableGraph graph = open(dir);
+    for (Triple t: triples) assertTrue(graph.insert(t));
+    assertFalse(graph.insert(fred, type, person));
+    assertTrue(graph.delete(fred, knows, wilma));
+    assertFalse(graph.delete(fred, knows, wilma));
+    graph.close();
+
+    graph = open(dir);
+    assertEquals(triples.size() - 1, graph.size());
+    for (Triple t: triples) assertEquals(!t.equals(new Triple(fred, knows, wilma)), graph.isAsserted(t));
+  }
+
+  /**
+   * Test that a checkpoint empties the log, and that later changes are replayed over it.
+   */
+  public void testCheckpoint() throws Exception {
+    File dir = newDir();
+    DurableGraph graph = open(dir);
+    graph.insertAll(getTriples().iterator());
+    long logged = graph.getLogSize();
+    graph.checkpoint();
+    assertTrue(graph.getLogSize() < logged);
+    assertTrue(new File(dir, DurableGraph.MANIFEST_FILE).exists());
+    graph.delete(fred, type, person);
+    graph.insert(fred, knows, fred);
+    graph.close();
+
+    graph = open(dir);
+    assertEquals(getTriples().size(), graph.size());
+    assertFalse(graph.isAsserted(fred, type, person));
+    assertTrue(graph.isAsserted(fred, knows, fred));
+    assertTrue(graph.isAsserted(betty, hasName, new Literal("Betty")));
+  }
+
+  /**
+   * Test that a partly written record at the end of the log is discarded.
+   */
+  public void testTornLog() throws Exception {
+    File dir = newDir();
+    DurableGraph graph = open(dir);
+    graph.insert(fred, knows, barney);
+    graph.insert(fred, knows, wilma);
+    long length = graph.getLogSize();
+    graph.close();
+
+    File log = new File(dir, DurableGraph.logName(0));
+    RandomAccessFile file = new RandomAccessFile(log, "rw");
+    try {
+      file.setLength(length - 3);
+    } finally {
+      file.close();
+    }
+    graph = open(dir);
+    assertEquals(1, graph.size());
+    assertTrue(graph.isAsserted(fred, knows, barney));
+    long truncated = graph.getLogSize();
+    assertTrue(truncated < length - 3);
+    graph.insert(fred, knows, betty);
+    graph.close();
+
+    file = new RandomAccessFile(log, "rw");
+    try {
+      file.seek(truncated + 10);
+      file.write(file.read() ^ 0xFF);
+    } finally {
+      file.close();
+    }
+    graph = open(dir);
+    assertEquals(1, graph.size());
+    assertFalse(graph.isAsserted(fred, knows, betty));
+
+    File bad = newDir();
+    file = new RandomAccessFile(new File(bad, DurableGraph.logName(0)), "rw");
+    try {
+      file.writeLong(0x0102030405060708L);
+    } finally {
+      file.close();
+    }
+    try {
+      open(bad);
+      fail("Opened an invalid log");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Test that batched changes reach the log on sync.
+   */
+  public void testBatch() throws Exception {
+    File dir = newDir();
+    DurableGraph graph = new DurableGraph(dir, new GraphImplFactory(), 100, 0);
+    graphs.add(graph);
+    for (Triple t: getTriples()) graph.insert(t);
+    assertEquals(8, new File(dir, DurableGraph.logName(0)).length());
+    graph.sync();
+    assertEquals(graph.getLogSize(), new File(dir, DurableGraph.logName(0)).length());
+    graph.close();
+    try {
+      graph.insert(fred, knows, fred);
+      fail("Modified a closed graph");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(getTriples().size(), open(dir).size());
+  }
+
+  /**
+   * Test that checkpoints only write the segments that changed, and that old files are removed.
+   */
+  public void testIncremental() throws Exception {
+    File dir = newDir();
+    DurableGraph graph = open(dir);
+    for (int i = 0; i < 1000; i++) graph.insert(Uri.create("ex:s" + i), knows, Uri.create("ex:o" + i));
+    assertEquals(DurableGraph.SEGMENTS, graph.checkpoint());
+    assertEquals(0, graph.checkpoint());
+    assertFalse(new File(dir, DurableGraph.logName(0)).exists());
+
+    graph.insert(Uri.create("ex:s1"), hasName, new Literal("one"));
+    assertEquals(1, graph.checkpoint());
+    assertFalse(new File(dir, DurableGraph.logName(1)).exists());
+    assertEquals(DurableGraph.SEGMENTS + 2, dir.listFiles().length);
+
+    graph.insert(Uri.create("ex:s2"), hasName, new Literal("two"));
+    graph.delete(Uri.create("ex:s1"), hasName, new Literal("one"));
+    graph.close();
+    graph = open(dir);
+    assertEquals(1001, graph.size());
+    assertTrue(graph.isAsserted(Uri.create("ex:s2"), hasName, new Literal("two")));
+    assertFalse(graph.isAsserted(Uri.create("ex:s1"), hasName, new Literal("one")));
+
+    // segments changed by replaying the log are written by the next checkpoint
+    assertTrue(graph.checkpoint() > 0);
+    graph.close();
+    graph = open(dir);
+    assertEquals(1001, graph.size());
+    assertTrue(graph.isAsserted(Uri.create("ex:s999"), knows, Uri.create("ex:o999")));
+    assertTrue(graph.isAsserted(Uri.create("ex:s2"), hasName, new Literal("two")));
+  }
+
+  /**
+   * Test that checkpoints made while another thread is writing recover every change.
+   */
+  public void testLiveCheckpoint() throws Exception {
+    File dir = newDir();
+    final DurableGraph graph = new DurableGraph(dir, new GraphImplFactory(), 50, 0);
+    graphs.add(graph);
+    Thread writer = new Thread() {
+      public void run() {
+        for (int i = 0; i < 3000; i++) {
+          graph.insert(Uri.create("ex:s" + (i % 300)), knows, Uri.create("ex:o" + i));
+          if (i % 3 == 0) graph.delete(Uri.create("ex:s" + (i % 300)), knows, Uri.create("ex:o" + i));
+        }
+      }
+    };
+    writer.start();
+    while (writer.isAlive()) graph.checkpoint();
+    writer.join();
+    graph.close();
+
+    DurableGraph reopened = open(dir);
+    assertEquals(2000, reopened.size());
+    for (int i = 0; i < 3000; i++) {
+      assertEquals(i % 3 != 0, reopened.isAsserted(Uri.create("ex:s" + (i % 300)), knows, Uri.create("ex:o" + i)));
+    }
+  }
+
+  /**
+   * Test that a background checkpoint that fails does not stop syncing or later checkpoints.
+   */
+  public void testTimerFailure() throws Exception {
+    File dir = newDir();
+    FailingFactory factory = new FailingFactory();
+    DurableGraph graph = new DurableGraph(dir, factory, 1000, 50, 100);
+    graphs.add(graph);
+    factory.failing = true;
+    graph.insert(fred, knows, barney);
+    for (int i = 0; i < 250 && factory.failures.get() < 2; i++) Thread.sleep(20);
+    assertTrue(factory.failures.get() >= 2);
+
+    graph.insert(fred, knows, wilma);
+    boolean synced = false;
+    for (int i = 0; i < 250 && !synced; i++) {
+      synced = graph.getLogSize() == latestLog(dir).length();
+      if (!synced) Thread.sleep(20);
+    }
+    assertTrue(synced);
+
+    factory.failing = false;
+    File manifest = new File(dir, DurableGraph.MANIFEST_FILE);
+    for (int i = 0; i < 250 && !manifest.exists(); i++) Thread.sleep(20);
+    assertTrue(manifest.exists());
+    graph.close();
+
+    graph = open(dir);
+    assertEquals(2, graph.size());
+    assertTrue(graph.isAsserted(fred, knows, barney));
+    assertTrue(graph.isAsserted(fred, knows, wilma));
+  }
+
+  /**
+   * Test that a failed write to the log stops all later changes and syncs, instead of
+   * counting the lost records as synced, and that reopening recovers the synced changes.
+   */
+  public void testWriteFailure() throws Exception {
+    File dir = newDir();
+    DurableGraph graph = new DurableGraph(dir, new GraphImplFactory(), 2, 0);
+    graphs.add(graph);
+    graph.insert(fred, knows, barney);
+    graph.insert(fred, knows, wilma);
+
+    RandomAccessFile file = new RandomAccessFile(latestLog(dir), "rw");
+    file.seek(file.length());
+    graph.setLogChannel(new FailingChannel(file.getChannel()));
+    graph.insert(barney, knows, fred);
+    try {
+      graph.insert(wilma, knows, fred);
+      fail("A failed write should be reported");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    try {
+      graph.insert(wilma, knows, barney);
+      fail("Changes should not be allowed after a failed write");
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    try {
+      graph.sync();
+      fail("A sync should not succeed after a failed write");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      graph.close();
+      fail("Closing should report the failed write");
+    } catch (IOException e) {
+      // expected
+    }
+    file.close();
+
+    graph = open(dir);
+    assertEquals(2, graph.size());
+    assertTrue(graph.isAsserted(fred, knows, barney));
+    assertTrue(graph.isAsserted(fred, knows, wilma));
+    graph.insert(barney, knows, wilma);
+    graph.close();
+    graph = open(dir);
+    assertEquals(3, graph.size());
+    assertTrue(graph.isAsserted(barney, knows, wilma));
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    try {
+      DurableGraph graph = open(newDir());
+      graph.insertAll(triples.iterator());
+      return graph;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private DurableGraph open(File dir) throws IOException {
+    DurableGraph graph = new DurableGraph(dir);
+    graphs.add(graph);
+    return graph;
+  }
+
+  private static File latestLog(File dir) {
+    File latest = null;
+    for (File f: dir.listFiles()) {
+      String name = f.getName();
+      if (!name.startsWith("wal-")) continue;
+      if (latest == null || generation(name) > generation(latest.getName())) latest = f;
+    }
+    return latest;
+  }
+
+  private static long generation(String logName) {
+    return Long.parseLong(logName.substring(logName.indexOf('-') + 1, logName.indexOf('.')));
+  }
+
+  private File newDir() throws IOException {
+    File dir = File.createTempFile("durable", "");
+    if (!dir.delete() || !dir.mkdir()) throw new IOException("Unable to create " + dir);
+    dirs.add(dir);
+    return dir;
+  }
+
+  /**
+   * A channel that writes the start of a record header, and then fails.
+   */
+  private static class FailingChannel extends FileChannel {
+
+    /** The channel that is written to. */
+    private final FileChannel channel;
+
+    FailingChannel(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+      ByteBuffer part = src.duplicate();
+      part.limit(part.position() + Math.min(5, part.remaining()));
+      channel.write(part);
+      throw new IOException("Disk full");
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      throw new IOException("Disk full");
+    }
+
+    public int write(ByteBuffer src, long position) throws IOException {
+      throw new IOException("Disk full");
+    }
+
+    public void force(boolean metaData) throws IOException {
+      throw new IOException("Disk full");
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+      return channel.read(dst);
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return channel.read(dsts, offset, length);
+    }
+
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return channel.read(dst, position);
+    }
+
+    public long position() throws IOException {
+      return channel.position();
+    }
+
+    public FileChannel position(long newPosition) throws IOException {
+      channel.position(newPosition);
+      return this;
+    }
+
+    public long size() throws IOException {
+      return channel.size();
+    }
+
+    public FileChannel truncate(long size) throws IOException {
+      channel.truncate(size);
+      return this;
+    }
+
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+      return channel.transferTo(position, count, target);
+    }
+
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+      throw new IOException("Disk full");
+    }
+
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+      return channel.map(mode, position, size);
+    }
+
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+      return channel.lock(position, size, shared);
+    }
+
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+      return channel.tryLock(position, size, shared);
+    }
+
+    protected void implCloseChannel() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Creates graphs that cannot be copied by a checkpoint while {@link #failing} is set.
+   */
+  private static class FailingFactory implements GraphFactory {
+
+    /** Set to make copies fail. */
+    volatile boolean failing = false;
+
+    /** The number of copies that have failed. */
+    final AtomicInteger failures = new AtomicInteger();
+
+    public WritableGraph createGraph() {
+      return new GraphImpl() {
+        public Iterator<Triple> match(SubjectNode s, PredicateNode p, ObjectNode o) {
+          if (failing && s == null && p == null && o == null) {
+            failures.incrementAndGet();
+            throw new IllegalArgumentException("Unable to copy the segment");
+          }
+          return super.match(s, p, o);
+        }
+      };
+    }
+  }
+}
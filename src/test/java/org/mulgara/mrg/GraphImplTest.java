@@ -20,6 +20,7 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.mulgara.mrg.Graph;
 import org.mulgara.mrg.GraphImpl;
@@ -51,9 +52,28 @@ public class GraphImplTest extends GraphTest {
     tests.addTest(new GraphImplTest("testUnion"));
     tests.addTest(new GraphImplTest("testMatch"));
     tests.addTest(new GraphImplTest("testSubgraph"));
+    tests.addTest(new GraphImplTest("testSize"));
     return tests;
   }
 
+  /**
+   * Test that the size follows inserts and deletes, including repeated ones.
+   */
+  public void testSize() throws Exception {
+    List<Triple> triples = getTriples();
+    GraphImpl graph = new GraphImpl(triples);
+    assertEquals(triples.size(), graph.size());
+    assertFalse(graph.insert(triples.get(0)));
+    assertEquals(triples.size(), graph.size());
+    assertTrue(graph.insert(fred, knows, fred));
+    assertEquals(triples.size() + 1, graph.size());
+    assertFalse(graph.delete(fred, hasName, fred));
+    assertEquals(triples.size() + 1, graph.size());
+    assertTrue(graph.delete(fred, knows, fred));
+    for (Triple t: triples) assertTrue(graph.delete(t));
+    assertEquals(0, graph.size());
+    assertTrue(graph.isEmpty());
+  }
 
   protected Graph getGraph(Collection<Triple> triples) {
     return new GraphImpl(triples);
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.IndexedGraph;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.vocab.uri.XSD;
+
+/**
+ * Unit test for the indexed graph, using only the pos index.
+ */
+public class IndexedGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public IndexedGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new IndexedGraphTest("testCreate"));
+    tests.addTest(new IndexedGraphTest("testProps"));
+    tests.addTest(new IndexedGraphTest("testValues"));
+    tests.addTest(new IndexedGraphTest("testValue"));
+    tests.addTest(new IndexedGraphTest("testList"));
+    tests.addTest(new IndexedGraphTest("testSubject"));
+    tests.addTest(new IndexedGraphTest("testMerge"));
+    tests.addTest(new IndexedGraphTest("testUnion"));
+    tests.addTest(new IndexedGraphTest("testMatch"));
+    tests.addTest(new IndexedGraphTest("testSubgraph"));
+    tests.addTest(new IndexedGraphTest("testIndexes"));
+    tests.addTest(new IndexedGraphTest("testStatistics"));
+    tests.addTest(new IndexedGraphTest("testInsertAll"));
+    tests.addTest(new IndexedGraphTest("testValueIndex"));
+    return tests;
+  }
+
+  /**
+   * Test that every selection of indexes answers every pattern the same way.
+   */
+  public void testIndexes() throws Exception {
+    List<Triple> triples = getTriples();
+    Graph expected = new GraphImpl(triples);
+    int[] selections = { 0, IndexedGraph.POS_INDEX, IndexedGraph.OSP_INDEX, IndexedGraph.ALL_INDEXES };
+    for (int indexes: selections) {
+      IndexedGraph graph = new IndexedGraph(indexes, triples);
+      assertEquals((indexes & IndexedGraph.POS_INDEX) != 0, graph.hasIndex(IndexedGraph.POS_INDEX));
+      assertEquals((indexes & IndexedGraph.OSP_INDEX) != 0, graph.hasIndex(IndexedGraph.OSP_INDEX));
+      for (Triple t: triples) {
+        SubjectNode s = t.getSubject();
+        PredicateNode p = t.getPredicate();
+        ObjectNode o = t.getObject();
+        assertEquals(matches(expected, null, p, o), matches(graph, null, p, o));
+        assertEquals(matches(expected, null, p, null), matches(graph, null, p, null));
+        assertEquals(matches(expected, s, null, o), matches(graph, s, null, o));
+        assertEquals(matches(expected, null, null, o), matches(graph, null, null, o));
+        assertEquals(matches(expected, s, p, null), matches(graph, s, p, null));
+        assertEquals(new HashSet<SubjectNode>(expected.getSubjects(p, o)), new HashSet<SubjectNode>(graph.getSubjects(p, o)));
+      }
+      assertEquals(new HashSet<PredicateNode>(expected.getPredicates()), new HashSet<PredicateNode>(graph.getPredicates()));
+      assertEquals(new HashSet<ObjectNode>(expected.getObjects()), new HashSet<ObjectNode>(graph.getObjects()));
+      Triple t = triples.get(0);
+      assertTrue(graph.delete(t));
+      assertFalse(matches(graph, null, t.getPredicate(), t.getObject()).contains(t));
+      assertFalse(matches(graph, null, null, t.getObject()).contains(t));
+    }
+  }
+
+  /**
+   * Collects the triples that match a pattern.
+   */
+  private static Set<Triple> matches(Graph g, SubjectNode s, PredicateNode p, ObjectNode o) {
+    Set<Triple> result = new HashSet<Triple>();
+    for (Iterator<Triple> i = g.match(s, p, o); i.hasNext(); ) result.add(i.next());
+    return result;
+  }
+
+  /**
+   * Test that the statistics follow inserts and deletes, and are unknown without an index.
+   */
+  public void testStatistics() throws Exception {
+    List<Triple> triples = getTriples();
+    Graph expected = new GraphImpl(triples);
+    IndexedGraph graph = new IndexedGraph(triples);
+    assertEquals(expected.size(), graph.getTripleCount());
+    assertEquals(expected.getSubjects().size(), graph.getSubjectCount());
+    assertEquals(expected.getPredicates().size(), graph.getPredicateCount());
+    assertEquals(expected.getObjects().size(), graph.getObjectCount());
+    for (Triple t: triples) {
+      assertEquals(matches(expected, t.getSubject(), null, null).size(), graph.getSubjectFanOut(t.getSubject()));
+      assertEquals(matches(expected, null, t.getPredicate(), null).size(), graph.getPredicateFanOut(t.getPredicate()));
+      assertEquals(matches(expected, null, null, t.getObject()).size(), graph.getObjectFanOut(t.getObject()));
+    }
+    assertEquals(0, graph.getSubjectFanOut(Uri.create("ex:none")));
+
+    long fanOut = graph.getPredicateFanOut(knows);
+    assertTrue(graph.insert(Uri.create("ex:new"), knows, Uri.create("ex:other")));
+    assertEquals(fanOut + 1, graph.getPredicateFanOut(knows));
+    assertEquals(expected.getSubjects().size() + 1, graph.getSubjectCount());
+    assertTrue(graph.delete(Uri.create("ex:new"), knows, Uri.create("ex:other")));
+    assertEquals(fanOut, graph.getPredicateFanOut(knows));
+    assertEquals(expected.getSubjects().size(), graph.getSubjectCount());
+    assertEquals(expected.getObjects().size(), graph.getObjectCount());
+
+    graph = new IndexedGraph(IndexedGraph.POS_INDEX, triples);
+    assertEquals(expected.getPredicates().size(), graph.getPredicateCount());
+    assertEquals(GraphStatistics.UNKNOWN, graph.getObjectCount());
+    assertEquals(GraphStatistics.UNKNOWN, graph.getObjectFanOut(fred));
+  }
+
+  /**
+   * Test that a bulk insert builds the same indexes as inserting one triple at a time,
+   * into both empty and populated graphs.
+   */
+  public void testInsertAll() throws Exception {
+    List<Triple> triples = getTriples();
+    Graph expected = new GraphImpl(triples);
+    IndexedGraph graph = new IndexedGraph();
+    assertEquals(triples.size(), graph.insertAll(triples.iterator()));
+    assertEquals(0, graph.insertAll(triples.iterator()));
+    assertEquals(expected.size(), graph.size());
+
+    graph = new IndexedGraph(getSimple1());
+    List<Triple> more = new ArrayList<Triple>(triples);
+    more.addAll(getSimple1());
+    more.addAll(getSimple2());
+    long added = graph.insertAll(more.iterator());
+    Graph union = new GraphImpl(getSimple1()).unionInto(new GraphImpl(more));
+    assertEquals(union.size() - getSimple1().size(), added);
+    assertEquals(union.size(), graph.getTripleCount());
+    for (Triple t: more) {
+      assertEquals(matches(union, null, t.getPredicate(), t.getObject()), matches(graph, null, t.getPredicate(), t.getObject()));
+      assertEquals(matches(union, null, null, t.getObject()), matches(graph, null, null, t.getObject()));
+      assertEquals(matches(union, t.getSubject(), null, null), matches(graph, t.getSubject(), null, null));
+    }
+  }
+
+  /**
+   * Test range and top-k queries over values, with and without the value index.
+   */
+  public void testValueIndex() throws Exception {
+    PredicateNode age = Uri.create("ex:age");
+    PredicateNode born = Uri.create("ex:born");
+    List<Triple> triples = new ArrayList<Triple>(getTriples());
+    String[] ages = { "7", "42", "15", "3.5", "100", "oops" };
+    for (int i = 0; i < ages.length; i++) {
+      triples.add(new Triple(Uri.create("ex:p" + i), age, new Literal(ages[i], i % 2 == 0 ? XSD.INT : XSD.DOUBLE)));
+    }
+    triples.add(new Triple(Uri.create("ex:p0"), born, new Literal("2001-01-01T00:00:00Z", XSD.DATE_TIME)));
+    triples.add(new Triple(Uri.create("ex:p1"), born, new Literal("2000-12-31T20:00:00-05:00", XSD.DATE_TIME)));
+    triples.add(new Triple(Uri.create("ex:p2"), born, new Literal("1999-06-01T12:00:00Z", XSD.DATE_TIME)));
+
+    IndexedGraph indexed = new IndexedGraph(IndexedGraph.ALL_INDEXES | IndexedGraph.VALUE_INDEX, triples);
+    IndexedGraph plain = new IndexedGraph(triples);
+    assertTrue(indexed.hasIndex(IndexedGraph.VALUE_INDEX));
+    assertFalse(plain.hasIndex(IndexedGraph.VALUE_INDEX));
+    for (IndexedGraph graph: new IndexedGraph[] { indexed, plain }) {
+      assertEquals(list("7", "15", "42"), objects(graph.matchRange(age, new Literal("7", XSD.INT), new Literal("42", XSD.LONG))));
+      assertEquals(list("3.5", "7"), objects(graph.matchRange(age, null, new Literal("10", XSD.INT))));
+      assertEquals(list("42", "100"), objects(graph.matchRange(age, new Literal("16", XSD.DECIMAL), null)));
+      assertEquals(list("3.5", "7", "15", "42", "100"), objects(graph.matchRange(age, null, null)));
+      assertEquals(list(), objects(graph.matchRange(age, new Literal("50", XSD.INT), new Literal("10", XSD.INT))));
+      assertEquals(list("100", "42"), objects(graph.matchHighest(age, 2)));
+      assertEquals(list("3.5", "7", "15"), objects(graph.matchLowest(age, 3)));
+      assertEquals(list("1999-06-01T12:00:00Z", "2001-01-01T00:00:00Z"),
+                   objects(graph.matchRange(born, null, new Literal("2001-01-01T00:00:00Z", XSD.DATE_TIME))));
+      assertEquals(list("2000-12-31T20:00:00-05:00"), objects(graph.matchHighest(born, 1)));
+      assertEquals(list(), objects(graph.matchHighest(knows, 5)));
+      try {
+        graph.matchRange(age, new Literal("seven"), null);
+        fail("Range bounds must be typed values");
+      } catch (IllegalArgumentException e) { }
+    }
+
+    assertTrue(indexed.delete(Uri.create("ex:p4"), age, new Literal("100", XSD.INT)));
+    assertEquals(list("42"), objects(indexed.matchHighest(age, 1)));
+    assertTrue(indexed.insert(Uri.create("ex:p9"), age, new Literal("-1", XSD.SHORT)));
+    assertEquals(list("-1"), objects(indexed.matchLowest(age, 1)));
+
+    IndexedGraph bulk = new IndexedGraph(IndexedGraph.VALUE_INDEX);
+    bulk.insertAll(triples.iterator());
+    assertEquals(list("100", "42", "15"), objects(bulk.matchHighest(age, 3)));
+  }
+
+  /**
+   * Collects the text of the objects of some triples, in order.
+   */
+  private static List<String> objects(Iterator<Triple> i) {
+    List<String> result = new ArrayList<String>();
+    while (i.hasNext()) result.add(((Literal)i.next().getObject()).getText());
+    return result;
+  }
+
+  /**
+   * Creates a list of strings.
+   */
+  private static List<String> list(String... s) {
+    return Arrays.asList(s);
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new IndexedGraph(IndexedGraph.POS_INDEX, triples);
+  }
+}
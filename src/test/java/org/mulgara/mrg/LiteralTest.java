@@ -16,9 +16,14 @@
 
 package org.mulgara.mrg;
 
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Date;
 
 import org.mulgara.mrg.vocab.uri.XSD;
+import org.mulgara.util.Fn1;
+import org.mulgara.util.LexicalDateTime;
 
 import junit.framework.TestCase;
 
@@ -53,4 +58,99 @@ public class LiteralTest extends TestCase {
     assertEquals(LEXICAL_TIME, l.getText());
   }
 
+  public void testLazyValue() {
+    Literal l = new Literal("42", XSD.INT);
+    assertEquals(Integer.valueOf(42), l.toJava());
+    assertSame(l.toJava(), l.toJava());
+    assertTrue(l.valueEquals(XSDMapper.literal(42)));
+
+    Literal bad = new Literal("forty two", XSD.INT);
+    assertEquals("forty two", bad.toJava());
+    try {
+      bad.validate();
+      fail("Invalid integer was validated");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertSame(l, l.validate());
+    Literal unknown = new Literal("x", URI.create("ex:type"));
+    assertSame(unknown, unknown.validate());
+  }
+
+  public void testFormatDateTime() throws Exception {
+    String[] times = { LEXICAL_TIME, "2011-04-20T12:25:14.5Z", "-0044-03-15T12:00:00+01:00", "2000-02-29T24:00:00Z", "12345-01-01T00:00:00.123-09:30" };
+    for (String t: times) {
+      LexicalDateTime ldt = LexicalDateTime.parseDateTime(t);
+      assertEquals(t, ldt.toString());
+      assertEquals("<" + t, ldt.appendTo(new StringBuilder("<")).toString());
+      ByteBuffer bb = ByteBuffer.allocate(64);
+      ldt.appendTo(bb);
+      assertEquals(t, new String(bb.array(), 0, bb.position(), "US-ASCII"));
+      assertEquals(ldt, LexicalDateTime.decode(ldt.encode(ByteBuffer.allocate(LexicalDateTime.requiredBufferSize()))));
+    }
+    assertEquals(951868800000L, LexicalDateTime.parseDateTime("2000-03-01T00:00:00Z").getMillis());
+    assertEquals(951868800000L, LexicalDateTime.parseDateTime("2000-02-29T24:00:00Z").getMillis());
+    try {
+      LexicalDateTime.parseDateTime("2011-02-29T00:00:00Z");
+      fail("Parsed a day that does not exist");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals("292278993-12-31T23:59:59Z", LexicalDateTime.parseDateTime("292278993-12-31T23:59:59Z").toString());
+    assertEquals("-292275054-01-01T00:00:00Z", LexicalDateTime.parseDateTime("-292275054-01-01T00:00:00Z").toString());
+    for (String t: new String[] { "2001-10-26T21:32:52.1Z", "2001-10-26T21:32:52.12Z", "2001-10-26T21:32:52.123Z" }) {
+      assertEquals(t, LexicalDateTime.parseDateTime(t).toString());
+    }
+    for (String t: new String[] { "2001-10-26T21:32:52.1234Z", "2001-10-26T21:32:52.12345" }) {
+      try {
+        LexicalDateTime.parseDateTime(t);
+        fail("Parsed more fractional digits than can be kept: " + t);
+      } catch (ParseException e) {
+        // expected
+      }
+    }
+    String[] outOfRange = { "300000000-01-01T00:00:00Z", "-292275055-12-31T00:00:00Z", "99999999999999999999999-01-01T00:00:00Z" };
+    for (String t: outOfRange) {
+      try {
+        LexicalDateTime.parseDateTime(t);
+        fail("Parsed a year that is out of range: " + t);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  public void testPrimitives() {
+    assertEquals(42L, new Literal("42", XSD.LONG).asLong());
+    assertEquals(42L, XSDMapper.literal(42).asLong());
+    assertEquals(2L, new Literal("2.5", XSD.DOUBLE).asLong());
+    Literal big = new Literal("18446744073709551617", XSD.INTEGER);
+    for (int i = 0; i < 2; i++) {
+      try {
+        big.asLong();
+        fail("Converted an integer that does not fit in a long");
+      } catch (NumberFormatException e) {
+        // expected
+      }
+      big.toJava();
+    }
+    assertEquals(Long.MIN_VALUE, new Literal("-9223372036854775808", XSD.INTEGER).validate().asLong());
+    assertEquals(2.5, new Literal("2.5", XSD.DECIMAL).asDouble());
+    assertEquals(Double.NEGATIVE_INFINITY, new Literal("-INF", XSD.DOUBLE).asDouble());
+    assertTrue(new Literal("1", XSD.BOOLEAN).asBoolean());
+    assertFalse(XSDMapper.literal(false).asBoolean());
+  }
+
+  public void testCustomDatatype() {
+    URI celsius = URI.create("ex:celsius");
+    Datatypes types = Datatypes.STANDARD.with(celsius, new Fn1<String,Object>() {
+      public Object call(String text) { return Double.valueOf(text) + 273.15; }
+    });
+    Literal l = new Literal("10", celsius);
+    assertEquals(283.15, (Double)l.toJava(types), 0.001);
+    assertEquals("10", l.toJava());
+    assertFalse(Datatypes.STANDARD.isKnownType(celsius));
+    assertEquals(Integer.valueOf(3), new Literal("3", XSD.INT).toJava(types));
+  }
+
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit test for the log-structured merge graph.
+ */
+public class LsmGraphTest extends GraphTest {
+
+  /** The directories created by the tests. */
+  private List<File> dirs = new ArrayList<File>();
+
+  /** The graphs opened by the tests. */
+  private List<LsmGraph> graphs = new ArrayList<LsmGraph>();
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public LsmGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new LsmGraphTest("testCreate"));
+    tests.addTest(new LsmGraphTest("testProps"));
+    tests.addTest(new LsmGraphTest("testValues"));
+    tests.addTest(new LsmGraphTest("testValue"));
+    tests.addTest(new LsmGraphTest("testList"));
+    tests.addTest(new LsmGraphTest("testSubject"));
+    tests.addTest(new LsmGraphTest("testMerge"));
+    tests.addTest(new LsmGraphTest("testUnion"));
+    tests.addTest(new LsmGraphTest("testMatch"));
+    tests.addTest(new LsmGraphTest("testSubgraph"));
+    tests.addTest(new LsmGraphTest("testReopen"));
+    tests.addTest(new LsmGraphTest("testDelete"));
+    tests.addTest(new LsmGraphTest("testCompaction"));
+    return tests;
+  }
+
+  protected void tearDown() throws Exception {
+    for (LsmGraph g: graphs) g.close();
+    for (File dir: dirs) {
+      File[] files = dir.listFiles();
+      if (files != null) for (File f: files) f.delete();
+      dir.delete();
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Test that the data is on disk after closing, including every kind of node.
+   */
+  public void testReopen() throws Exception {
+    File dir = newDir();
+    List<Triple> triples = getTriples();
+    triples.add(new Triple(fred, hasName, new Literal("Frederick", "en")));
+    triples.add(new Triple(fred, hasName, new Literal("42", URI.create("http://www.w3.org/2001/XMLSchema#int"))));
+    triples.add(new Triple(fred, hasName, new Literal("Frédéric 中")));
+    LsmGraph graph = open(dir, 1000);
+    assertEquals(triples.size(), graph.insertAll(triples.iterator()));
+    assertEquals(0, graph.getRunCount());
+    graph.close();
+
+    graph = open(dir, 1000);
+    assertEquals(1, graph.getRunCount());
+    assertEquals(triples.size(), graph.size());
+    for (Triple t: triples) assertTrue(graph.isAsserted(t));
+    assertFalse(graph.insert(fred, type, person));
+    assertEquals(4, graph.getValues(fred, hasName).size());
+    assertEquals(4, count(graph.match(null, type, person)));
+    assertEquals(3, count(graph.match(fred, knows, null)));
+  }
+
+  /**
+   * Test that deletions hide triples in older runs, and that triples can be inserted again.
+   */
+  public void testDelete() throws Exception {
+    File dir = newDir();
+    LsmGraph graph = open(dir, 1000);
+    graph.insertAll(getTriples().iterator());
+    graph.flush();
+    assertTrue(graph.delete(fred, knows, wilma));
+    assertFalse(graph.delete(fred, knows, wilma));
+    assertFalse(graph.isAsserted(fred, knows, wilma));
+    assertEquals(2, count(graph.match(fred, knows, null)));
+    graph.flush();
+    assertEquals(2, graph.getRunCount());
+    assertFalse(graph.isAsserted(fred, knows, wilma));
+    assertEquals(getTriples().size() - 1, graph.size());
+    assertEquals(getTriples().size() - 1, count(graph.match(null, null, null)));
+
+    assertTrue(graph.insert(fred, knows, wilma));
+    assertTrue(graph.isAsserted(fred, knows, wilma));
+    assertTrue(graph.delete(fred, knows, barney));
+    graph.close();
+
+    graph = open(dir, 1000);
+    assertTrue(graph.isAsserted(fred, knows, wilma));
+    assertFalse(graph.isAsserted(fred, knows, barney));
+    assertEquals(getTriples().size() - 1, graph.size());
+  }
+
+  /**
+   * Test that runs are merged, and that the merged data matches what was written.
+   */
+  public void testCompaction() throws Exception {
+    File dir = newDir();
+    LsmGraph graph = open(dir, 50);
+    for (int i = 0; i < 2000; i++) graph.insert(Uri.create("ex:s" + (i % 100)), knows, Uri.create("ex:o" + i));
+    for (int i = 0; i < 2000; i += 2) graph.delete(Uri.create("ex:s" + (i % 100)), knows, Uri.create("ex:o" + i));
+    graph.flush();
+    assertTrue(graph.getRunCount() < 80 / LsmGraph.FANOUT);
+    assertEquals(1000, graph.size());
+    assertEquals(1000, count(graph.match(null, knows, null)));
+    assertEquals(20, count(graph.match(Uri.create("ex:s1"), null, null)));
+    assertEquals(0, count(graph.match(Uri.create("ex:s2"), null, null)));
+    assertEquals(1, count(graph.match(null, null, Uri.create("ex:o1999"))));
+    assertEquals(0, count(graph.match(null, null, Uri.create("ex:o1998"))));
+    graph.close();
+
+    graph = open(dir, 50);
+    assertEquals(1000, graph.size());
+    int runs = 0;
+    for (File f: dir.listFiles()) if (f.getName().startsWith("run-")) runs++;
+    assertEquals(graph.getRunCount(), runs);
+    for (int i = 0; i < 2000; i++) {
+      assertEquals(i % 2 == 1, graph.isAsserted(Uri.create("ex:s" + (i % 100)), knows, Uri.create("ex:o" + i)));
+    }
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    try {
+      LsmGraph graph = open(newDir(), 3);
+      graph.insertAll(triples.iterator());
+      return graph;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int count(Iterator<Triple> i) {
+    int count = 0;
+    for (; i.hasNext(); i.next()) count++;
+    return count;
+  }
+
+  private LsmGraph open(File dir, int memtableSize) throws IOException {
+    LsmGraph graph = new LsmGraph(dir, memtableSize);
+    graphs.add(graph);
+    return graph;
+  }
+
+  private File newDir() throws IOException {
+    File dir = File.createTempFile("lsm", "");
+    if (!dir.delete() || !dir.mkdir()) throw new IOException("Unable to create " + dir);
+    dirs.add(dir);
+    return dir;
+  }
+}
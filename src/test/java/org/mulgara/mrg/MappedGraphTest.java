@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.MappedGraph;
+import org.mulgara.mrg.Triple;
+
+/**
+ * Unit test for the memory mapped graph. Only the read operations apply.
+ */
+public class MappedGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public MappedGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new MappedGraphTest("testProps"));
+    tests.addTest(new MappedGraphTest("testValues"));
+    tests.addTest(new MappedGraphTest("testValue"));
+    tests.addTest(new MappedGraphTest("testList"));
+    tests.addTest(new MappedGraphTest("testSubject"));
+    tests.addTest(new MappedGraphTest("testMatch"));
+    tests.addTest(new MappedGraphTest("testSubgraph"));
+    tests.addTest(new MappedGraphTest("testEmpty"));
+    tests.addTest(new MappedGraphTest("testNodes"));
+    tests.addTest(new MappedGraphTest("testBuffer"));
+    return tests;
+  }
+
+  /**
+   * Test that an empty graph can be written and opened.
+   */
+  public void testEmpty() throws Exception {
+    List<Triple> empty = Collections.emptyList();
+    Graph graph = getGraph(empty);
+    assertTrue(graph.isEmpty());
+    assertFalse(graph.match(fred, null, null).hasNext());
+    assertTrue(graph.getSubjects().isEmpty());
+  }
+
+  /**
+   * Test that every kind of node survives encoding.
+   */
+  public void testNodes() throws Exception {
+    List<Triple> triples = getTriples();
+    triples.add(new Triple(fred, hasName, new Literal("Frederick", "en")));
+    triples.add(new Triple(fred, hasName, new Literal("42", URI.create("http://www.w3.org/2001/XMLSchema#int"))));
+    triples.add(new Triple(fred, hasName, new Literal("Frédéric 中")));
+    Graph graph = getGraph(triples);
+    assertEquals(triples.size(), graph.size());
+    for (Triple t: triples) assertTrue(graph.isAsserted(t));
+    assertEquals(4, graph.getValues(fred, hasName).size());
+    assertFalse(graph.isAsserted(fred, hasName, new Literal("Frederick", "fr")));
+  }
+
+  /**
+   * Test that an image can be opened from a buffer, and that scans span many triples.
+   */
+  public void testBuffer() throws Exception {
+    List<Triple> triples = getTriples();
+    for (int i = 0; i < 200; i++) triples.add(new Triple(Uri.create("ex:s" + (i % 7)), knows, Uri.create("ex:o" + i)));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MappedGraph.write(new GraphImpl(triples), out);
+    MappedGraph graph = new MappedGraph(ByteBuffer.wrap(out.toByteArray()));
+    assertEquals(triples.size(), graph.size());
+    for (Triple t: triples) assertTrue(graph.isAsserted(t));
+
+    int count = 0;
+    for (Iterator<Triple> i = graph.match(Uri.create("ex:s3"), null, null); i.hasNext(); i.next()) count++;
+    assertEquals(29, count);
+    count = 0;
+    for (Iterator<Triple> i = graph.match(null, knows, null); i.hasNext(); i.next()) count++;
+    assertEquals(203, count);
+    Iterator<Triple> i = graph.match(Uri.create("ex:s3"), null, Uri.create("ex:o10"));
+    assertEquals(new Triple(Uri.create("ex:s3"), knows, Uri.create("ex:o10")), i.next());
+    assertFalse(i.hasNext());
+
+    try {
+      new MappedGraph(ByteBuffer.wrap(new byte[64]));
+      fail("Opened an invalid image");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    try {
+      File file = File.createTempFile("mapped", ".mrg");
+      file.deleteOnExit();
+      MappedGraph.write(new GraphImpl(triples), file);
+      return new MappedGraph(file);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import java.net.URI;
+
+import org.mulgara.mrg.vocab.uri.XSD;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the sharing of nodes through node caches.
+ */
+public class NodeCacheTest extends TestCase {
+
+  public void testLru() {
+    NodeCache cache = new LruNodeCache(2);
+    Uri u = Uri.create("ex:a");
+    assertSame(u, cache.intern(u));
+    assertSame(u, cache.intern(Uri.create("ex:a")));
+    Literal l = new Literal("1", XSD.INTEGER);
+    assertSame(l, cache.intern(l));
+    assertSame(l, cache.intern(new Literal("1", XSD.INTEGER)));
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+
+    // the uri was used least recently, so it is dropped
+    Bnode b = new Bnode("b");
+    assertSame(b, cache.intern(b));
+    assertEquals(2, cache.size());
+    assertSame(l, cache.intern(new Literal("1", URI.create(XSD.INTEGER.toString()))));
+    Uri u2 = Uri.create("ex:a");
+    assertSame(u2, cache.intern(u2));
+    assertEquals(3, cache.getHits());
+    assertEquals(4, cache.getMisses());
+
+    cache.clear();
+    cache.resetStatistics();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getHits());
+  }
+
+  public void testWeak() {
+    NodeCache cache = new WeakNodeCache();
+    Literal l = new Literal("text", "en");
+    assertSame(l, cache.intern(l));
+    assertSame(l, cache.intern(new Literal("text", "EN")));
+    assertNotSame(l, cache.intern(new Literal("text")));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.size());
+  }
+
+  public void testGraph() {
+    IndexedGraph graph = new IndexedGraph();
+    graph.setNodeCache(new WeakNodeCache());
+    Uri fred = Uri.create("ex:fred");
+    graph.insert(fred, Uri.create("ex:knows"), Uri.create("ex:barney"));
+    graph.insert(Uri.create("ex:barney"), Uri.create("ex:knows"), Uri.create("ex:fred"));
+    Triple t = graph.match(Uri.create("ex:barney"), Uri.create("ex:knows"), null).next();
+    assertSame(fred, t.getObject());
+    assertEquals(3, graph.getNodeCache().getHits());
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit test for the off-heap graph.
+ */
+public class OffHeapGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public OffHeapGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new OffHeapGraphTest("testCreate"));
+    tests.addTest(new OffHeapGraphTest("testProps"));
+    tests.addTest(new OffHeapGraphTest("testValues"));
+    tests.addTest(new OffHeapGraphTest("testValue"));
+    tests.addTest(new OffHeapGraphTest("testList"));
+    tests.addTest(new OffHeapGraphTest("testSubject"));
+    tests.addTest(new OffHeapGraphTest("testMerge"));
+    tests.addTest(new OffHeapGraphTest("testUnion"));
+    tests.addTest(new OffHeapGraphTest("testMatch"));
+    tests.addTest(new OffHeapGraphTest("testSubgraph"));
+    tests.addTest(new OffHeapGraphTest("testDelete"));
+    tests.addTest(new OffHeapGraphTest("testNodes"));
+    tests.addTest(new OffHeapGraphTest("testGrowth"));
+    return tests;
+  }
+
+  /**
+   * Test that deleted triples are no longer found, and that their space is reused.
+   */
+  public void testDelete() throws Exception {
+    List<Triple> triples = getTriples();
+    OffHeapGraph graph = (OffHeapGraph)getGraph(triples);
+    for (int i = 0; i < triples.size(); i += 2) assertTrue(graph.delete(triples.get(i)));
+    assertFalse(graph.delete(triples.get(0)));
+    assertEquals(triples.size() / 2, graph.size());
+    for (int i = 0; i < triples.size(); i++) assertEquals(i % 2 == 1, graph.isAsserted(triples.get(i)));
+    assertEquals(2, count(graph.match(null, hasName, null)));
+
+    long reserved = graph.getOffHeapSize();
+    for (Triple t: triples) graph.insert(t);
+    assertEquals(triples.size(), graph.size());
+    assertEquals(reserved, graph.getOffHeapSize());
+    assertEquals(3, graph.getValues(fred, knows).size());
+  }
+
+  /**
+   * Test that every kind of node is decoded as it was inserted.
+   */
+  public void testNodes() throws Exception {
+    OffHeapGraph graph = new OffHeapGraph();
+    Bnode b = new Bnode();
+    Literal lang = new Literal("Frederick", "en");
+    Literal typed = new Literal("42", URI.create("http://www.w3.org/2001/XMLSchema#int"));
+    Literal unicode = new Literal("Frédéric 中");
+    graph.insert(b, hasName, lang);
+    graph.insert(b, hasName, typed);
+    graph.insert(fred, hasName, unicode);
+    graph.insert(fred, knows, b);
+    assertTrue(graph.isAsserted(b, hasName, new Literal("Frederick", "en")));
+    assertFalse(graph.isAsserted(b, hasName, new Literal("Frederick")));
+    assertTrue(graph.isAsserted(b, hasName, typed));
+    assertTrue(graph.isAsserted(fred, hasName, unicode));
+    assertEquals(b, graph.getValue(fred, knows));
+    assertEquals(unicode, graph.getValue(fred, hasName));
+    assertEquals(2, graph.getValues(b, hasName).size());
+    assertEquals(2, graph.getSubjects().size());
+  }
+
+  /**
+   * Test that the graph grows well past its initial size.
+   */
+  public void testGrowth() throws Exception {
+    OffHeapGraph graph = new OffHeapGraph(16);
+    long initial = graph.getOffHeapSize();
+    int total = OffHeapInts.CHUNK_SIZE;
+    for (int i = 0; i < total; i++) {
+      assertTrue(graph.insert(Uri.create("ex:s" + (i % 1000)), knows, Uri.create("ex:o" + i)));
+    }
+    assertEquals(total, graph.size());
+    assertTrue(graph.getOffHeapSize() > initial);
+    assertEquals(total, count(graph.match(null, knows, null)));
+    assertEquals(total / 1000 + 1, count(graph.match(Uri.create("ex:s7"), null, null)));
+    assertEquals(1000, graph.getSubjects().size());
+    for (int i = 0; i < total; i += 997) {
+      assertTrue(graph.isAsserted(Uri.create("ex:s" + (i % 1000)), knows, Uri.create("ex:o" + i)));
+      assertFalse(graph.isAsserted(Uri.create("ex:s" + (i % 1000 + 1)), knows, Uri.create("ex:o" + i)));
+    }
+    Iterator<Triple> i = graph.match(null, null, Uri.create("ex:o12345"));
+    assertEquals(new Triple(Uri.create("ex:s345"), knows, Uri.create("ex:o12345")), i.next());
+    assertFalse(i.hasNext());
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new OffHeapGraph(triples);
+  }
+
+  private static int count(Iterator<Triple> i) {
+    int count = 0;
+    for (; i.hasNext(); i.next()) count++;
+    return count;
+  }
+}
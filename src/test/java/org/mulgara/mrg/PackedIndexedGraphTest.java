@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.PackedIndexedGraph;
+import org.mulgara.mrg.Triple;
+
+/**
+ * Unit test for the indexed graph with tree indexes.
+ */
+public class PackedIndexedGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public PackedIndexedGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new PackedIndexedGraphTest("testCreate"));
+    tests.addTest(new PackedIndexedGraphTest("testProps"));
+    tests.addTest(new PackedIndexedGraphTest("testValues"));
+    tests.addTest(new PackedIndexedGraphTest("testValue"));
+    tests.addTest(new PackedIndexedGraphTest("testList"));
+    tests.addTest(new PackedIndexedGraphTest("testSubject"));
+    tests.addTest(new PackedIndexedGraphTest("testMerge"));
+    tests.addTest(new PackedIndexedGraphTest("testUnion"));
+    tests.addTest(new PackedIndexedGraphTest("testMatch"));
+    tests.addTest(new PackedIndexedGraphTest("testSubgraph"));
+    tests.addTest(new PackedIndexedGraphTest("testInsertAllOrder"));
+    return tests;
+  }
+
+  /**
+   * Test that a bulk insert still builds sorted spo and pos indexes.
+   */
+  public void testInsertAllOrder() throws Exception {
+    List<Triple> triples = new ArrayList<Triple>();
+    for (int i = 0; i < 200; i++) {
+      Uri s = new Uri("http://example.org/s" + i);
+      triples.add(new Triple(s, new Uri("http://example.org/p" + (i % 17)), new Uri("http://example.org/o" + (i % 31))));
+      triples.add(new Triple(s, new Uri("http://example.org/q" + (i % 13)), new Uri("http://example.org/o" + (i % 7))));
+    }
+    Collections.shuffle(triples);
+    PackedIndexedGraph graph = new PackedIndexedGraph(IndexedGraph.POS_INDEX);
+    assertEquals(triples.size(), graph.insertAll(triples.iterator()));
+    assertSorted(graph.getSubjects());
+    assertSorted(graph.getPredicates());
+    for (SubjectNode s: graph.getSubjects()) assertSorted(graph.getValues(s, new Uri("http://example.org/q3")));
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new PackedIndexedGraph(IndexedGraph.POS_INDEX, triples);
+  }
+
+  /**
+   * Checks that nodes are in ascending order.
+   * @param nodes The nodes to check.
+   */
+  private static void assertSorted(Collection<? extends Node> nodes) {
+    Node last = null;
+    for (Node n: nodes) {
+      if (last != null) assertTrue(last + " is before " + n, last.compareTo(n) < 0);
+      last = n;
+    }
+  }
+}
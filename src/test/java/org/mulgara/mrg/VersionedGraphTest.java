@@ -0,0 +1,160 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.VersionedGraph;
+
+/**
+ * Unit test for the versioned graph.
+ */
+public class VersionedGraphTest extends GraphTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public VersionedGraphTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    TestSuite tests = new TestSuite();
+    tests.addTest(new VersionedGraphTest("testCreate"));
+    tests.addTest(new VersionedGraphTest("testProps"));
+    tests.addTest(new VersionedGraphTest("testValues"));
+    tests.addTest(new VersionedGraphTest("testValue"));
+    tests.addTest(new VersionedGraphTest("testList"));
+    tests.addTest(new VersionedGraphTest("testSubject"));
+    tests.addTest(new VersionedGraphTest("testMerge"));
+    tests.addTest(new VersionedGraphTest("testUnion"));
+    tests.addTest(new VersionedGraphTest("testMatch"));
+    tests.addTest(new VersionedGraphTest("testSubgraph"));
+    tests.addTest(new VersionedGraphTest("testSnapshot"));
+    tests.addTest(new VersionedGraphTest("testReclaim"));
+    tests.addTest(new VersionedGraphTest("testSnapshotIterator"));
+    return tests;
+  }
+
+  /**
+   * Test that a snapshot does not change while the graph is modified, even during iteration.
+   */
+  public void testSnapshot() throws Exception {
+    List<Triple> triples = getTriples();
+    VersionedGraph graph = (VersionedGraph)getGraph(triples);
+    VersionedGraph.Snapshot snapshot = graph.snapshot();
+    assertEquals(triples.size(), snapshot.getVersion());
+    assertEquals(triples.size(), snapshot.size());
+
+    int count = 0;
+    for (Iterator<Triple> i = snapshot.match(null, null, null); i.hasNext(); i.next()) {
+      // modify the graph while iterating
+      for (Triple t: triples) graph.delete(t);
+      graph.insert(fred, knows, fred);
+      count++;
+    }
+    assertEquals(triples.size(), count);
+    assertEquals(1, graph.size());
+    assertTrue(graph.isAsserted(fred, knows, fred));
+    assertFalse(snapshot.isAsserted(fred, knows, fred));
+    for (Triple t: triples) {
+      assertTrue(snapshot.isAsserted(t));
+      assertFalse(graph.isAsserted(t));
+    }
+    assertEquals(3, snapshot.getValues(fred, knows).size());
+    assertEquals(4, snapshot.getSubjects(type, person).size());
+
+    // a triple that is removed and added again is seen by both
+    graph.insert(triples.get(0));
+    VersionedGraph.Snapshot later = graph.snapshot();
+    graph.delete(triples.get(0));
+    assertTrue(snapshot.isAsserted(triples.get(0)));
+    assertTrue(later.isAsserted(triples.get(0)));
+    assertFalse(graph.isAsserted(triples.get(0)));
+    assertEquals(2, later.size());
+  }
+
+  /**
+   * Test that removed triples are reclaimed once no snapshot can see them.
+   */
+  public void testReclaim() throws Exception {
+    List<Triple> triples = getTriples();
+    VersionedGraph graph = (VersionedGraph)getGraph(triples);
+    graph.delete(triples.get(0));
+    assertEquals(0, graph.getRetained());
+
+    VersionedGraph.Snapshot first = graph.snapshot();
+    graph.delete(triples.get(1));
+    VersionedGraph.Snapshot second = graph.snapshot();
+    graph.delete(triples.get(2));
+    assertEquals(2, graph.getRetained());
+
+    first.release();
+    assertEquals(1, graph.getRetained());
+    assertTrue(second.isAsserted(triples.get(2)));
+    assertFalse(second.isAsserted(triples.get(1)));
+    second.release();
+    assertEquals(0, graph.getRetained());
+    try {
+      second.match(null, null, null);
+      fail("Read a released snapshot");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // unreachable snapshots are released by the garbage collector
+    graph.snapshot();
+    graph.delete(triples.get(3));
+    for (int i = 0; i < 20 && graph.getRetained() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, graph.getRetained());
+    assertEquals(triples.size() - 4, graph.size());
+  }
+
+  /**
+   * Test that an iterator keeps its snapshot alive after the snapshot itself is dropped.
+   */
+  public void testSnapshotIterator() throws Exception {
+    VersionedGraph graph = new VersionedGraph();
+    for (int i = 0; i < 1000; i++) graph.insert(Uri.create("ex:s" + i), knows, Uri.create("ex:o" + i));
+    Iterator<Triple> it = graph.snapshot().match(null, null, null);
+    for (int i = 0; i < 20; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    for (int i = 0; i < 1000; i++) graph.delete(Uri.create("ex:s" + i), knows, Uri.create("ex:o" + i));
+    assertEquals(1000, graph.getRetained());
+    int count = 0;
+    for (; it.hasNext(); it.next()) count++;
+    assertEquals(1000, count);
+  }
+
+  protected Graph getGraph(Collection<Triple> triples) {
+    return new VersionedGraph(triples);
+  }
+}
@@ -20,6 +20,7 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 
 import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.TripleSink;
 import org.mulgara.mrg.parser.GraphParser;
 import org.mulgara.mrg.parser.N3GraphParser;
 
@@ -49,6 +50,10 @@ public class N3Test extends ParseTest {
     return new N3GraphParser(document);
   }
 
+  protected GraphParser getParser(String document, TripleSink sink) throws Exception {
+    return new N3GraphParser(document, sink);
+  }
+
   protected Graph parse(String document) throws Exception {
     return N3GraphParser.parse(document);
   }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.parser;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.parser.GraphParser;
+import org.mulgara.mrg.parser.NTriplesParser;
+
+/**
+ * Unit test for the N-Triples parser.
+ */
+public class NTriplesTest extends ParseTest {
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public NTriplesTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(NTriplesTest.class);
+  }
+
+  /**
+   * Test escapes, language tags, comments and quads.
+   */
+  public void testTerms() throws Exception {
+    Graph g = parse(
+        "# a comment\n" +
+        "<ex:a> <ex:p> \"tab\\there \\\"quoted\\\" \\u00E9\\U0001D11E\" .\r\n" +
+        "\n" +
+        "   <ex:a>\t<ex:p>   \"hello\"@en-AU . # trailing comment\n" +
+        "_:b1 <ex:p> <ex:caf\\u00E9> <ex:graph> .\n" +
+        "<ex:a> <ex:p> \"café 中\" .\n" +
+        "<ex:a> <ex:p> _:b1.");
+    assertEquals(5, g.size());
+    Uri a = Uri.create("ex:a");
+    Uri p = Uri.create("ex:p");
+    assertTrue(g.isAsserted(a, p, new Literal("tab\there \"quoted\" é𝄞")));
+    assertTrue(g.isAsserted(a, p, new Literal("hello", "en-AU")));
+    assertTrue(g.isAsserted(new Bnode("b1"), p, Uri.create("ex:café")));
+    assertTrue(g.isAsserted(a, p, new Literal("café 中")));
+    assertTrue(g.isAsserted(a, p, new Bnode("b1")));
+  }
+
+  /**
+   * Test that bad lines are reported with their line number.
+   */
+  public void testErrors() throws Exception {
+    String[] bad = new String[] {
+      "<ex:a> <ex:p> <ex:o>",
+      "<ex:a> <ex:p> \"unterminated .",
+      "<ex:a> \"p\" <ex:o> .",
+      "<ex:a> <ex:p> <ex:o> . <ex:b>",
+      "<ex:a> <ex:p> \"bad \\q escape\" ."
+    };
+    for (String line: bad) {
+      try {
+        parse("<ex:a> <ex:p> <ex:o> .\n" + line + "\n");
+        fail("Parsed a bad line: " + line);
+      } catch (ParseException e) {
+        assertTrue(e.getMessage().startsWith("Error at line 2"));
+      }
+    }
+  }
+
+  /**
+   * Test that lines longer than the input buffer are parsed.
+   */
+  public void testLongLine() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; i++) text.append((char)('a' + i % 26));
+    Graph g = parse("<ex:a> <ex:p> \"" + text + "\" .\n<ex:a> <ex:p> \"short\" .\n");
+    assertEquals(2, g.size());
+    assertTrue(g.isAsserted(Uri.create("ex:a"), Uri.create("ex:p"), new Literal(text.toString())));
+  }
+
+  protected GraphParser getParser(String document) throws Exception {
+    return new NTriplesParser(document);
+  }
+
+  protected GraphParser getParser(String document, TripleSink sink) throws Exception {
+    return new NTriplesParser(document, sink);
+  }
+
+  protected Graph parse(String document) throws Exception {
+    return NTriplesParser.parse(document);
+  }
+
+  protected String getDocument() {
+    return ntDoc;
+  }
+
+  static final String ntDoc =
+    "_:a <http://xmlns.com/foaf/0.1/name> \"Alice Smith\" .\n" +
+    "_:a <http://biometrics.example/ns#shoeSize> \"9.5\"^^<http://www.w3.org/2001/XMLSchema#float> .\n" +
+    "_:b <http://xmlns.com/foaf/0.1/name> \"Bob Collins\" .\n" +
+    "_:b <http://biometrics.example/ns#shoeSize> \"42\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n" +
+    "_:c <http://xmlns.com/foaf/0.1/name> \"Bob Smith\" .\n" +
+    "_:c <http://biometrics.example/ns#shoeSize> \"32\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n" +
+    "_:d <http://xmlns.com/foaf/0.1/name> \"Bruce Campbell\" .\n" +
+    "_:d <http://biometrics.example/ns#shoeSize> \"10\"^^<http://www.w3.org/2001/XMLSchema#integer> .\n";
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.parser;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+
+/**
+ * Unit test for the parallel N-Triples loader.
+ */
+public class ParallelNTriplesLoaderTest extends TestCase {
+
+  /** The number of lines in the test file. */
+  private static final int LINES = 3000;
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public ParallelNTriplesLoaderTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(ParallelNTriplesLoaderTest.class);
+  }
+
+  /**
+   * Test that a file split into many chunks loads the same as a single parse.
+   */
+  public void testLoad() throws Exception {
+    File f = createFile();
+    GraphImpl graph = new GraphImpl();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    ParallelNTriplesLoader loader = new ParallelNTriplesLoader(pool);
+    loader.setChunkSize(1000);
+    loader.setBatchSize(7);
+    assertEquals(LINES, loader.load(f, graph));
+    pool.shutdown();
+
+    Graph expected = NTriplesParser.parse(f);
+    assertEquals(expected.size(), graph.size());
+    for (Triple t: expected.getTriples()) assertTrue(graph.isAsserted(t));
+    // blank nodes are shared between chunks
+    assertEquals(LINES / 10, graph.getValues(new Bnode("_:b3"), Uri.create("ex:p")).size());
+  }
+
+  /**
+   * Test that blank node labels are prefixed.
+   */
+  public void testBnodePrefix() throws Exception {
+    File f = createFile();
+    GraphImpl graph = new GraphImpl();
+    ParallelNTriplesLoader loader = new ParallelNTriplesLoader();
+    loader.setChunkSize(1000);
+    loader.setBnodePrefix("f1_");
+    loader.load(f, graph);
+    loader.setBnodePrefix("f2_");
+    loader.load(f, graph);
+    assertEquals(LINES * 2 - LINES / 2, graph.size());
+    assertEquals(LINES / 10, graph.getValues(new Bnode("_:f1_b3"), Uri.create("ex:p")).size());
+    assertEquals(LINES / 10, graph.getValues(new Bnode("_:f2_b3"), Uri.create("ex:p")).size());
+    assertTrue(graph.getValues(new Bnode("_:b3"), Uri.create("ex:p")).isEmpty());
+  }
+
+  /**
+   * Test that errors report the chunk they were found in.
+   */
+  public void testError() throws Exception {
+    File f = File.createTempFile("ntriples", ".nt");
+    f.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (int i = 0; i < LINES; i++) w.write("<ex:s" + i + "> <ex:p> \"value\" .\n");
+    w.write("<ex:s> <ex:p> \"unterminated .\n");
+    w.close();
+    ParallelNTriplesLoader loader = new ParallelNTriplesLoader();
+    loader.setChunkSize(1000);
+    try {
+      loader.load(f, new GraphImpl());
+      fail("Loaded an invalid file");
+    } catch (ParseException e) {
+      assertTrue(e.getMessage().startsWith("Error in chunk at byte "));
+    }
+  }
+
+  /**
+   * Writes a test file. Half of the lines use blank nodes, and every fifth line has a literal.
+   * @return The file that was written.
+   */
+  private File createFile() throws Exception {
+    File f = File.createTempFile("ntriples", ".nt");
+    f.deleteOnExit();
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (int i = 0; i < LINES; i++) {
+      String s = (i % 2 == 0) ? "_:b" + (i % 5) : "<ex:s" + i + ">";
+      String o = (i % 5 == 1) ? new Literal("vé" + i, "en").toString() : "<ex:o" + i + ">";
+      w.write(s + " <ex:p> " + o + " .\n");
+    }
+    w.close();
+    return f;
+  }
+
+}
@@ -18,11 +18,13 @@ package org.mulgara.mrg.parser;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
 import java.util.*;
 import java.net.URI;
 
 import org.mulgara.mrg.*;
 import org.mulgara.mrg.parser.GraphParser;
+import org.mulgara.mrg.writer.N3StreamWriter;
 
 /**
  * Unit test for simple App.
@@ -44,6 +46,8 @@ public abstract class ParseTest extends TestCase {
 
   protected abstract GraphParser getParser(String document) throws Exception;
 
+  protected abstract GraphParser getParser(String document, TripleSink sink) throws Exception;
+
   protected abstract Graph parse(String document) throws Exception;
 
   protected abstract String getDocument();
@@ -70,6 +74,27 @@ public abstract class ParseTest extends TestCase {
     verifyData(parse(getDocument()));
   }
 
+  /**
+   * Test parsing into a sink, by streaming the data through a writer and parsing the result
+   */
+  public void testSinkLoad() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final N3StreamWriter writer = new N3StreamWriter(out);
+    final List<String> events = new ArrayList<String>();
+    TripleSink sink = new TripleSink() {
+      public void start() { events.add("start"); writer.start(); }
+      public void prefix(String prefix, String namespace) { writer.prefix(prefix, namespace); }
+      public void triple(SubjectNode s, PredicateNode p, ObjectNode o) { writer.triple(s, p, o); }
+      public void end() { events.add("end"); writer.end(); }
+    };
+    GraphParser p = getParser(getDocument(), sink);
+    assertNull(p.getGraph());
+    assertEquals(Arrays.asList("start", "end"), events);
+    assertTrue(p.getProcessedRows() >= 8);
+    assertEquals(p.getProcessedRows(), writer.getWrittenRows());
+    verifyData(N3GraphParser.parse(out.toString("UTF-8")));
+  }
+
   ///////////////// end of tests ////////////////
 
   /**
@@ -20,6 +20,7 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 
 import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.TripleSink;
 import org.mulgara.mrg.parser.GraphParser;
 import org.mulgara.mrg.parser.XMLGraphParser;
 
@@ -49,6 +50,10 @@ public class RdfXmlTest extends ParseTest {
     return new XMLGraphParser(document);
   }
 
+  protected GraphParser getParser(String document, TripleSink sink) throws Exception {
+    return new XMLGraphParser(document, sink);
+  }
+
   protected Graph parse(String document) throws Exception {
     return XMLGraphParser.parse(document);
   }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.query;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.mulgara.mrg.ConcurrentGraph;
+import org.mulgara.mrg.ConcurrentGraphFactory;
+import org.mulgara.mrg.DictionaryGraph;
+import org.mulgara.mrg.DurableGraph;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.GraphFactory;
+import org.mulgara.mrg.GraphImpl;
+import org.mulgara.mrg.GraphImplFactory;
+import org.mulgara.mrg.IndexedGraph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Node;
+import org.mulgara.mrg.OffHeapGraph;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.VersionedGraph;
+import org.mulgara.mrg.vocab.RDF;
+
+/**
+ * Unit test for the basic graph pattern engine.
+ */
+public class QueryEngineTest extends TestCase {
+
+  Uri person = Uri.create("foaf:Person");
+  Uri dog = Uri.create("ex:Dog");
+  Uri knows = Uri.create("foaf:knows");
+  Uri name = Uri.create("foaf:name");
+  Uri owns = Uri.create("ex:owns");
+
+  Var x = new Var("x");
+  Var y = new Var("y");
+  Var n = new Var("n");
+
+  /** The durable graphs opened by the tests. */
+  private List<DurableGraph> durables = new ArrayList<DurableGraph>();
+
+  /** The directories of the durable graphs. */
+  private List<File> dirs = new ArrayList<File>();
+
+  /**
+   * Create the test case
+   *
+   * @param testName name of the test case
+   */
+  public QueryEngineTest(String testName) {
+    super(testName);
+  }
+
+  /**
+   * @return the suite of tests being tested
+   */
+  public static Test suite() {
+    return new TestSuite(QueryEngineTest.class);
+  }
+
+  protected void tearDown() throws Exception {
+    for (DurableGraph g: durables) g.close();
+    for (File dir: dirs) {
+      File[] files = dir.listFiles();
+      if (files != null) for (File f: files) f.delete();
+      dir.delete();
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Test that a join returns the same results on every kind of graph.
+   */
+  public void testJoin() throws Exception {
+    List<TriplePattern> query = Arrays.asList(
+        new TriplePattern(x, RDF.TYPE, person),
+        new TriplePattern(x, knows, y),
+        new TriplePattern(y, name, n));
+    Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < 50; i += 3) expected.add("p" + i + " Name " + ((i + 1) % 50));
+    int[] selections = { 0, IndexedGraph.POS_INDEX, IndexedGraph.OSP_INDEX, IndexedGraph.ALL_INDEXES };
+    for (int indexes: selections) {
+      Graph g = new IndexedGraph(indexes, data());
+      assertEquals(expected, results(new QueryEngine(g).solve(query)));
+    }
+    assertEquals(expected, results(new QueryEngine(new GraphImpl(data())).solve(query)));
+  }
+
+  /**
+   * Test that graphs report the patterns they can find from an index.
+   */
+  public void testIndexed() throws Exception {
+    Graph[] indexed = {
+        new IndexedGraph(data()), new ConcurrentGraph(data()), new DictionaryGraph(data()),
+        new OffHeapGraph(data()), new VersionedGraph(data()).snapshot(),
+        durable(new ConcurrentGraphFactory())
+    };
+    for (Graph g: indexed) {
+      QueryEngine engine = new QueryEngine(g);
+      assertTrue(engine.isIndexed(true, false, false));
+      assertTrue(engine.isIndexed(false, true, false));
+      assertTrue(engine.isIndexed(false, false, true));
+      assertFalse(engine.isIndexed(false, false, false));
+    }
+
+    QueryEngine engine = new QueryEngine(new IndexedGraph(IndexedGraph.POS_INDEX, data()));
+    assertTrue(engine.isIndexed(false, true, false));
+    assertFalse(engine.isIndexed(false, false, true));
+    engine = new QueryEngine(durable(new GraphImplFactory()));
+    assertTrue(engine.isIndexed(true, false, false));
+    assertFalse(engine.isIndexed(false, true, false));
+  }
+
+  /**
+   * Test that the most selective pattern is evaluated first, and cross products are avoided.
+   */
+  public void testPlan() throws Exception {
+    QueryEngine engine = new QueryEngine(new IndexedGraph(data()));
+    TriplePattern types = new TriplePattern(x, RDF.TYPE, person);
+    TriplePattern names = new TriplePattern(y, name, n);
+    TriplePattern one = new TriplePattern(Uri.create("ex:p3"), knows, y);
+    TriplePattern link = new TriplePattern(x, knows, y);
+    List<TriplePattern> plan = engine.plan(Arrays.asList(types, names, link, one));
+    assertEquals(one, plan.get(0));
+    assertEquals(link, plan.get(1));
+    assertEquals(types, plan.get(2));
+    assertEquals(names, plan.get(3));
+
+    // without statistics the fixed selectivities put names ahead of the link
+    Graph plain = new GraphImpl(data());
+    plan = new QueryEngine(plain).plan(Arrays.asList(types, names, link, one));
+    assertEquals(one, plan.get(0));
+    assertEquals(names, plan.get(1));
+    assertEquals(link, plan.get(2));
+    assertEquals(types, plan.get(3));
+  }
+
+  /**
+   * Test repeated variables, variables in the predicate, and empty results.
+   */
+  public void testTerms() throws Exception {
+    List<Triple> data = data();
+    data.add(new Triple(Uri.create("ex:p1"), knows, Uri.create("ex:p1")));
+    QueryEngine engine = new QueryEngine(new GraphImpl(data));
+    List<Bindings> r = engine.solve(Arrays.asList(new TriplePattern(x, knows, x)));
+    assertEquals(1, r.size());
+    assertEquals(Uri.create("ex:p1"), r.get(0).get("x"));
+
+    r = engine.solve(Arrays.asList(new TriplePattern(Uri.create("ex:p0"), y, dog)));
+    assertEquals(0, r.size());
+    r = engine.solve(Arrays.asList(new TriplePattern(Uri.create("ex:p0"), y, Uri.create("ex:d0"))));
+    assertEquals(1, r.size());
+    assertEquals(owns, r.get(0).get(y));
+
+    // joined on the object, which GraphImpl does not index
+    r = engine.solve(Arrays.asList(new TriplePattern(x, knows, y), new TriplePattern(y, name, new Literal("Name 4"))));
+    assertEquals(1, r.size());
+    assertEquals(Uri.create("ex:p3"), r.get(0).get(x));
+    assertFalse(engine.isIndexed(false, false, true));
+
+    // a literal cannot be used as a subject
+    r = engine.solve(Arrays.asList(new TriplePattern(x, name, n), new TriplePattern(n, y, Uri.create("ex:p0"))));
+    assertEquals(0, r.size());
+
+    r = engine.solve(new ArrayList<TriplePattern>());
+    assertEquals(1, r.size());
+    try {
+      new TriplePattern(new Literal("bad"), knows, x);
+      fail("Created a pattern with a literal subject");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Creates test data. Every third person owns a dog, knows the next person, and everyone has a name.
+   */
+  private DurableGraph durable(GraphFactory factory) throws IOException {
+    File dir = File.createTempFile("query", "");
+    if (!dir.delete() || !dir.mkdir()) throw new IOException("Unable to create " + dir);
+    dirs.add(dir);
+    DurableGraph graph = new DurableGraph(dir, factory, 1, 0);
+    durables.add(graph);
+    graph.insertAll(data().iterator());
+    return graph;
+  }
+
+  private List<Triple> data() {
+    List<Triple> triples = new ArrayList<Triple>();
+    for (int i = 0; i < 50; i++) {
+      Uri p = Uri.create("ex:p" + i);
+      triples.add(new Triple(p, name, new Literal("Name " + i)));
+      if (i % 3 == 0) {
+        triples.add(new Triple(p, RDF.TYPE, person));
+        triples.add(new Triple(p, knows, Uri.create("ex:p" + ((i + 1) % 50))));
+        Uri d = Uri.create("ex:d" + i);
+        triples.add(new Triple(p, owns, d));
+        triples.add(new Triple(d, RDF.TYPE, dog));
+      }
+    }
+    return triples;
+  }
+
+  /**
+   * Converts results to strings for comparison.
+   */
+  private Set<String> results(List<Bindings> bindings) {
+    Set<String> result = new HashSet<String>();
+    for (Bindings b: bindings) {
+      Node nm = b.get(n);
+      result.add(((Uri)b.get(x)).getURI().toString().substring(3) + " " + ((Literal)nm).getText());
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Paula Gearon.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mulgara.mrg.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.mulgara.mrg.Bnode;
+import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.IndexedGraph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.ObjectNode;
+import org.mulgara.mrg.PredicateNode;
+import org.mulgara.mrg.SubjectNode;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.TripleSink;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.parser.BinaryParser;
+import org.mulgara.mrg.parser.ParseException;
+import org.mulgara.mrg.vocab.FOAF;
+import org.mulgara.mrg.vocab.RDF;
+import org.mulgara.mrg.vocab.uri.XSD;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for writing and reading the binary form of a graph.
+ */
+public class BinaryWriterTest extends TestCase {
+
+  public BinaryWriterTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Test that every kind of node is read back exactly.
+   */
+  public void testRoundTrip() throws Exception {
+    IndexedGraph g = new IndexedGraph();
+    Uri a = Uri.create("http://example.org/people#alice");
+    Uri p = Uri.create("http://example.org/vocab/p");
+    g.insert(a, RDF.TYPE, FOAF.PERSON);
+    g.insert(a, p, new Bnode("x1"));
+    g.insert(new Bnode("x1"), p, Uri.create("foo:bar"));
+    g.insert(a, p, new Literal("café 中"));
+    g.insert(a, p, new Literal("hello", "en-AU"));
+    g.insert(a, p, new Literal("42", XSD.INTEGER));
+    g.insert(a, p, new Literal("-9223372036854775808", XSD.LONG));
+    g.insert(a, p, new Literal("007", XSD.INT));
+    g.insert(a, p, new Literal("+5", XSD.INT));
+    g.insert(a, p, new Literal("9.5", XSD.FLOAT));
+    g.insert(a, p, new Literal("2010-03-04T05:06:07.8Z", XSD.DATE_TIME));
+    g.insert(a, p, new Literal("2010-03-04T24:00:00+10:00", XSD.DATE_TIME));
+    g.insert(a, p, new Literal("2010-03-04T05:06:07", XSD.DATE_TIME));
+    g.insert(a, p, new Literal("2011-01-01T00:00:00+05:17", XSD.DATE_TIME));
+    g.insert(a, p, new Literal("not a date", XSD.DATE_TIME));
+    g.insert(a, p, new Literal("", XSD.STRING));
+    g.insert(Uri.create("urn:isbn:0451450523"), p, Uri.create("http://example.org/"));
+
+    byte[] data = write(g);
+    Graph g2 = BinaryParser.parse(data);
+    assertEquals(set(g), set(g2));
+    assertEquals(g.size(), new BinaryParser(data).getProcessedRows());
+  }
+
+  /**
+   * Test parsing into a sink, and that an empty graph can be written.
+   */
+  public void testSink() throws Exception {
+    IndexedGraph g = new IndexedGraph();
+    for (int i = 0; i < 1000; i++) {
+      g.insert(Uri.create("ex:s" + (i % 37)), Uri.create("ex:p" + (i % 5)), new Literal(Integer.toString(i), XSD.INT));
+    }
+    final List<Triple> received = new ArrayList<Triple>();
+    final int[] calls = new int[2];
+    TripleSink sink = new TripleSink() {
+      public void start() { calls[0]++; }
+      public void prefix(String prefix, String namespace) { }
+      public void triple(SubjectNode s, PredicateNode p, ObjectNode o) { received.add(new Triple(s, p, o)); }
+      public void end() { calls[1]++; }
+    };
+    BinaryParser parser = new BinaryParser(write(g), sink);
+    assertNull(parser.getGraph());
+    assertEquals(g.size(), parser.getProcessedRows());
+    assertEquals(set(g), new HashSet<Triple>(received));
+    assertEquals(1, calls[0]);
+    assertEquals(1, calls[1]);
+
+    assertEquals(0, BinaryParser.parse(write(new IndexedGraph())).size());
+  }
+
+  /**
+   * Test that the compressed binary form is smaller than compressed N3.
+   */
+  public void testSize() throws Exception {
+    IndexedGraph g = new IndexedGraph();
+    for (int i = 0; i < 5000; i++) {
+      Uri s = Uri.create("http://example.org/data/item" + i);
+      g.insert(s, RDF.TYPE, Uri.create("http://example.org/vocab#Item"));
+      g.insert(s, Uri.create("http://example.org/vocab#count"), new Literal(Integer.toString(i * 7), XSD.INT));
+      g.insert(s, Uri.create("http://example.org/vocab#next"), Uri.create("http://example.org/data/item" + (i + 1)));
+    }
+    ByteArrayOutputStream n3 = new ByteArrayOutputStream();
+    GZIPOutputStream zip = new GZIPOutputStream(n3);
+    new N3Writer(g, null).writeTo(zip);
+    zip.close();
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+    new BinaryWriter(g, true).writeTo(deflated);
+    assertTrue(deflated.size() < n3.size());
+    assertEquals(set(g), set(BinaryParser.parse(deflated.toByteArray())));
+
+    ByteArrayOutputStream nt = new ByteArrayOutputStream();
+    new NTriplesWriter(g).writeTo(nt);
+    assertTrue(write(g).length < nt.size() / 4);
+  }
+
+  /**
+   * Test that damaged data is reported.
+   */
+  public void testErrors() throws Exception {
+    IndexedGraph g = new IndexedGraph();
+    g.insert(Uri.create("ex:a"), Uri.create("ex:p"), new Literal("text"));
+    byte[] data = write(g);
+    try {
+      BinaryParser.parse(Arrays.copyOf(data, data.length - 1));
+      fail("Parsed truncated data");
+    } catch (ParseException e) { }
+    data[0] = 'X';
+    try {
+      BinaryParser.parse(data);
+      fail("Parsed data without the header");
+    } catch (ParseException e) { }
+  }
+
+  /**
+   * Writes a graph to a byte array.
+   */
+  private static byte[] write(Graph g) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BinaryWriter(g).writeTo(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Collects the triples of a graph.
+   */
+  private static Set<Triple> set(Graph g) {
+    return new HashSet<Triple>(g.getTriples());
+  }
+
+}
@@ -18,10 +18,16 @@ package org.mulgara.mrg.writer;
 
 import static org.mulgara.mrg.writer.N3Writer.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.net.URI;
 
 import org.mulgara.mrg.Graph;
+import org.mulgara.mrg.IndexedGraph;
+import org.mulgara.mrg.Literal;
+import org.mulgara.mrg.Triple;
+import org.mulgara.mrg.Uri;
+import org.mulgara.mrg.vocab.uri.XSD;
 import org.mulgara.mrg.parser.GraphParser;
 import org.mulgara.mrg.parser.N3GraphParser;
 
@@ -53,6 +59,35 @@ public class N3WriterTest extends WriterTest {
     assertEquals(simpleN3escape("test of the Ꭶ character"), "test of the \\u13A6 character");
   }
 
+  public void testDatatype() throws Exception {
+    IndexedGraph g = new IndexedGraph();
+    g.insert(new Uri("foo:bar"), new Uri("foo:baz"), new Literal("42", XSD.INT));
+    g.insert(new Uri("foo:bar"), new Uri("foo:baz"), new Literal("x", URI.create("http://example.org/types#t")));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    newWriter(g, null).writeTo(out);
+    Graph g2 = newParser(out.toString("UTF-8")).getGraph();
+    assertEquals(2, g2.size());
+    for (Triple t: g.getTriples()) assertTrue(g2.isAsserted(t));
+  }
+
+  public void testStreamRebindPrefix() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    N3StreamWriter writer = new N3StreamWriter(out);
+    writer.start();
+    writer.prefix("ex", "http://a.org/");
+    writer.triple(new Uri("http://a.org/s"), new Uri("http://a.org/p"), new Uri("http://a.org/o"));
+    writer.prefix("ex", "http://b.org/");
+    writer.triple(new Uri("http://a.org/s"), new Uri("http://a.org/p"), new Uri("http://b.org/o"));
+    writer.prefix("ex", "http://a.org/");
+    writer.triple(new Uri("http://b.org/s"), new Uri("http://a.org/p"), new Uri("http://a.org/o"));
+    writer.end();
+    Graph g = N3GraphParser.parse(out.toString("UTF-8"));
+    assertEquals(3, g.size());
+    assertTrue(g.isAsserted(new Uri("http://a.org/s"), new Uri("http://a.org/p"), new Uri("http://a.org/o")));
+    assertTrue(g.isAsserted(new Uri("http://a.org/s"), new Uri("http://a.org/p"), new Uri("http://b.org/o")));
+    assertTrue(g.isAsserted(new Uri("http://b.org/s"), new Uri("http://a.org/p"), new Uri("http://a.org/o")));
+  }
+
   /**
    * Create a new graph writer.
    * @param g The graph to be written.